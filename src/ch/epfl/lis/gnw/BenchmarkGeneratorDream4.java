@@ -27,6 +27,7 @@ THE SOFTWARE.
 package ch.epfl.lis.gnw;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.io.*;
 import java.net.URL;
@@ -107,7 +108,12 @@ public class BenchmarkGeneratorDream4 extends BenchmarkGenerator
 		
 		// create and run the experiments
 		// loadInitialConditions("tmp/InSilicoSize10-Yeast3-initial-conditions.tsv");
-		runAll();
+		RandomStream stream = RandomStream.getCurrent();
+		try {
+			runAll();
+		} finally {
+			RandomStream.restore(stream);
+		}
 		
 		checkForInterruption();
 		
@@ -219,7 +225,7 @@ public class BenchmarkGeneratorDream4 extends BenchmarkGenerator
 		if (set.generateSsKnockouts()) {
 			PerturbationSingleGene knockouts = new PerturbationSingleGene(grn_);
 			knockouts.singleGenePerturbations(0);
-			createAndRunSsExperiment(Solver.type.ODE, knockouts, "knockouts");
+			createSsExperiment(Solver.type.ODE, knockouts, "knockouts");
 		}
 		
 		checkForInterruption();
@@ -228,7 +234,7 @@ public class BenchmarkGeneratorDream4 extends BenchmarkGenerator
 		if (set.generateSsKnockdowns()) {
 			PerturbationSingleGene knockdowns = new PerturbationSingleGene(grn_);
 			knockdowns.singleGenePerturbations(0.5);
-			createAndRunSsExperiment(Solver.type.ODE, knockdowns, "knockdowns");
+			createSsExperiment(Solver.type.ODE, knockdowns, "knockdowns");
 		}
 		
 		checkForInterruption();
@@ -238,12 +244,17 @@ public class BenchmarkGeneratorDream4 extends BenchmarkGenerator
 			PerturbationMultifactorial multifact = new PerturbationMultifactorial(grn_);
 
 			String label = "multifactorial";
-			if (!set.getLoadPerturbations())
-				multifact.multifactorialAllGenesWeak(grn_.getSize());
-			else
+			if (!set.getLoadPerturbations()) {
+				RandomStream previous = bindPerturbationStream("steadystate", label);
+				try {
+					multifact.multifactorialAllGenesWeak(grn_.getSize());
+				} finally {
+					RandomStream.restore(previous);
+				}
+			} else
 				multifact.loadPerturbations(outputDirectory_, label);
 						
-			createAndRunSsExperiment(Solver.type.ODE, multifact, label);
+			createSsExperiment(Solver.type.ODE, multifact, label);
 		}
 		
 		checkForInterruption();
@@ -253,12 +264,17 @@ public class BenchmarkGeneratorDream4 extends BenchmarkGenerator
 			PerturbationMultifactorial multifact = new PerturbationMultifactorial(grn_);
 			
 			String label = "dream4_timeseries";
-			if (!set.getLoadPerturbations())
-				multifact.multifactorialStrong(grn_.getSize());
-			else
+			if (!set.getLoadPerturbations()) {
+				RandomStream previous = bindPerturbationStream("steadystate", label);
+				try {
+					multifact.multifactorialStrong(grn_.getSize());
+				} finally {
+					RandomStream.restore(previous);
+				}
+			} else
 				multifact.loadPerturbations(outputDirectory_, "dream4_timeseries");
 
-			createAndRunSsExperiment(Solver.type.ODE, multifact, label);
+			createSsExperiment(Solver.type.ODE, multifact, label);
 		}
 		
 		checkForInterruption();
@@ -268,14 +284,22 @@ public class BenchmarkGeneratorDream4 extends BenchmarkGenerator
 			PerturbationDual dualKnockouts = new PerturbationDual(grn_);
 			
 			String label = "dualknockouts";
-			if (!set.getLoadPerturbations())
-				dualKnockouts.dualPerturbations(0, grn_.getSize());
-			else
+			if (!set.getLoadPerturbations()) {
+				RandomStream previous = bindPerturbationStream("steadystate", label);
+				try {
+					dualKnockouts.dualPerturbations(0, grn_.getSize());
+				} finally {
+					RandomStream.restore(previous);
+				}
+			} else
 				dualKnockouts.loadPerturbations(outputDirectory_, label);
 			
-			createAndRunSsExperiment(Solver.type.ODE, dualKnockouts, label);
+			createSsExperiment(Solver.type.ODE, dualKnockouts, label);
 		}
 		
+		// run the ODE experiments (the wild-type is already done), concurrently if several threads are available
+		runExperiments(steadyStateExperiments_.subList(1, steadyStateExperiments_.size()), wildTypeODE_);
+		
 		checkForInterruption();
 		
 		// if we want to simulate SDEs
@@ -285,11 +309,8 @@ public class BenchmarkGeneratorDream4 extends BenchmarkGenerator
 			steadyStateExperimentsODE_ = steadyStateExperiments_;
 			steadyStateExperiments_ = new ArrayList<SteadyStateExperiment>();
 			
-			// start at 1 because the wild-type is already done
 			for (int i=0; i<steadyStateExperimentsODE_.size(); i++) {
 				
-				checkForInterruption();
-				
 				SteadyStateExperiment ssODE = steadyStateExperimentsODE_.get(i);
 				Perturbation perturbation = ssODE.getPerturbation();
 				String label = ssODE.getLabel();
@@ -305,9 +326,10 @@ public class BenchmarkGeneratorDream4 extends BenchmarkGenerator
 				} else
 					ss.setTimeToConvergenceODE(ssODE.getTimeToConvergenceODE());
 				
-				ss.run(wildTypeODE_);
 				steadyStateExperiments_.add(ss);
 			}
+			// run the SDE experiments, concurrently if they have independent random streams
+			runExperiments(steadyStateExperiments_, wildTypeODE_);
 			
 			if (!set.getSimulateODE())
 				steadyStateExperimentsODE_ = new ArrayList<SteadyStateExperiment>();
@@ -319,9 +341,9 @@ public class BenchmarkGeneratorDream4 extends BenchmarkGenerator
 
 	/**
 	 * Run all time-series experiments
-	 * @throws CancelException 
+	 * @throws CancelException, Exception 
 	 */
-	private void runTimeSeriesExperiments() throws CancelException {
+	private void runTimeSeriesExperiments() throws CancelException, Exception {
 		
 		if (steadyStateExperiments_ == null)
 			throw new RuntimeException("The wild-type must be simulated to run time-series experiments");
@@ -343,7 +365,7 @@ public class BenchmarkGeneratorDream4 extends BenchmarkGenerator
 		if (set.generateTsKnockouts()) {
 			PerturbationSingleGene knockouts = new PerturbationSingleGene(grn_);
 			knockouts.singleGenePerturbations(0);
-			createAndRunTsExperiment(simulationType, knockouts, false, "knockout_timeseries", xy0);
+			createTsExperiment(simulationType, knockouts, false, "knockout_timeseries", xy0);
 		}
 		
 		checkForInterruption();
@@ -352,7 +374,7 @@ public class BenchmarkGeneratorDream4 extends BenchmarkGenerator
 		if (set.generateTsKnockdowns()) {
 			PerturbationSingleGene knockdowns = new PerturbationSingleGene(grn_);
 			knockdowns.singleGenePerturbations(0.5);
-			createAndRunTsExperiment(simulationType, knockdowns, false, "knockdown_timeseries", xy0);
+			createTsExperiment(simulationType, knockdowns, false, "knockdown_timeseries", xy0);
 		}
 		
 		checkForInterruption();
@@ -375,13 +397,18 @@ public class BenchmarkGeneratorDream4 extends BenchmarkGenerator
 				}
 				if (multifact == null) {
 					multifact = new PerturbationMultifactorial(grn_);
-					multifact.multifactorialAllGenesWeak(set.getNumTimeSeries());
+					RandomStream previous = bindPerturbationStream("timeseries", label);
+					try {
+						multifact.multifactorialAllGenesWeak(set.getNumTimeSeries());
+					} finally {
+						RandomStream.restore(previous);
+					}
 				}
 			} else {
 				multifact = new PerturbationMultifactorial(grn_);
 				multifact.loadPerturbations(outputDirectory_, "multifactorial");
 			}
-			createAndRunTsExperiment(simulationType, multifact, false, label, xy0);
+			createTsExperiment(simulationType, multifact, false, label, xy0);
 		}
 		
 		checkForInterruption();
@@ -404,13 +431,18 @@ public class BenchmarkGeneratorDream4 extends BenchmarkGenerator
 				}
 				if (multifact == null) {
 					multifact = new PerturbationMultifactorial(grn_);
-					multifact.multifactorialStrong(set.getNumTimeSeries());
+					RandomStream previous = bindPerturbationStream("timeseries", label);
+					try {
+						multifact.multifactorialStrong(set.getNumTimeSeries());
+					} finally {
+						RandomStream.restore(previous);
+					}
 				}
 			} else {
 				multifact = new PerturbationMultifactorial(grn_);
 				multifact.loadPerturbations(outputDirectory_, label);
 			}
-			createAndRunTsExperiment(simulationType, multifact, true, label, xy0);
+			createTsExperiment(simulationType, multifact, true, label, xy0);
 		}
 		
 		checkForInterruption();
@@ -433,15 +465,24 @@ public class BenchmarkGeneratorDream4 extends BenchmarkGenerator
 				}
 				if (dualKnockouts == null) {
 					dualKnockouts = new PerturbationDual(grn_);
-					dualKnockouts.dualPerturbations(0, grn_.getSize());
+					RandomStream previous = bindPerturbationStream("timeseries", label);
+					try {
+						dualKnockouts.dualPerturbations(0, grn_.getSize());
+					} finally {
+						RandomStream.restore(previous);
+					}
 				}
 			} else {
 				dualKnockouts = new PerturbationDual(grn_);
 				dualKnockouts.loadPerturbations(outputDirectory_, "dualknockouts");
 			}
-			createAndRunTsExperiment(simulationType, dualKnockouts, false, label, xy0);
+			createTsExperiment(simulationType, dualKnockouts, false, label, xy0);
 		}
 		
+		// run the time-series experiments, concurrently if possible (see runExperiments())
+		if (set.getRandomStreams())
+			runExperiments(timeSeriesExperiments_, xy0);
+		
 		checkForInterruption();
 		
 		// if we want to simulate both SDEs and ODEs
@@ -449,44 +490,90 @@ public class BenchmarkGeneratorDream4 extends BenchmarkGenerator
 			
 			for (int i=0; i<timeSeriesExperiments_.size(); i++) {
 				
-				checkForInterruption();
-				
 				Perturbation perturbation = timeSeriesExperiments_.get(i).getPerturbation();
 				String label = timeSeriesExperiments_.get(i).getLabel();
 				boolean restoreWildTypeAtHalftime = timeSeriesExperiments_.get(i).getRestoreWildTypeAtHalftime();
 				TimeSeriesExperiment ts = new TimeSeriesExperiment(Solver.type.ODE, perturbation, restoreWildTypeAtHalftime, label);
 				ts.initializeEquallySpacedTimePoints();
 				ts.setGrn(grn_);
-				ts.run(wildTypeODE_);
 				timeSeriesExperimentsODE_.add(ts);
 			}
+			// the ODE time-series are independent, run them concurrently if several threads are available
+			runExperiments(timeSeriesExperimentsODE_, wildTypeODE_);
 		}
 	}
 	
 	
 	// ----------------------------------------------------------------------------
 
-	/** Create and run a steady-state experiment, add it to steadyStateExperiments_ */
-	private void createAndRunSsExperiment(Solver.type simulationType, Perturbation perturbation, String label) {
+	/** Create a steady-state experiment and add it to steadyStateExperiments_ (it is run later, see runExperiments()) */
+	private void createSsExperiment(Solver.type simulationType, Perturbation perturbation, String label) {
 		SteadyStateExperiment ss = new SteadyStateExperiment(simulationType, perturbation, label);
 		ss.setGrn(grn_);
-		ss.run(wildTypeODE_);
 		steadyStateExperiments_.add(ss);
 	}
 	
 	
 	// ----------------------------------------------------------------------------
 
-	/** Create and run a time-series experiment, add it to timeSeriesExperiments_ */
-	private void createAndRunTsExperiment(Solver.type simulationType, Perturbation perturbation, boolean restoreWildTypeAtHalftime, String label, DoubleMatrix1D xy0) {
+	/**
+	 * Run the given experiments with initial condition xy0. If all of them can run concurrently
+	 * (see Experiment.canRunConcurrently()), the experiments and their perturbations are run by
+	 * the ExperimentExecutor; they don't share any state and the results are the same as when
+	 * they are run one after the other.
+	 */
+	private void runExperiments(final List<? extends Experiment> experiments, final DoubleMatrix1D xy0) throws CancelException, Exception {
+		
+		boolean concurrent = true;
+		for (int i=0; i<experiments.size(); i++)
+			concurrent &= experiments.get(i).canRunConcurrently();
+		
+		if (!concurrent) {
+			for (int i=0; i<experiments.size(); i++) {
+				checkForInterruption();
+				experiments.get(i).run(xy0);
+			}
+			return;
+		}
+		
+		ExperimentExecutor.run(experiments.size(), new ExperimentExecutor.Task() {
+			public void run(int i) throws Exception {
+				checkForInterruption();
+				experiments.get(i).run(xy0);
+			}
+		});
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * Create a time-series experiment and add it to timeSeriesExperiments_. It is run later (see
+	 * runExperiments()), except if all random numbers are drawn from a single generator: the SDEs
+	 * and the perturbations that are created next must then draw their numbers in the original order.
+	 */
+	private void createTsExperiment(Solver.type simulationType, Perturbation perturbation, boolean restoreWildTypeAtHalftime, String label, DoubleMatrix1D xy0) {
 		TimeSeriesExperiment ts = new TimeSeriesExperiment(simulationType, perturbation, restoreWildTypeAtHalftime, label);
 		ts.initializeEquallySpacedTimePoints();
 		ts.setGrn(grn_);
-		ts.run(xy0);
 		timeSeriesExperiments_.add(ts);
+		
+		if (!GnwSettings.getInstance().getRandomStreams())
+			ts.run(xy0);
 	}
 		
 		
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * Bind the random stream used to generate the perturbations of the given type of
+	 * experiments ("steadystate" or "timeseries") with the given label, return the previous stream
+	 */
+	private RandomStream bindPerturbationStream(String experimentType, String label) {
+		return GnwSettings.getInstance().getRandomStream(grn_.getId() + "/perturbations/" + experimentType + "/" + label).bind();
+	}
+	
+	
 	// ----------------------------------------------------------------------------
 
 	/**
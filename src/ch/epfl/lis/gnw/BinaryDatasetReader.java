@@ -0,0 +1,323 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+
+
+/** 
+ * Reads the binary datasets written by BinaryDatasetWriter (see there for the format). The
+ * directory is read when the file is opened, the blocks are memory mapped when they are first
+ * accessed. Thus, single blocks or gene profiles can be read from large datasets without
+ * loading the whole file.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ */
+public class BinaryDatasetReader {
+	
+	/** The filename */
+	private String filename_ = null;
+	/** The channel of the file */
+	private FileChannel channel_ = null;
+	/** Set true if the values are stored as floats */
+	private boolean singlePrecision_ = false;
+	
+	/** The ids of the genes */
+	private String[] geneIds_ = null;
+	/** The index of every gene id */
+	private HashMap<String, Integer> geneIndexes_ = null;
+	/** The names of the annotations of the rows */
+	private String[] annotationNames_ = null;
+	
+	/** The names of the blocks */
+	private String[] blockNames_ = null;
+	/** The noise flags of the blocks */
+	private boolean[] blockNoise_ = null;
+	/** The positions of the blocks in the file (in bytes) */
+	private long[] blockPositions_ = null;
+	/** The times of the rows of the blocks */
+	private double[][] blockTimes_ = null;
+	/** The annotations of the rows of the blocks, blockAnnotations_[b][r][a] is annotation a of row r */
+	private String[][][] blockAnnotations_ = null;
+	/** The mapped blocks (null if not yet mapped) */
+	private MappedByteBuffer[] blocks_ = null;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor, open the file and read the directory */
+	public BinaryDatasetReader(String filename) throws IOException {
+		
+		filename_ = filename;
+		channel_ = new RandomAccessFile(filename, "r").getChannel();
+		
+		try {
+			long size = channel_.size();
+			if (size < BinaryDatasetWriter.PREAMBLE_SIZE)
+				throw new IOException("BinaryDatasetReader: " + filename + " is not a binary dataset");
+			
+			ByteBuffer preamble = channel_.map(FileChannel.MapMode.READ_ONLY, 0, BinaryDatasetWriter.PREAMBLE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i=0; i<BinaryDatasetWriter.MAGIC.length; i++)
+				if (preamble.get() != BinaryDatasetWriter.MAGIC[i])
+					throw new IOException("BinaryDatasetReader: " + filename + " is not a binary dataset");
+			
+			int version = preamble.getInt();
+			if (version != BinaryDatasetWriter.VERSION)
+				throw new IOException("BinaryDatasetReader: unsupported version " + version + " of file " + filename);
+			
+			long directoryPosition = preamble.getLong();
+			if (directoryPosition < BinaryDatasetWriter.PREAMBLE_SIZE || directoryPosition > size)
+				throw new IOException("BinaryDatasetReader: " + filename + " is incomplete (the file was not closed)");
+			
+			readDirectory(channel_.map(FileChannel.MapMode.READ_ONLY, directoryPosition, size-directoryPosition).order(ByteOrder.LITTLE_ENDIAN));
+			
+		} catch (IOException e) {
+			channel_.close();
+			throw e;
+		} catch (RuntimeException e) {
+			channel_.close();
+			throw new IOException("BinaryDatasetReader: the directory of file " + filename + " is corrupt", e);
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the value of the given gene in the given row of block b */
+	public double getValue(int b, int row, int gene) throws IOException {
+		
+		checkIndexes(b, row, gene);
+		ByteBuffer block = getBlockBuffer(b);
+		int index = gene*getNumRows(b) + row;
+		
+		if (singlePrecision_)
+			return block.getFloat(4*index);
+		else
+			return block.getDouble(8*index);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return the values of the given gene in block b (one value per row). If profile is not
+	 * null, the values are written to it and it is returned.
+	 */
+	public double[] getGeneProfile(int b, int gene, double[] profile) throws IOException {
+		
+		checkIndexes(b, gene);
+		int numRows = getNumRows(b);
+		if (profile == null)
+			profile = new double[numRows];
+		
+		ByteBuffer block = getBlockBuffer(b).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		if (singlePrecision_) {
+			block.position(4*gene*numRows);
+			for (int r=0; r<numRows; r++)
+				profile[r] = block.getFloat();
+		} else {
+			block.position(8*gene*numRows);
+			block.asDoubleBuffer().get(profile, 0, numRows);
+		}
+		
+		return profile;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return block b as a matrix (one row per sample, one column per gene) */
+	public DoubleMatrix2D getBlock(int b) throws IOException {
+		
+		int numRows = getNumRows(b);
+		int numGenes = geneIds_.length;
+		double[][] values = new double[numRows][numGenes];
+		double[] profile = new double[numRows];
+		
+		for (int g=0; g<numGenes; g++) {
+			getGeneProfile(b, g, profile);
+			for (int r=0; r<numRows; r++)
+				values[r][g] = profile[r];
+		}
+		
+		return new DenseDoubleMatrix2D(values);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the index of the gene with the given id (-1 if there is no such gene) */
+	public int getGeneIndex(String id) {
+		
+		Integer index = geneIndexes_.get(id);
+		return index == null ? -1 : index;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Close the file (the mapped blocks are released by the garbage collector) */
+	public void close() throws IOException {
+		
+		blocks_ = new MappedByteBuffer[blocks_.length];
+		channel_.close();
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Read the directory */
+	private void readDirectory(ByteBuffer dir) throws IOException {
+		
+		int valueSize = dir.getInt();
+		if (valueSize != 4 && valueSize != 8)
+			throw new IOException("BinaryDatasetReader: invalid value size " + valueSize + " in file " + filename_);
+		singlePrecision_ = (valueSize == 4);
+		
+		geneIds_ = getStrings(dir);
+		geneIndexes_ = new HashMap<String, Integer>();
+		for (int g=0; g<geneIds_.length; g++)
+			geneIndexes_.put(geneIds_[g], g);
+		annotationNames_ = getStrings(dir);
+		
+		int numBlocks = dir.getInt();
+		blockNames_ = new String[numBlocks];
+		blockNoise_ = new boolean[numBlocks];
+		blockPositions_ = new long[numBlocks];
+		blockTimes_ = new double[numBlocks][];
+		blockAnnotations_ = new String[numBlocks][][];
+		blocks_ = new MappedByteBuffer[numBlocks];
+		
+		for (int b=0; b<numBlocks; b++) {
+			blockNames_[b] = getString(dir);
+			blockNoise_[b] = (dir.get() != 0);
+			int numRows = dir.getInt();
+			blockPositions_[b] = dir.getLong();
+			
+			blockTimes_[b] = new double[numRows];
+			blockAnnotations_[b] = new String[numRows][annotationNames_.length];
+			for (int r=0; r<numRows; r++) {
+				blockTimes_[b][r] = dir.getDouble();
+				for (int a=0; a<annotationNames_.length; a++)
+					blockAnnotations_[b][r][a] = getString(dir);
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return block b, map it if necessary */
+	private synchronized ByteBuffer getBlockBuffer(int b) throws IOException {
+		
+		if (blocks_[b] == null) {
+			long size = (long) (singlePrecision_ ? 4 : 8) * getNumRows(b) * geneIds_.length;
+			blocks_[b] = channel_.map(FileChannel.MapMode.READ_ONLY, blockPositions_[b], size);
+			blocks_[b].order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return blocks_[b];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Throw an exception if the indexes are out of range */
+	private void checkIndexes(int b, int row, int gene) {
+		
+		checkIndexes(b, gene);
+		if (row < 0 || row >= getNumRows(b))
+			throw new IllegalArgumentException("BinaryDatasetReader: block " + b + " has no row " + row);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Throw an exception if the block or the gene doesn't exist (the block may have no rows) */
+	private void checkIndexes(int b, int gene) {
+		
+		if (b < 0 || b >= blockNames_.length)
+			throw new IllegalArgumentException("BinaryDatasetReader: block " + b + " does not exist");
+		if (gene < 0 || gene >= geneIds_.length)
+			throw new IllegalArgumentException("BinaryDatasetReader: gene " + gene + " does not exist");
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Read a string (length of the UTF-8 encoding followed by the bytes) */
+	private static String getString(ByteBuffer dir) {
+		
+		byte[] bytes = new byte[dir.getInt()];
+		dir.get(bytes);
+		return new String(bytes, BinaryDatasetWriter.UTF8);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Read a list of strings */
+	private static String[] getStrings(ByteBuffer dir) {
+		
+		String[] strings = new String[dir.getInt()];
+		for (int i=0; i<strings.length; i++)
+			strings[i] = getString(dir);
+		return strings;
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public String getFilename() { return filename_; }
+	public boolean getSinglePrecision() { return singlePrecision_; }
+	
+	public String[] getGeneIds() { return geneIds_; }
+	public int getNumGenes() { return geneIds_.length; }
+	public String[] getAnnotationNames() { return annotationNames_; }
+	
+	public int getNumBlocks() { return blockNames_.length; }
+	public String getBlockName(int b) { return blockNames_[b]; }
+	public boolean getNoiseAdded(int b) { return blockNoise_[b]; }
+	public int getNumRows(int b) { return blockTimes_[b].length; }
+	/** Return the times of the rows of block b (NaN for steady states) */
+	public double[] getTimes(int b) { return blockTimes_[b]; }
+	/** Return the annotations of the rows of block b, getAnnotations(b)[r][a] is annotation a of row r */
+	public String[][] getAnnotations(int b) { return blockAnnotations_[b]; }
+	
+}
@@ -0,0 +1,354 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+import cern.colt.matrix.DoubleMatrix2D;
+
+
+/** 
+ * Writes simulated expression data in a binary columnar format, which is much smaller and
+ * faster to write and to read than TSV files (see BinaryDatasetReader). The file is organized
+ * in blocks, typically one block per experiment (or time series). A block has one row per
+ * sample (e.g. perturbation, time point or repeat) and one column per gene, the values are
+ * stored column by column (all values of the first gene, then all values of the second gene,
+ * etc.) so that the profile of a gene in an experiment is contiguous.
+ * 
+ * The file is self-describing, all numbers are little-endian:
+ * 
+ * - Preamble: the magic bytes "GNWB", the version (int) and the position of the directory (long)
+ * - The blocks: numRows*numGenes values per block (float or double, column by column)
+ * - Directory: the size of a value in bytes (int, 4 for float and 8 for double), the gene ids,
+ *   the names of the row annotations (e.g. the columns of the experiment definitions), and
+ *   for every block its name, the noise flag (byte), the number of rows (int), the position
+ *   of the block (long), and for every row the time (double, NaN for steady states) and the
+ *   values of the annotations.
+ * 
+ * Lists are preceded by their length (int), strings by the length of their UTF-8 encoding (int).
+ * The directory is written when the file is closed, thus the blocks can be streamed to the file
+ * one experiment at a time.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ */
+public class BinaryDatasetWriter {
+	
+	/** The magic bytes at the beginning of the file */
+	public static final byte[] MAGIC = { 'G', 'N', 'W', 'B' };
+	/** The version of the format */
+	public static final int VERSION = 1;
+	/** The size of the preamble (magic, version and position of the directory) in bytes */
+	public static final int PREAMBLE_SIZE = 16;
+	/** The file extension */
+	public static final String EXTENSION = ".gnwb";
+	/** The encoding of the strings */
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/** The channel of the file */
+	private FileChannel channel_ = null;
+	/** The filename */
+	private String filename_ = null;
+	/** The buffer for the values, written to the file when it is full */
+	private ByteBuffer buffer_ = null;
+	/** The position in the file of the first byte of the buffer */
+	private long position_ = 0;
+	/** Set true to store the values as floats (single precision) */
+	private boolean singlePrecision_ = false;
+	
+	/** The ids of the genes */
+	private String[] geneIds_ = null;
+	/** The number of genes */
+	private int numGenes_ = 0;
+	/** The names of the annotations of the rows */
+	private String[] annotationNames_ = null;
+	
+	/** The rows of the current block, rows_[r*numGenes_ + g] is the value of gene g in row r */
+	private double[] rows_ = null;
+	/** The number of rows of the current block */
+	private int numRows_ = 0;
+	
+	/** The names of the blocks written so far */
+	private ArrayList<String> blockNames_ = new ArrayList<String>();
+	/** The noise flags of the blocks */
+	private ArrayList<Boolean> blockNoise_ = new ArrayList<Boolean>();
+	/** The positions of the blocks in the file (in bytes) */
+	private ArrayList<Long> blockPositions_ = new ArrayList<Long>();
+	/** The times of the rows of the blocks */
+	private ArrayList<double[]> blockTimes_ = new ArrayList<double[]>();
+	/** The annotations of the rows of the blocks, blockAnnotations_.get(b)[r][a] is annotation a of row r */
+	private ArrayList<String[][]> blockAnnotations_ = new ArrayList<String[][]>();
+	
+	/** The size of the buffer in bytes */
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, create the file. The names of the annotations of the rows may be empty
+	 * (annotationNames.length = 0). If singlePrecision is set, the values are stored as floats.
+	 */
+	public BinaryDatasetWriter(String filename, String[] geneIds, String[] annotationNames, boolean singlePrecision) throws IOException {
+		
+		filename_ = filename;
+		geneIds_ = geneIds;
+		numGenes_ = geneIds.length;
+		annotationNames_ = annotationNames;
+		singlePrecision_ = singlePrecision;
+		rows_ = new double[numGenes_];
+		
+		RandomAccessFile file = new RandomAccessFile(filename, "rw");
+		file.setLength(0);
+		channel_ = file.getChannel();
+		buffer_ = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		
+		// the position of the directory is set when the file is closed
+		buffer_.put(MAGIC);
+		buffer_.putInt(VERSION);
+		buffer_.putLong(-1);
+		position_ = 0;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Add the given row of the matrix (the columns are the genes) to the current block */
+	public void writeRow(DoubleMatrix2D data, int row) {
+		
+		if (data.columns() != numGenes_)
+			throw new IllegalArgumentException("BinaryDatasetWriter: the data has " + data.columns() + " genes, expected " + numGenes_);
+		
+		if ((numRows_+1)*numGenes_ > rows_.length) {
+			double[] rows = new double[2*rows_.length];
+			System.arraycopy(rows_, 0, rows, 0, numRows_*numGenes_);
+			rows_ = rows;
+		}
+		
+		int offset = numRows_*numGenes_;
+		for (int g=0; g<numGenes_; g++)
+			rows_[offset + g] = data.getQuick(row, g);
+		numRows_++;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Write the rows added since the previous block as a new block. The times and annotations
+	 * of the rows may be null (the times are then NaN and the annotations empty strings).
+	 */
+	public void endBlock(String name, boolean noiseAdded, double[] times, String[][] annotations) throws IOException {
+		
+		if (times != null && times.length != numRows_)
+			throw new IllegalArgumentException("BinaryDatasetWriter: " + times.length + " times given for " + numRows_ + " rows");
+		if (annotations != null && annotations.length != numRows_)
+			throw new IllegalArgumentException("BinaryDatasetWriter: " + annotations.length + " annotations given for " + numRows_ + " rows");
+		
+		if (times == null) {
+			times = new double[numRows_];
+			for (int r=0; r<numRows_; r++)
+				times[r] = Double.NaN;
+		}
+		if (annotations == null) {
+			annotations = new String[numRows_][annotationNames_.length];
+			for (int r=0; r<numRows_; r++)
+				for (int a=0; a<annotationNames_.length; a++)
+					annotations[r][a] = "";
+		}
+		
+		blockNames_.add(name);
+		blockNoise_.add(noiseAdded);
+		blockPositions_.add(position_ + buffer_.position());
+		blockTimes_.add(times);
+		blockAnnotations_.add(annotations);
+		
+		// column by column
+		for (int g=0; g<numGenes_; g++) {
+			for (int r=0; r<numRows_; r++) {
+				if (buffer_.remaining() < 8)
+					writeBuffer();
+				
+				if (singlePrecision_)
+					buffer_.putFloat((float) rows_[r*numGenes_ + g]);
+				else
+					buffer_.putDouble(rows_[r*numGenes_ + g]);
+			}
+		}
+		numRows_ = 0;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Write all rows of the given matrix as a new block (see endBlock()) */
+	public void writeBlock(String name, boolean noiseAdded, double[] times, String[][] annotations, DoubleMatrix2D data) throws IOException {
+		
+		for (int r=0; r<data.rows(); r++)
+			writeRow(data, r);
+		endBlock(name, noiseAdded, times, annotations);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Write the directory and close the file */
+	public void close() throws IOException {
+		
+		try {
+			if (numRows_ > 0)
+				throw new IllegalStateException("BinaryDatasetWriter: endBlock() must be called before close()");
+			
+			long directoryPosition = position_ + buffer_.position();
+			
+			putInt(singlePrecision_ ? 4 : 8);
+			putStrings(geneIds_);
+			putStrings(annotationNames_);
+			
+			putInt(blockNames_.size());
+			for (int b=0; b<blockNames_.size(); b++) {
+				double[] times = blockTimes_.get(b);
+				String[][] annotations = blockAnnotations_.get(b);
+				
+				putString(blockNames_.get(b));
+				ensureRemaining(1 + 4 + 8);
+				buffer_.put((byte) (blockNoise_.get(b) ? 1 : 0));
+				buffer_.putInt(times.length);
+				buffer_.putLong(blockPositions_.get(b));
+				
+				for (int r=0; r<times.length; r++) {
+					ensureRemaining(8);
+					buffer_.putDouble(times[r]);
+					for (int a=0; a<annotationNames_.length; a++)
+						putString(annotations[r][a]);
+				}
+			}
+			writeBuffer();
+			
+			// set the position of the directory in the preamble
+			ByteBuffer position = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			position.putLong(directoryPosition);
+			position.flip();
+			while (position.hasRemaining())
+				channel_.write(position, 8 + position.position());
+			
+		} finally {
+			channel_.close();
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Close the file without writing the directory and delete it (to be called if the dataset could not be written) */
+	public void abort() {
+		
+		try {
+			channel_.close();
+		} catch (IOException e) {
+			// the error that caused the abort is reported by the caller
+		}
+		new File(filename_).delete();
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Write the content of the buffer to the file */
+	private void writeBuffer() throws IOException {
+		
+		buffer_.flip();
+		while (buffer_.hasRemaining())
+			position_ += channel_.write(buffer_, position_);
+		buffer_.clear();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Make sure that the buffer has space for n bytes */
+	private void ensureRemaining(int n) throws IOException {
+		
+		if (buffer_.remaining() < n)
+			writeBuffer();
+		if (buffer_.remaining() < n)
+			buffer_ = ByteBuffer.allocate(n).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Write an int */
+	private void putInt(int n) throws IOException {
+		
+		ensureRemaining(4);
+		buffer_.putInt(n);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Write a string (length of the UTF-8 encoding followed by the bytes) */
+	private void putString(String str) throws IOException {
+		
+		byte[] bytes = (str == null ? "" : str).getBytes(UTF8);
+		ensureRemaining(4 + bytes.length);
+		buffer_.putInt(bytes.length);
+		buffer_.put(bytes);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Write a list of strings (length of the list followed by the strings) */
+	private void putStrings(String[] strings) throws IOException {
+		
+		putInt(strings.length);
+		for (int i=0; i<strings.length; i++)
+			putString(strings[i]);
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public String getFilename() { return filename_; }
+	public int getNumBlocks() { return blockNames_.size(); }
+	
+	/** Return the number of rows added to the current block so far */
+	public int getNumBlockRows() { return numRows_; }
+	
+}
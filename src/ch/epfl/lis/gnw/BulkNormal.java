@@ -0,0 +1,102 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import cern.jet.random.Normal;
+import cern.jet.random.engine.RandomEngine;
+
+
+/** Normal distribution that can fill arrays with random numbers in one call.
+ * 
+ * The numbers are generated with the polar method of Normal.nextDouble(), pairs of
+ * numbers are drawn at once and written directly to the array. The sequence is the
+ * same as with repeated calls of nextDouble() (including the number cached by the
+ * last pair), the two can thus be mixed.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ */
+public class BulkNormal extends Normal {
+	
+	/** Serialization */
+	private static final long serialVersionUID = 1L;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor */
+	public BulkNormal(double mean, double standardDeviation, RandomEngine randomGenerator) {
+		
+		super(mean, standardDeviation, randomGenerator);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Set values[i] = scale*nextDouble() for i = 0 to n-1.
+	 */
+	public void nextDoubles(double[] values, int n, double scale) {
+		
+		nextDoubles(values, 0, n, scale);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Set values[offset+i] = scale*nextDouble() for i = 0 to n-1.
+	 */
+	public void nextDoubles(double[] values, int offset, int n, double scale) {
+		
+		int i = offset;
+		int end = offset + n;
+		if (i < end && cacheFilled)
+			values[i++] = nextDouble()*scale;
+		
+		while (i < end) {
+			double x, y, r;
+			do {
+				x = 2.0*randomGenerator.raw() - 1.0;
+				y = 2.0*randomGenerator.raw() - 1.0;
+				r = x*x + y*y;
+			} while (r >= 1.0);
+			double z = Math.sqrt(-2.0*Math.log(r)/r);
+			
+			values[i++] = (mean + standardDeviation*y*z)*scale;
+			if (i < end)
+				values[i++] = (mean + standardDeviation*x*z)*scale;
+			else {
+				// keep the second number for the next call, as nextDouble() does
+				cache = mean + standardDeviation*x*z;
+				cacheFilled = true;
+			}
+		}
+	}
+}
@@ -26,11 +26,14 @@ THE SOFTWARE.
 
 package ch.epfl.lis.gnw;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import cern.colt.list.IntArrayList;
 import cern.colt.matrix.DoubleMatrix2D;
 import cern.colt.matrix.impl.DenseDoubleMatrix2D;
 import cern.jet.random.Uniform;
@@ -641,38 +644,76 @@ public class CompendiumReader {
 	/** 
 	 * Load the expression matrix. In the dataFile, rows correspond to genes and experiments to columns.
 	 * This function returns the transpose, i.e., a row for every experiment, and reorders the genes
-	 * from the original (geneNames_) to the new order (grn_.getNodes()). 
+	 * from the original (geneNames_) to the new order (grn_.getNodes()). The file is parsed by
+	 * ExpressionMatrixReader (from the binary cache if compendiumCache is set), genes that are not
+	 * part of the network are not loaded.
 	 */
 	private DoubleMatrix2D parseExpressionMatrix() {
 		
 		GnwSettings set = GnwSettings.getInstance();
-		ArrayList<String[]> data = null;
 		
+		ExpressionMatrixReader reader = null;
 		try {
-			data = TSVParser.readTSV(set.getURL(expressionFile_));
-		} catch (Exception e) {
-			log_.log(Level.WARNING, "Could not load compendium", e);
-		}
-		
-		int numRealGenes = data.size();
-		int numRealPlusDecoyGenes = comp_.grn_.getSize();
-		int numExperiments = data.get(0).length;
-		
-		DoubleMatrix2D expressionMatrix = new DenseDoubleMatrix2D(numExperiments, numRealPlusDecoyGenes);
-		expressionMatrix.assign(-1);
-		
-		for (int g=0; g<numRealGenes; g++) {
-			String[] row_g = data.get(g);
-			assert row_g.length == numExperiments;
+			reader = new ExpressionMatrixReader(expressionFile_, set.getCompendiumCache());
+			
+			int numRealGenes = reader.getNumRows();
+			int numRealPlusDecoyGenes = comp_.grn_.getSize();
+			int numExperiments = reader.getNumColumns();
+			
+			// The index of every gene in the network
+			HashMap<String, Integer> nodeIndexes = new HashMap<String, Integer>();
+			for (int i=0; i<numRealPlusDecoyGenes; i++)
+				nodeIndexes.put(comp_.grn_.getNode(i).getLabel(), i);
+			
+			// The genes to be loaded and their new index in the network
+			IntArrayList genes = new IntArrayList();
+			IntArrayList newIndexes = new IntArrayList();
+			boolean[] isLoaded = new boolean[numRealPlusDecoyGenes];
+			for (int g=0; g<numRealGenes; g++) {
+				Integer newIndex = nodeIndexes.get(comp_.geneNames_.get(g));
+				if (newIndex != null) {
+					genes.add(g);
+					newIndexes.add(newIndex);
+					isLoaded[newIndex] = true;
+				}
+			}
+			genes.trimToSize();
+			newIndexes.trimToSize();
+			
+			// Rows of the file that are not in the network are skipped
+			int numSkipped = numRealGenes - genes.size();
+			if (numSkipped > 0)
+				log_.warning("Skipped " + numSkipped + " rows of file " + expressionFile_ + " (genes not in the network)");
+			
+			// Genes of the network (other than decoys) that are not in the file keep the value -1
+			ArrayList<String> missing = new ArrayList<String>();
+			for (int i=0; i<numRealPlusDecoyGenes; i++) {
+				String label = comp_.grn_.getNode(i).getLabel();
+				if (!isLoaded[i] && !label.startsWith("decoy"))
+					missing.add(label);
+			}
+			if (missing.size() > 0)
+				log_.warning(missing.size() + " genes of the network are not in file " + expressionFile_ + ": " + missing);
+			
+			DoubleMatrix2D expressionMatrix = new DenseDoubleMatrix2D(numExperiments, numRealPlusDecoyGenes);
+			expressionMatrix.assign(-1);
 			
-			// The new index of gene g in the network
-			int newIndex = comp_.grn_.getIndexOfNode(comp_.geneNames_.get(g));
+			reader.read(genes.elements(), null, expressionMatrix, newIndexes.elements(), true);
 			
-			for (int e=0; e<numExperiments; e++)
-				expressionMatrix.set(e, newIndex, Double.parseDouble(row_g[e]));
+			log_.info("Loaded the expression of " + genes.size() + " genes in " + numExperiments + " experiments from file " + expressionFile_);
+			return expressionMatrix;
+			
+		} catch (IOException e) {
+			log_.log(Level.WARNING, "Could not load compendium", e);
+			throw new RuntimeException(e);
+		} finally {
+			try {
+				if (reader != null)
+					reader.close();
+			} catch (IOException e) {
+				log_.log(Level.WARNING, "Could not close file " + expressionFile_, e);
+			}
 		}
-		
-		return expressionMatrix;
 	}
 
 
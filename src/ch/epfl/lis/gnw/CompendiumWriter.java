@@ -47,6 +47,8 @@ public class CompendiumWriter {
 	private Compendium comp_;
 	/** The output directory */
 	String outputDir_ = GnwSettings.getInstance().getOutputDirectory();
+	/** The column of the time in the experiment definitions (see getExperimentDefsHeader()) */
+	private static final int TIME_COLUMN = 6;
 
 	/** Logger for this class */
 	protected static Logger log_ = Logger.getLogger(CompendiumWriter.class.getName());
@@ -94,23 +96,11 @@ public class CompendiumWriter {
 	/** Write the expression matrix (same order as experiment definitions!) */
 	public void writeExpressionMatrix(String postfix) {
 		
-		ArrayList<String[]> expressionMatrix = new ArrayList<String[]>();
-		expressionMatrix.add(comp_.grn_.getHeaderArray());
-		
+		ArrayList<ArrayList<Experiment>> experiments = new ArrayList<ArrayList<Experiment>>();
 		for (int i=0; i<comp_.conditions_.size(); i++)
-			expressionMatrix.addAll(
-					expressionMatrixToString(comp_.conditions_.get(i).getExperiments()) );
-
-		String filename = outputDir_ + comp_.name_ + "_expression_data" + postfix + ".tsv";
-		Parser.writeTSV(filename, expressionMatrix);
-		
-		if (GnwSettings.getInstance().getOutputGenesInRows()) {
-			expressionMatrix = transposeExpressionMatrix(expressionMatrix, assembleExperimentDefs());
+			experiments.add(comp_.conditions_.get(i).getExperiments());
 		
-			filename = outputDir_ + comp_.name_ + "_expression_data" + postfix + "_t.tsv";
-			Parser.writeTSV(filename, expressionMatrix);
-		}
-
+		writeExpressionMatrix(experiments, "_expression_data" + postfix, false);
 	}
 	
 	
@@ -176,22 +166,11 @@ public class CompendiumWriter {
 	/** Write the average expression matrix (same order as experiment definitions!) */
 	private void writeExpressionMatrixAvg() {
 		
-		ArrayList<String[]> expressionMatrix = new ArrayList<String[]>();
-		expressionMatrix.add(comp_.grn_.getHeaderArray());
-		
+		ArrayList<ArrayList<Experiment>> experiments = new ArrayList<ArrayList<Experiment>>();
 		for (int i=0; i<comp_.conditions_.size(); i++)
-			expressionMatrix.addAll(
-					expressionMatrixToString(comp_.conditions_.get(i).getExperimentsAvg()) );
-
-		String filename = outputDir_ + comp_.name_ + "_expression_data_avg.tsv";
-		Parser.writeTSV(filename, expressionMatrix);
+			experiments.add(comp_.conditions_.get(i).getExperimentsAvg());
 		
-		if (GnwSettings.getInstance().getOutputGenesInRows()) {
-			expressionMatrix = transposeExpressionMatrix(expressionMatrix, assembleExperimentDefsAvg());
-			
-			filename = outputDir_ + comp_.name_ + "_expression_data_avg_t.tsv";
-			Parser.writeTSV(filename, expressionMatrix);
-		}
+		writeExpressionMatrix(experiments, "_expression_data_avg", true);
 	}
 
 	
@@ -200,79 +179,119 @@ public class CompendiumWriter {
 	/** Write the noise-free expression matrix obtained using ODEs (only for in silico compendia) */
 	private void writeExpressionMatrixODE() {
 		
-		ArrayList<String[]> expressionMatrix = new ArrayList<String[]>();
-		expressionMatrix.add(comp_.grn_.getHeaderArray());
-		
+		ArrayList<ArrayList<Experiment>> experiments = new ArrayList<ArrayList<Experiment>>();
 		for (int i=0; i<comp_.conditions_.size(); i++)
-			expressionMatrix.addAll(
-					expressionMatrixToString(comp_.conditions_.get(i).getExperimentsODE()) );
-
-		String filename = outputDir_ + comp_.name_ + "_expression_data_nonoise.tsv";
-		Parser.writeTSV(filename, expressionMatrix);
-
-		if (GnwSettings.getInstance().getOutputGenesInRows()) {
-			expressionMatrix = transposeExpressionMatrix(expressionMatrix, assembleExperimentDefsAvg());
-			
-			filename = outputDir_ + comp_.name_ + "_expression_data_nonoise_t.tsv";
-			Parser.writeTSV(filename, expressionMatrix);
-		}
+			experiments.add(comp_.conditions_.get(i).getExperimentsODE());
+		
+		writeExpressionMatrix(experiments, "_expression_data_nonoise", true);
 	}
 
 	
 	// ----------------------------------------------------------------------------
 	
-	/** Return string representation of the expression matrix */
-	private ArrayList<String[]> transposeExpressionMatrix(ArrayList<String[]> M, ArrayList<String[]> experimentDefs) {
-		
-		ArrayList<String[]> Mt = new ArrayList<String[]>();
-		
-		experimentDefs.remove(0); // remove the header
+	/**
+	 * Stream the expression matrix of the given experiments (one list per condition) to the file
+	 * with the given name (appended to the compendium name), one experiment at a time. If genes in
+	 * rows are requested, the transposed matrix is written to the file with postfix "_t", its header
+	 * is given by the experiment definitions of experiments_ or, if avgDefs is set, of experimentsAvg_.
+	 * Depending on the setting binaryOutput, the matrix is also (or only) saved in a binary dataset
+	 * with one block per experiment, the rows are annotated with the experiment definitions.
+	 */
+	private void writeExpressionMatrix(ArrayList<ArrayList<Experiment>> experiments, String name, boolean avgDefs) {
 		
-		int numExperiments = experimentDefs.size();
-		int numGenes = comp_.grn_.getSize();
-		
-		assert numExperiments == M.size()-1;
-		assert numGenes == M.get(0).length;
-		
-		// Construct the header (experiment descriptions)
-		String[] header = new String[numExperiments+1];
-		header[0] = "";
+		GnwSettings set = GnwSettings.getInstance();
+		String filename = null;
+		String transposedFilename = null;
+		String binaryFilename = null;
+		ArrayList<String[]> experimentDefs = null;
+		String[] experimentLabels = null;
+		
+		if (set.getOutputTsv()) {
+			filename = outputDir_ + comp_.name_ + name + ".tsv";
+			if (set.getOutputGenesInRows())
+				transposedFilename = outputDir_ + comp_.name_ + name + "_t.tsv";
+		}
+		if (set.getOutputBinary())
+			binaryFilename = outputDir_ + comp_.name_ + name + BinaryDatasetWriter.EXTENSION;
 		
-		for (int e=0; e<numExperiments; e++) {
-			String[] def = experimentDefs.get(e);
-
-			header[e+1] = def[0];
-			for (int i=1; i<def.length; i++)
-				header[e+1] += "_" + def[i];
+		if (transposedFilename != null || binaryFilename != null) {
+			experimentDefs = avgDefs ? assembleExperimentDefsAvg() : assembleExperimentDefs();
+			experimentDefs.remove(0); // remove the header
+			experimentLabels = getExperimentLabels(experimentDefs);
 		}
-		Mt.add(header);
 		
-		// Add the rows, one for each gene
-		for (int g=0; g<numGenes; g++) {
-			String[] row = new String[numExperiments+1];
-			row[0] = M.get(0)[g];
+		String[] geneLabels = comp_.grn_.getHeaderArray();
+		BinaryDatasetWriter binaryWriter = null;
+		ExpressionMatrixWriter writer = null;
+		
+		try {
+			if (filename != null)
+				log_.info("Writing file " + filename);
+			if (binaryFilename != null) {
+				log_.info("Writing file " + binaryFilename);
+				binaryWriter = new BinaryDatasetWriter(binaryFilename, geneLabels, getExperimentDefsHeader(), set.getSinglePrecisionStorage());
+			}
+			writer = new ExpressionMatrixWriter(filename, geneLabels, transposedFilename, binaryWriter);
+			int row = 0;
 			
-			for (int e=0; e<numExperiments; e++)
-				row[e+1] = M.get(e+1)[g];
+			for (int i=0; i<experiments.size(); i++) {
+				for (int j=0; j<experiments.get(i).size(); j++) {
+					Experiment experiment = experiments.get(i).get(j);
+					experiment.writeExpressionMatrix(writer);
+					writer.flush();
+					
+					if (binaryWriter != null) {
+						int numRows = binaryWriter.getNumBlockRows();
+						double[] times = new double[numRows];
+						String[][] annotations = new String[numRows][];
+						
+						for (int r=0; r<numRows; r++) {
+							annotations[r] = experimentDefs.get(row++);
+							times[r] = annotations[r][TIME_COLUMN].equals("NA") ? Double.NaN : Double.parseDouble(annotations[r][TIME_COLUMN]);
+						}
+						binaryWriter.endBlock(experiment.getDefinition().getDescription(), experiment.getNoiseHasBeenAdded(), times, annotations);
+					}
+				}
+			}
 			
-			Mt.add(row);
+			if (transposedFilename != null)
+				log_.info("Writing file " + transposedFilename);
+			writer.close(experimentLabels);
+			writer = null;
+			
+			if (binaryWriter != null) {
+				binaryWriter.close();
+				binaryWriter = null;
+			}
+			
+		} catch (Exception e) {
+			log_.log(Level.WARNING, "Could not write file " + (filename != null ? filename : binaryFilename), e);
+		} finally {
+			if (writer != null)
+				writer.abort();
+			if (binaryWriter != null)
+				binaryWriter.abort();
 		}
-		
-		return Mt;
 	}
 
 	
 	// ----------------------------------------------------------------------------
 	
-	/** Return string representation of the expression matrix */
-	private ArrayList<String[]> expressionMatrixToString(ArrayList<Experiment> experiments) {
+	/** Return the labels of the experiments (used as header of the transposed expression matrix), the definitions are given without header */
+	private String[] getExperimentLabels(ArrayList<String[]> experimentDefs) {
 		
-		ArrayList<String[]> expressionMatrix = new ArrayList<String[]>();
-	
-		for (int i=0; i<experiments.size(); i++)
-			expressionMatrix.addAll(experiments.get(i).expressionMatrixToString());
+		int numExperiments = experimentDefs.size();
+		String[] labels = new String[numExperiments];
+		
+		for (int e=0; e<numExperiments; e++) {
+			String[] def = experimentDefs.get(e);
+
+			labels[e] = def[0];
+			for (int i=1; i<def.length; i++)
+				labels[e] += "_" + def[i];
+		}
 		
-		return expressionMatrix;
+		return labels;
 	}
 
 	
@@ -361,7 +380,7 @@ public class CompendiumWriter {
 		header[3] = "Treatment";
 		header[4] = "DeletedGenes";
 		header[5] = "OverexpressedGenes";
-		header[6] = "Time";
+		header[TIME_COLUMN] = "Time";
 		header[7] = "Repeat";
 		
 		return header;
@@ -426,7 +445,7 @@ public class CompendiumWriter {
 										
 					for (int r=0; r<repeatsPerTimePoint.get(index); r++) {
 						String[] defi = defStr.clone();
-						defi[6] = String.format("%.2f", t);
+						defi[6] = NumberFormatter.format(t, 2);
 						defi[7] = Integer.toString(r+1);
 						defStrArray.add(defi);
 					}
@@ -448,10 +467,9 @@ public class CompendiumWriter {
 		if (array.size() == 0)
 			throw new RuntimeException("Array has length 0");
 		
-		String format = "%." + precision + "f";
-		String concat = String.format(format, array.get(0));
+		String concat = NumberFormatter.format(array.get(0), precision);
 		for (int i=1; i<array.size(); i++)
-			concat = concat + "," + String.format(format, array.get(0));
+			concat = concat + "," + NumberFormatter.format(array.get(i), precision);
 		
 		return concat;
 	}
@@ -270,10 +270,15 @@ public class Condition {
 	
 	// ----------------------------------------------------------------------------
 
-	/** Run all experiments of this condition */
+	/**
+	 * Run all experiments of this condition. If warm starts are enabled in GnwSettings, the
+	 * steady states of a drug dose series start from the steady state of the closest dose that
+	 * has already been simulated (numerical continuation) instead of xy0 (see findPreviousDose()).
+	 */
 	public void runExperiments(DoubleMatrix1D xy0) {
 		
 		experimentsODE_ = new ArrayList<Experiment>();
+		boolean warmStart = GnwSettings.getInstance().getSteadyStateWarmStart();
 		
 		// Get the steady state associated with this condition in the absence of other perturbations
 		//ssReference_.run(xy0);
@@ -287,16 +292,27 @@ public class Condition {
 			Experiment expODE = expSDE.clone();
 			experimentsODE_.add(expODE);
 			
+			// The initial condition, the SDEs start from the same state as the ODEs (they are simulated
+			// for the time to convergence of the ODEs)
+			DoubleMatrix1D start = xy0;
+			SteadyStateExperiment previous = warmStart ? findPreviousDose(i) : null;
+			if (previous != null) {
+				start = previous.getSteadyState(0);
+				int warmStartTime = previous.getWarmStartTime() + previous.getTimeToConvergenceODE().get(0);
+				((SteadyStateExperiment) expODE).setWarmStartTime(warmStartTime);
+				((SteadyStateExperiment) expSDE).setWarmStartTime(warmStartTime);
+			}
+			
 			// Set the solver type, set the repeats to 1 (no point in doing the deterministic simulation multiple times)
 			expODE.setSolverType(Solver.type.ODE);
 			expODE.setNumExperiments(1);
-			expODE.run(xy0);
+			expODE.run(start);
 			//expODE.run(ssReferenceXy_);
 
 			// Note, the time to convergence of the ODE has been magically transfered already because
 			// expODE.timeToConvergenceODE == expSDE.timeToConvergenceODE (the two experiments are shallow copies!).
 			expSDE.setSolverType(Solver.type.SDE);
-			expSDE.run(xy0);
+			expSDE.run(start);
 			//expSDE.run(ssReferenceXy_);
 		}
 		
@@ -317,6 +333,50 @@ public class Condition {
 	
 	// ============================================================================
 	// PRIVATE METHODS
+	
+	/**
+	 * If the i'th experiment is a steady state of a drug dose series, return the ODE experiment
+	 * of the same series (same drugs and genetic perturbations, different levels) that has already
+	 * been run and whose levels are the closest. Return null otherwise.
+	 */
+	private SteadyStateExperiment findPreviousDose(int i) {
+		
+		ExperimentDefinition def = experiments_.get(i).getDefinition();
+		if (!SteadyStateExperiment.class.isInstance(experiments_.get(i)) || !def.isDrugPerturbation())
+			return null;
+		
+		SteadyStateExperiment closest = null;
+		double minDistance = Double.MAX_VALUE;
+		
+		for (int j=0; j<i; j++) {
+			ExperimentDefinition defJ = experiments_.get(j).getDefinition();
+			if (!def.differsOnlyByLevels(defJ))
+				continue;
+			
+			double distance = 0;
+			for (int k=0; k<def.getPerturbationVariables().length; k++)
+				distance += Math.abs(getLevel(def, k) - getLevel(defJ, k));
+			
+			if (distance < minDistance) {
+				minDistance = distance;
+				closest = (SteadyStateExperiment) experimentsODE_.get(j);
+			}
+		}
+		return closest;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the level of the k'th drug of the given definition (1 if no level is specified, see initializeExperimentPerturbations()) */
+	private double getLevel(ExperimentDefinition def, int k) {
+		
+		ArrayList<Double> levels = def.getPerturbationLevels();
+		return (levels.get(0) == -1) ? 1 : levels.get(k);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
 
 	/** 
 	 * If the given gene is not part of the network or is not a TF, randomly choose another TF as substitute.
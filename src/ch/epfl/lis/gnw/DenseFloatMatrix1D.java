@@ -0,0 +1,126 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+
+
+/** 
+ * A dense DoubleMatrix1D that stores its values in single precision (float), see
+ * DenseFloatMatrix2D. It is typically a view of a row or a column of a DenseFloatMatrix2D.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ */
+public class DenseFloatMatrix1D extends DoubleMatrix1D {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/** The values (the element i is at index zero + i*stride) */
+	protected float[] elements_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor, vector of the given size with all values zero */
+	public DenseFloatMatrix1D(int size) {
+		
+		setUp(size);
+		elements_ = new float[size];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Constructor for a view of the given values */
+	protected DenseFloatMatrix1D(int size, float[] elements, int zero, int stride) {
+		
+		setUp(size, zero, stride);
+		elements_ = elements;
+		isNoView = false;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	public double getQuick(int index) {
+		
+		return elements_[zero + index*stride];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	public void setQuick(int index, double value) {
+		
+		elements_[zero + index*stride] = (float) value;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return a new single-precision vector of the given size */
+	public DoubleMatrix1D like(int size) {
+		
+		return new DenseFloatMatrix1D(size);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return a new single-precision matrix of the given size */
+	public DoubleMatrix2D like2D(int rows, int columns) {
+		
+		return new DenseFloatMatrix2D(rows, columns);
+	}
+	
+	
+	// ============================================================================
+	// PROTECTED METHODS
+	
+	/** Return a selection view of the values (used for viewSelection()) */
+	protected DoubleMatrix1D viewSelectionLike(int[] offsets) {
+		
+		return new SelectedDenseFloatMatrix1D(elements_, offsets);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return true if the other vector shares the storage of this vector */
+	protected boolean haveSharedCellsRaw(DoubleMatrix1D other) {
+		
+		if (other instanceof DenseFloatMatrix1D)
+			return elements_ == ((DenseFloatMatrix1D) other).elements_;
+		if (other instanceof SelectedDenseFloatMatrix1D)
+			return elements_ == ((SelectedDenseFloatMatrix1D) other).elements_;
+		return false;
+	}
+	
+}
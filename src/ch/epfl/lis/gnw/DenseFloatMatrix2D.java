@@ -0,0 +1,138 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+
+
+/** 
+ * A dense DoubleMatrix2D that stores its values in single precision (float), which halves the
+ * memory of the simulated expression data (see GnwSettings.singlePrecisionStorage_). Values are
+ * rounded to float when they are set, all computations remain in double precision. Views of
+ * rows, columns, parts, transposes and selections share the storage as for DenseDoubleMatrix2D
+ * (selection views are instances of SelectedDenseFloatMatrix2D).
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ */
+public class DenseFloatMatrix2D extends DoubleMatrix2D {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/** The values, stored row by row (the element (row, column) is at index(row, column)) */
+	protected float[] elements_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor, matrix of the given size with all values zero */
+	public DenseFloatMatrix2D(int rows, int columns) {
+		
+		setUp(rows, columns);
+		elements_ = new float[rows*columns];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Constructor for a view of the given values */
+	protected DenseFloatMatrix2D(int rows, int columns, float[] elements, int rowZero, int columnZero, int rowStride, int columnStride) {
+		
+		setUp(rows, columns, rowZero, columnZero, rowStride, columnStride);
+		elements_ = elements;
+		isNoView = false;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	public double getQuick(int row, int column) {
+		
+		return elements_[rowZero + row*rowStride + columnZero + column*columnStride];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	public void setQuick(int row, int column, double value) {
+		
+		elements_[rowZero + row*rowStride + columnZero + column*columnStride] = (float) value;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return a new single-precision matrix of the given size */
+	public DoubleMatrix2D like(int rows, int columns) {
+		
+		return new DenseFloatMatrix2D(rows, columns);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return a new single-precision vector of the given size */
+	public DoubleMatrix1D like1D(int size) {
+		
+		return new DenseFloatMatrix1D(size);
+	}
+	
+	
+	// ============================================================================
+	// PROTECTED METHODS
+	
+	/** Return a vector view of the values (used for viewRow() and viewColumn()) */
+	protected DoubleMatrix1D like1D(int size, int zero, int stride) {
+		
+		return new DenseFloatMatrix1D(size, elements_, zero, stride);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return a selection view of the values (used for viewSelection()) */
+	protected DoubleMatrix2D viewSelectionLike(int[] rowOffsets, int[] columnOffsets) {
+		
+		return new SelectedDenseFloatMatrix2D(elements_, rowOffsets, columnOffsets, 0);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return true if the other matrix shares the storage of this matrix */
+	protected boolean haveSharedCellsRaw(DoubleMatrix2D other) {
+		
+		if (other instanceof DenseFloatMatrix2D)
+			return elements_ == ((DenseFloatMatrix2D) other).elements_;
+		if (other instanceof SelectedDenseFloatMatrix2D)
+			return elements_ == ((SelectedDenseFloatMatrix2D) other).elements_;
+		return false;
+	}
+	
+}
@@ -0,0 +1,474 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+
+/** Adaptive Dormand-Prince 5(4) scheme shared by DormandPrinceSolver and GeneNetworkBatch.
+ *
+ * This is the scheme of DOPRI5 (Hairer, Norsett and Wanner, Solving Ordinary
+ * Differential Equations I, 1993): the step size is adapted with a PI controller
+ * and a continuous extension of order 4 (dense output) gives the state at any time
+ * within the last step. Negative concentrations at the stages are set to zero, the
+ * rates of the Hill functions are not defined for them.
+ *
+ * The scheme can integrate several systems of the same dimension in lockstep (see
+ * GeneNetworkBatch): variable v of system b is at index v*stride + b of the arrays.
+ * The error of every system is the RMS norm used by DOPRI5 and the step is accepted
+ * if the error of every system is small enough, a single system (stride 1) is thus
+ * integrated exactly as DOPRI5 does. An instance must not be shared between threads.
+ *
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ *
+ */
+class DormandPrinceScheme {
+	
+	/** The local error tolerances are the precisions of the convergence test (GeneNetworkODE.converged()) divided by this factor */
+	public static final double TOLERANCE_DIVISOR = 100;
+	
+	/** Coefficients of the Dormand-Prince 5(4) scheme (the system is autonomous, the nodes c_i are not needed) */
+	private static final double A21 = 1.0/5;
+	private static final double A31 = 3.0/40, A32 = 9.0/40;
+	private static final double A41 = 44.0/45, A42 = -56.0/15, A43 = 32.0/9;
+	private static final double A51 = 19372.0/6561, A52 = -25360.0/2187, A53 = 64448.0/6561, A54 = -212.0/729;
+	private static final double A61 = 9017.0/3168, A62 = -355.0/33, A63 = 46732.0/5247, A64 = 49.0/176, A65 = -5103.0/18656;
+	private static final double A71 = 35.0/384, A73 = 500.0/1113, A74 = 125.0/192, A75 = -2187.0/6784, A76 = 11.0/84;
+	/** Difference between the 5th and the 4th order weights (error estimate) */
+	private static final double E1 = 71.0/57600, E3 = -71.0/16695, E4 = 71.0/1920, E5 = -17253.0/339200, E6 = 22.0/525, E7 = -1.0/40;
+	/** Coefficients of the dense output */
+	private static final double D1 = -12715105075.0/11282082432.0, D3 = 87487479700.0/32700410799.0, D4 = -10690763975.0/1880347072.0,
+		D5 = 701980252875.0/199316789632.0, D6 = -1453857185.0/822651844.0, D7 = 69997945.0/29380423.0;
+	
+	/** Parameters of the PI step size control (same values as in DOPRI5) */
+	private static final double SAFETY = 0.9;
+	private static final double BETA = 0.04;
+	private static final double EXPONENT = 0.2 - 0.75*BETA;
+	/** Bounds for the ratio between two consecutive step sizes */
+	private static final double MIN_FACTOR = 0.2;
+	private static final double MAX_FACTOR = 10;
+	
+	/** The right-hand side of the systems */
+	public interface RightHandSide {
+		/** Compute the rates of change dydt of the first getNumSystems() systems at the states y */
+		public void evaluate(double[] y, double[] dydt);
+	}
+	
+	/** The systems that are integrated */
+	private RightHandSide rhs_;
+	/** Number of variables of a system */
+	private int dimension_;
+	/** Distance between two variables of the same system in the arrays */
+	private int stride_;
+	/** Number of systems that are integrated, they are in the slots 0, ..., numSystems_-1 */
+	private int numSystems_;
+	/** Absolute tolerance */
+	private double absoluteTolerance_;
+	/** Relative tolerance */
+	private double relativeTolerance_;
+	
+	/** Time of the last accepted step */
+	private double t_;
+	/** States at time t_ */
+	private double[] y_;
+	/** Time at the beginning of the last accepted step (the dense output is valid in [tPrevious_, t_]) */
+	private double tPrevious_;
+	/** Step size for the next step */
+	private double h_;
+	/** Error of the last accepted step (used by the PI controller) */
+	private double previousError_;
+	/** Set true if the last attempted step was rejected */
+	private boolean rejected_;
+	/** Number of accepted steps */
+	private int numSteps_;
+	
+	/** The stages, k1_ is the rate of change at the current states */
+	private double[] k1_, k2_, k3_, k4_, k5_, k6_, k7_;
+	/** Buffer for the intermediate states and for the new states */
+	private double[] tmp_;
+	/** Coefficients of the dense output of the last accepted step */
+	private double[] r1_, r2_, r3_, r4_, r5_;
+	/** Buffers of size stride_ for the norms of the individual systems */
+	private double[] norm1_, norm2_, norm3_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor
+	 * @param rhs The right-hand side of the systems
+	 * @param dimension The number of variables of a system
+	 * @param stride The maximum number of systems (1 for a single system)
+	 * @param absoluteTolerance Absolute tolerance of the local error
+	 * @param relativeTolerance Relative tolerance of the local error
+	 */
+	public DormandPrinceScheme(RightHandSide rhs, int dimension, int stride, double absoluteTolerance, double relativeTolerance) {
+		
+		rhs_ = rhs;
+		dimension_ = dimension;
+		stride_ = stride;
+		numSystems_ = stride;
+		absoluteTolerance_ = absoluteTolerance;
+		relativeTolerance_ = relativeTolerance;
+		
+		int n = dimension*stride;
+		y_ = new double[n];
+		k1_ = new double[n];
+		k2_ = new double[n];
+		k3_ = new double[n];
+		k4_ = new double[n];
+		k5_ = new double[n];
+		k6_ = new double[n];
+		k7_ = new double[n];
+		tmp_ = new double[n];
+		r1_ = new double[n];
+		r2_ = new double[n];
+		r3_ = new double[n];
+		r4_ = new double[n];
+		r5_ = new double[n];
+		norm1_ = new double[stride];
+		norm2_ = new double[stride];
+		norm3_ = new double[stride];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Restart the integration from the given states at time t, e.g. after the parameters of
+	 * the systems have been changed. The steps computed beyond t are discarded.
+	 */
+	public void restart(double[] y, double t) {
+		
+		System.arraycopy(y, 0, y_, 0, y_.length);
+		t_ = t;
+		tPrevious_ = t;
+		previousError_ = 1e-4;
+		rejected_ = false;
+		
+		rhs_.evaluate(y_, k1_);
+		h_ = initialStepSize();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Integrate until time t and save the states at time t in y (same layout as the states of
+	 * the solver). The solver steps beyond t if the tolerance allows, the states at t are then
+	 * interpolated (dense output). The time must not be smaller than the time of the previous call.
+	 */
+	public void integrateTo(double t, double[] y) {
+		
+		if (t < tPrevious_)
+			throw new IllegalArgumentException("DormandPrinceScheme: cannot integrate backwards to t = " + t);
+		
+		while (t_ < t)
+			step();
+		
+		if (t == t_) {
+			copy(y_, y);
+		
+		} else {
+			double h = t_ - tPrevious_;
+			double theta = (t - tPrevious_) / h;
+			double theta1 = 1 - theta;
+			
+			int blocks = numBlocks();
+			int length = blockLength();
+			for (int k=0; k<blocks; k++) {
+				for (int i=k*stride_, end=i+length; i<end; i++) {
+					double yi = r1_[i] + theta*(r2_[i] + theta1*(r3_[i] + theta*(r4_[i] + theta1*r5_[i])));
+					y[i] = (yi < 0) ? 0 : yi;
+				}
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Swap the states of the systems in slots b1 and b2 (see GeneNetworkBatch) */
+	public void swapSystems(int b1, int b2) {
+		
+		swapSlots(y_, b1, b2);
+		swapSlots(k1_, b1, b2);
+		swapSlots(r1_, b1, b2);
+		swapSlots(r2_, b1, b2);
+		swapSlots(r3_, b1, b2);
+		swapSlots(r4_, b1, b2);
+		swapSlots(r5_, b1, b2);
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Perform one accepted step (the step size is reduced until the errors are small enough) */
+	private void step() {
+		
+		while (true) {
+			double h = h_;
+			double error = attemptStep(h);
+			
+			if (error <= 1) {
+				// PI control of the step size
+				double factor = Math.pow(error, EXPONENT) / Math.pow(previousError_, BETA);
+				factor = Math.max(1/MAX_FACTOR, Math.min(1/MIN_FACTOR, factor/SAFETY));
+				double hNew = h / factor;
+				if (rejected_)
+					hNew = Math.min(hNew, h);
+				
+				acceptStep(h);
+				previousError_ = Math.max(error, 1e-4);
+				rejected_ = false;
+				h_ = hNew;
+				return;
+			
+			} else {
+				// the comparison is false for NaN, the step is then reduced as much as possible
+				double factor = (error < Double.POSITIVE_INFINITY) ? Math.min(1/MIN_FACTOR, Math.pow(error, EXPONENT)/SAFETY) : 1/MIN_FACTOR;
+				h_ = h / factor;
+				rejected_ = true;
+				
+				if (h_ < 1e-12*Math.max(1, Math.abs(t_)))
+					throw new RuntimeException("DormandPrinceScheme: step size underflow at t = " + t_);
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute a step of size h from y_, the new states are saved in tmp_ and their rates of change
+	 * in k7_. Return the largest scaled RMS norm of the error estimates of the systems (the step
+	 * can be accepted if it is <= 1).
+	 */
+	private double attemptStep(double h) {
+		
+		int blocks = numBlocks();
+		int length = blockLength();
+		
+		for (int k=0; k<blocks; k++)
+			for (int i=k*stride_, end=i+length; i<end; i++)
+				tmp_[i] = Math.max(0, y_[i] + h*A21*k1_[i]);
+		rhs_.evaluate(tmp_, k2_);
+		
+		for (int k=0; k<blocks; k++)
+			for (int i=k*stride_, end=i+length; i<end; i++)
+				tmp_[i] = Math.max(0, y_[i] + h*(A31*k1_[i] + A32*k2_[i]));
+		rhs_.evaluate(tmp_, k3_);
+		
+		for (int k=0; k<blocks; k++)
+			for (int i=k*stride_, end=i+length; i<end; i++)
+				tmp_[i] = Math.max(0, y_[i] + h*(A41*k1_[i] + A42*k2_[i] + A43*k3_[i]));
+		rhs_.evaluate(tmp_, k4_);
+		
+		for (int k=0; k<blocks; k++)
+			for (int i=k*stride_, end=i+length; i<end; i++)
+				tmp_[i] = Math.max(0, y_[i] + h*(A51*k1_[i] + A52*k2_[i] + A53*k3_[i] + A54*k4_[i]));
+		rhs_.evaluate(tmp_, k5_);
+		
+		for (int k=0; k<blocks; k++)
+			for (int i=k*stride_, end=i+length; i<end; i++)
+				tmp_[i] = Math.max(0, y_[i] + h*(A61*k1_[i] + A62*k2_[i] + A63*k3_[i] + A64*k4_[i] + A65*k5_[i]));
+		rhs_.evaluate(tmp_, k6_);
+		
+		// the 5th order solution (its rate of change is reused as k1_ of the next step)
+		for (int k=0; k<blocks; k++)
+			for (int i=k*stride_, end=i+length; i<end; i++)
+				tmp_[i] = Math.max(0, y_[i] + h*(A71*k1_[i] + A73*k3_[i] + A74*k4_[i] + A75*k5_[i] + A76*k6_[i]));
+		rhs_.evaluate(tmp_, k7_);
+		
+		int n = numSystems_;
+		for (int b=0; b<n; b++)
+			norm1_[b] = 0;
+		for (int v=0; v<dimension_; v++) {
+			for (int b=0, i=v*stride_; b<n; b++, i++) {
+				double e = h*(E1*k1_[i] + E3*k3_[i] + E4*k4_[i] + E5*k5_[i] + E6*k6_[i] + E7*k7_[i]);
+				double scale = absoluteTolerance_ + relativeTolerance_*Math.max(Math.abs(y_[i]), Math.abs(tmp_[i]));
+				norm1_[b] += (e/scale)*(e/scale);
+			}
+		}
+		double error = 0;
+		for (int b=0; b<n; b++) {
+			double e = Math.sqrt(norm1_[b]/dimension_);
+			// the comparison is false for NaN
+			if (!(e <= error))
+				error = Double.isNaN(e) ? Double.POSITIVE_INFINITY : e;
+		}
+		return error;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Accept the step of size h computed by attemptStep(), prepare the dense output */
+	private void acceptStep(double h) {
+		
+		int blocks = numBlocks();
+		int length = blockLength();
+		
+		for (int k=0; k<blocks; k++) {
+			for (int i=k*stride_, end=i+length; i<end; i++) {
+				double dy = tmp_[i] - y_[i];
+				double bspl = h*k1_[i] - dy;
+				r1_[i] = y_[i];
+				r2_[i] = dy;
+				r3_[i] = bspl;
+				r4_[i] = dy - h*k7_[i] - bspl;
+				r5_[i] = h*(D1*k1_[i] + D3*k3_[i] + D4*k4_[i] + D5*k5_[i] + D6*k6_[i] + D7*k7_[i]);
+			}
+		}
+		
+		double[] swap = y_;
+		y_ = tmp_;
+		tmp_ = swap;
+		swap = k1_;
+		k1_ = k7_;
+		k7_ = swap;
+		
+		tPrevious_ = t_;
+		t_ += h;
+		numSteps_++;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Initial step size, as proposed by Hairer et al. (function hinit of DOPRI5), the smallest
+	 * initial step size of the systems. The rates of change at y_ must be in k1_.
+	 */
+	private double initialStepSize() {
+		
+		int n = numSystems_;
+		// norm1_: norm of the states, norm2_: norm of the rates, norm3_: step size of the Euler step
+		for (int b=0; b<n; b++) {
+			norm1_[b] = 0;
+			norm2_[b] = 0;
+		}
+		for (int v=0; v<dimension_; v++) {
+			for (int b=0, i=v*stride_; b<n; b++, i++) {
+				double scale = absoluteTolerance_ + relativeTolerance_*Math.abs(y_[i]);
+				norm1_[b] += (y_[i]/scale)*(y_[i]/scale);
+				norm2_[b] += (k1_[i]/scale)*(k1_[i]/scale);
+			}
+		}
+		for (int b=0; b<n; b++) {
+			norm1_[b] = Math.sqrt(norm1_[b]/dimension_);
+			norm2_[b] = Math.sqrt(norm2_[b]/dimension_);
+			norm3_[b] = (norm1_[b] <= 1e-5 || norm2_[b] <= 1e-5) ? 1e-6 : 0.01*norm1_[b]/norm2_[b];
+		}
+		
+		// explicit Euler step to estimate the second derivative
+		for (int v=0; v<dimension_; v++)
+			for (int b=0, i=v*stride_; b<n; b++, i++)
+				tmp_[i] = Math.max(0, y_[i] + norm3_[b]*k1_[i]);
+		rhs_.evaluate(tmp_, k2_);
+		
+		// norm1_ is now the norm of the second derivative
+		for (int b=0; b<n; b++)
+			norm1_[b] = 0;
+		for (int v=0; v<dimension_; v++) {
+			for (int b=0, i=v*stride_; b<n; b++, i++) {
+				double scale = absoluteTolerance_ + relativeTolerance_*Math.abs(y_[i]);
+				double d = (k2_[i] - k1_[i]) / scale;
+				norm1_[b] += d*d;
+			}
+		}
+		
+		double hMin = Double.POSITIVE_INFINITY;
+		for (int b=0; b<n; b++) {
+			double h = norm3_[b];
+			double d2 = Math.sqrt(norm1_[b]/dimension_) / h;
+			double d12 = Math.max(d2, norm2_[b]);
+			double h1 = (d12 <= 1e-15) ? Math.max(1e-6, h*1e-3) : Math.pow(0.01/d12, 1.0/5);
+			h = Double.isNaN(h1) ? h : Math.min(100*h, h1);
+			hMin = Math.min(hMin, h);
+		}
+		return hMin;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * The elementwise operations are done on blocks of contiguous elements: one block of
+	 * dimension_*stride_ elements if all slots are used, otherwise one block per variable.
+	 */
+	private int numBlocks() {
+		return (numSystems_ == stride_) ? 1 : dimension_;
+	}
+	
+	/** Length of the blocks, see numBlocks() */
+	private int blockLength() {
+		return (numSystems_ == stride_) ? dimension_*stride_ : numSystems_;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Copy the states of the systems from a to b */
+	private void copy(double[] a, double[] b) {
+		
+		int blocks = numBlocks();
+		int length = blockLength();
+		for (int k=0; k<blocks; k++)
+			System.arraycopy(a, k*stride_, b, k*stride_, length);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Swap the values of the slots b1 and b2 in the given array */
+	private void swapSlots(double[] a, int b1, int b2) {
+		
+		for (int v=0; v<dimension_; v++) {
+			int i1 = v*stride_ + b1;
+			int i2 = v*stride_ + b2;
+			double swap = a[i1];
+			a[i1] = a[i2];
+			a[i2] = swap;
+		}
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	/** Set the number of systems that are integrated, the systems in the slots >= n are no longer updated */
+	public void setNumSystems(int n) { numSystems_ = n; }
+	
+	/** Return the time reached by the solver (can be beyond the time of the last call to integrateTo()) */
+	public double getTime() { return t_; }
+	public double getStepSize() { return h_; }
+	public int getNumSteps() { return numSteps_; }
+
+}
@@ -0,0 +1,112 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw;
+
+
+/** Adaptive Dormand-Prince 5(4) integrator for the ODEs of a gene network.
+ *
+ * This is the scheme of DOPRI5 (Hairer, Norsett and Wanner, Solving Ordinary
+ * Differential Equations I, 1993): the step size is adapted with a PI controller
+ * and a continuous extension of order 4 (dense output) gives the state at any time
+ * within the last step. The solver thus takes the steps that the tolerance allows,
+ * independently of the times at which the state is requested (see integrateTo()).
+ *
+ * The steps are computed by DormandPrinceScheme, which is also used to integrate
+ * batches of perturbations (see GeneNetworkBatch). All computations are done on
+ * primitive arrays that are allocated once. Negative concentrations, which can
+ * appear during a large step, are set to zero. An instance must not be shared
+ * between threads.
+ *
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ *
+ */
+public class DormandPrinceSolver extends OdeIntegrator {
+	
+	/** The scheme, integrates the single system ode_ */
+	private DormandPrinceScheme scheme_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, the initial state is ode.getState() at time 0
+	 * @param ode The system to integrate
+	 * @param absoluteTolerance Absolute tolerance of the local error
+	 * @param relativeTolerance Relative tolerance of the local error
+	 */
+	public DormandPrinceSolver(GeneNetworkODE ode, double absoluteTolerance, double relativeTolerance) {
+		
+		super(ode, absoluteTolerance, relativeTolerance);
+		
+		DormandPrinceScheme.RightHandSide rhs = new DormandPrinceScheme.RightHandSide() {
+			public void evaluate(double[] y, double[] dydt) {
+				DormandPrinceSolver.this.evaluate(y, dydt);
+			}
+		};
+		scheme_ = new DormandPrinceScheme(rhs, dimension_, 1, absoluteTolerance, relativeTolerance);
+		
+		restart(0);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Restart the integration from the current state of the system (ode.getState()) at
+	 * time t. Must be called after the parameters of the network have been changed (e.g.
+	 * a perturbation has been removed), the steps computed beyond t are discarded.
+	 */
+	public void restart(double t) {
+		
+		scheme_.restart(ode_.getState(), t);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Integrate until time t and save the state at time t in ode.getState(). The solver steps
+	 * beyond t if the tolerance allows, the state at t is then interpolated (dense output).
+	 * The time must not be smaller than the time of the previous call.
+	 */
+	public void integrateTo(double t) {
+		
+		scheme_.integrateTo(t, ode_.getState());
+		numSteps_ = scheme_.getNumSteps();
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	/** Return the time reached by the solver (can be beyond the time of the last call to integrateTo()) */
+	public double getTime() { return scheme_.getTime(); }
+	public double getStepSize() { return scheme_.getStepSize(); }
+
+}
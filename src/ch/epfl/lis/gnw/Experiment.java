@@ -26,10 +26,13 @@ THE SOFTWARE.
 
 package ch.epfl.lis.gnw;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.logging.Logger;
 
 import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
 import cern.jet.random.Normal;
 
 
@@ -67,7 +70,7 @@ abstract public class Experiment {
 	/** Set true if proteins are modeled */
 	protected boolean modelTranslation_;
 	
-	/** Normal distribution used to generate the different types of noise */
+	/** Normal distribution used to generate the different types of noise (the random stream of this experiment, created on demand) */
 	private Normal normalDistribution_;
 	/** Set true to add normal noise to the data */
 	private boolean addNormalNoise_;
@@ -93,6 +96,8 @@ abstract public class Experiment {
 	abstract public void run(DoubleMatrix1D xy0);
 	/** Return the expression data as an array list of strings */
 	abstract public ArrayList<String[]> expressionMatrixToString();
+	/** Write the expression data row by row (same rows as expressionMatrixToString()) */
+	abstract public void writeExpressionMatrix(ExpressionMatrixWriter writer) throws IOException;
 	/** Clone this experiment (shallow copy of everything except data and parameters from GnwSettings) */
 	abstract public Experiment clone();
 	/** Add experimental noise to the expression data */
@@ -119,7 +124,7 @@ abstract public class Experiment {
 		numExperiments_ = 0;
 		xy0_ = null;
 		modelTranslation_ = set.getModelTranslation();
-		normalDistribution_ = set.getNormalDistribution();
+		normalDistribution_ = null;
 		
 		addNormalNoise_ = set.getAddNormalNoise();
 		addLognormalNoise_ = set.getAddLognormalNoise();
@@ -182,6 +187,9 @@ abstract public class Experiment {
 		
 		double xPlusNoise = x;
 		
+		if (normalDistribution_ == null)
+			normalDistribution_ = GnwSettings.getInstance().getRandomStream(getRandomStreamKey("noise")).getNormalDistribution();
+		
 		// Note, in the constructor we tested that not both microarray noise and normal/lognormal noise
 		// is added, which makes no sense. However, normal and lognormal noise can be added together
 		if (addLognormalNoise_)
@@ -240,6 +248,74 @@ abstract public class Experiment {
 	}
 
 	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return true if the simulations of this experiment can be run concurrently (see ExperimentExecutor),
+	 * i.e. if several threads are available and if they don't draw from the same random numbers
+	 * (ODEs, stiff or not, or SDEs with independent random streams)
+	 */
+	public boolean canRunConcurrently() {
+		
+		boolean independent = Solver.isDeterministic(solverType_) || GnwSettings.getInstance().getRandomStreams();
+		return independent && ExperimentExecutor.isConcurrent();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return the key of the random stream used for the given part of this experiment
+	 * (e.g. "noise" or the index of a perturbation), see GnwSettings.getRandomStream().
+	 * The solver type is part of the key so that the ODE and SDE versions of an experiment
+	 * with the same label (e.g. in BenchmarkGeneratorDream4) don't share their streams.
+	 */
+	protected String getRandomStreamKey(String part) {
+		
+		String network = (grn_ == null) ? "" : grn_.getId();
+		return network + "/" + getClass().getSimpleName() + "/" + solverType_ + "/" + label_ + "/" + part;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return true if the SDE simulations of this experiment (e.g. the repeats of a compendium
+	 * experiment) can be integrated together in lockstep (see SdeEnsemble): if this is enabled
+	 * in GnwSettings and the network can be compiled (see GeneNetwork.getKernel()).
+	 */
+	public boolean canRunAsEnsemble() {
+		
+		return solverType_ == Solver.type.SDE && numExperiments_ > 1 && GnwSettings.getInstance().getSdeEnsemble()
+			&& grn_.getKernel() != null;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Bind the random stream of the i'th simulation of this experiment to the current thread
+	 * (SDEs only, ODEs don't draw random numbers). Return the stream bound before, which must
+	 * be restored with RandomStream.restore() after the simulation.
+	 */
+	protected RandomStream bindRandomStream(int i) {
+		
+		if (solverType_ != Solver.type.SDE)
+			return RandomStream.getCurrent();
+		
+		return getRandomStream(i).bind();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the random stream of the i'th simulation of this experiment (see bindRandomStream()) */
+	protected RandomStream getRandomStream(int i) {
+		
+		return GnwSettings.getInstance().getRandomStream(getRandomStreamKey(Integer.toString(i)));
+	}
+	
+	
 	// ----------------------------------------------------------------------------
 	
 	/** Concatenate two vectors into one array */
@@ -255,6 +331,21 @@ abstract public class Experiment {
 		
 		return output;
 	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return a new matrix for simulated data, its values are stored in single precision
+	 * if GnwSettings.singlePrecisionStorage_ is set (see DenseFloatMatrix2D)
+	 */
+	protected static DoubleMatrix2D newDataMatrix(int rows, int columns) {
+		
+		if (GnwSettings.getInstance().getSinglePrecisionStorage())
+			return new DenseFloatMatrix2D(rows, columns);
+		else
+			return new DenseDoubleMatrix2D(rows, columns);
+	}
 
 	
 	// ============================================================================
@@ -275,6 +366,8 @@ abstract public class Experiment {
 	public void setNumExperiments(int numExperiments) { numExperiments_ = numExperiments; }
 	public int getNumExperiments() { return numExperiments_; }
 	
+	public boolean getNoiseHasBeenAdded() { return noiseHasBeenAdded_; }
+	
 	public void setPerturbation(Perturbation perturbation) { perturbation_ = perturbation; }
 	public Perturbation getPerturbation() { return perturbation_; }
 	
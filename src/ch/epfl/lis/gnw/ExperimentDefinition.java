@@ -131,6 +131,20 @@ public class ExperimentDefinition {
 	}
 
 	
+	// ----------------------------------------------------------------------------
+
+	/** Returns true if the given definition differs from this definition only by the levels of the perturbations (e.g. a dose series) */
+	public boolean differsOnlyByLevels(ExperimentDefinition def) {
+		
+		return sameCondition(def) &&
+			Arrays.equals(perturbationVariables_, def.getPerturbationVariables()) &&
+			treatment_ == def.getTreatment() &&
+			Arrays.equals(deletedGenes_, def.getDeletedGenes()) &&
+			Arrays.equals(overexpressedGenes_, def.getOverexpressedGenes()) &&
+			((timePoints_ == null) == (def.getTimePoints() == null));
+	}
+
+	
 	// ----------------------------------------------------------------------------
 
 	/** Returns true if the given definition has the same batchId and batchCondition */
@@ -0,0 +1,213 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+
+/** Runs independent simulation tasks concurrently.
+ * 
+ * Tasks are executed by a work-stealing thread pool whose size is defined by
+ * GnwSettings.numThreads_. If only one thread is used, the tasks are run one
+ * after the other in the calling thread, exactly as before. Tasks submitted from
+ * within a task (e.g. the perturbations of an experiment, while several experiments
+ * are run concurrently) are executed by the same pool.
+ * 
+ * The tasks must not share mutable state, in particular every task simulating
+ * a perturbation must work on its own replica of the gene network (see
+ * GeneNetwork.createReplica()).
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ */
+public class ExperimentExecutor {
+
+	/** A task that can be run by the executor, index is the number of the task */
+	public interface Task {
+		public void run(int index) throws Exception;
+	}
+	
+	/** The thread pool (created on demand, recreated when the number of threads changes) */
+	private static ForkJoinPool pool_ = null;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Return the number of threads to be used (GnwSettings.numThreads_, or the number of processors if it is < 1) */
+	public static int getNumThreads() {
+		
+		int numThreads = GnwSettings.getInstance().getNumThreads();
+		if (numThreads < 1)
+			numThreads = Runtime.getRuntime().availableProcessors();
+		return numThreads;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return true if tasks are run concurrently */
+	public static boolean isConcurrent() {
+		
+		return getNumThreads() > 1;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Run the tasks with index 0, ..., numTasks-1 and wait until all of them are done.
+	 * If a task throws an exception, the tasks that have not yet started are skipped
+	 * and the first exception is thrown once the running tasks are done.
+	 */
+	public static void run(int numTasks, final Task task) throws Exception {
+		
+		if (numTasks <= 1 || !isConcurrent()) {
+			for (int i=0; i<numTasks; i++)
+				task.run(i);
+			return;
+		}
+		
+		final Exception[] error = new Exception[1];
+		final ArrayList<RecursiveAction> actions = new ArrayList<RecursiveAction>(numTasks);
+		
+		for (int i=0; i<numTasks; i++) {
+			final int index = i;
+			actions.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+				protected void compute() {
+					synchronized (error) {
+						if (error[0] != null)
+							return;
+					}
+					try {
+						task.run(index);
+					} catch (Exception e) {
+						synchronized (error) {
+							if (error[0] == null)
+								error[0] = e;
+						}
+					}
+				}
+			});
+		}
+		
+		ForkJoinPool pool = getPool();
+		if (ForkJoinTask.getPool() == pool) {
+			// nested call from a task of our pool, fork the tasks and help executing them
+			ForkJoinTask.invokeAll(actions);
+		} else {
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+				protected void compute() {
+					invokeAll(actions);
+				}
+			});
+		}
+		
+		synchronized (error) {
+			if (error[0] != null)
+				throw error[0];
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Same as run(), but checked exceptions of the tasks are wrapped in a RuntimeException */
+	public static void runUnchecked(int numTasks, Task task) {
+		
+		runUnchecked(numTasks, task, true, RuntimeException.class);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Same as runUnchecked(), if concurrent is false the tasks are run one after the other in the
+	 * calling thread (e.g. if they draw from the same random numbers)
+	 */
+	public static void runUnchecked(int numTasks, Task task, boolean concurrent) {
+		
+		runUnchecked(numTasks, task, concurrent, RuntimeException.class);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Same as runUnchecked(), but exceptions of the given type (e.g. IOException) are thrown
+	 * as they are, other checked exceptions are wrapped in a RuntimeException
+	 */
+	public static <E extends Exception> void runUnchecked(int numTasks, Task task, Class<E> exceptionType) throws E {
+		
+		runUnchecked(numTasks, task, true, exceptionType);
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Run the tasks (concurrently or not), exceptions other than RuntimeException and exceptionType are wrapped */
+	private static <E extends Exception> void runUnchecked(int numTasks, Task task, boolean concurrent, Class<E> exceptionType) throws E {
+		
+		try {
+			if (concurrent) {
+				run(numTasks, task);
+			} else {
+				for (int i=0; i<numTasks; i++)
+					task.run(i);
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			if (exceptionType.isInstance(e))
+				throw exceptionType.cast(e);
+			throw new RuntimeException(e);
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the thread pool, create it if necessary */
+	private static synchronized ForkJoinPool getPool() {
+		
+		int numThreads = getNumThreads();
+		if (pool_ == null || pool_.getParallelism() != numThreads) {
+			if (pool_ != null)
+				pool_.shutdown();
+			pool_ = new ForkJoinPool(numThreads);
+		}
+		return pool_;
+	}
+	
+}
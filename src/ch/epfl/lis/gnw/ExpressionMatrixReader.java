@@ -0,0 +1,578 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cern.colt.list.LongArrayList;
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+
+
+/** 
+ * Reads a numeric TSV file (e.g. the expression matrix of a compendium) without loading it
+ * into memory as strings. The file is memory mapped and the positions of the rows are indexed
+ * in one pass, the values of the requested rows and columns are then parsed directly from the
+ * mapped bytes into a matrix (concurrently, see ExperimentExecutor).
+ * 
+ * Optionally, the parsed values are saved in a binary cache next to the file (the filename with
+ * the extension .gnwb, see BinaryDatasetWriter), which is used instead of the TSV file as long as
+ * the size and modification time of the TSV file do not change. The columns of the TSV file are
+ * the "genes" of the binary dataset and its rows are saved in blocks of CACHE_BLOCK_ROWS rows,
+ * the name of every block identifies the version of the TSV file.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ */
+public class ExpressionMatrixReader {
+	
+	/** The TSV file */
+	private File file_ = null;
+	/** The number of rows */
+	private int numRows_ = 0;
+	/** The number of columns (given by the first row) */
+	private int numColumns_ = 0;
+	/** The position of the first byte of every row in the file (null if the cache is used) */
+	private long[] rowStarts_ = null;
+	/** The position after the last byte of every row, without the line break */
+	private long[] rowEnds_ = null;
+	/** The binary cache (null if it is not used) */
+	private BinaryDatasetReader cache_ = null;
+	
+	/** The size of the mapped windows of the TSV file in bytes (larger if a row doesn't fit) */
+	private static final int WINDOW_SIZE = 1 << 26;
+	/** The number of rows read by a task */
+	private static final int ROWS_PER_TASK = 256;
+	/** The number of rows per block of the binary cache */
+	private static final int CACHE_BLOCK_ROWS = 1024;
+	/** Powers of ten that are exactly representable as doubles */
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	
+	/** Logger for this class */
+	private static Logger log_ = Logger.getLogger(ExpressionMatrixReader.class.getName());
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, index the rows of the given file. If useCache is set, the values are read from
+	 * the binary cache, which is created first if it doesn't exist or is out of date.
+	 */
+	public ExpressionMatrixReader(String filename, boolean useCache) throws IOException {
+		
+		file_ = new File(filename);
+		if (!file_.isFile())
+			throw new IOException("ExpressionMatrixReader: file not found: " + filename);
+		
+		if (useCache && openCache())
+			return;
+		
+		indexRows();
+		
+		if (useCache) {
+			try {
+				writeCache();
+				if (!openCache())
+					throw new IOException("the cache is not consistent with " + filename);
+			} catch (IOException e) {
+				log_.log(Level.WARNING, "Could not create the binary cache of file " + filename + ": " + e.getMessage(), e);
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Read the values of the given rows and columns of the file (null: all rows / all columns,
+	 * the rows must be distinct). The value in row rows[i] and column columns[j] is saved in
+	 * dest(i, j) or, if transpose is set, in dest(j, i). If destIndexes is not null, i is
+	 * replaced by destIndexes[i] (e.g. to reorder the genes).
+	 */
+	public void read(int[] rows, int[] columns, final DoubleMatrix2D dest, int[] destIndexes, final boolean transpose) throws IOException {
+		
+		final int[] rowList = (rows == null) ? range(numRows_) : rows;
+		final int[] columnList = (columns == null) ? range(numColumns_) : columns;
+		final int[] destList = (destIndexes == null) ? range(rowList.length) : destIndexes;
+		
+		if (destList.length != rowList.length)
+			throw new IllegalArgumentException("ExpressionMatrixReader: " + destList.length + " destination indexes given for " + rowList.length + " rows");
+		
+		// columnSlots[c] is the index j of column c (-1 if it is not read)
+		final int[] columnSlots = new int[numColumns_];
+		Arrays.fill(columnSlots, -1);
+		for (int j=0; j<columnList.length; j++) {
+			if (columnList[j] < 0 || columnList[j] >= numColumns_)
+				throw new IllegalArgumentException("ExpressionMatrixReader: column " + columnList[j] + " does not exist");
+			columnSlots[columnList[j]] = j;
+		}
+		for (int i=0; i<rowList.length; i++)
+			if (rowList[i] < 0 || rowList[i] >= numRows_)
+				throw new IllegalArgumentException("ExpressionMatrixReader: row " + rowList[i] + " does not exist");
+		
+		ExperimentExecutor.Task task = null;
+		int numTasks = 0;
+		
+		if (cache_ == null) {
+			numTasks = (rowList.length + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+			task = new ExperimentExecutor.Task() {
+				public void run(int index) throws Exception {
+					int first = index*ROWS_PER_TASK;
+					int last = Math.min(first + ROWS_PER_TASK, rowList.length);
+					parseRows(rowList, first, last, columnSlots, dest, destList, transpose);
+				}
+			};
+		} else {
+			// rowSlots[r] is the index i of row r (-1 if it is not read)
+			final int[] rowSlots = new int[numRows_];
+			Arrays.fill(rowSlots, -1);
+			for (int i=0; i<rowList.length; i++)
+				rowSlots[rowList[i]] = i;
+			
+			numTasks = cache_.getNumBlocks();
+			task = new ExperimentExecutor.Task() {
+				public void run(int index) throws Exception {
+					readCacheBlock(index, rowSlots, columnList, dest, destList, transpose);
+				}
+			};
+		}
+		
+		ExperimentExecutor.runUnchecked(numTasks, task, IOException.class);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Read the given rows and columns (null: all) into a new matrix (one row per row of the file) */
+	public DoubleMatrix2D read(int[] rows, int[] columns) throws IOException {
+		
+		DoubleMatrix2D dest = new DenseDoubleMatrix2D(rows == null ? numRows_ : rows.length, columns == null ? numColumns_ : columns.length);
+		read(rows, columns, dest, null, false);
+		return dest;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Close the binary cache (if any) */
+	public void close() throws IOException {
+		
+		if (cache_ != null) {
+			cache_.close();
+			cache_ = null;
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Parse a double from the given bytes of the buffer (from start to end, exclusive), the result is
+	 * the same as Double.parseDouble(). Plain decimal numbers with up to 18 significant digits are
+	 * parsed without allocation, other numbers (e.g. NaN or quoted values) are passed to Double.parseDouble().
+	 */
+	public static double parseDouble(ByteBuffer buffer, int start, int end) {
+		
+		int i = start;
+		int n = end;
+		
+		// trim whitespace, as Double.parseDouble()
+		while (i < n && (buffer.get(i) & 0xff) <= ' ')
+			i++;
+		while (n > i && (buffer.get(n-1) & 0xff) <= ' ')
+			n--;
+		
+		boolean negative = false;
+		if (i < n && (buffer.get(i) == '-' || buffer.get(i) == '+'))
+			negative = (buffer.get(i++) == '-');
+		
+		long mantissa = 0;
+		int numDigits = 0; // significant digits
+		int exponent = 0;
+		boolean anyDigits = false;
+		boolean point = false;
+		
+		for (; i<n; i++) {
+			byte b = buffer.get(i);
+			if (b >= '0' && b <= '9') {
+				anyDigits = true;
+				if (mantissa == 0 && b == '0') {
+					if (point)
+						exponent--;
+					continue;
+				}
+				if (++numDigits > 18)
+					return parseDoubleSlow(buffer, start, end);
+				mantissa = 10*mantissa + (b - '0');
+				if (point)
+					exponent--;
+			} else if (b == '.' && !point) {
+				point = true;
+			} else {
+				break;
+			}
+		}
+		if (!anyDigits)
+			return parseDoubleSlow(buffer, start, end);
+		
+		if (i < n && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < n && (buffer.get(i) == '-' || buffer.get(i) == '+'))
+				negativeExponent = (buffer.get(i++) == '-');
+			if (i == n)
+				return parseDoubleSlow(buffer, start, end);
+			
+			int e = 0;
+			for (; i<n; i++) {
+				byte b = buffer.get(i);
+				if (b < '0' || b > '9' || e > 10000)
+					return parseDoubleSlow(buffer, start, end);
+				e = 10*e + (b - '0');
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+		if (i < n)
+			return parseDoubleSlow(buffer, start, end);
+		
+		// both the mantissa and the power of ten are exact, thus the result is correctly rounded
+		double x;
+		if (mantissa == 0)
+			x = 0;
+		else if (mantissa < (1L << 53) && exponent >= -22 && exponent <= 22)
+			x = (exponent < 0) ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+		else
+			return parseDoubleSlow(buffer, start, end);
+		
+		return negative ? -x : x;
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * Index the positions of the rows of the TSV file and count the columns of the first row.
+	 * Empty lines (e.g. a blank line at the end of the file) are skipped.
+	 */
+	private void indexRows() throws IOException {
+		
+		RandomAccessFile file = new RandomAccessFile(file_, "r");
+		FileChannel channel = file.getChannel();
+		
+		try {
+			long size = channel.size();
+			LongArrayList starts = new LongArrayList();
+			LongArrayList ends = new LongArrayList();
+			long lineStart = 0;
+			byte previous = 0;
+			
+			for (long windowStart=0; windowStart<size; windowStart+=WINDOW_SIZE) {
+				int windowSize = (int) Math.min(WINDOW_SIZE, size-windowStart);
+				MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+				
+				for (int i=0; i<windowSize; i++) {
+					byte c = window.get(i);
+					if (c == '\n') {
+						long lineEnd = windowStart + i;
+						if (!isEmptyLine(lineEnd - lineStart, previous)) {
+							starts.add(lineStart);
+							ends.add(lineEnd);
+						}
+						lineStart = lineEnd + 1;
+					}
+					previous = c;
+				}
+			}
+			// the last line may not be terminated
+			if (lineStart < size && !isEmptyLine(size - lineStart, previous)) {
+				starts.add(lineStart);
+				ends.add(size);
+			}
+			
+			numRows_ = starts.size();
+			starts.trimToSize();
+			ends.trimToSize();
+			rowStarts_ = starts.elements();
+			rowEnds_ = ends.elements();
+			
+			if (numRows_ > 0) {
+				MappedByteBuffer first = channel.map(FileChannel.MapMode.READ_ONLY, rowStarts_[0], rowEnds_[0]-rowStarts_[0]);
+				numColumns_ = 1;
+				for (int i=0; i<first.limit(); i++)
+					if (first.get(i) == '\t')
+						numColumns_++;
+			}
+		} finally {
+			channel.close();
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return true if a line of the given length whose last byte is lastByte is empty (a lone '\r' of a CRLF line break counts as empty) */
+	private static boolean isEmptyLine(long length, byte lastByte) {
+		
+		return length == 0 || (length == 1 && lastByte == '\r');
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Parse the rows rowList[first], ..., rowList[last-1] of the TSV file (see read()) */
+	private void parseRows(int[] rowList, int first, int last, int[] columnSlots, DoubleMatrix2D dest, int[] destList, boolean transpose) throws IOException {
+		
+		RandomAccessFile file = new RandomAccessFile(file_, "r");
+		FileChannel channel = file.getChannel();
+		
+		try {
+			MappedByteBuffer window = null;
+			long windowStart = 0;
+			
+			for (int i=first; i<last; i++) {
+				int r = rowList[i];
+				long start = rowStarts_[r];
+				long end = rowEnds_[r];
+				
+				if (window == null || start < windowStart || end > windowStart + window.limit()) {
+					windowStart = start;
+					long windowSize = Math.min(Math.max(WINDOW_SIZE, end-start), channel.size()-start);
+					window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+				}
+				
+				int pos = (int) (start - windowStart);
+				int rowEnd = (int) (end - windowStart);
+				
+				// strip the carriage return of windows line breaks
+				if (rowEnd > pos && window.get(rowEnd-1) == '\r')
+					rowEnd--;
+				
+				int c = 0;
+				while (c < numColumns_) {
+					int fieldEnd = pos;
+					while (fieldEnd < rowEnd && window.get(fieldEnd) != '\t')
+						fieldEnd++;
+					
+					int j = columnSlots[c];
+					if (j >= 0) {
+						double x = parseDouble(window, pos, fieldEnd);
+						if (transpose)
+							dest.setQuick(j, destList[i], x);
+						else
+							dest.setQuick(destList[i], j, x);
+					}
+					c++;
+					
+					if (fieldEnd >= rowEnd)
+						break;
+					pos = fieldEnd + 1;
+				}
+				if (c < numColumns_)
+					throw new IOException("ExpressionMatrixReader: row " + (r+1) + " of file " + file_.getPath() + " has " + c + " columns, expected " + numColumns_);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Read the rows of the given block of the binary cache (see read()) */
+	private void readCacheBlock(int b, int[] rowSlots, int[] columnList, DoubleMatrix2D dest, int[] destList, boolean transpose) throws IOException {
+		
+		int firstRow = b*CACHE_BLOCK_ROWS;
+		int numRows = cache_.getNumRows(b);
+		double[] profile = new double[numRows];
+		
+		boolean any = false;
+		for (int k=0; k<numRows; k++)
+			if (rowSlots[firstRow + k] >= 0)
+				any = true;
+		if (!any)
+			return;
+		
+		for (int j=0; j<columnList.length; j++) {
+			cache_.getGeneProfile(b, columnList[j], profile);
+			
+			for (int k=0; k<numRows; k++) {
+				int i = rowSlots[firstRow + k];
+				if (i < 0)
+					continue;
+				if (transpose)
+					dest.setQuick(j, destList[i], profile[k]);
+				else
+					dest.setQuick(destList[i], j, profile[k]);
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Open the binary cache, return false if it doesn't exist or is out of date */
+	private boolean openCache() {
+		
+		File cacheFile = getCacheFile();
+		if (!cacheFile.isFile())
+			return false;
+		
+		BinaryDatasetReader cache = null;
+		try {
+			cache = new BinaryDatasetReader(cacheFile.getPath());
+			
+			int numRows = 0;
+			for (int b=0; b<cache.getNumBlocks(); b++) {
+				if (!cache.getBlockName(b).equals(getCacheVersion()))
+					throw new IOException("out of date");
+				numRows += cache.getNumRows(b);
+			}
+			if (cache.getNumBlocks() == 0)
+				throw new IOException("empty");
+			
+			numRows_ = numRows;
+			numColumns_ = cache.getNumGenes();
+			cache_ = cache;
+			log_.info("Reading the binary cache " + cacheFile.getPath());
+			return true;
+			
+		} catch (IOException e) {
+			if (cache != null) {
+				try {
+					cache.close();
+				} catch (IOException e2) {}
+			}
+			return false;
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Parse the TSV file and save the values in the binary cache */
+	private void writeCache() throws IOException {
+		
+		File cacheFile = getCacheFile();
+		log_.info("Writing the binary cache " + cacheFile.getPath());
+		
+		String[] columnIds = new String[numColumns_];
+		for (int c=0; c<numColumns_; c++)
+			columnIds[c] = Integer.toString(c+1);
+		
+		BinaryDatasetWriter writer = new BinaryDatasetWriter(cacheFile.getPath(), columnIds, new String[0], false);
+		String version = getCacheVersion();
+		
+		try {
+			for (int first=0; first<numRows_; first+=CACHE_BLOCK_ROWS) {
+				int numRows = Math.min(CACHE_BLOCK_ROWS, numRows_-first);
+				int[] rows = new int[numRows];
+				for (int k=0; k<numRows; k++)
+					rows[k] = first + k;
+				
+				writer.writeBlock(version, false, null, null, read(rows, null));
+			}
+			writer.close();
+			
+		} catch (IOException e) {
+			try {
+				writer.close();
+			} catch (Exception e2) {}
+			cacheFile.delete();
+			throw e;
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the binary cache of the TSV file */
+	private File getCacheFile() {
+		
+		return new File(file_.getPath() + BinaryDatasetWriter.EXTENSION);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the version of the TSV file (size and modification time), saved as block name in the cache */
+	private String getCacheVersion() {
+		
+		return "size=" + file_.length() + " modified=" + file_.lastModified();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Parse the given bytes with Double.parseDouble(), quotes are removed as by TSVParser */
+	private static double parseDoubleSlow(ByteBuffer buffer, int start, int end) {
+		
+		char[] chars = new char[end-start];
+		for (int i=start; i<end; i++)
+			chars[i-start] = (char) (buffer.get(i) & 0xff);
+		
+		String str = new String(chars).trim();
+		if (str.length() >= 2 && str.startsWith("\"") && str.endsWith("\""))
+			str = str.substring(1, str.length()-1).replace("\"\"", "\"");
+		
+		return Double.parseDouble(str);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the array 0, 1, ..., n-1 */
+	private static int[] range(int n) {
+		
+		int[] range = new int[n];
+		for (int i=0; i<n; i++)
+			range[i] = i;
+		return range;
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public String getFilename() { return file_.getPath(); }
+	public int getNumRows() { return numRows_; }
+	public int getNumColumns() { return numColumns_; }
+	/** Return true if the values are read from the binary cache */
+	public boolean getUsesCache() { return cache_ != null; }
+	
+}
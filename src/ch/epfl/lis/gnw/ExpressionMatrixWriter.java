@@ -0,0 +1,304 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+import cern.colt.list.IntArrayList;
+import cern.colt.list.LongArrayList;
+import cern.colt.matrix.DoubleMatrix2D;
+
+
+/** 
+ * Streams an expression matrix (one row per experiment, one column per gene) to a TSV file,
+ * see Experiment.writeExpressionMatrix(). The rows can also be passed on to a binary dataset
+ * (BinaryDatasetWriter), in which case the TSV file may be omitted. Optionally, the transposed matrix (one row per gene)
+ * is written to a second file when close() is called. For this purpose, the rows are saved in
+ * a temporary binary file ("spill") in blocks of SPILL_BLOCK_SIZE values. Within a block, the
+ * values are stored gene by gene, so that the transposed rows of a group of genes can be read
+ * with one contiguous read per block. Thus, neither the matrix nor its transpose is ever kept
+ * in memory.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ */
+public class ExpressionMatrixWriter {
+	
+	/** The writer of the expression matrix (null if it is not written) */
+	private TsvWriter writer_ = null;
+	/** The writer of the binary dataset to which the rows are added (null if none) */
+	private BinaryDatasetWriter binaryWriter_ = null;
+	/** The labels of the genes */
+	private String[] geneLabels_ = null;
+	/** The number of genes */
+	private int numGenes_ = 0;
+	/** The number of rows written so far */
+	private int numRows_ = 0;
+	
+	/** The filename of the transposed matrix (null if it is not written) */
+	private String transposedFilename_ = null;
+	/** The temporary file with the rows for the transposed matrix */
+	private File spillFile_ = null;
+	/** The channel of the spill file */
+	private FileChannel spill_ = null;
+	/** The rows of the current block, spillBlock_[g*spillBlockRows_ + r] is the value of gene g in row r */
+	private double[] spillBlock_ = null;
+	/** The maximum number of rows per block */
+	private int spillBlockRows_ = 0;
+	/** The number of rows in the current block */
+	private int numBlockRows_ = 0;
+	/** The number of rows of every block written to the spill file */
+	private IntArrayList blockRows_ = null;
+	/** The position of every block in the spill file (in bytes) */
+	private LongArrayList blockPositions_ = null;
+	
+	/** The number of values per block of the spill file (and per group of transposed rows) */
+	private static final int SPILL_BLOCK_SIZE = 1 << 20;
+	/** The number of decimals of the values */
+	private static final int NUM_DECIMALS = 7;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, create the file and write the header with the gene labels. The transposed
+	 * matrix is written to transposedFilename, unless it is null.
+	 */
+	public ExpressionMatrixWriter(String filename, String[] geneLabels, String transposedFilename) throws IOException {
+		
+		this(filename, geneLabels, transposedFilename, null);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Constructor, the rows are also added to the current block of the given binary dataset
+	 * (the blocks are ended by the caller). If filename is null, the TSV files are not written.
+	 */
+	public ExpressionMatrixWriter(String filename, String[] geneLabels, String transposedFilename, BinaryDatasetWriter binaryWriter) throws IOException {
+		
+		geneLabels_ = geneLabels;
+		numGenes_ = geneLabels.length;
+		transposedFilename_ = (filename == null) ? null : transposedFilename;
+		binaryWriter_ = binaryWriter;
+		
+		if (transposedFilename_ != null) {
+			File parent = new File(transposedFilename_).getAbsoluteFile().getParentFile();
+			spillFile_ = File.createTempFile("gnw_", ".spill", parent);
+			spillFile_.deleteOnExit();
+			spill_ = new RandomAccessFile(spillFile_, "rw").getChannel();
+			
+			spillBlockRows_ = Math.max(1, SPILL_BLOCK_SIZE / Math.max(1, numGenes_));
+			spillBlock_ = new double[spillBlockRows_ * numGenes_];
+			blockRows_ = new IntArrayList();
+			blockPositions_ = new LongArrayList();
+		}
+		
+		if (filename != null) {
+			writer_ = new TsvWriter(filename);
+			writer_.writeRow(geneLabels);
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Write the given row of the matrix (the columns are the genes) */
+	public void writeRow(DoubleMatrix2D data, int row) throws IOException {
+		
+		if (data.columns() != numGenes_)
+			throw new IllegalArgumentException("ExpressionMatrixWriter: the data has " + data.columns() + " genes, expected " + numGenes_);
+		
+		if (writer_ != null) {
+			for (int g=0; g<numGenes_; g++)
+				writer_.writeDouble(data.getQuick(row, g), NUM_DECIMALS);
+			writer_.endRow();
+		}
+		if (binaryWriter_ != null)
+			binaryWriter_.writeRow(data, row);
+		
+		if (spill_ != null) {
+			for (int g=0; g<numGenes_; g++)
+				spillBlock_[g*spillBlockRows_ + numBlockRows_] = data.getQuick(row, g);
+			if (++numBlockRows_ == spillBlockRows_)
+				writeSpillBlock();
+		}
+		numRows_++;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Write the rows of the current experiment to the file (to be called after every experiment) */
+	public void flush() throws IOException {
+		
+		if (writer_ != null)
+			writer_.flush();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Close the file and write the transposed matrix (if any). The header of the transposed matrix
+	 * is an empty field followed by the given labels of the rows (one label per row written).
+	 * The binary dataset is not closed.
+	 */
+	public void close(String[] rowLabels) throws IOException {
+		
+		try {
+			if (writer_ != null) {
+				writer_.close();
+				writer_ = null;
+			}
+			
+			if (spill_ != null) {
+				if (rowLabels.length != numRows_)
+					throw new IllegalArgumentException("ExpressionMatrixWriter: " + rowLabels.length + " row labels given for " + numRows_ + " rows");
+				
+				if (numBlockRows_ > 0)
+					writeSpillBlock();
+				writeTransposed(rowLabels);
+			}
+		} finally {
+			if (spill_ != null) {
+				spill_.close();
+				spill_ = null;
+				spillFile_.delete();
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Close the files without writing the transposed matrix and delete the temporary file (to be
+	 * called if the matrix could not be written). Does nothing if the writer is already closed.
+	 */
+	public void abort() {
+		
+		// the error that caused the abort is reported by the caller
+		if (writer_ != null) {
+			try {
+				writer_.close();
+			} catch (IOException e) {
+			}
+			writer_ = null;
+		}
+		if (spill_ != null) {
+			try {
+				spill_.close();
+			} catch (IOException e) {
+			}
+			spill_ = null;
+			spillFile_.delete();
+		}
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Append the current block to the spill file (gene by gene) */
+	private void writeSpillBlock() throws IOException {
+		
+		ByteBuffer bytes = ByteBuffer.allocate(8 * numGenes_ * numBlockRows_).order(ByteOrder.nativeOrder());
+		DoubleBuffer values = bytes.asDoubleBuffer();
+		for (int g=0; g<numGenes_; g++)
+			values.put(spillBlock_, g*spillBlockRows_, numBlockRows_);
+		
+		blockPositions_.add(spill_.size());
+		blockRows_.add(numBlockRows_);
+		
+		long position = spill_.size();
+		while (bytes.hasRemaining())
+			position += spill_.write(bytes, position);
+		
+		numBlockRows_ = 0;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Write the transposed matrix, reading the rows of a group of genes at a time from the spill file */
+	private void writeTransposed(String[] rowLabels) throws IOException {
+		
+		TsvWriter writer = new TsvWriter(transposedFilename_);
+		
+		try {
+			writer.write("");
+			for (int r=0; r<numRows_; r++)
+				writer.write(rowLabels[r]);
+			writer.endRow();
+			
+			int groupSize = Math.max(1, SPILL_BLOCK_SIZE / Math.max(1, numRows_));
+			double[] group = new double[groupSize * numRows_];
+			
+			for (int first=0; first<numGenes_; first+=groupSize) {
+				int size = Math.min(groupSize, numGenes_-first);
+				
+				// group[k*numRows_ + r] is the value of gene first+k in row r
+				int firstRow = 0;
+				for (int b=0; b<blockRows_.size(); b++) {
+					int rows = blockRows_.get(b);
+					ByteBuffer bytes = ByteBuffer.allocate(8 * size * rows).order(ByteOrder.nativeOrder());
+					long position = blockPositions_.get(b) + 8L * first * rows;
+					while (bytes.hasRemaining()) {
+						int n = spill_.read(bytes, position + bytes.position());
+						if (n < 0)
+							throw new IOException("ExpressionMatrixWriter: unexpected end of file " + spillFile_.getPath());
+					}
+					bytes.flip();
+					
+					DoubleBuffer values = bytes.asDoubleBuffer();
+					for (int k=0; k<size; k++)
+						values.get(group, k*numRows_ + firstRow, rows);
+					firstRow += rows;
+				}
+				
+				for (int k=0; k<size; k++) {
+					writer.write(geneLabels_[first+k]);
+					for (int r=0; r<numRows_; r++)
+						writer.writeDouble(group[k*numRows_ + r], NUM_DECIMALS);
+					writer.endRow();
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+}
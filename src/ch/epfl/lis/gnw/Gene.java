@@ -88,6 +88,18 @@ abstract public class Gene extends Node {
 		super();
 		grn_ = grn;
 	}	
+	
+	
+	/** Copy constructor, the copy belongs to the given gene network (the input genes are not copied) */
+	public Gene(Gene gene, GeneNetwork grn) {
+		super(gene.getLabel());
+		grn_ = grn;
+		max_ = gene.max_;
+		delta_ = gene.delta_;
+		maxTranslation_ = gene.maxTranslation_;
+		deltaProtein_ = gene.deltaProtein_;
+		isTf_ = gene.isTf_;
+	}
 		
 	
 	// ----------------------------------------------------------------------------
@@ -99,6 +111,7 @@ abstract public class Gene extends Node {
 		setRandomHalfLife();
 		// Initialize the gene regulation function and its parameters in the subclass
 		subclassRandomInitialization();
+		notifyStructureChanged();
 	}
 
 
@@ -136,6 +149,7 @@ abstract public class Gene extends Node {
 		initializeHalfLife(paramNames, paramValues);
 		// Initialize the gene regulation function and its parameters in the subclass
 		subclassInitialization(paramNames, paramValues);
+		notifyStructureChanged();
 	}
 
 
@@ -176,6 +190,26 @@ abstract public class Gene extends Node {
 	// ============================================================================
 	// PRIVATE METHODS
 
+	/** Notify the gene network that the parameters of this gene have changed (see GeneNetwork.getKernel()) */
+	protected void notifyParametersChanged() {
+		
+		if (grn_ != null)
+			grn_.parametersChanged();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Notify the gene network that the inputs or the regulation function of this gene have changed */
+	protected void notifyStructureChanged() {
+		
+		if (grn_ != null)
+			grn_.structureChanged();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
 	/**
 	 * Set random half-lives for this gene's products. In the non-dimensionalized
 	 * model, max_ = delta_ and maxTranslation_ = deltaProtein_. We have exponential
@@ -213,16 +247,16 @@ abstract public class Gene extends Node {
 	// ============================================================================
 	// SETTERS AND GETTERS
 
-	public void setMax(double d) { max_ = d; }
+	public void setMax(double d) { max_ = d; notifyParametersChanged(); }
 	public double getMax() { return max_; }
 
-	public void setDelta(double d) { delta_ = d; }
+	public void setDelta(double d) { delta_ = d; notifyParametersChanged(); }
 	public double getDelta() { return delta_; }
 
-	public void setMaxTranslation(double d) { maxTranslation_ = d; }
+	public void setMaxTranslation(double d) { maxTranslation_ = d; notifyParametersChanged(); }
 	public double getMaxTranslation() { return maxTranslation_; }
 
-	public void setDeltaProtein(double d) { deltaProtein_ = d; }
+	public void setDeltaProtein(double d) { deltaProtein_ = d; notifyParametersChanged(); }
 	public double getDeltaProtein() { return deltaProtein_; }
 
 	//public void setPerturbationBasalActivation(double d) { perturbationBasalActivation_ = d; }
@@ -232,6 +266,6 @@ abstract public class Gene extends Node {
 	public void setIsTf(boolean isTf) { isTf_ = isTf; }
 
 	public ArrayList<Gene> getInputGenes() {return inputGenes_; }
-	public void setInputGenes(ArrayList<Gene> inputs) { inputGenes_ = inputs; }
+	public void setInputGenes(ArrayList<Gene> inputs) { inputGenes_ = inputs; notifyStructureChanged(); }
 	
 }
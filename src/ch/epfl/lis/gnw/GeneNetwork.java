@@ -73,6 +73,16 @@ public class GeneNetwork extends ImodNetwork {
 	private DoubleMatrix1D y_ = null;
 	/** The number of regulators in the network (must be initialized using markTfs()) */
 	private int numTfs_ = -1;
+	/** Compiled form of the dynamical model (built on demand, null if it must be rebuilt) */
+	private volatile GeneNetworkKernel kernel_ = null;
+	/** Set true when parameters of the genes have changed and must be copied to kernel_ */
+	private volatile boolean kernelParametersChanged_ = false;
+	/** Buffer for the concentrations of the regulators (used with kernel_) */
+	private double[] kernelInput_ = null;
+	/** Buffer for the production rates (used with kernel_) */
+	private double[] kernelOutput_ = null;
+	/** Number of random initializations so far, distinguishes their random streams */
+	private int numRandomInitializations_ = 0;
 	
     /** Logger for this class */
     private static Logger log_ = Logger.getLogger(GeneNetwork.class.getName());
@@ -126,12 +136,60 @@ public class GeneNetwork extends ImodNetwork {
 	// ============================================================================
 	// PUBLIC METHODS
 	
+	/**
+	 * Create a replica of this gene network: the genes, their parameters and the edges
+	 * are copied (the current state x_ and y_ is not). Perturbations applied to the
+	 * replica don't affect this network, which allows to simulate experiments concurrently.
+	 * All genes must be HillGenes.
+	 */
+	public GeneNetwork createReplica() {
+		
+		GeneNetwork replica = new GeneNetwork();
+		replica.id_ = id_;
+		replica.comment_ = comment_;
+		replica.directed_ = directed_;
+		replica.signed_ = signed_;
+		replica.numTfs_ = numTfs_;
+		
+		int size = getSize();
+		HashMap<Node, Integer> index = new HashMap<Node, Integer>(2*size);
+		for (int i=0; i<size; i++) {
+			replica.nodes_.add(new HillGene((HillGene)nodes_.get(i), replica));
+			index.put(nodes_.get(i), i);
+		}
+		
+		// the inputs of the genes (the order matters, see Gene.inputGenes_)
+		for (int i=0; i<size; i++) {
+			ArrayList<Gene> inputs = getGene(i).getInputGenes();
+			if (inputs == null)
+				continue;
+			ArrayList<Gene> replicaInputs = new ArrayList<Gene>(inputs.size());
+			for (int j=0; j<inputs.size(); j++)
+				replicaInputs.add(replica.getGene(index.get(inputs.get(j))));
+			replica.getGene(i).setInputGenes(replicaInputs);
+		}
+		
+		for (int i=0; i<edges_.size(); i++) {
+			Edge edge = edges_.get(i);
+			Node source = replica.nodes_.get(index.get(edge.getSource()));
+			Node target = replica.nodes_.get(index.get(edge.getTarget()));
+			replica.edges_.add(new Edge(source, target, edge.getType()));
+		}
+		replica.setSize(size);
+		
+		return replica;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
 	/**
 	 * Set network size, reserve space in x_ and y_ (does not affect members of the superclass)
 	 * @param numGenes Size of the network
 	 */
 	public void setSize(int numGenes) {
 		
+		structureChanged();
 		x_ = new DenseDoubleMatrix1D(numGenes);
 		x_.assign(-1);
 		if (GnwSettings.getInstance().getModelTranslation()) {
@@ -167,15 +225,21 @@ public class GeneNetwork extends ImodNetwork {
 		
 		log_.log(Level.INFO, "\nRandom initialization of " + id_);
 
-		// set the inputs for the genes based on W_
-		initializeInputWiring();
-		int size = nodes_.size();
-
-		Gene gene = null;
-		for (int i=0; i < size; i++) {
-			gene = (Gene)nodes_.get(i);
-			gene.randomInitialization();
-			log_.log(Level.INFO, id_ + ": " + gene.getLabel() + ": " + gene.toString());
+		// draw the parameters from the random stream of this network
+		RandomStream previous = GnwSettings.getInstance().getRandomStream(id_ + "/initialization/" + numRandomInitializations_++).bind();
+		try {
+			// set the inputs for the genes based on W_
+			initializeInputWiring();
+			int size = nodes_.size();
+	
+			Gene gene = null;
+			for (int i=0; i < size; i++) {
+				gene = (Gene)nodes_.get(i);
+				gene.randomInitialization();
+				log_.log(Level.INFO, id_ + ": " + gene.getLabel() + ": " + gene.toString());
+			}
+		} finally {
+			RandomStream.restore(previous);
 		}
 		// If the network was unsigned before the initialization, we have to set the types
 		// of the edges (enhancing / inhibiting) accordingly. If the network was signed,
@@ -199,14 +263,13 @@ public class GeneNetwork extends ImodNetwork {
 		//double[] dxydt = new double[xy.length];
 		int size = getSize();
 		
-		for (int i=0; i<size; i++)
-			x_.set(i, xy[i]);
+		setState(xy);
 		
-		if (modelTranslation)
-			for (int i=0; i<size; i++)
-				y_.set(i, xy[size+i]);
-		else
-			y_ = x_;
+		GeneNetworkKernel kernel = getKernel();
+		if (kernel != null) {
+			kernel.computeDxydt(xy, dxydt, modelTranslation);
+			return;
+		}
 		
 		// dxydt temporarily used to store the production rates of mRNA
 		computeMRnaProductionRates(dxydt);
@@ -220,6 +283,90 @@ public class GeneNetwork extends ImodNetwork {
 	}
 
 	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Set the gene expressions x_ and the protein concentrations y_ (if translation is modelled)
+	 * @param xy The mRNA concentrations, followed by the protein concentrations if translation is modelled
+	 */
+	public void setState(double[] xy) {
+		
+		int size = getSize();
+		
+		for (int i=0; i<size; i++)
+			x_.set(i, xy[i]);
+		
+		if (GnwSettings.getInstance().getModelTranslation())
+			for (int i=0; i<size; i++)
+				y_.set(i, xy[size+i]);
+		else
+			y_ = x_;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return the compiled form of the dynamical model, which is (re)built if the structure
+	 * has changed and updated if parameters have changed since the last call. Returns null
+	 * if compilation is disabled in GnwSettings or if the network contains genes other than
+	 * HillGenes. The kernel is built and updated under the lock of the network, thus several
+	 * threads may call this method (but the kernel itself must not be evaluated concurrently).
+	 */
+	public GeneNetworkKernel getKernel() {
+		
+		if (!GnwSettings.getInstance().getCompileGeneNetworks())
+			return null;
+		
+		// fast path, the kernel is up to date
+		GeneNetworkKernel kernel = kernel_;
+		if (kernel != null && !kernelParametersChanged_ && kernel.getSize() == getSize())
+			return kernel;
+		
+		return updateKernel();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Must be called when the wiring or the regulatory modules of a gene have changed, the kernel is rebuilt */
+	public synchronized void structureChanged() {
+		
+		kernel_ = null;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Must be called when kinetic parameters of a gene have changed, they are copied to the kernel */
+	public synchronized void parametersChanged() {
+		
+		kernelParametersChanged_ = true;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Build the kernel or copy the changed parameters to it (see getKernel()) */
+	private synchronized GeneNetworkKernel updateKernel() {
+		
+		if (kernel_ == null || kernel_.getSize() != getSize()) {
+			for (int i=0; i<nodes_.size(); i++)
+				if (!(nodes_.get(i) instanceof HillGene) || ((HillGene)nodes_.get(i)).getRegulatoryModules() == null)
+					return null;
+			
+			kernel_ = new GeneNetworkKernel(this);
+			kernelInput_ = new double[getSize()];
+			kernelOutput_ = new double[getSize()];
+			
+		} else if (kernelParametersChanged_)
+			kernel_.updateParameters();
+		
+		kernelParametersChanged_ = false;
+		return kernel_;
+	}
+
+	
 	// ----------------------------------------------------------------------------
 	
 	/** 
@@ -641,6 +788,15 @@ public class GeneNetwork extends ImodNetwork {
 		
 		int size = getSize();
 		
+		GeneNetworkKernel kernel = getKernel();
+		if (kernel != null) {
+			DoubleMatrix1D c = GnwSettings.getInstance().getModelTranslation() ? y_ : x_;
+			for (int i=0; i<size; i++)
+				kernelInput_[i] = c.getQuick(i);
+			kernel.computeMRnaProductionRates(kernelInput_, 0, productionRates);
+			return;
+		}
+		
 		for (int i=0; i < size; i++) {
 			if (GnwSettings.getInstance().getModelTranslation())
 				productionRates[i] = ((Gene)nodes_.get(i)).computeMRnaProductionRate(i, y_);
@@ -662,6 +818,17 @@ public class GeneNetwork extends ImodNetwork {
 		
 		int size = getSize();
 		
+		GeneNetworkKernel kernel = getKernel();
+		if (kernel != null) {
+			DoubleMatrix1D c = GnwSettings.getInstance().getModelTranslation() ? y_ : x_;
+			for (int i=0; i<size; i++)
+				kernelInput_[i] = c.getQuick(i);
+			kernel.computeMRnaProductionRates(kernelInput_, 0, kernelOutput_);
+			for (int i=0; i<size; i++)
+				productionRates.setQuick(i, kernelOutput_[i]);
+			return;
+		}
+		
 		for (int i=0; i < size; i++) {
 			if (GnwSettings.getInstance().getModelTranslation())
 				productionRates.set(i, ((Gene)nodes_.get(i)).computeMRnaProductionRate(i, y_));
@@ -0,0 +1,528 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw;
+
+import java.util.Arrays;
+
+
+/** A batch of perturbed versions of the same gene network, integrated in lockstep.
+ *
+ * All members of the batch share the wiring and the regulatory modules of a compiled
+ * network (see GeneNetworkKernel), they differ by their kinetic parameters (e.g. the
+ * maximum transcription rates modified by a perturbation) and their initial conditions.
+ * The states of the members are stored as a structure of arrays: state variable v of
+ * the member in slot b is at index v*capacity_ + b. The right-hand side is thus
+ * evaluated gene by gene in tight loops over the members, which access contiguous
+ * memory and can be vectorized by the JIT compiler.
+ *
+ * The members are integrated in lockstep with the same adaptive Dormand-Prince 5(4)
+ * scheme and tolerances as a single network (see DormandPrinceScheme), the step size
+ * is controlled by the member with the largest error. Every dt, the convergence of
+ * each member is tested as in GeneNetworkODE.converged(). Converged members are
+ * retired: their state is saved and they are swapped behind the active members, so
+ * that the following steps are only computed for the members that have not yet
+ * converged.
+ *
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ *
+ */
+public class GeneNetworkBatch {
+	
+	/** The compiled network that defines the wiring shared by all members */
+	private GeneNetworkKernel kernel_;
+	/** Number of genes */
+	private int size_;
+	/** Number of state variables of one member (size_, or 2*size_ if translation is modelled) */
+	private int dimension_;
+	/** Set true if the protein concentrations are part of the state */
+	private boolean modelTranslation_;
+	
+	/** Maximum number of members */
+	private int capacity_;
+	/** Number of members added so far */
+	private int numMembers_;
+	/** Number of members that have not yet converged, they are in the slots 0, ..., numActive_-1 */
+	private int numActive_;
+	/** member_[b] is the number of the member in slot b */
+	private int[] member_;
+	
+	/** Maximum transcription rates, gene i of slot b is at i*capacity_ + b */
+	private double[] max_;
+	/** mRNA degradation rates */
+	private double[] delta_;
+	/** Maximum translation rates */
+	private double[] maxTranslation_;
+	/** Protein degradation rates */
+	private double[] deltaProtein_;
+	/** The alpha tables, state s (see GeneNetworkKernel.alpha_) of slot b is at s*capacity_ + b */
+	private double[] alpha_;
+	
+	/** Current states (initial conditions, then the states at the last convergence test) */
+	private double[] xy_;
+	/** States at the previous convergence test */
+	private double[] previous_;
+	/** Buffer for the rates of change of the current states */
+	private double[] rate_;
+	
+	/** Buffer for the activations of the modules of one gene (module j of slot b is at j*capacity_ + b) */
+	private double[] m_;
+	/** Buffer for the terms (x_i/k_i)^n_i of the inputs of one module */
+	private double[] xi_;
+	/** Buffers of size capacity_ */
+	private double[] product_, denominator_, p_, activation_;
+	
+	/** Final state of every member */
+	private double[][] result_;
+	/** Time at which every member has converged (or maxt) */
+	private int[] time_;
+	/** Maximum rate of change of every member at its final state */
+	private double[] maxRate_;
+	/** The integration scheme (created by integrate()) */
+	private DormandPrinceScheme scheme_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor
+	 * @param kernel The compiled network, the members must have the same wiring
+	 * @param capacity The maximum number of members
+	 * @param modelTranslation Set true if the protein concentrations are part of the state
+	 */
+	public GeneNetworkBatch(GeneNetworkKernel kernel, int capacity, boolean modelTranslation) {
+		
+		kernel_ = kernel;
+		size_ = kernel.getSize();
+		modelTranslation_ = modelTranslation;
+		dimension_ = modelTranslation ? 2*size_ : size_;
+		capacity_ = capacity;
+		numMembers_ = 0;
+		numActive_ = 0;
+		member_ = new int[capacity];
+		
+		int[] moduleStart = kernel.getModuleStart();
+		int[] inputStart = kernel.getInputStart();
+		int maxModulesPerGene = 0;
+		int maxInputsPerModule = 0;
+		for (int i=0; i<size_; i++)
+			maxModulesPerGene = Math.max(maxModulesPerGene, moduleStart[i+1] - moduleStart[i]);
+		for (int m=0; m<kernel.getNumModules(); m++)
+			maxInputsPerModule = Math.max(maxInputsPerModule, inputStart[m+1] - inputStart[m]);
+		
+		max_ = new double[size_*capacity];
+		delta_ = new double[size_*capacity];
+		maxTranslation_ = new double[size_*capacity];
+		deltaProtein_ = new double[size_*capacity];
+		alpha_ = new double[kernel.getAlpha().length*capacity];
+		
+		xy_ = new double[dimension_*capacity];
+		previous_ = new double[dimension_*capacity];
+		rate_ = new double[dimension_*capacity];
+		
+		m_ = new double[maxModulesPerGene*capacity];
+		xi_ = new double[maxInputsPerModule*capacity];
+		product_ = new double[capacity];
+		denominator_ = new double[capacity];
+		p_ = new double[capacity];
+		activation_ = new double[capacity];
+		
+		result_ = new double[capacity][];
+		time_ = new int[capacity];
+		maxRate_ = new double[capacity];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Add a member to the batch, return its number. The kinetic parameters are copied
+	 * from the given kernel (usually the kernel of the network with a perturbation
+	 * applied), which must have the same wiring as the kernel of the batch.
+	 * @param kernel The compiled network with the parameters of the member
+	 * @param xy0 The initial conditions of the member
+	 */
+	public int addMember(GeneNetworkKernel kernel, double[] xy0) {
+		
+		if (numMembers_ == capacity_)
+			throw new IllegalStateException("GeneNetworkBatch: the batch is full");
+		if (kernel.getSize() != size_ || !Arrays.equals(kernel.getInputIndex(), kernel_.getInputIndex())
+				|| !Arrays.equals(kernel.getK(), kernel_.getK()) || !Arrays.equals(kernel.getN(), kernel_.getN()))
+			throw new IllegalArgumentException("GeneNetworkBatch: the member has a different wiring than the batch");
+		if (xy0.length != dimension_)
+			throw new IllegalArgumentException("GeneNetworkBatch: expected initial conditions of length " + dimension_);
+		
+		int b = numMembers_;
+		member_[b] = b;
+		copyParameters(kernel, b);
+		
+		for (int v=0; v<dimension_; v++) {
+			xy_[v*capacity_ + b] = xy0[v];
+			previous_[v*capacity_ + b] = xy0[v];
+		}
+		
+		numMembers_++;
+		numActive_ = numMembers_;
+		return b;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Set the kinetic parameters of the given member to those of the given kernel, e.g. after
+	 * a perturbation has been applied or removed during the simulation (see SdeEnsemble).
+	 * @param member The number of the member (returned by addMember())
+	 * @param kernel The compiled network with the new parameters, it must have the same wiring
+	 */
+	public void setParameters(int member, GeneNetworkKernel kernel) {
+		
+		for (int b=0; b<numMembers_; b++)
+			if (member_[b] == member)
+				copyParameters(kernel, b);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Integrate all members until they have converged or until time maxt. The convergence
+	 * is tested every dt, as in SteadyStateExperiment with GeneNetworkODE.converged(). The
+	 * local error tolerances are the same as for a single network (see Solver).
+	 * @param dt Interval between two convergence tests
+	 * @param maxt Maximum duration of the simulation
+	 * @param absolutePrecision Absolute precision (integration and convergence test)
+	 * @param relativePrecision Relative precision (integration and convergence test)
+	 */
+	public void integrate(double dt, double maxt, double absolutePrecision, double relativePrecision) {
+		
+		DormandPrinceScheme.RightHandSide rhs = new DormandPrinceScheme.RightHandSide() {
+			public void evaluate(double[] y, double[] dydt) {
+				computeDxydt(y, dydt);
+			}
+		};
+		scheme_ = new DormandPrinceScheme(rhs, dimension_, capacity_, absolutePrecision/DormandPrinceScheme.TOLERANCE_DIVISOR,
+				relativePrecision/DormandPrinceScheme.TOLERANCE_DIVISOR);
+		scheme_.setNumSystems(numActive_);
+		scheme_.restart(xy_, 0);
+		
+		int numIntervals = 0;
+		boolean[] retire = new boolean[capacity_];
+		
+		while (numActive_ > 0) {
+			
+			// the time is computed from the number of intervals to avoid accumulating rounding errors
+			numIntervals++;
+			scheme_.integrateTo(numIntervals*dt, xy_);
+			int time = (int) (numIntervals*dt);
+			
+			boolean anyRetired = false;
+			for (int b=0; b<numActive_; b++) {
+				retire[b] = converged(b, absolutePrecision, relativePrecision) || time >= maxt;
+				anyRetired |= retire[b];
+			}
+			
+			// retire the members that have converged, starting from the last one
+			if (anyRetired) {
+				computeDxydt(xy_, rate_);
+				for (int b=numActive_-1; b>=0; b--)
+					if (retire[b])
+						retire(b, time);
+				scheme_.setNumSystems(numActive_);
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the rate of change of the active members, see GeneNetworkKernel.computeDxydt().
+	 * The order of the floating-point operations is the same as in the kernel.
+	 * @param xy The states of the members
+	 * @param dxydt Variations of the states (output)
+	 */
+	public void computeDxydt(double[] xy, double[] dxydt) {
+		
+		int n = numActive_;
+		int cap = capacity_;
+		
+		// dxydt temporarily used to store the production rates of mRNA
+		computeMRnaProductionRates(xy, dxydt);
+		
+		for (int i=0; i<size_; i++) {
+			int gi = i*cap;
+			for (int b=0; b<n; b++)
+				dxydt[gi + b] = dxydt[gi + b] - delta_[gi + b]*xy[gi + b];
+		}
+		
+		if (modelTranslation_) {
+			for (int i=0; i<size_; i++) {
+				int gi = i*cap;
+				int pi = (size_ + i)*cap;
+				for (int b=0; b<n; b++)
+					dxydt[pi + b] = maxTranslation_[gi + b]*xy[gi + b] - deltaProtein_[gi + b]*xy[pi + b];
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the mRNA production rates of the active members, see GeneNetworkKernel.computeMRnaProductionRates().
+	 * @param xy The states of the members
+	 * @param productionRates The production rates (output, the first getSize()*capacity elements are set)
+	 */
+	public void computeMRnaProductionRates(double[] xy, double[] productionRates) {
+		
+		int n = numActive_;
+		int cap = capacity_;
+		// the regulators act through the proteins if translation is modelled
+		int offset = modelTranslation_ ? size_ : 0;
+		
+		int[] moduleStart = kernel_.getModuleStart();
+		int[] alphaStart = kernel_.getAlphaStart();
+		
+		for (int i=0; i<size_; i++) {
+			
+			int firstModule = moduleStart[i];
+			int numModules = moduleStart[i+1] - firstModule;
+			
+			// compute the mean activations of the modules
+			for (int j=0; j<numModules; j++)
+				computeActivations(firstModule + j, xy, offset, j*cap);
+			
+			// the relative activation of the gene, bit j of state s indicates whether module j is active
+			for (int b=0; b<n; b++)
+				activation_[b] = 0;
+			
+			int firstState = alphaStart[i];
+			int numStates = alphaStart[i+1] - firstState;
+			
+			for (int s=0; s<numStates; s++) {
+				for (int b=0; b<n; b++)
+					p_[b] = 1;
+				for (int j=0; j<numModules; j++) {
+					int mj = j*cap;
+					if (((s >> j) & 1) == 1)
+						for (int b=0; b<n; b++)
+							p_[b] *= m_[mj + b];
+					else
+						for (int b=0; b<n; b++)
+							p_[b] *= 1 - m_[mj + b];
+				}
+				int as = (firstState + s)*cap;
+				for (int b=0; b<n; b++)
+					activation_[b] += alpha_[as + b] * p_[b];
+			}
+			
+			int gi = i*cap;
+			for (int b=0; b<n; b++)
+				productionRates[gi + b] = max_[gi + b]*activation_[b];
+		}
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Copy the kinetic parameters of the given kernel into slot b */
+	private void copyParameters(GeneNetworkKernel kernel, int b) {
+		
+		for (int i=0; i<size_; i++) {
+			max_[i*capacity_ + b] = kernel.getMax()[i];
+			delta_[i*capacity_ + b] = kernel.getDelta()[i];
+			maxTranslation_[i*capacity_ + b] = kernel.getMaxTranslation()[i];
+			deltaProtein_[i*capacity_ + b] = kernel.getDeltaProtein()[i];
+		}
+		double[] alpha = kernel.getAlpha();
+		for (int s=0; s<alpha.length; s++)
+			alpha_[s*capacity_ + b] = alpha[s];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the activations of the given module for all active members, same as
+	 * GeneNetworkKernel.computeActivation(). The result is saved in m_[first + b].
+	 */
+	private void computeActivations(int module, double[] c, int offset, int first) {
+		
+		int n = numActive_;
+		int cap = capacity_;
+		
+		int[] inputStart = kernel_.getInputStart();
+		int[] inputIndex = kernel_.getInputIndex();
+		double[] k = kernel_.getK();
+		double[] hill = kernel_.getN();
+		
+		int firstInput = inputStart[module];
+		int numInputs = inputStart[module+1] - firstInput;
+		int numActivators = kernel_.getNumActivators()[module];
+		
+		// define xi_i := (x_i/k_i)^n_i
+		for (int l=0; l<numInputs; l++) {
+			int regulator = (offset + inputIndex[firstInput + l])*cap;
+			double kl = k[firstInput + l];
+			double nl = hill[firstInput + l];
+			int xl = l*cap;
+			for (int b=0; b<n; b++)
+				xi_[xl + b] = Math.pow(c[regulator + b] / kl, nl);
+		}
+		
+		// compute the numerator
+		for (int b=0; b<n; b++)
+			product_[b] = 1;
+		for (int l=0; l<numActivators; l++)
+			for (int b=0; b<n; b++)
+				product_[b] *= xi_[l*cap + b];
+		
+		// compute the partition function
+		for (int b=0; b<n; b++)
+			denominator_[b] = 1;
+		
+		if (kernel_.getBindsAsComplex()[module]) {
+			// activated complex bound
+			for (int b=0; b<n; b++)
+				denominator_[b] += product_[b];
+			
+			if (numInputs > numActivators) {
+				for (int b=0; b<n; b++) {
+					double multiplyAllInputs = product_[b];
+					for (int l=numActivators; l<numInputs; l++)
+						multiplyAllInputs *= xi_[l*cap + b];
+					denominator_[b] += multiplyAllInputs;
+				}
+			}
+		} else {
+			for (int l=0; l<numInputs; l++)
+				for (int b=0; b<n; b++)
+					denominator_[b] *= (xi_[l*cap + b] + 1);
+		}
+		
+		for (int b=0; b<n; b++)
+			m_[first + b] = product_[b] / denominator_[b];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Same test as GeneNetworkODE.converged() for the member in slot b: |dx_i| < epsabs + epsrel |x_i|
+	 * for all state variables, where dx_i is the change since the last test.
+	 */
+	private boolean converged(int b, double absolutePrecision, double relativePrecision) {
+		
+		int cap = capacity_;
+		for (int v=0; v<dimension_; v++) {
+			double x = xy_[v*cap + b];
+			if (Math.abs(previous_[v*cap + b] - x) > absolutePrecision + relativePrecision*Math.abs(x)) {
+				// remember point
+				for (int w=0; w<dimension_; w++)
+					previous_[w*cap + b] = xy_[w*cap + b];
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Save the state of the member in slot b and swap it with the last active member */
+	private void retire(int b, int time) {
+		
+		int member = member_[b];
+		int cap = capacity_;
+		
+		double[] xy = new double[dimension_];
+		double maxRate = 0;
+		for (int v=0; v<dimension_; v++) {
+			xy[v] = xy_[v*cap + b];
+			if (rate_[v*cap + b] > maxRate)
+				maxRate = rate_[v*cap + b];
+		}
+		result_[member] = xy;
+		time_[member] = time;
+		maxRate_[member] = maxRate;
+		
+		int last = numActive_ - 1;
+		if (b != last) {
+			swapSlots(xy_, dimension_, b, last);
+			swapSlots(previous_, dimension_, b, last);
+			swapSlots(rate_, dimension_, b, last);
+			scheme_.swapSystems(b, last);
+			swapSlots(max_, size_, b, last);
+			swapSlots(delta_, size_, b, last);
+			swapSlots(maxTranslation_, size_, b, last);
+			swapSlots(deltaProtein_, size_, b, last);
+			swapSlots(alpha_, alpha_.length/cap, b, last);
+			member_[b] = member_[last];
+			member_[last] = member;
+		}
+		numActive_--;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Swap the values of the slots b1 and b2 in the given array with the given number of rows */
+	private void swapSlots(double[] a, int rows, int b1, int b2) {
+		
+		for (int r=0; r<rows; r++) {
+			int i1 = r*capacity_ + b1;
+			int i2 = r*capacity_ + b2;
+			double swap = a[i1];
+			a[i1] = a[i2];
+			a[i2] = swap;
+		}
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public int getNumMembers() { return numMembers_; }
+	public int getNumActive() { return numActive_; }
+	public int getCapacity() { return capacity_; }
+	
+	/** The kinetic parameters, gene i of slot b is at i*getCapacity() + b */
+	public double[] getDelta() { return delta_; }
+	public double[] getMaxTranslation() { return maxTranslation_; }
+	public double[] getDeltaProtein() { return deltaProtein_; }
+	
+	/** Return the final state of the given member (mRNA followed by the proteins if translation is modelled) */
+	public double[] getState(int member) { return result_[member]; }
+	/** Return the time at which the given member converged (or maxt) */
+	public int getTime(int member) { return time_[member]; }
+	/** Return the maximum rate of change of the given member at its final state */
+	public double getMaxRate(int member) { return maxRate_[member]; }
+
+}
@@ -0,0 +1,362 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw;
+
+import java.util.Arrays;
+
+
+/** Sparse analytic Jacobian of the ODEs of a gene network.
+ * 
+ * The sparsity pattern is given by the regulatory wiring: the rate of change of
+ * the mRNA of gene i depends on its own concentration and on the concentrations of
+ * its inputs (see Gene.inputGenes_), which are the proteins of the regulators if
+ * translation is modelled. The rate of change of protein i depends on mRNA i and on
+ * protein i. The pattern is stored in compressed sparse row format, every row contains
+ * the diagonal element.
+ * 
+ * The partial derivatives are computed by differentiating the Hill-type activations
+ * of the regulatory modules (see RegulatoryModule.computeActivation()) and the
+ * combination of the modules by the alpha table of the gene (see
+ * HillGene.computeMRnaProductionRate()), using the compiled network (GeneNetworkKernel).
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class GeneNetworkJacobian {
+	
+	/** The compiled network */
+	private GeneNetworkKernel kernel_;
+	/** Number of genes */
+	private int size_;
+	/** Number of state variables (size_, or 2*size_ if translation is modelled) */
+	private int dimension_;
+	/** Set true if the protein concentrations are part of the state */
+	private boolean modelTranslation_;
+	
+	/** The elements of row i are rowStart_[i], ..., rowStart_[i+1]-1 */
+	private int[] rowStart_;
+	/** Column of each element (sorted within a row) */
+	private int[] columns_;
+	/** Value of each element */
+	private double[] values_;
+	/** Index of the diagonal element of each row */
+	private int[] diagonal_;
+	/** Index of the element of each input of the kernel (see GeneNetworkKernel.inputIndex_) */
+	private int[] inputElement_;
+	/** Index of the element (size_+i, i) of each protein row (translation only) */
+	private int[] translationElement_;
+	
+	/** Buffer for the activations of the modules of one gene */
+	private double[] m_;
+	/** Buffer for the derivatives of the relative activation of one gene w.r.t. its module activations */
+	private double[] dActivation_;
+	/** Buffer for the terms (x_i/k_i)^n_i of the inputs of one module */
+	private double[] xi_;
+	/** Buffer for the derivatives of the module activations of one gene w.r.t. the concentrations of the inputs */
+	private double[] dxi_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, build the sparsity pattern of the given compiled network
+	 * @param kernel The compiled network
+	 * @param modelTranslation Set true if the protein concentrations are part of the state
+	 */
+	public GeneNetworkJacobian(GeneNetworkKernel kernel, boolean modelTranslation) {
+		
+		kernel_ = kernel;
+		size_ = kernel.getSize();
+		modelTranslation_ = modelTranslation;
+		dimension_ = modelTranslation ? 2*size_ : size_;
+		
+		int[] moduleStart = kernel.getModuleStart();
+		int[] inputStart = kernel.getInputStart();
+		int[] inputIndex = kernel.getInputIndex();
+		int offset = modelTranslation ? size_ : 0;
+		
+		// the columns of every row (the inputs of a gene may contain the same regulator several times)
+		int[][] rows = new int[dimension_][];
+		int numElements = 0;
+		int maxModulesPerGene = 0;
+		int maxInputsPerModule = 0;
+		int maxInputsPerGene = 0;
+		
+		for (int i=0; i<size_; i++) {
+			int first = inputStart[moduleStart[i]];
+			int last = inputStart[moduleStart[i+1]];
+			int[] columns = new int[last - first + 1];
+			columns[0] = i;
+			for (int l=first; l<last; l++)
+				columns[l - first + 1] = offset + inputIndex[l];
+			rows[i] = unique(columns);
+			numElements += rows[i].length;
+			
+			maxModulesPerGene = Math.max(maxModulesPerGene, moduleStart[i+1] - moduleStart[i]);
+			maxInputsPerGene = Math.max(maxInputsPerGene, last - first);
+			for (int m=moduleStart[i]; m<moduleStart[i+1]; m++)
+				maxInputsPerModule = Math.max(maxInputsPerModule, inputStart[m+1] - inputStart[m]);
+		}
+		if (modelTranslation) {
+			for (int i=0; i<size_; i++) {
+				rows[size_ + i] = new int[] {i, size_ + i};
+				numElements += 2;
+			}
+		}
+		
+		rowStart_ = new int[dimension_ + 1];
+		columns_ = new int[numElements];
+		values_ = new double[numElements];
+		diagonal_ = new int[dimension_];
+		
+		int element = 0;
+		for (int r=0; r<dimension_; r++) {
+			rowStart_[r] = element;
+			for (int c=0; c<rows[r].length; c++) {
+				if (rows[r][c] == r)
+					diagonal_[r] = element;
+				columns_[element++] = rows[r][c];
+			}
+		}
+		rowStart_[dimension_] = element;
+		
+		inputElement_ = new int[inputIndex.length];
+		for (int i=0; i<size_; i++)
+			for (int l=inputStart[moduleStart[i]]; l<inputStart[moduleStart[i+1]]; l++)
+				inputElement_[l] = findElement(i, offset + inputIndex[l]);
+		
+		if (modelTranslation) {
+			translationElement_ = new int[size_];
+			for (int i=0; i<size_; i++)
+				translationElement_[i] = findElement(size_ + i, i);
+		}
+		
+		m_ = new double[maxModulesPerGene];
+		dActivation_ = new double[maxModulesPerGene];
+		xi_ = new double[maxInputsPerModule];
+		dxi_ = new double[maxInputsPerGene];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the Jacobian at the given state, the result is saved in getValues().
+	 * The kinetic parameters are read from the kernel, which must be up to date
+	 * (see GeneNetwork.getKernel()).
+	 */
+	public void compute(double[] xy) {
+		
+		int[] moduleStart = kernel_.getModuleStart();
+		int[] inputStart = kernel_.getInputStart();
+		int[] alphaStart = kernel_.getAlphaStart();
+		double[] alpha = kernel_.getAlpha();
+		double[] max = kernel_.getMax();
+		double[] delta = kernel_.getDelta();
+		int offset = modelTranslation_ ? size_ : 0;
+		
+		Arrays.fill(values_, 0);
+		
+		for (int i=0; i<size_; i++) {
+			int firstModule = moduleStart[i];
+			int numModules = moduleStart[i+1] - firstModule;
+			int firstInput = inputStart[firstModule];
+			
+			for (int j=0; j<numModules; j++)
+				m_[j] = computeActivation(firstModule + j, xy, offset, inputStart[firstModule + j] - firstInput);
+			
+			// derivative of the relative activation sum_s alpha_s prod_j (m_j or 1-m_j) w.r.t. m_j
+			int firstState = alphaStart[i];
+			int numStates = alphaStart[i+1] - firstState;
+			
+			for (int j=0; j<numModules; j++) {
+				double d = 0;
+				for (int s=0; s<numStates; s++) {
+					double p = ((s >> j) & 1) == 1 ? 1 : -1;
+					for (int jj=0; jj<numModules; jj++) {
+						if (jj == j)
+							continue;
+						if (((s >> jj) & 1) == 1)
+							p *= m_[jj];
+						else
+							p *= 1 - m_[jj];
+					}
+					d += alpha[firstState + s] * p;
+				}
+				dActivation_[j] = max[i] * d;
+			}
+			
+			// chain rule through the activations of the modules
+			for (int j=0; j<numModules; j++) {
+				int module = firstModule + j;
+				for (int l=inputStart[module]; l<inputStart[module+1]; l++)
+					values_[inputElement_[l]] += dActivation_[j] * dxi_[l - firstInput];
+			}
+			
+			values_[diagonal_[i]] -= delta[i];
+		}
+		
+		if (modelTranslation_) {
+			double[] maxTranslation = kernel_.getMaxTranslation();
+			double[] deltaProtein = kernel_.getDeltaProtein();
+			for (int i=0; i<size_; i++) {
+				values_[translationElement_[i]] = maxTranslation[i];
+				values_[diagonal_[size_ + i]] = -deltaProtein[i];
+			}
+		}
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * Compute the activation of the given module, same as GeneNetworkKernel.computeActivation().
+	 * The partial derivatives of the activation w.r.t. the concentrations of the inputs are
+	 * saved in dxi_ (l'th input of the module in dxi_[out+l]).
+	 */
+	private double computeActivation(int module, double[] c, int offset, int out) {
+		
+		int first = kernel_.getInputStart()[module];
+		int numInputs = kernel_.getInputStart()[module+1] - first;
+		int numActivators = kernel_.getNumActivators()[module];
+		int[] inputIndex = kernel_.getInputIndex();
+		double[] k = kernel_.getK();
+		double[] n = kernel_.getN();
+		
+		// define xi_i := (x_i/k_i)^n_i, and its derivative n_i/k_i (x_i/k_i)^(n_i-1) = n_i xi_i / x_i
+		for (int l=0; l<numInputs; l++) {
+			double x = Math.max(0, c[offset + inputIndex[first + l]]);
+			double nl = n[first + l];
+			xi_[l] = Math.pow(x / k[first + l], nl);
+			if (x > 0)
+				dxi_[out + l] = nl * xi_[l] / x;
+			else
+				dxi_[out + l] = (nl == 1) ? 1 / k[first + l] : ((nl > 1) ? 0 : Double.POSITIVE_INFINITY);
+		}
+		
+		double multiplyActivators = 1;
+		for (int l=0; l<numActivators; l++)
+			multiplyActivators *= xi_[l];
+		double multiplyDeactivators = 1;
+		for (int l=numActivators; l<numInputs; l++)
+			multiplyDeactivators *= xi_[l];
+		
+		double numerator = multiplyActivators;
+		double denominator = 1;
+		boolean complex = kernel_.getBindsAsComplex()[module];
+		
+		if (complex) {
+			denominator += multiplyActivators;
+			if (numInputs > numActivators)
+				denominator += multiplyActivators * multiplyDeactivators;
+		} else {
+			for (int l=0; l<numInputs; l++)
+				denominator *= (xi_[l] + 1);
+		}
+		
+		// derivatives of the numerator and the partition function w.r.t. xi_l (products
+		// without the factor l are computed explicitly because xi_l may be zero)
+		for (int l=0; l<numInputs; l++) {
+			boolean activator = l < numActivators;
+			
+			double dNumerator = 0;
+			if (activator) {
+				dNumerator = 1;
+				for (int a=0; a<numActivators; a++)
+					if (a != l)
+						dNumerator *= xi_[a];
+			}
+			
+			double dDenominator;
+			if (complex) {
+				if (activator) {
+					dDenominator = dNumerator;
+					if (numInputs > numActivators)
+						dDenominator += dNumerator * multiplyDeactivators;
+				} else {
+					dDenominator = multiplyActivators;
+					for (int d=numActivators; d<numInputs; d++)
+						if (d != l)
+							dDenominator *= xi_[d];
+				}
+			} else {
+				dDenominator = 1;
+				for (int d=0; d<numInputs; d++)
+					if (d != l)
+						dDenominator *= (xi_[d] + 1);
+			}
+			
+			double dm = (dNumerator*denominator - numerator*dDenominator) / (denominator*denominator);
+			// zero instead of infinity for x = 0 and n < 1 (the pattern doesn't change)
+			dxi_[out + l] = (dxi_[out + l] < Double.POSITIVE_INFINITY) ? dm * dxi_[out + l] : 0;
+		}
+		return numerator / denominator;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the index of the element (row, column) */
+	private int findElement(int row, int column) {
+		
+		int index = Arrays.binarySearch(columns_, rowStart_[row], rowStart_[row+1], column);
+		if (index < 0)
+			throw new RuntimeException("GeneNetworkJacobian: element (" + row + ", " + column + ") is not in the pattern");
+		return index;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the sorted distinct values of the given array */
+	private static int[] unique(int[] a) {
+		
+		int[] sorted = a.clone();
+		Arrays.sort(sorted);
+		int n = 0;
+		for (int i=0; i<sorted.length; i++)
+			if (i == 0 || sorted[i] != sorted[i-1])
+				sorted[n++] = sorted[i];
+		return Arrays.copyOf(sorted, n);
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public GeneNetworkKernel getKernel() { return kernel_; }
+	public int getDimension() { return dimension_; }
+	
+	public int[] getRowStart() { return rowStart_; }
+	public int[] getColumns() { return columns_; }
+	public int[] getDiagonal() { return diagonal_; }
+	public double[] getValues() { return values_; }
+	
+}
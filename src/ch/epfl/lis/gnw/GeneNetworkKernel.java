@@ -0,0 +1,378 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import ch.epfl.lis.networks.Node;
+
+
+/** Compiled form of the dynamical model of a gene network.
+ * 
+ * The wiring of all HillGenes and their RegulatoryModules is flattened once into
+ * primitive arrays (compressed sparse row layout): for every gene the range of its
+ * modules, for every module the range of its inputs, and for every input the index
+ * of the regulator in the network together with k and n. The alpha tables of all
+ * genes are concatenated into one array. The right-hand side of the ODEs can then be
+ * evaluated without allocating memory, without looking up node indexes and without
+ * building binary strings for the states of the modules.
+ * 
+ * The kinetic parameters (max, delta, alpha, ...) are copied from the genes by
+ * updateParameters(), which must be called whenever they change (e.g. when a
+ * perturbation is applied). GeneNetwork takes care of this, see
+ * GeneNetwork.parametersChanged() and GeneNetwork.structureChanged().
+ * 
+ * Note that the evaluation uses internal buffers, an instance must thus not be
+ * shared between threads.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class GeneNetworkKernel {
+
+	/** The genes of the network (the order is the same as in the network) */
+	private HillGene[] genes_;
+	/** Number of genes */
+	private int size_;
+	
+	/** The modules of gene i are moduleStart_[i], ..., moduleStart_[i+1]-1 */
+	private int[] moduleStart_;
+	/** The inputs of module m are inputStart_[m], ..., inputStart_[m+1]-1 (first the activators, then the deactivators) */
+	private int[] inputStart_;
+	/** Number of activators of each module */
+	private int[] numActivators_;
+	/** True if the activators of the module bind as a complex */
+	private boolean[] bindsAsComplex_;
+	/** Index in the network of the regulator of each input */
+	private int[] inputIndex_;
+	/** Dissociation constant of each input */
+	private double[] k_;
+	/** Hill coefficient of each input */
+	private double[] n_;
+	
+	/** The alpha table of gene i is alpha_[alphaStart_[i]], ..., alpha_[alphaStart_[i+1]-1] */
+	private int[] alphaStart_;
+	/** The concatenated alpha tables of all genes */
+	private double[] alpha_;
+	/** Maximum transcription rates */
+	private double[] max_;
+	/** mRNA degradation rates */
+	private double[] delta_;
+	/** Maximum translation rates */
+	private double[] maxTranslation_;
+	/** Protein degradation rates */
+	private double[] deltaProtein_;
+	
+	/** Buffer for the mean activations of the modules of one gene */
+	private double[] m_;
+	/** Buffer for the terms (x_i/k_i)^n_i of the inputs of one module */
+	private double[] xi_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Compile the given network. All genes must be HillGenes and their input
+	 * wiring must be initialized.
+	 */
+	public GeneNetworkKernel(GeneNetwork grn) {
+		
+		size_ = grn.getSize();
+		genes_ = new HillGene[size_];
+		
+		// index of every node in the network (avoids the linear search of getIndexOfNode())
+		HashMap<Node, Integer> index = new HashMap<Node, Integer>(2*size_);
+		for (int i=0; i<size_; i++) {
+			Gene gene = grn.getGene(i);
+			if (!(gene instanceof HillGene))
+				throw new IllegalArgumentException("GeneNetworkKernel: gene " + gene.getLabel() + " is not a HillGene");
+			genes_[i] = (HillGene) gene;
+			index.put(gene, i);
+		}
+		
+		// count the modules, inputs and states
+		int numModules = 0;
+		int numInputs = 0;
+		int numStates = 0;
+		int maxModulesPerGene = 0;
+		int maxInputsPerModule = 0;
+		
+		for (int i=0; i<size_; i++) {
+			ArrayList<RegulatoryModule> modules = genes_[i].getRegulatoryModules();
+			numModules += modules.size();
+			numStates += genes_[i].getAlpha().length;
+			if (modules.size() > maxModulesPerGene)
+				maxModulesPerGene = modules.size();
+			
+			for (int j=0; j<modules.size(); j++) {
+				numInputs += modules.get(j).getNumInputs();
+				if (modules.get(j).getNumInputs() > maxInputsPerModule)
+					maxInputsPerModule = modules.get(j).getNumInputs();
+			}
+		}
+		
+		moduleStart_ = new int[size_+1];
+		inputStart_ = new int[numModules+1];
+		numActivators_ = new int[numModules];
+		bindsAsComplex_ = new boolean[numModules];
+		inputIndex_ = new int[numInputs];
+		k_ = new double[numInputs];
+		n_ = new double[numInputs];
+		alphaStart_ = new int[size_+1];
+		alpha_ = new double[numStates];
+		max_ = new double[size_];
+		delta_ = new double[size_];
+		maxTranslation_ = new double[size_];
+		deltaProtein_ = new double[size_];
+		m_ = new double[maxModulesPerGene];
+		xi_ = new double[maxInputsPerModule];
+		
+		// flatten the wiring
+		int module = 0;
+		int input = 0;
+		int state = 0;
+		
+		for (int i=0; i<size_; i++) {
+			moduleStart_[i] = module;
+			alphaStart_[i] = state;
+			state += genes_[i].getAlpha().length;
+			
+			ArrayList<RegulatoryModule> modules = genes_[i].getRegulatoryModules();
+			ArrayList<Gene> inputGenes = genes_[i].getInputGenes();
+			// the inputs of the gene are ordered by module, see Gene.inputGenes_
+			int nextInput = 0;
+			
+			for (int j=0; j<modules.size(); j++) {
+				RegulatoryModule mod = modules.get(j);
+				inputStart_[module] = input;
+				numActivators_[module] = mod.getNumActivators();
+				bindsAsComplex_[module] = mod.bindsAsComplex();
+				
+				for (int l=0; l<mod.getNumInputs(); l++) {
+					Integer regulator = index.get(inputGenes.get(nextInput++));
+					if (regulator == null)
+						throw new IllegalArgumentException("GeneNetworkKernel: an input of gene " + genes_[i].getLabel() + " is not part of the network");
+					inputIndex_[input++] = regulator;
+				}
+				module++;
+			}
+		}
+		moduleStart_[size_] = module;
+		inputStart_[numModules] = input;
+		alphaStart_[size_] = state;
+		
+		updateParameters();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Copy the current values of the kinetic parameters from the genes. Must be
+	 * called after parameters of the genes have been changed, e.g. by a perturbation.
+	 */
+	public void updateParameters() {
+		
+		int module = 0;
+		int input = 0;
+		
+		for (int i=0; i<size_; i++) {
+			HillGene gene = genes_[i];
+			max_[i] = gene.getMax();
+			delta_[i] = gene.getDelta();
+			maxTranslation_[i] = gene.getMaxTranslation();
+			deltaProtein_[i] = gene.getDeltaProtein();
+			
+			double[] alpha = gene.getAlpha();
+			System.arraycopy(alpha, 0, alpha_, alphaStart_[i], alpha.length);
+			
+			ArrayList<RegulatoryModule> modules = gene.getRegulatoryModules();
+			for (int j=0; j<modules.size(); j++) {
+				double[] k = modules.get(j).getK();
+				double[] n = modules.get(j).getN();
+				for (int l=0; l<k.length; l++) {
+					k_[input] = k[l];
+					n_[input] = n[l];
+					input++;
+				}
+				module++;
+			}
+		}
+		assert module == moduleStart_[size_];
+		assert input == inputStart_[module];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the rate of change of all state variables, see GeneNetwork.computeDxydt().
+	 * @param xy The mRNA concentrations, followed by the protein concentrations if translation is modelled
+	 * @param dxydt Variations of x and y (output)
+	 * @param modelTranslation Set true if the protein concentrations are part of the state
+	 */
+	public void computeDxydt(double[] xy, double[] dxydt, boolean modelTranslation) {
+		
+		// the regulators act through the proteins if translation is modelled
+		int offset = modelTranslation ? size_ : 0;
+		
+		computeMRnaProductionRates(xy, offset, dxydt);
+		
+		for (int i=0; i<size_; i++)
+			dxydt[i] = dxydt[i] - delta_[i]*xy[i];
+		
+		if (modelTranslation)
+			for (int i=0; i<size_; i++)
+				dxydt[size_+i] = maxTranslation_[i]*xy[i] - deltaProtein_[i]*xy[size_+i];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the mRNA production rates of all genes.
+	 * @param c Concentrations of the regulators, regulator j is at c[offset+j]
+	 * @param offset See parameter c
+	 * @param productionRates The production rates (output, the first getSize() elements are set)
+	 */
+	public void computeMRnaProductionRates(double[] c, int offset, double[] productionRates) {
+		
+		for (int i=0; i<size_; i++)
+			productionRates[i] = computeMRnaProductionRate(i, c, offset);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the production rate of gene i, this is the same computation as
+	 * HillGene.computeMRnaProductionRate(). The order of the floating-point operations
+	 * is preserved so that the results are identical.
+	 */
+	public double computeMRnaProductionRate(int i, double[] c, int offset) {
+		
+		int firstModule = moduleStart_[i];
+		int numModules = moduleStart_[i+1] - firstModule;
+		
+		// compute the mean activations of the modules
+		for (int j=0; j<numModules; j++)
+			m_[j] = computeActivation(firstModule + j, c, offset);
+		
+		// the relative activation of the gene, bit j of state s indicates whether module j is active
+		double alpha = 0;
+		int firstState = alphaStart_[i];
+		int numStates = alphaStart_[i+1] - firstState;
+		
+		for (int s=0; s<numStates; s++) {
+			double p = 1; // the probability of being in state s
+			for (int j=0; j<numModules; j++) {
+				if (((s >> j) & 1) == 1)
+					p *= m_[j];
+				else
+					p *= 1 - m_[j];
+			}
+			alpha += alpha_[firstState + s] * p;
+		}
+		
+		return max_[i] * alpha;
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Compute the activation of the given module, same as RegulatoryModule.computeActivation() */
+	private double computeActivation(int module, double[] c, int offset) {
+		
+		int first = inputStart_[module];
+		int numInputs = inputStart_[module+1] - first;
+		int numActivators = numActivators_[module];
+		
+		// define xi_i := (x_i/k_i)^n_i
+		for (int l=0; l<numInputs; l++) {
+			double x = c[offset + inputIndex_[first + l]];
+			assert x >= 0.0 : x;
+			xi_[l] = Math.pow(x / k_[first + l], n_[first + l]);
+		}
+		
+		// compute the numerator
+		double multiplyActivators = 1;
+		for (int l=0; l<numActivators; l++)
+			multiplyActivators *= xi_[l];
+		double numerator = multiplyActivators;
+		
+		// compute the partition function
+		double denominator = 1;
+		
+		if (bindsAsComplex_[module]) {
+			// activated complex bound
+			denominator += multiplyActivators;
+			
+			if (numInputs > numActivators) {
+				double multiplyAllInputs = multiplyActivators;
+				for (int l=numActivators; l<numInputs; l++)
+					multiplyAllInputs *= xi_[l];
+				denominator += multiplyAllInputs;
+			}
+		} else {
+			for (int l=0; l<numInputs; l++)
+				denominator *= (xi_[l] + 1);
+		}
+		double activation = numerator / denominator;
+		
+		assert activation >= 0 && activation <= 1;
+		return activation;
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public int getSize() { return size_; }
+	public int getNumModules() { return moduleStart_[size_]; }
+	public int getNumInputs() { return inputStart_[moduleStart_[size_]]; }
+	
+	public int[] getModuleStart() { return moduleStart_; }
+	public int[] getInputStart() { return inputStart_; }
+	public int[] getInputIndex() { return inputIndex_; }
+	public int[] getNumActivators() { return numActivators_; }
+	public boolean[] getBindsAsComplex() { return bindsAsComplex_; }
+	public double[] getK() { return k_; }
+	public double[] getN() { return n_; }
+	
+	public int[] getAlphaStart() { return alphaStart_; }
+	public double[] getAlpha() { return alpha_; }
+	public double[] getMax() { return max_; }
+	public double[] getDelta() { return delta_; }
+	public double[] getMaxTranslation() { return maxTranslation_; }
+	public double[] getDeltaProtein() { return deltaProtein_; }
+	
+}
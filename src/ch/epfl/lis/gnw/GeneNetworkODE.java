@@ -28,20 +28,18 @@ package ch.epfl.lis.gnw;
 
 import java.util.logging.Logger;
 
-import org.opensourcephysics.numerics.ODE;
-
 
 /** ODE system that is used to simulated the gene networks.
  * 
- * This class extends org.opensourcephysics.numerics.ODE,
- * it represents the system of ordinary differential equations
- * that are used to simulate the gene network.
+ * This class represents the system of ordinary differential equations
+ * that are used to simulate the gene network, it is integrated by
+ * DormandPrinceSolver.
  * 
  * @author Thomas Schaffter (firstname.name@gmail.com)
  * @author Daniel Marbach (firstname.name@gmail.com)
  * 
  */
-public class GeneNetworkODE implements ODE {
+public class GeneNetworkODE {
 	
 	/** Reference to GeneNetwork system to integrate */
 	private GeneNetwork grn_;
@@ -76,7 +74,7 @@ public class GeneNetworkODE implements ODE {
 
 	/** 
 	 * Gets the rate of change using the argument's state variables. This method may
-	 * be invoked many times with different intermediate states as an ODESolver is 
+	 * be invoked many times with different intermediate states as the solver is 
 	 * carrying out the solution.
 	 */
 	public void getRate(double[] state, double[] rate) {
@@ -115,6 +113,7 @@ public class GeneNetworkODE implements ODE {
 	// ----------------------------------------------------------------------------
 	
 	public void setGrn(GeneNetwork grn) { grn_ = grn; }
+	public GeneNetwork getGrn() { return grn_; }
 	public double[] getState() { return state_; }
 	
 }
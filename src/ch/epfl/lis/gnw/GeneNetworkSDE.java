@@ -27,149 +27,125 @@ THE SOFTWARE.
 
 package ch.epfl.lis.gnw;
 
-import cern.colt.matrix.DoubleMatrix1D;
-import cern.colt.matrix.DoubleMatrix2D;
-import cern.colt.matrix.impl.DenseDoubleMatrix1D;
-import ch.epfl.lis.sde.Sde;
 
 /** SDE system that is used to simulated the gene networks.
  * 
- * Represents the system of stochastic differential equations
- * that are used to simulate the gene network.
+ * Represents the system of stochastic differential equations (chemical Langevin
+ * equations) that are used to simulate the gene network, it is integrated by
+ * SdeIntegrator. The drift of a variable is its production rate V minus its
+ * degradation rate D, the noise is diagonal with the diffusion coefficient
+ * m*sqrt(V+D), where m is GnwSettings.getNoiseCoefficientSDE().
+ * 
+ * The drift and the diffusion are computed together on arrays. If the network
+ * can be compiled (see GeneNetworkKernel), the state is passed to the kernel
+ * without being copied to the genes and no memory is allocated.
  * 
  * @author Thomas Schaffter (firstname.name@gmail.com)
  * @author Daniel Marbach (firstname.name@gmail.com)
  * 
  */
-public class GeneNetworkSDE extends Sde {
-
+public class GeneNetworkSDE {
+	
 	/** Reference to GeneNetwork system to integrate */
 	private GeneNetwork grn_;
-	/** Network size */
+	/** Network size */
 	private int networkSize_;
-	/** Support vector V (production) */
-	private DoubleMatrix1D V_;
-	/** Support vector D (degradation) */
-	private DoubleMatrix1D D_;
-	
-	
-    // =======================================================================================
-    // PUPBLICS METHODS
-	
-	/**
-	 * Default constructor
-	 */
-//	public GeneNetworkSDE(GeneNetwork grn) {
-//		
-//		this(grn,Sde.ITO, null);
-//	}
-	
+	/** Number of state variables (2*networkSize_ if translation is modelled) */
+	private int dimension_;
+	/** Set true if the protein concentrations are part of the state */
+	private boolean modelTranslation_;
+	/** Noise coefficient m */
+	private double noiseCoefficient_;
+	/** Support vector V (mRNA production rates) */
+	private double[] V_;
 	
-	// ----------------------------------------------------------------------------
 	
-	/**
-	 * Constructor
-	 */
-//	public GeneNetworkSDE(GeneNetwork grn, int scheme) {
-//		
-//		this(grn, scheme, null);
-//	}
-	
-	
-	// ----------------------------------------------------------------------------
+	// ============================================================================
+	// PUBLIC METHODS
 	
 	/**
 	 * Constructor
 	 */
-//	public GeneNetworkSDE(GeneNetwork grn, int scheme, DoubleMatrix1D X0) {
-//		
-//		// dimension depends if translation is model or not
-//		super(GnwSettings.getInstance().getModelTranslation() ? grn.getSize()*2 : grn.getSize(), scheme, X0);
-//		init(grn);
-//	}
 	public GeneNetworkSDE(GeneNetwork grn) {
 		
-		// dimension depends if translation is model or not
-		super(GnwSettings.getInstance().getModelTranslation() ? grn.getSize()*2 : grn.getSize());
-		init(grn);
-	}
-	
-	
-	// ----------------------------------------------------------------------------
-	
-	/**
-	 * Initialisation specific to this SDE system
-	 */
-	public void init(GeneNetwork grn) {
+		GnwSettings settings = GnwSettings.getInstance();
+		
 		grn_ = grn;
 		networkSize_ = grn_.getSize();
-		id_ = grn_.getId();
+		modelTranslation_ = settings.getModelTranslation();
+		// dimension depends if translation is model or not
+		dimension_ = modelTranslation_ ? 2*networkSize_ : networkSize_;
+		noiseCoefficient_ = settings.getNoiseCoefficientSDE();
 		
-		V_ = new DenseDoubleMatrix1D(networkSize_);
-		D_ = new DenseDoubleMatrix1D(networkSize_);
+		V_ = new double[networkSize_];
 	}
 	
 	
 	// ----------------------------------------------------------------------------
-
+	
 	/**
-	 * Computes the drift coefficients F and diffusion coefficient G at a given time.
-	 * Take into account is translation is modelled or not.
-	 * 
-	 * @throws Exception
+	 * Computes the drift coefficients F and the diagonal G of the diffusion matrix at
+	 * state xy. Take into account is translation is modelled or not.
+	 * @param xy The mRNA concentrations, followed by the protein concentrations if translation is modelled
+	 * @param F The drift (output)
+	 * @param G The diffusion coefficients of the variables (output)
+	 * @throws Exception If the diffusion is not a number (negative rates)
 	 */
-	public void getDriftAndDiffusion(final double t, final DoubleMatrix1D Xin,
-			DoubleMatrix1D F, DoubleMatrix2D G) throws Exception {
-		
-		GnwSettings settings = GnwSettings.getInstance();
+	public void computeDriftAndDiffusion(double[] xy, double[] F, double[] G) throws Exception {
 		
-		grn_.setX(Xin.viewPart(0, networkSize_)); // set current mRNA concentrations [X]
-		if (settings.getModelTranslation())
-			grn_.setY(Xin.viewPart(networkSize_, networkSize_)); // set current protein concentrations [Y]
-		grn_.computeMRnaProductionRates(V_); // get mRNA production rates
-		grn_.computeMRnaDegradationRates(D_); // get mRNA degradation rates
+		double m = noiseCoefficient_;
 		
-		double m = GnwSettings.getInstance().getNoiseCoefficientSDE();
-		Double sqrt = 0.;
-		
-		// Transcription
-		for (int i=0; i<networkSize_; i++) {
-			
-			// Set drift vector
-			F.set(i, V_.get(i)-D_.get(i));
+		GeneNetworkKernel kernel = grn_.getKernel();
+		if (kernel != null) {
+			// the regulators act through the proteins if translation is modelled
+			kernel.computeMRnaProductionRates(xy, modelTranslation_ ? networkSize_ : 0, V_);
 			
-			// Set diffusion matrix
-			sqrt = Math.sqrt(V_.get(i) + D_.get(i));
-			if (sqrt.isNaN()) {
-				throw new Exception("NaN mRNA");
+			double[] delta = kernel.getDelta();
+			for (int i=0; i<networkSize_; i++) {
+				double D = delta[i]*xy[i];
+				F[i] = V_[i] - D;
+				G[i] = m*Math.sqrt(V_[i] + D);
 			}
-			else
-				G.set(i, i, m*sqrt);
-		}
-		
-		// Translation (if modelled)
-		if (settings.getModelTranslation()) {
-			
-			grn_.computeProteinProductionRates(V_); // get protein production rates
-			grn_.computeProteinDegradationRates(D_); // get protein degradation rates
 			
-			int index = 0;
+			if (modelTranslation_) {
+				double[] maxTranslation = kernel.getMaxTranslation();
+				double[] deltaProtein = kernel.getDeltaProtein();
+				
+				for (int i=0; i<networkSize_; i++) {
+					int index = networkSize_ + i;
+					double V = maxTranslation[i]*xy[i];
+					double D = deltaProtein[i]*xy[index];
+					F[index] = V - D;
+					G[index] = m*Math.sqrt(V + D);
+				}
+			}
+		} else {
+			grn_.setState(xy);
+			grn_.computeMRnaProductionRates(V_);
 			
 			for (int i=0; i<networkSize_; i++) {
-				
-				index = i+networkSize_;
-				
-				// Set drift vector
-				F.set(index, V_.get(i)-D_.get(i));
-				
-				// Set diffusion matrix
-				sqrt = Math.sqrt(V_.get(i) + D_.get(i));
-				if (sqrt.isNaN())
-					throw new Exception("NaN protein");
-				else
-					G.set(index, index, m*sqrt);
+				Gene gene = (Gene) grn_.getNode(i);
+				double D = gene.computeMRnaDegradationRate(xy[i]);
+				F[i] = V_[i] - D;
+				G[i] = m*Math.sqrt(V_[i] + D);
+			}
+			
+			if (modelTranslation_) {
+				for (int i=0; i<networkSize_; i++) {
+					Gene gene = (Gene) grn_.getNode(i);
+					int index = networkSize_ + i;
+					double V = gene.computeProteinProductionRate(xy[i]);
+					double D = gene.computeProteinDegradationRate(xy[index]);
+					F[index] = V - D;
+					G[index] = m*Math.sqrt(V + D);
+				}
 			}
 		}
+		
+		// sqrt() gives NaN for negative rates, G is checked only once at the end
+		for (int i=0; i<dimension_; i++)
+			if (Double.isNaN(G[i]))
+				throw new Exception(i < networkSize_ ? "NaN mRNA" : "NaN protein");
 	}
 	
 	
@@ -178,4 +154,5 @@ public class GeneNetworkSDE extends Sde {
 	
 	public void setGeneNetwork(GeneNetwork grn) { grn_ = grn; }
 	public GeneNetwork getGeneNetwork() { return grn_; }
+	public int getDimension() { return dimension_; }
 }
@@ -36,7 +36,6 @@ import java.util.logging.Logger;
 import java.util.logging.Level;
 
 import cern.jet.random.Uniform;
-import cern.jet.random.Normal;
 import cern.jet.random.engine.MersenneTwister;
 import ch.epfl.lis.sde.SdeSettings;
 
@@ -61,13 +60,23 @@ public class GnwSettings {
 	/** Uniform distribution random number generator */
 	private Uniform uniformDistribution_;
 	/** Normal distribution random number generator */
-	private Normal normalDistribution_;
+	private BulkNormal normalDistribution_;
+	/** The stream of the above generators, used by threads that have no stream bound (see RandomStream) */
+	private RandomStream masterStream_;
+	/** Seed from which the seeds of the random streams are derived (randomSeed_, or the current time) */
+	private long masterSeed_;
 
 	// VARIOUS
 	/** Current version of GNW */
 	private String gnwVersion_ = "3.1.3 Beta";
 	/** Seed for the random number generator. Set to -1 to use current time */
 	private int randomSeed_ = -1;
+	/**
+	 * Set true to give every task (experiment, perturbation, subnetwork) its own random stream derived from
+	 * randomSeed_, the results are then the same for any number of threads. Set false to draw all random
+	 * numbers from a single generator, as in earlier versions (SDEs are then simulated one after the other).
+	 */
+	private boolean randomStreams_ = true;
 	/** Default output directory to save stuff */
 	private String outputDirectory_ = "";
 	/** Model proteins and translation */
@@ -80,6 +89,8 @@ public class GnwSettings {
 	private boolean appendZeroInteractionsInGoldStandardFiles_;
 	/** Set true to export gene expression data in a different format than the default (genes in rows and experiments in columns) */
 	private boolean outputGenesInRows_;
+	/** Format of the simulated expression data (0: TSV files, 1: TSV and binary files, 2: binary files, see BinaryDatasetWriter) */
+	private int binaryOutput_ = 0;
 	
 	// SUBNETWORK EXTRACTION
 	/** The number of regulators in the extracted networks, set to 0 to disable control of number of regulators */
@@ -204,6 +215,30 @@ public class GnwSettings {
 	/** Initialization of medium basal rates */
 	private RandomParameter randomMediumBasalRate_ = new RandomParameterGaussian(weakActivation_, 1-weakActivation_, false);	
 	
+	// PERFORMANCE
+	/** Set true to simulate networks using their compiled form (see GeneNetworkKernel), false to use the genes directly */
+	private boolean compileGeneNetworks_ = true;
+	/** Number of threads used to simulate experiments concurrently (0: number of available processors, 1: sequential) */
+	private int numThreads_ = 0;
+	/** Number of perturbations of a steady-state experiment integrated together (see GeneNetworkBatch, 1: one after the other) */
+	private int steadyStateBatchSize_ = 1;
+	/** Set true to integrate ODEs with the implicit solver for stiff networks (see RosenbrockSolver) */
+	private boolean stiffODESolver_ = false;
+	/** Set true to compute ODE steady states with Newton's method, the ODEs are only integrated if it fails (see NewtonSteadyStateSolver) */
+	private boolean steadyStateNewton_ = false;
+	/** Set true to start the perturbations of steady-state experiments from the wild type, and dose series from the previous dose */
+	private boolean steadyStateWarmStart_ = false;
+	/** Set true to integrate SDEs with the Euler-Maruyama scheme instead of the Milstein scheme (see SdeIntegrator) */
+	private boolean eulerMaruyamaSDE_ = false;
+	/** Set true to integrate the SDE repeats (or perturbations) of an experiment together (see SdeEnsemble) */
+	private boolean sdeEnsemble_ = false;
+	/** Maximum number of predictions read from a prediction file for the evaluation (0: read all) */
+	private int maxNumPredictionsRead_ = 0;
+	/** Set true to save the expression matrix of a compendium in a binary cache when it is loaded for the first time (see ExpressionMatrixReader) */
+	private boolean compendiumCache_ = false;
+	/** Set true to store the simulated expression data in single precision (see DenseFloatMatrix2D) */
+	private boolean singlePrecisionStorage_ = false;
+	
 	// PROCESS STATE
 	private boolean stopSubnetExtraction_ = false;
 	private boolean stopBenchmarkGeneration_ = false;
@@ -340,6 +375,7 @@ public class GnwSettings {
 
 		// VARIOUS
 		randomSeed_ = Integer.valueOf(gnwSettings.getProperty("randomSeed"));
+		randomStreams_ = gnwSettings.getProperty("randomStreams", "1").equals("0") ?  false : true;
 		outputDirectory_ = String.valueOf(gnwSettings.getProperty("outputDirectory"));
 		if (outputDirectory_.equals("")) 
 			setOutputDirectory(System.getProperty("user.dir")); // SF: user.home
@@ -347,6 +383,7 @@ public class GnwSettings {
 		ignoreAutoregulatoryInteractionsInEvaluation_ = gnwSettings.getProperty("ignoreAutoregulatoryInteractionsInEvaluation").equals("0") ?  false : true;
 		appendZeroInteractionsInGoldStandardFiles_ = gnwSettings.getProperty("appendZeroInteractionsInGoldStandardFiles").equals("0") ?  false : true;
 		outputGenesInRows_ = gnwSettings.getProperty("outputGenesInRows").equals("0") ?  false : true;
+		binaryOutput_ = Integer.valueOf(gnwSettings.getProperty("binaryOutput", "0"));
 		
 		// SUBNETWORK EXTRACTION
 		numRegulators_ = Integer.valueOf(gnwSettings.getProperty("numRegulators"));
@@ -407,6 +444,19 @@ public class GnwSettings {
 		lognormalStdev_ = Double.valueOf(gnwSettings.getProperty("lognormalStdev"));
 		normalizeAfterAddingNoise_ = gnwSettings.getProperty("normalizeAfterAddingNoise").equals("0") ?  false : true;
 		
+		// PERFORMANCE (optional, settings files of earlier versions don't have this section)
+		compileGeneNetworks_ = gnwSettings.getProperty("compileGeneNetworks", "1").equals("0") ?  false : true;
+		numThreads_ = Integer.valueOf(gnwSettings.getProperty("numThreads", "0"));
+		steadyStateBatchSize_ = Integer.valueOf(gnwSettings.getProperty("steadyStateBatchSize", "1"));
+		stiffODESolver_ = gnwSettings.getProperty("stiffODESolver", "0").equals("0") ?  false : true;
+		steadyStateNewton_ = gnwSettings.getProperty("steadyStateNewton", "0").equals("0") ?  false : true;
+		steadyStateWarmStart_ = gnwSettings.getProperty("steadyStateWarmStart", "0").equals("0") ?  false : true;
+		eulerMaruyamaSDE_ = gnwSettings.getProperty("eulerMaruyamaSDE", "0").equals("0") ?  false : true;
+		sdeEnsemble_ = gnwSettings.getProperty("sdeEnsemble", "0").equals("0") ?  false : true;
+		maxNumPredictionsRead_ = Integer.valueOf(gnwSettings.getProperty("maxNumPredictionsRead", "0"));
+		compendiumCache_ = gnwSettings.getProperty("compendiumCache", "0").equals("0") ?  false : true;
+		singlePrecisionStorage_ = gnwSettings.getProperty("singlePrecisionStorage", "0").equals("0") ?  false : true;
+		
 		signature_ = "\n";
 		signature_ += "Thomas Schaffter (thomas.schaff...@gmail.com)\n";
 		signature_ += "Daniel Marbach (daniel.marb...@gmail.com)\n";
@@ -536,29 +586,62 @@ public class GnwSettings {
 	// ----------------------------------------------------------------------------
 
 	/** Create new instances for the random number generators, initialize with randomSeed_ */
-	private void initializeRandomNumberGenerators()
+	private synchronized void initializeRandomNumberGenerators()
 	{
-		if (randomSeed_ == -1)
-			mersenneTwister_ = new MersenneTwister(new java.util.Date());
-		else
+		java.util.Date date = new java.util.Date();
+		if (randomSeed_ == -1) {
+			mersenneTwister_ = new MersenneTwister(date);
+			masterSeed_ = date.getTime();
+		} else {
 			mersenneTwister_ = new MersenneTwister(randomSeed_);
-		uniformDistribution_ = new Uniform(mersenneTwister_);
-		normalDistribution_ = new Normal(0, 1, mersenneTwister_); // mean 0, stdev 1
+			masterSeed_ = randomSeed_;
+		}
+		masterStream_ = new RandomStream(mersenneTwister_);
+		uniformDistribution_ = masterStream_.getUniformDistribution();
+		normalDistribution_ = masterStream_.getNormalDistribution(); // mean 0, stdev 1
 
 		// Use the same RNG for libsde
 		SdeSettings.getInstance().setNormalDistribution(normalDistribution_);
 	}
 	
 	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return a new random stream for the task with the given key (e.g. "network/label/index").
+	 * The seed of the stream is derived only from the master seed and the key, the key must
+	 * thus be unique for every task (include e.g. the index of the repeat). If randomStreams_
+	 * is false, the single generator of earlier versions is returned instead.
+	 */
+	public synchronized RandomStream getRandomStream(String key)
+	{
+		if (!randomStreams_)
+			return masterStream_;
+		
+		return new RandomStream(RandomStream.deriveSeed(masterSeed_, key));
+	}
+	
+	
 	// ============================================================================
 	// SETTERS AND GETTERS
 	
-	public Uniform getUniformDistribution() { return uniformDistribution_; }
-	public Normal getNormalDistribution() { return normalDistribution_; }
+	/** Return the uniform distribution of the stream bound to the current thread (the master stream if none) */
+	public Uniform getUniformDistribution() {
+		RandomStream stream = RandomStream.getCurrent();
+		return (stream == null) ? uniformDistribution_ : stream.getUniformDistribution();
+	}
+	/** Return the normal distribution of the stream bound to the current thread (the master stream if none) */
+	public BulkNormal getNormalDistribution() {
+		RandomStream stream = RandomStream.getCurrent();
+		return (stream == null) ? normalDistribution_ : stream.getNormalDistribution();
+	}
 
 	public int getRandomSeed() { return randomSeed_; }
 	public void setRandomSeed(int s) { randomSeed_ = s; }
 	
+	public void setRandomStreams(boolean b) { randomStreams_ = b; }
+	public boolean getRandomStreams() { return randomStreams_; }
+	
 	public int getNumRegulators() { return numRegulators_; }
 	public void setNumRegulators(int numRegulators) { numRegulators_ = numRegulators; }
 	
@@ -655,12 +738,52 @@ public class GnwSettings {
 	public void setOutputGenesInRows(boolean b) { outputGenesInRows_ = b; }
 	public boolean getOutputGenesInRows() { return outputGenesInRows_; }
 	
+	public void setBinaryOutput(int n) { binaryOutput_ = n; }
+	public int getBinaryOutput() { return binaryOutput_; }
+	/** Return true if the expression data is saved in TSV files (binaryOutput = 0 or 1) */
+	public boolean getOutputTsv() { return binaryOutput_ != 2; }
+	/** Return true if the expression data is saved in binary files (binaryOutput = 1 or 2) */
+	public boolean getOutputBinary() { return binaryOutput_ == 1 || binaryOutput_ == 2; }
+	
 	public void setSimulateODE(boolean b) { simulateODE_ = b; }
 	public boolean getSimulateODE() { return simulateODE_; }
 	
 	public void setSimulateSDE(boolean b) { simulateSDE_ = b; }
 	public boolean getSimulateSDE() { return simulateSDE_; }
 	
+	public void setCompileGeneNetworks(boolean b) { compileGeneNetworks_ = b; }
+	public boolean getCompileGeneNetworks() { return compileGeneNetworks_; }
+	
+	public void setNumThreads(int n) { numThreads_ = n; }
+	public int getNumThreads() { return numThreads_; }
+	
+	public void setSteadyStateBatchSize(int n) { steadyStateBatchSize_ = n; }
+	public int getSteadyStateBatchSize() { return steadyStateBatchSize_; }
+	
+	public void setStiffODESolver(boolean b) { stiffODESolver_ = b; }
+	public boolean getStiffODESolver() { return stiffODESolver_; }
+	
+	public void setSteadyStateNewton(boolean b) { steadyStateNewton_ = b; }
+	public boolean getSteadyStateNewton() { return steadyStateNewton_; }
+	
+	public void setSteadyStateWarmStart(boolean b) { steadyStateWarmStart_ = b; }
+	public boolean getSteadyStateWarmStart() { return steadyStateWarmStart_; }
+	
+	public void setEulerMaruyamaSDE(boolean b) { eulerMaruyamaSDE_ = b; }
+	public boolean getEulerMaruyamaSDE() { return eulerMaruyamaSDE_; }
+	
+	public void setSdeEnsemble(boolean b) { sdeEnsemble_ = b; }
+	public boolean getSdeEnsemble() { return sdeEnsemble_; }
+	
+	public void setMaxNumPredictionsRead(int n) { maxNumPredictionsRead_ = n; }
+	public int getMaxNumPredictionsRead() { return maxNumPredictionsRead_; }
+	
+	public void setCompendiumCache(boolean b) { compendiumCache_ = b; }
+	public boolean getCompendiumCache() { return compendiumCache_; }
+	
+	public void setSinglePrecisionStorage(boolean b) { singlePrecisionStorage_ = b; }
+	public boolean getSinglePrecisionStorage() { return singlePrecisionStorage_; }
+	
 	public double getRandomHalfLife() { return randomHalfLife_.getRandomValue();	}
 	public void setRandomHalfLife(RandomParameter r) {randomHalfLife_ = r; }
 
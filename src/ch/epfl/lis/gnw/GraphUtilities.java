@@ -28,8 +28,10 @@ package ch.epfl.lis.gnw;
 
 import java.io.FileWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.PriorityQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,9 +39,7 @@ import ch.epfl.lis.imod.Imod;
 import ch.epfl.lis.imod.ImodNetwork;
 import ch.epfl.lis.imod.ImodSettings;
 import ch.epfl.lis.imod.ModularityDetector;
-import ch.epfl.lis.networks.Edge;
 import ch.epfl.lis.networks.Node;
-import ch.epfl.lis.networks.Structure;
 
 /**
  * Implements some functions to analyze structural properties of networks.
@@ -53,6 +53,14 @@ public class GraphUtilities {
 	ImodNetwork network_;
 	/** The strongly connected components of the network */
 	private ArrayList<ArrayList<Node>> components_;
+	/** The index of the strongly connected component of every node (see computeComponents()) */
+	private int[] componentOf_;
+	/** Number of strongly connected components (including single nodes) */
+	private int numComponents_;
+	/** The nodes of component c are componentNodes_[componentStart_[c]], ..., componentNodes_[componentStart_[c+1]-1] */
+	private int[] componentStart_;
+	/** Indexes of the nodes grouped by component */
+	private int[] componentNodes_;
 	
     /** Logger for this class */
     private static Logger log_ = Logger.getLogger(GraphUtilities.class.getName());
@@ -66,31 +74,39 @@ public class GraphUtilities {
 	{
 		network_ = network;
 		components_ = null;
+		componentOf_ = null;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return the adjacency structure of the network in compressed sparse row and column
+	 * format, which scales with the number of edges (see SparseAdjacency).
+	 */
+	public SparseAdjacency getSparseAdjacency()
+	{
+		return new SparseAdjacency(network_);
 	}
 	
 	// ----------------------------------------------------------------------------
 	
 	/**
 	 * Return the adjacency matrix A of the network. A[i][j] = true if there is a link
-	 * from gene *j* to gene i.
+	 * from gene *j* to gene i. Memory scales with the square of the number of genes,
+	 * use getSparseAdjacency() for large networks.
 	 */
 	public boolean[][] getAdjacencyMatrix()
 	{	
-		int numNodes = network_.getSize();
-		int numEdges = network_.getNumEdges();
+		SparseAdjacency adjacency = getSparseAdjacency();
+		int numNodes = adjacency.getNumNodes();
+		int[] targetStart = adjacency.getTargetStart();
+		int[] targets = adjacency.getTargets();
 		boolean[][] A = new boolean[numNodes][numNodes];
 		
-		for (int i = 0; i < numNodes; i++)
-			for (int j = 0; j < numNodes; j++)
-				A[i][j] = false;
+		for (int j = 0; j < numNodes; j++)
+			for (int k = targetStart[j]; k < targetStart[j+1]; k++)
+				A[targets[k]][j] = true;
 		
-		for (int i = 0; i < numEdges; i++)
-		{
-			Edge edge = network_.getEdge(i);
-			int sourceIndex = network_.getIndexOfNode(edge.getSource());
-			int targetIndex = network_.getIndexOfNode(edge.getTarget());
-			A[targetIndex][sourceIndex] = true;
-		}
 		return A;
 	}
 	
@@ -99,19 +115,7 @@ public class GraphUtilities {
 	/** Return the indegrees (number of inputs) of the nodes */
 	public int[] getIndegrees()
 	{	
-		int numNodes = network_.getSize();
-		int numEdges = network_.getNumEdges();
-		int[] indegrees = new int[numNodes];
-		
-		for (int i = 0; i < numNodes; i++)
-			indegrees[i] = 0;
-		
-		for (int i = 0; i < numEdges; i++)
-		{
-			Edge edge = network_.getEdge(i);
-			indegrees[network_.getIndexOfNode(edge.getTarget())]++;
-		}
-		return indegrees;
+		return getSparseAdjacency().getIndegrees();
 	}
 
 	// ----------------------------------------------------------------------------
@@ -119,47 +123,34 @@ public class GraphUtilities {
 	/** Return the outdegrees (number of outputs) of the nodes */
 	public int[] getOutdegrees()
 	{	
-		int numNodes = network_.getSize();
-		int numEdges = network_.getNumEdges();
-		int[] outdegrees = new int[numNodes];
-		
-		for (int i = 0; i < numNodes; i++)
-			outdegrees[i] = 0;
-		
-		for (int i = 0; i < numEdges; i++)
-		{
-			Edge edge = network_.getEdge(i);
-			outdegrees[network_.getIndexOfNode(edge.getSource())]++;
-		}
-		return outdegrees;
+		return getSparseAdjacency().getOutdegrees();
 	}
 	
 	// ----------------------------------------------------------------------------
 
-	/** Returns the strongly connected components of the graph (network) */
+	/**
+	 * Returns the strongly connected components of the graph (network) that consist of at
+	 * least two nodes. The components are found in reverse topological order (see
+	 * computeComponents()).
+	 */
 	public ArrayList<ArrayList<Node>> getStronglyConnectedComponents()
 	{
-		// Only nodes that are regulators (outdegree greater than zero) can potentially be
-		// part of a strongly connected component. Thus, we first extract the network of
-		// all regulators to decrease computation time afterwards.
-		SubnetExtractor extractor = new SubnetExtractor(network_);
-		ImodNetwork networkOfRegulators = extractor.extractRegulators(); 
+		computeComponents();
 		
 		// The strongly connected components
 		components_ = new ArrayList<ArrayList<Node>>();
-		ArrayList<Node> nextComponent = new ArrayList<Node>();
-		ArrayList<Node> visited = new ArrayList<Node>();
-		ArrayList<Integer> visitedDfsnum = new ArrayList<Integer>();
-
-		// Add a virtual root node, which has links to all other nodes, so that the graph is connected
-		Node rootNode = new Node();
-		for (int i = 0; i < networkOfRegulators.getSize(); i++)
-			networkOfRegulators.addEdge(new Edge(rootNode, networkOfRegulators.getNode(i)));
-		networkOfRegulators.addNode(rootNode);
-		
-		// Get the strongly connected components
-		Tree tree = new Tree();
-		tree.visit(0, rootNode, networkOfRegulators, nextComponent, visited, visitedDfsnum);
+		for (int c = 0; c < numComponents_; c++)
+		{
+			int first = componentStart_[c];
+			int last = componentStart_[c+1];
+			if (last - first < 2)
+				continue;
+			
+			ArrayList<Node> component = new ArrayList<Node>(last - first);
+			for (int k = first; k < last; k++)
+				component.add(network_.getNode(componentNodes_[k]));
+			components_.add(component);
+		}
 		
 		// Print
 		log_.log(Level.INFO, "Identified " + components_.size() + " strongly connected component(s)");
@@ -179,52 +170,133 @@ public class GraphUtilities {
 	}
 	
 	// ----------------------------------------------------------------------------
-
+	
 	/**
-	 * Evaluate for every pair of regulators the number of targets that they have in
-	 * common, return the sorted list of pairs (only include those that do have common targets) 
+	 * Return for every node the index of its strongly connected component (all components,
+	 * including those that consist of a single node). The components are numbered in reverse
+	 * topological order: if there is a link from component a to component b, then a > b.
 	 */
-	public ArrayList<int[]> getSortedCoregulatorPairs()
-	{	
-		ArrayList<int[]> pairs = new ArrayList<int[]>();
+	public int[] getComponentIndexes()
+	{
+		computeComponents();
+		return componentOf_.clone();
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return the condensation of the network, i.e., the directed acyclic graph of the strongly
+	 * connected components (numbered as in getComponentIndexes()). Element c lists the components
+	 * that are targeted by links from component c (sorted, without duplicates).
+	 */
+	public int[][] getCondensation()
+	{
+		computeComponents();
 		
-		int numGenes = network_.getSize();
-		boolean[][] A = getAdjacencyMatrix();
+		SparseAdjacency adjacency = getSparseAdjacency();
+		int[] targetStart = adjacency.getTargetStart();
+		int[] targets = adjacency.getTargets();
+		int[][] condensation = new int[numComponents_][];
 		
-		int[][] numCommonTargets = new int[numGenes][numGenes];
-		for (int i=0; i<numGenes; i++)
-			for (int j=0; j<numGenes; j++)
-				numCommonTargets[i][j] = 0;
+		// the last component that has been added as target of the current component
+		int[] added = new int[numComponents_];
+		Arrays.fill(added, -1);
+		int[] buffer = new int[numComponents_];
 		
-		// count the number of common targets for all pairs
-		for (int g=0; g<numGenes; g++) {
-			// for all targets of that gene (i.e., all genes with A[i][g]=true)
-			for (int i=0; i<numGenes; i++) {
-				if (A[i][g]) {
-					// check who else regulates that gene
-					for (int j=g+1; j<numGenes; j++) { // note, we only fill the upper triangular part of the matrix
-						if (A[i][j])
-							numCommonTargets[g][j]++;
+		for (int c = 0; c < numComponents_; c++)
+		{
+			int numTargets = 0;
+			for (int k = componentStart_[c]; k < componentStart_[c+1]; k++)
+			{
+				int j = componentNodes_[k];
+				for (int l = targetStart[j]; l < targetStart[j+1]; l++)
+				{
+					int d = componentOf_[targets[l]];
+					if (d != c && added[d] != c)
+					{
+						added[d] = c;
+						buffer[numTargets++] = d;
 					}
 				}
 			}
+			condensation[c] = Arrays.copyOf(buffer, numTargets);
+			Arrays.sort(condensation[c]);
+		}
+		return condensation;
+	}
+	
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * Evaluate for every pair of regulators the number of targets that they have in
+	 * common, return the sorted list of pairs (only include those that do have common targets) 
+	 */
+	public ArrayList<int[]> getSortedCoregulatorPairs()
+	{
+		return getSortedCoregulatorPairs(0);
+	}
+	
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * Same as getSortedCoregulatorPairs(), but return only the maxNumPairs pairs with the
+	 * most common targets (all pairs if maxNumPairs is 0). The pairs are counted by going
+	 * through the regulators of every target, time and memory thus scale with the number of
+	 * co-regulating pairs and not with the square of the number of genes. Every pair is an
+	 * array {i, j, number of common targets} with i < j, pairs with the same number of
+	 * common targets are ordered by i and j.
+	 */
+	public ArrayList<int[]> getSortedCoregulatorPairs(int maxNumPairs)
+	{
+		SparseAdjacency adjacency = getSparseAdjacency();
+		long numGenes = adjacency.getNumNodes();
+		int[] regulatorStart = adjacency.getRegulatorStart();
+		int[] regulators = adjacency.getRegulators();
+		
+		// count the number of common targets for all pairs, the key of pair (i, j) is i*numGenes + j
+		PairCounter counter = new PairCounter();
+		for (int t = 0; t < numGenes; t++)
+		{
+			// the regulators of a gene are sorted, so we always have i < j
+			for (int k = regulatorStart[t]; k < regulatorStart[t+1]; k++)
+				for (int l = k+1; l < regulatorStart[t+1]; l++)
+					counter.increment(regulators[k]*numGenes + regulators[l]);
 		}
 		
-		// make the list of all pairs with common targets
-		for (int i=0; i<numGenes; i++) {
-			for (int j=i+1; j<numGenes; j++) {
-				if (numCommonTargets[i][j] > 0) {
-					int[] thisPair = new int[3];
-					thisPair[0] = i;
-					thisPair[1] = j;
-					thisPair[2] = numCommonTargets[i][j];
-					pairs.add(thisPair);
+		long[] keys = counter.getKeys();
+		int[] counts = counter.getCounts();
+		PairsComparator comparator = new PairsComparator();
+		ArrayList<int[]> pairs;
+		
+		if (maxNumPairs > 0 && maxNumPairs < counter.size())
+		{
+			// keep the best pairs in a bounded heap, the worst of them is at its head
+			PriorityQueue<int[]> heap = new PriorityQueue<int[]>(maxNumPairs+1, Collections.reverseOrder(comparator));
+			for (int k = 0; k < keys.length; k++)
+			{
+				if (counts[k] == 0)
+					continue;
+				int[] thisPair = new int[] { (int) (keys[k] / numGenes), (int) (keys[k] % numGenes), counts[k] };
+				if (heap.size() < maxNumPairs)
+					heap.add(thisPair);
+				else if (comparator.compare(thisPair, heap.peek()) < 0)
+				{
+					heap.poll();
+					heap.add(thisPair);
 				}
 			}
+			pairs = new ArrayList<int[]>(heap);
+		}
+		else
+		{
+			pairs = new ArrayList<int[]>(counter.size());
+			for (int k = 0; k < keys.length; k++)
+				if (counts[k] > 0)
+					pairs.add(new int[] { (int) (keys[k] / numGenes), (int) (keys[k] % numGenes), counts[k] });
 		}
 		
 		// Sort the pairs
-		Collections.sort(pairs, new PairsComparator());
+		Collections.sort(pairs, comparator);
 
 		return pairs;
 	}
@@ -313,143 +385,213 @@ public class GraphUtilities {
 	
 	// ----------------------------------------------------------------------------
 
-	public void setNetwork(ImodNetwork network) {network_ = network;}
+	public void setNetwork(ImodNetwork network) {network_ = network; components_ = null; componentOf_ = null;}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * Compute the strongly connected components with Tarjan's algorithm, which is linear
+	 * in time (see the pseudo-code at the end of this file). The depth-first search is
+	 * implemented with explicit stacks instead of recursion, so that it works for graphs
+	 * of any depth. The nodes are visited in the order of the network and their targets
+	 * in the order of the edges, autoregulatory interactions are ignored. The components
+	 * are numbered in the order in which they are identified, which is a reverse topological
+	 * order. The nodes of a component are listed in the order they are removed from the
+	 * stack L, i.e., the head of the component is last.
+	 */
+	private void computeComponents()
+	{
+		if (componentOf_ != null)
+			return;
+		
+		// the targets of every node in the order of the edges, so that the nodes are visited in the same order as before
+		SparseAdjacency adjacency = new SparseAdjacency(network_, true);
+		int numNodes = adjacency.getNumNodes();
+		int[] targetStart = adjacency.getTargetStart();
+		int[] targets = adjacency.getTargets();
+		
+		// dfsnum of every node (-1 if not yet visited) and its low value
+		int[] dfsnum = new int[numNodes];
+		int[] low = new int[numNodes];
+		Arrays.fill(dfsnum, -1);
+		// the stack L and the nodes that are on it
+		int[] L = new int[numNodes];
+		int sizeL = 0;
+		boolean[] onL = new boolean[numNodes];
+		// the path of the depth-first search (replaces the recursion) and the next edge of every node on it
+		int[] path = new int[numNodes];
+		int[] nextEdge = new int[numNodes];
+		int N = 0;
+		
+		componentOf_ = new int[numNodes];
+		componentStart_ = new int[numNodes + 1];
+		componentNodes_ = new int[numNodes];
+		numComponents_ = 0;
+		int numAssigned = 0;
+		
+		// the virtual root node with links to all other nodes: start a search from every node not yet visited
+		for (int root = 0; root < numNodes; root++)
+		{
+			if (dfsnum[root] != -1)
+				continue;
+			
+			int depth = 0;
+			path[0] = root;
+			nextEdge[root] = targetStart[root];
+			dfsnum[root] = low[root] = N++;
+			L[sizeL++] = root;
+			onL[root] = true;
+			
+			while (depth >= 0)
+			{
+				int p = path[depth];
+				
+				if (nextEdge[p] < targetStart[p+1])
+				{
+					// next edge p->q
+					int q = targets[nextEdge[p]++];
+					if (q == p)
+						continue;
+					
+					if (dfsnum[q] == -1)
+					{
+						// visit(q)
+						path[++depth] = q;
+						nextEdge[q] = targetStart[q];
+						dfsnum[q] = low[q] = N++;
+						L[sizeL++] = q;
+						onL[q] = true;
+						
+					} else if (onL[q])
+						low[p] = Math.min(low[p], dfsnum[q]);
+					// else: q has been removed from G
+					
+				} else {
+					// all edges of p done, check if p is the head of a component
+					if (low[p] == dfsnum[p])
+					{
+						componentStart_[numComponents_] = numAssigned;
+						int v;
+						do {
+							v = L[--sizeL];
+							onL[v] = false;
+							componentOf_[v] = numComponents_;
+							componentNodes_[numAssigned++] = v;
+						} while (v != p);
+						numComponents_++;
+					}
+					// return to the parent
+					depth--;
+					if (depth >= 0)
+						low[path[depth]] = Math.min(low[path[depth]], low[p]);
+				}
+			}
+		}
+		componentStart_[numComponents_] = numAssigned;
+	}
 	
 	
 	// ============================================================================
 	// PRIVATE CLASSES
 	
 	/**
-	 * Comparator used by getTopOverlappingRegulatorPairs() to sort the pairs
+	 * Comparator used by getSortedCoregulatorPairs() to sort the pairs by decreasing number
+	 * of common targets, ties are ordered by the indexes of the regulators
 	 */
-	private class PairsComparator implements Comparator<int[]>
+	private static class PairsComparator implements Comparator<int[]>
 	{
-		//private Uniform uniform_ = GnwSettings.getInstance().getUniformDistribution();
-
 		public int compare(int[] a, int[] b) {
-			//if (a[2] == b[2])
-				//return uniform_.nextBoolean() ? 1 : -1;
-			if (a[2] < b[2])
-				return 1;
-			else if (a[2] > b[2])
-				return -1;
-			else
-				return 0;
+			if (a[2] != b[2])
+				return a[2] < b[2] ? 1 : -1;
+			if (a[0] != b[0])
+				return a[0] < b[0] ? -1 : 1;
+			if (a[1] != b[1])
+				return a[1] < b[1] ? -1 : 1;
+			return 0;
 		}
 	}
 	
 	// ----------------------------------------------------------------------------
 	
-	/** 
-	 * Tree for a depth-first search (DFS) of the graph, used by getStronglyConnectedComponents().
-	 * The pseudo-code of this algorithm is given at the end of this file.
+	/**
+	 * Hash map from non-negative long keys to int counts (open addressing with linear
+	 * probing), used by getSortedCoregulatorPairs() to count the common targets of the
+	 * pairs without boxing. Slots with a count of zero are empty.
 	 */
-	private class Tree
+	private static class PairCounter
 	{
+		/** The keys, only valid for slots with a count larger than zero */
+		private long[] keys_;
+		/** The counts */
+		private int[] counts_;
+		/** Number of keys in the map */
+		private int size_;
 		
-		/** The node of the network corresponding to this node of the tree */
-		private Node node_;
-		/** The 'low' variable that is used to determine if the node is a head (see pseudo-code) */
-		private int low_;
-		/** The subtrees of this tree */
-		private ArrayList<Tree> subtrees_;
-		
-
-		// ============================================================================
-		// PUBLIC METHODS
-
 		/** Constructor */
-		public Tree() {
-			node_ = null;
-			low_ = -1;
-			subtrees_ = null;
+		public PairCounter()
+		{
+			keys_ = new long[1024];
+			counts_ = new int[1024];
+			size_ = 0;
 		}
 		
-		// ----------------------------------------------------------------------------
-
-		/** 
-		 * Recursive visit (depth-first search).
-		 * @param dfsnum The node visited is the dfsnum'th node
-		 * @param node The node being visited
-		 * @param network The network. Note that nodes will be deleted once a densely connected component
-		 * has been identified. Thus, one should pass a clone of the network and not the original network.
-		 * @param L The next densely connected component
-		 * @param visited A list of nodes that have already been visited
-		 * @param visitedDfsnum visited[i] was the visitedDfsnum[i]'th node visited
-		 */
-		public void visit(int dfsnum, Node node, Structure network, ArrayList<Node> L, ArrayList<Node> visited, ArrayList<Integer> visitedDfsnum) {
-			
-			node_ = node;
-			L.add(node_);
-			assert !visited.contains(node_);
-			visited.add(node_);
-			visitedDfsnum.add(dfsnum);
-			
-			low_ = dfsnum++;
-			subtrees_ = new ArrayList<Tree>();
-
-			// get all targets of this node
-			ArrayList<Node> directTargets = new ArrayList<Node>();
-			
-			for (int i=0; i<network.getNumEdges(); i++) {
-				Node source = network.getEdge(i).getSource();
-				Node target = network.getEdge(i).getTarget();
-				
-				if (source == node_ && target != node_) {
-					assert !directTargets.contains(target);
-					directTargets.add(target);
+		/** Increment the count of the given key by one */
+		public void increment(long key)
+		{
+			int mask = keys_.length - 1;
+			int slot = hash(key) & mask;
+			while (counts_[slot] > 0)
+			{
+				if (keys_[slot] == key)
+				{
+					counts_[slot]++;
+					return;
 				}
+				slot = (slot + 1) & mask;
 			}
+			keys_[slot] = key;
+			counts_[slot] = 1;
 			
-			// visit the neighbors that have not yet been visited
-			for (int i=0; i<directTargets.size(); i++) {
-				Node n = directTargets.get(i);
-				
-				if (!visited.contains(n)) {
-					Tree subtree = new Tree();
-					subtrees_.add(subtree);
-					subtree.visit(dfsnum, n, network, L, visited, visitedDfsnum);
-					low_ = min(low_, subtree.getLow());
-				} else {
-					low_ = min(low_, visitedDfsnum.get(visited.indexOf(n)));
-				}
-			}
+			// keep the load factor below 0.5
+			if (++size_ > keys_.length / 2)
+				rehash(2*keys_.length);
+		}
+		
+		/** Copy the entries into tables of the given size (a power of two) */
+		private void rehash(int capacity)
+		{
+			long[] keys = keys_;
+			int[] counts = counts_;
+			keys_ = new long[capacity];
+			counts_ = new int[capacity];
+			int mask = capacity - 1;
 			
-			// check if the node is a head of a densely connected component
-			if (low_ == visitedDfsnum.get(visited.indexOf(node_))) {
-				
-				// if the densely connected components consists of only this node,
-				// remove the node from the component list and from the graph
-				if (node_ == L.get(L.size()-1)) {
-					L.remove(L.size()-1);
-					network.removeNode(node_);
-					
-				} else {
-					ArrayList<Node> component = new ArrayList<Node>();
-					do {
-						Node n = L.remove(L.size()-1);
-						network.removeNode(n);
-						component.add(n);
-						
-					} while (node_ != component.get(component.size()-1));					
-					components_.add(component);
-				}
+			for (int k = 0; k < keys.length; k++)
+			{
+				if (counts[k] == 0)
+					continue;
+				int slot = hash(keys[k]) & mask;
+				while (counts_[slot] > 0)
+					slot = (slot + 1) & mask;
+				keys_[slot] = keys[k];
+				counts_[slot] = counts[k];
 			}
 		}
-	
-		// ----------------------------------------------------------------------------
-
-		/** Return the smaller of the two numbers */
-		private int min(int a, int b) {
-			if (a <= b)
-				return a;
-			else
-				return b;
+		
+		/** Mix the bits of the key (multiplicative hashing) */
+		private static int hash(long key)
+		{
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
 		}
-			
-		public int getLow() { return low_; }
-	
+		
+		public int size() { return size_; }
+		public long[] getKeys() { return keys_; }
+		public int[] getCounts() { return counts_; }
 	}
+	
 }
 
 
@@ -77,6 +77,27 @@ public class HillGene extends Gene {
 		regulatoryModules_ = null;
 	}
 	
+	/**
+	 * Copy constructor, the copy belongs to the given gene network. The input genes are
+	 * *not* copied, they must be set by the network (see GeneNetwork.createReplica()).
+	 */
+	public HillGene(HillGene gene, GeneNetwork grn) {
+		super(gene, grn);
+		alpha_ = (gene.alpha_ == null) ? null : gene.alpha_.clone();
+		alphaWildType_ = (gene.alphaWildType_ == null) ? null : gene.alphaWildType_.clone();
+		
+		if (gene.regulatoryModules_ == null)
+			regulatoryModules_ = null;
+		else {
+			regulatoryModules_ = new ArrayList<RegulatoryModule>(gene.regulatoryModules_.size());
+			for (int i=0; i<gene.regulatoryModules_.size(); i++) {
+				RegulatoryModule module = new RegulatoryModule(gene.regulatoryModules_.get(i));
+				module.setGene(this);
+				regulatoryModules_.add(module);
+			}
+		}
+	}
+	
 
 	// ----------------------------------------------------------------------------
 
@@ -250,6 +271,7 @@ public class HillGene extends Gene {
 			else if (alpha_[i] > 1)
 				alpha_[i] = 1;
 		}
+		notifyParametersChanged();
 	}
 	
 	
@@ -260,6 +282,7 @@ public class HillGene extends Gene {
 		
 		for (int i=0; i<alpha_.length; i++)
 			alpha_[i] = alphaWildType_[i];
+		notifyParametersChanged();
 	}
 	
 	
@@ -267,6 +290,8 @@ public class HillGene extends Gene {
 
 	public ArrayList<RegulatoryModule> getRegulatoryModules() {return regulatoryModules_;}
 	public double getBasalActivation() { return alpha_[0]; }
+	/** Return the relative activations for all possible states of the regulatory modules */
+	public double[] getAlpha() { return alpha_; }
 	
 	
 	// ============================================================================
@@ -360,6 +385,7 @@ public class HillGene extends Gene {
 			// CREATE AND INITIALIZE THE MODULE
 			
 			RegulatoryModule module = new RegulatoryModule();
+			module.setGene(this);
 			regulatoryModules_.add(module);
 			
 			// If there are more deactivators than activators, we say the module is a repressor,
@@ -616,7 +642,8 @@ public class HillGene extends Gene {
 		int inputCounter = 1;
 		
 		while (index != -1) {
-			RegulatoryModule module = new RegulatoryModule();  
+			RegulatoryModule module = new RegulatoryModule();
+			module.setGene(this);
 			regulatoryModules_.add(module);
 			numModules++;
 			
@@ -0,0 +1,357 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw;
+
+
+/** Finds the steady state of a gene network directly, by solving dx/dt = 0.
+ * 
+ * The nonlinear system is solved with damped Newton iterations on the sparse analytic
+ * Jacobian (GeneNetworkJacobian). The damping is a pseudo-transient continuation: every
+ * iteration solves (I - tau*J) dx = tau*f(x), which is an implicit Euler step of size tau
+ * for small tau and the Newton step for large tau. The pseudo time step tau grows as the
+ * residual decreases (switched evolution relaxation), so the iterations follow the dynamics
+ * far from the root and converge quadratically close to it. Concentrations are kept >= 0.
+ * 
+ * A root is only accepted if it is stable: the spectral radius of the Cayley transform
+ * (I - tau*J)^-1 (I + tau*J) is estimated by power iteration, it is larger than 1 if and
+ * only if J has an eigenvalue with positive real part (including oscillatory modes with
+ * a large imaginary part, e.g. at a Hopf bifurcation). The time that the integration would have needed to converge is estimated
+ * with the dynamics linearized at the root (see estimateTimeToConvergence()).
+ * 
+ * The network must be compiled (see GeneNetwork.getKernel()). An instance must not be
+ * shared between threads.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class NewtonSteadyStateSolver {
+	
+	/** Maximum number of iterations */
+	private static final int MAX_ITERATIONS = 100;
+	/** Initial pseudo time step (the first iteration is a Newton step, the initial condition is often close to the root) */
+	private static final double INITIAL_TAU = 1e6;
+	/** Bounds of the pseudo time step */
+	private static final double MIN_TAU = 1e-8;
+	private static final double MAX_TAU = 1e12;
+	/** Number of power iterations for the stability test */
+	private static final int NUM_POWER_ITERATIONS = 200;
+	/** The growth of the iterates is measured between the peaks of two blocks of this many iterations */
+	private static final int GROWTH_BLOCK = 20;
+	/** The root is unstable if the iterates grow by more than this factor (minus 1) per iteration */
+	private static final double MAX_GROWTH = 1e-9;
+	/** Number of implicit Euler steps per interval dt for the estimation of the time to convergence */
+	private static final int NUM_SUBSTEPS = 4;
+	
+	/** The network */
+	private GeneNetwork grn_;
+	/** Number of state variables */
+	private int dimension_;
+	/** Absolute precision (same as for the integration, see GeneNetworkODE.converged()) */
+	private double absolutePrecision_;
+	/** Relative precision */
+	private double relativePrecision_;
+	
+	/** The analytic Jacobian */
+	private GeneNetworkJacobian jacobian_;
+	/** Factorization of I - tau*J */
+	private SparseLU lu_;
+	
+	/** The current state (the steady state after a successful call to solve()) */
+	private double[] x_;
+	/** Rate of change at x_ */
+	private double[] f_;
+	/** Buffers for the step, the new state and its rate of change */
+	private double[] dx_, xNew_, fNew_;
+	
+	/** Number of iterations of the last call to solve() */
+	private int numIterations_;
+	/** Number of evaluations of the rate of change */
+	private int numEvaluations_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor
+	 * @param grn The network, must be compiled (see GeneNetwork.getKernel())
+	 * @param modelTranslation Set true if the protein concentrations are part of the state
+	 * @param absolutePrecision Absolute precision of the steady state
+	 * @param relativePrecision Relative precision of the steady state
+	 */
+	public NewtonSteadyStateSolver(GeneNetwork grn, boolean modelTranslation, double absolutePrecision, double relativePrecision) {
+		
+		GeneNetworkKernel kernel = grn.getKernel();
+		if (kernel == null)
+			throw new IllegalArgumentException("NewtonSteadyStateSolver: the network " + grn.getId() + " cannot be compiled");
+		
+		grn_ = grn;
+		absolutePrecision_ = absolutePrecision;
+		relativePrecision_ = relativePrecision;
+		
+		jacobian_ = new GeneNetworkJacobian(kernel, modelTranslation);
+		lu_ = new SparseLU(jacobian_.getRowStart(), jacobian_.getColumns(), jacobian_.getDiagonal());
+		dimension_ = jacobian_.getDimension();
+		
+		x_ = new double[dimension_];
+		f_ = new double[dimension_];
+		dx_ = new double[dimension_];
+		xNew_ = new double[dimension_];
+		fNew_ = new double[dimension_];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Search the steady state starting from xy0, return true if a stable steady state
+	 * was found (see getState()). The current parameters of the network are used (it
+	 * may be perturbed), the state of the network is not changed.
+	 */
+	public boolean solve(double[] xy0) {
+		
+		// the parameters of the kernel may have changed since the construction (perturbation)
+		if (grn_.getKernel() != jacobian_.getKernel())
+			throw new IllegalStateException("NewtonSteadyStateSolver: the wiring of the network has changed");
+		
+		for (int i=0; i<dimension_; i++)
+			x_[i] = Math.max(0, xy0[i]);
+		evaluate(x_, f_);
+		double residual = residual(x_, f_);
+		double tau = INITIAL_TAU;
+		numIterations_ = 0;
+		
+		while (residual > 1) {
+			if (numIterations_++ >= MAX_ITERATIONS || tau < MIN_TAU)
+				return false;
+			
+			jacobian_.compute(x_);
+			if (!lu_.factorize(jacobian_.getValues(), tau)) {
+				tau /= 10;
+				continue;
+			}
+			
+			// (I - tau J) dx = tau f
+			for (int i=0; i<dimension_; i++)
+				dx_[i] = tau * f_[i];
+			lu_.solve(dx_);
+			
+			for (int i=0; i<dimension_; i++)
+				xNew_[i] = Math.max(0, x_[i] + dx_[i]);
+			evaluate(xNew_, fNew_);
+			double newResidual = residual(xNew_, fNew_);
+			
+			// the comparison is false for NaN
+			if (newResidual <= 2*residual) {
+				tau = Math.min(MAX_TAU, tau * Math.min(10, Math.max(0.1, residual/newResidual)));
+				residual = newResidual;
+				double[] swap = x_;
+				x_ = xNew_;
+				xNew_ = swap;
+				swap = f_;
+				f_ = fNew_;
+				fNew_ = swap;
+			} else {
+				tau /= 10;
+			}
+		}
+		
+		return isStable();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Estimate the time that the integration from xy0 would need to reach the steady state
+	 * found by solve(), i.e. the first multiple of dt at which the change during dt is smaller
+	 * than the precision (see GeneNetworkODE.converged()). The deviation from the root is
+	 * propagated with the dynamics linearized at the root, using NUM_SUBSTEPS implicit Euler
+	 * steps per interval dt (one solve per step). The result is between dt and maxt.
+	 */
+	public int estimateTimeToConvergence(double[] xy0, double dt, int maxt) {
+		
+		jacobian_.compute(x_);
+		if (!lu_.factorize(jacobian_.getValues(), dt/NUM_SUBSTEPS))
+			return maxt;
+		
+		double[] d = dx_;
+		double[] previous = xNew_;
+		for (int i=0; i<dimension_; i++)
+			d[i] = xy0[i] - x_[i];
+		
+		int t = 0;
+		boolean converged = false;
+		while (!converged && t < maxt) {
+			t += dt;
+			System.arraycopy(d, 0, previous, 0, dimension_);
+			for (int k=0; k<NUM_SUBSTEPS; k++)
+				lu_.solve(d);
+			
+			converged = true;
+			for (int i=0; i<dimension_ && converged; i++)
+				converged = Math.abs(d[i] - previous[i]) <= absolutePrecision_ + relativePrecision_*Math.abs(x_[i] + d[i]);
+		}
+		return Math.min(t, maxt);
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Compute the rate of change at the given state */
+	private void evaluate(double[] xy, double[] dxydt) {
+		
+		grn_.computeDxydt(xy, dxydt);
+		numEvaluations_++;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return the largest rate of change relative to the precision. The root is accepted if
+	 * the residual is smaller than 1, i.e. if the rate is 100 times smaller than the precision
+	 * (as for the tolerance of the integration, see Solver).
+	 */
+	private double residual(double[] x, double[] f) {
+		
+		double max = 0;
+		for (int i=0; i<dimension_; i++)
+			max = Math.max(max, Math.abs(f[i]) / (absolutePrecision_ + relativePrecision_*Math.abs(x[i])));
+		return 100*max;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return true if the root x_ is stable. The eigenvalues of the Cayley transform
+	 * C = (I - tau*J)^-1 (I + tau*J) are (1 + tau*lambda)/(1 - tau*lambda), where lambda are the
+	 * eigenvalues of J: they are within the unit circle if and only if lambda has negative real
+	 * part, for any tau > 0. With tau = 1/max|J_ii|, the spectral radius of C is estimated by
+	 * power iteration. A dominant complex pair makes the norm of the iterates oscillate, the
+	 * growth is thus measured between the largest norms of a block of iterations at the
+	 * beginning and a block at the end.
+	 */
+	private boolean isStable() {
+		
+		jacobian_.compute(x_);
+		double[] values = jacobian_.getValues();
+		int[] diagonal = jacobian_.getDiagonal();
+		double maxDiagonal = 0;
+		for (int i=0; i<dimension_; i++)
+			maxDiagonal = Math.max(maxDiagonal, Math.abs(values[diagonal[i]]));
+		
+		double tau = (maxDiagonal > 0) ? 1/maxDiagonal : 1;
+		if (!lu_.factorize(values, tau))
+			return false;
+		
+		// deterministic start vector, so that the results are reproducible
+		double[] v = dx_;
+		double[] jv = xNew_;
+		for (int i=0; i<dimension_; i++)
+			v[i] = 1 + (i % 7) / 7.0;
+		normalize(v);
+		
+		// logarithm of the norm of the (not normalized) iterate, and its peaks in the two blocks
+		double logNorm = 0;
+		double firstPeak = Double.NEGATIVE_INFINITY;
+		double lastPeak = Double.NEGATIVE_INFINITY;
+		int firstBlock = NUM_POWER_ITERATIONS/4;
+		int lastBlock = NUM_POWER_ITERATIONS - GROWTH_BLOCK;
+		
+		for (int k=0; k<NUM_POWER_ITERATIONS; k++) {
+			// v = (I - tau J)^-1 (I + tau J) v
+			multiplyJacobian(v, jv);
+			for (int i=0; i<dimension_; i++)
+				v[i] += tau * jv[i];
+			lu_.solve(v);
+			
+			double norm = normalize(v);
+			if (!(norm > 0)) // v is in the null space of I + tau*J, or NaN
+				return norm == 0;
+			logNorm += Math.log(norm);
+			
+			if (k >= firstBlock && k < firstBlock + GROWTH_BLOCK)
+				firstPeak = Math.max(firstPeak, logNorm);
+			else if (k >= lastBlock)
+				lastPeak = Math.max(lastPeak, logNorm);
+		}
+		
+		double growth = (lastPeak - firstPeak) / (lastBlock - firstBlock);
+		return growth < Math.log(1 + MAX_GROWTH);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Compute jv = J v, where J is the Jacobian last computed by jacobian_ */
+	private void multiplyJacobian(double[] v, double[] jv) {
+		
+		int[] rowStart = jacobian_.getRowStart();
+		int[] columns = jacobian_.getColumns();
+		double[] values = jacobian_.getValues();
+		
+		for (int i=0; i<dimension_; i++) {
+			double sum = 0;
+			for (int e=rowStart[i]; e<rowStart[i+1]; e++)
+				sum += values[e] * v[columns[e]];
+			jv[i] = sum;
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Normalize the given vector, return its norm before normalization */
+	private double normalize(double[] v) {
+		
+		double norm = 0;
+		for (int i=0; i<dimension_; i++)
+			norm += v[i]*v[i];
+		norm = Math.sqrt(norm);
+		
+		if (norm > 0)
+			for (int i=0; i<dimension_; i++)
+				v[i] /= norm;
+		return norm;
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	/** Return the steady state found by the last call to solve() */
+	public double[] getState() { return x_; }
+	public int getNumIterations() { return numIterations_; }
+	public int getNumEvaluations() { return numEvaluations_; }
+	/** Return the compiled network used by this solver (the solver must be rebuilt if the kernel of the network changes) */
+	public GeneNetworkKernel getKernel() { return jacobian_.getKernel(); }
+	
+}
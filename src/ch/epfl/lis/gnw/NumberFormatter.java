@@ -0,0 +1,189 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw;
+
+import java.util.Locale;
+
+
+/** 
+ * Fast, locale-independent formatting of doubles with a fixed number of decimals, used by the
+ * writers of GNW instead of String.format("%.7f", x). The result is the same as the one of
+ * String.format() in an English locale: the shortest decimal representation of x (that of
+ * Double.toString()) rounded half up, which is not necessarily the nearest rounding of the
+ * binary value. The digits are computed with long arithmetic; numbers that are too large, not
+ * a number, or too close to a rounding tie to be sure to give the same result are formatted
+ * with String.format().
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ */
+public class NumberFormatter {
+	
+	/** The maximum number of characters written by format(double, int, byte[], int) */
+	public static final int MAX_LENGTH = 330;
+	/** The maximum number of decimals */
+	public static final int MAX_DECIMALS = 9;
+	
+	/** Powers of ten */
+	private static final long[] POWERS_OF_TEN = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L };
+
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Write x with the given number of decimals into the buffer, starting at the given offset.
+	 * There must be at least MAX_LENGTH bytes after the offset and decimals must not be larger
+	 * than MAX_DECIMALS. Return the offset after the last byte written.
+	 */
+	public static int format(double x, int decimals, byte[] buffer, int offset) {
+		
+		if (decimals < 0 || decimals > MAX_DECIMALS)
+			throw new IllegalArgumentException("NumberFormatter: the number of decimals must be between 0 and " + MAX_DECIMALS);
+		
+		long digits = getDigits(x, decimals);
+		
+		if (digits < 0) {
+			String str = formatSlow(x, decimals);
+			for (int i=0; i<str.length(); i++)
+				buffer[offset++] = (byte) str.charAt(i);
+			return offset;
+		}
+		
+		// the sign is written also for negative numbers that are rounded to zero (like String.format())
+		if (Double.doubleToRawLongBits(x) < 0)
+			buffer[offset++] = '-';
+		
+		// the number of digits, at least one before the decimal point
+		int numDigits = 1;
+		for (long d=digits/10; d > 0; d/=10)
+			numDigits++;
+		numDigits = Math.max(numDigits, decimals+1);
+		
+		// write the digits backwards
+		int end = offset + numDigits + (decimals > 0 ? 1 : 0);
+		int pos = end;
+		for (int k=0; k<numDigits; k++) {
+			if (k == decimals && decimals > 0)
+				buffer[--pos] = '.';
+			buffer[--pos] = (byte) ('0' + digits % 10);
+			digits /= 10;
+		}
+		return end;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Append x with the given number of decimals to the builder */
+	public static void append(StringBuilder builder, double x, int decimals) {
+		
+		long digits = getDigits(x, decimals);
+		
+		if (digits < 0) {
+			builder.append(formatSlow(x, decimals));
+			return;
+		}
+		
+		if (Double.doubleToRawLongBits(x) < 0)
+			builder.append('-');
+		
+		builder.append(digits / POWERS_OF_TEN[decimals]);
+		if (decimals > 0) {
+			builder.append('.');
+			long fraction = digits % POWERS_OF_TEN[decimals];
+			for (int k=decimals-1; k>=0; k--)
+				builder.append((char) ('0' + (fraction / POWERS_OF_TEN[k]) % 10));
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return x with the given number of decimals */
+	public static String format(double x, int decimals) {
+		
+		StringBuilder builder = new StringBuilder(24);
+		append(builder, x, decimals);
+		return builder.toString();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Round x to the given number of decimals, same result as parsing format(x, decimals) */
+	public static double round(double x, int decimals) {
+		
+		long digits = getDigits(x, decimals);
+		
+		if (digits < 0)
+			return Double.valueOf(formatSlow(x, decimals));
+		
+		// digits and the power of ten are exact, thus the quotient is the double nearest to the decimal number
+		double rounded = digits / (double) POWERS_OF_TEN[decimals];
+		return (Double.doubleToRawLongBits(x) < 0) ? -rounded : rounded;
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * Return the digits of |x| rounded to the given number of decimals (without decimal point),
+	 * or -1 if x must be formatted with formatSlow()
+	 */
+	private static long getDigits(double x, int decimals) {
+		
+		if (decimals < 0 || decimals > MAX_DECIMALS)
+			return -1;
+		
+		double scaled = Math.abs(x) * POWERS_OF_TEN[decimals];
+		// also true for NaN
+		if (!(scaled < 1e15))
+			return -1;
+		
+		long digits = (long) scaled;
+		double fraction = scaled - digits;
+		// the relative error of scaled is at most ~2e-16, that of the shortest representation of x as well
+		if (Math.abs(fraction - 0.5) < 1e-9 + scaled*1e-15)
+			return -1;
+		if (fraction > 0.5)
+			digits++;
+		
+		return digits;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Format x with String.format() */
+	private static String formatSlow(double x, int decimals) {
+		
+		return String.format(Locale.ENGLISH, "%." + decimals + "f", x);
+	}
+	
+}
@@ -0,0 +1,161 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw;
+
+
+/** Common interface of the integrators for the ODEs of a gene network.
+ * 
+ * An integrator chooses its internal steps based on the tolerances only, the
+ * state at the times requested by integrateTo() is interpolated if necessary.
+ * The state is read from and written to GeneNetworkODE.getState(). Subclasses
+ * are DormandPrinceSolver (explicit) and RosenbrockSolver (implicit, for stiff
+ * networks).
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+abstract public class OdeIntegrator {
+	
+	/** The system that is integrated */
+	protected GeneNetworkODE ode_;
+	/** Number of state variables */
+	protected int dimension_;
+	/** Absolute tolerance */
+	protected double absoluteTolerance_;
+	/** Relative tolerance */
+	protected double relativeTolerance_;
+	
+	/** Number of evaluations of the right-hand side */
+	protected int numEvaluations_;
+	/** Number of accepted steps */
+	protected int numSteps_;
+	
+	
+	// ============================================================================
+	// ABSTRACT METHODS
+	
+	/**
+	 * Restart the integration from the current state of the system (ode.getState()) at
+	 * time t. Must be called after the parameters of the network have been changed (e.g.
+	 * a perturbation has been removed), the steps computed beyond t are discarded.
+	 */
+	abstract public void restart(double t);
+	
+	/**
+	 * Integrate until time t and save the state at time t in ode.getState(). The solver steps
+	 * beyond t if the tolerance allows, the state at t is then interpolated (dense output).
+	 * The time must not be smaller than the time of the previous call.
+	 */
+	abstract public void integrateTo(double t);
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor
+	 * @param ode The system to integrate
+	 * @param absoluteTolerance Absolute tolerance of the local error
+	 * @param relativeTolerance Relative tolerance of the local error
+	 */
+	public OdeIntegrator(GeneNetworkODE ode, double absoluteTolerance, double relativeTolerance) {
+		
+		ode_ = ode;
+		dimension_ = ode.getState().length;
+		absoluteTolerance_ = absoluteTolerance;
+		relativeTolerance_ = relativeTolerance;
+		numEvaluations_ = 0;
+		numSteps_ = 0;
+	}
+	
+	
+	// ============================================================================
+	// PROTECTED METHODS
+	
+	/** Compute the rate of change at the given state */
+	protected void evaluate(double[] y, double[] dydt) {
+		
+		ode_.getRate(y, dydt);
+		numEvaluations_++;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Initial step size, as proposed by Hairer et al. (function hinit of DOPRI5)
+	 * @param y The initial state
+	 * @param f The rate of change at the initial state
+	 * @param order The order of the error estimate of the method
+	 * @param tmp Buffer for an intermediate state
+	 * @param f1 Buffer for the rate of change at the intermediate state
+	 */
+	protected double initialStepSize(double[] y, double[] f, int order, double[] tmp, double[] f1) {
+		
+		int n = dimension_;
+		double normY = 0;
+		double normF = 0;
+		for (int i=0; i<n; i++) {
+			double scale = absoluteTolerance_ + relativeTolerance_*Math.abs(y[i]);
+			normY += (y[i]/scale)*(y[i]/scale);
+			normF += (f[i]/scale)*(f[i]/scale);
+		}
+		normY = Math.sqrt(normY/n);
+		normF = Math.sqrt(normF/n);
+		
+		double h = (normY <= 1e-5 || normF <= 1e-5) ? 1e-6 : 0.01*normY/normF;
+		
+		// explicit Euler step to estimate the second derivative
+		for (int i=0; i<n; i++)
+			tmp[i] = Math.max(0, y[i] + h*f[i]);
+		evaluate(tmp, f1);
+		
+		double norm2 = 0;
+		for (int i=0; i<n; i++) {
+			double scale = absoluteTolerance_ + relativeTolerance_*Math.abs(y[i]);
+			double d = (f1[i] - f[i]) / scale;
+			norm2 += d*d;
+		}
+		norm2 = Math.sqrt(norm2/n) / h;
+		
+		double d12 = Math.max(norm2, normF);
+		double h1 = (d12 <= 1e-15) ? Math.max(1e-6, h*1e-3) : Math.pow(0.01/d12, 1.0/order);
+		
+		if (Double.isNaN(h1))
+			return h;
+		return Math.min(100*h, h1);
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public int getNumEvaluations() { return numEvaluations_; }
+	public int getNumSteps() { return numSteps_; }
+	
+}
@@ -218,21 +218,26 @@ public class Parser extends TSVParser {
 			int numNodes = structure_.getSize();
 			boolean noSelfLoops = GnwSettings.getInstance().getIgnoreAutoregulatoryInteractionsInEvaluation();
 			
-			// Get the adjacency matrix
+			// Get the adjacency structure
 			GraphUtilities util = new GraphUtilities((ImodNetwork) structure_);
-			boolean[][] A = util.getAdjacencyMatrix();
+			SparseAdjacency A = util.getSparseAdjacency();
+			int[] targetStart = A.getTargetStart();
+			int[] targets = A.getTargets();
 			
-			// Write the present edges
-			for (int i=0; i<numNodes; i++)
-				for (int j=0; j<numNodes; j++)
-					if (A[j][i] == true && (!noSelfLoops || i != j))
+			// Write the present edges (the targets of every node are sorted by index)
+			for (int i=0; i<numNodes; i++) {
+				for (int k=targetStart[i]; k<targetStart[i+1]; k++) {
+					int j = targets[k];
+					if (!noSelfLoops || i != j)
 						fw.write(structure_.getNode(i).getLabel() + "\t" + structure_.getNode(j).getLabel() + "\t1\n");
+				}
+			}
 			
 			// Write the zero edges
 			if (GnwSettings.getInstance().getAppendZeroInteractionsInGoldStandardFiles()) {
 				for (int i=0; i<numNodes; i++)
 					for (int j=0; j<numNodes; j++)
-						if (A[j][i] == false && (!noSelfLoops || i != j))
+						if (!A.get(j, i) && (!noSelfLoops || i != j))
 							fw.write(structure_.getNode(i).getLabel() + "\t" + structure_.getNode(j).getLabel() + "\t0\n");
 			}
 			
@@ -47,7 +47,7 @@ import ch.epfl.lis.networks.ios.TSVParser;
  * a time. For two-gene perturbations, two m_i are perturbed. 
  * @author Daniel Marbach
  */
-public abstract class Perturbation {
+public abstract class Perturbation implements Cloneable {
 	
 	/** The gene network to which the perturbations are being applied */
 	protected GeneNetwork grn_ = null;
@@ -89,6 +89,25 @@ public abstract class Perturbation {
 	}
 	
 
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return a copy of this perturbation that is applied to the given gene network
+	 * (usually a replica of grn_, see GeneNetwork.createReplica()). The perturbations
+	 * and the wild-type are shared with this instance, they must not be modified.
+	 */
+	public Perturbation copy(GeneNetwork grn) {
+		
+		try {
+			Perturbation copy = (Perturbation) super.clone();
+			copy.grn_ = grn;
+			return copy;
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	
 	// ----------------------------------------------------------------------------
 	
 	/**
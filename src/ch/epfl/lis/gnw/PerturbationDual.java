@@ -63,7 +63,7 @@ public class PerturbationDual extends PerturbationSingleGene {
 		saveWildType();
 		
 		GraphUtilities util = new GraphUtilities(grn_);
-		pairs_ = util.getSortedCoregulatorPairs();
+		pairs_ = util.getSortedCoregulatorPairs(numDualPerturbations);
 
 		if (pairs_.size() < 1)
 			throw new RuntimeException("There is no pair of TFs co-regulating a target gene, deselect dualknockouts when generating datasets form this network");
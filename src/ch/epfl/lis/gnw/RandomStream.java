@@ -0,0 +1,144 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import cern.jet.random.Uniform;
+import cern.jet.random.engine.MersenneTwister;
+
+
+/** A stream of random numbers (Mersenne Twister engine with uniform and normal distributions).
+ * 
+ * Every task (experiment, perturbation, subnetwork, ...) can draw from its own stream,
+ * whose seed is derived from the master seed and a key identifying the task (see
+ * GnwSettings.getRandomStream()). The results are thus the same whatever the number
+ * of threads and the order in which the tasks are executed.
+ * 
+ * A stream can be bound to the current thread, GnwSettings.getUniformDistribution()
+ * and GnwSettings.getNormalDistribution() then return the distributions of this stream.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ */
+public class RandomStream {
+
+	/** Mersenne Twister random engine of this stream */
+	private MersenneTwister mersenneTwister_;
+	/** Uniform distribution random number generator */
+	private Uniform uniformDistribution_;
+	/** Normal distribution random number generator (mean 0, stdev 1) */
+	private BulkNormal normalDistribution_;
+	
+	/** The stream bound to the current thread (null if none) */
+	private static final ThreadLocal<RandomStream> current_ = new ThreadLocal<RandomStream>();
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor, initialize a new engine with the given seed */
+	public RandomStream(int seed) {
+		
+		this(new MersenneTwister(seed));
+	}
+	
+	
+	/** Constructor, use the given engine */
+	public RandomStream(MersenneTwister mersenneTwister) {
+		
+		mersenneTwister_ = mersenneTwister;
+		uniformDistribution_ = new Uniform(mersenneTwister_);
+		normalDistribution_ = new BulkNormal(0, 1, mersenneTwister_);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Derive the seed of a stream from the master seed and the key of the task. The
+	 * key is hashed (64-bit FNV-1a) and mixed with the master seed (SplitMix64 finalizer),
+	 * so that similar keys give unrelated seeds.
+	 */
+	public static int deriveSeed(long masterSeed, String key) {
+		
+		long h = 0xcbf29ce484222325L;
+		for (int i=0; i<key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		
+		long z = masterSeed + h * 0x9e3779b97f4a7c15L;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		z = z ^ (z >>> 31);
+		
+		return (int) (z ^ (z >>> 32));
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Bind this stream to the current thread, return the stream that was bound before
+	 * (null if none), which must be restored with restore() once the task is done.
+	 */
+	public RandomStream bind() {
+		
+		RandomStream previous = current_.get();
+		current_.set(this);
+		return previous;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Bind the given stream (returned by bind()) to the current thread again */
+	public static void restore(RandomStream previous) {
+		
+		if (previous == null)
+			current_.remove();
+		else
+			current_.set(previous);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the stream bound to the current thread, null if none */
+	public static RandomStream getCurrent() {
+		
+		return current_.get();
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public MersenneTwister getMersenneTwister() { return mersenneTwister_; }
+	public Uniform getUniformDistribution() { return uniformDistribution_; }
+	public BulkNormal getNormalDistribution() { return normalDistribution_; }
+}
@@ -55,6 +55,8 @@ public class RegulatoryModule {
 	private double[] k_;
 	/** Hill coefficients for the regulators (activators and deactivators) */
 	private double[] n_;
+	/** The gene of this module, it is notified when the module changes (null if none, see setGene()) */
+	private HillGene gene_;
 	
     /** Logger for this class */
     @SuppressWarnings("unused")
@@ -74,6 +76,21 @@ public class RegulatoryModule {
 		numDeactivators_ = -1;
 		k_ = null;
 		n_ = null;
+		gene_ = null;
+	}
+	
+	
+	/**
+	 * Copy constructor
+	 */
+	public RegulatoryModule(RegulatoryModule module) {
+		isEnhancer_ = module.isEnhancer_;
+		bindsAsComplex_ = module.bindsAsComplex_;
+		numActivators_ = module.numActivators_;
+		numDeactivators_ = module.numDeactivators_;
+		k_ = (module.k_ == null) ? null : module.k_.clone();
+		n_ = (module.n_ == null) ? null : module.n_.clone();
+		gene_ = null;
 	}
 	
 		
@@ -223,6 +240,18 @@ public class RegulatoryModule {
 			k_[i] = uni.getRandomK();
 			n_[i] = uni.getRandomN();
 		}
+		notifyChanged();
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Notify the gene that this module has changed, the kernel of its network is rebuilt (see GeneNetwork.getKernel()) */
+	private void notifyChanged() {
+		
+		if (gene_ != null)
+			gene_.notifyStructureChanged();
 	}
 	
 
@@ -230,23 +259,28 @@ public class RegulatoryModule {
 	// SETTERS AND GETTERS
 
 	public boolean isEnhancer() { return isEnhancer_; }
-	public void setIsEnhancer(boolean b) { isEnhancer_ = b; }
+	public void setIsEnhancer(boolean b) { isEnhancer_ = b; notifyChanged(); }
 	
 	public boolean bindsAsComplex() { return bindsAsComplex_; }
-	public void setBindsAsComplex(boolean b) { bindsAsComplex_ = b; }
+	public void setBindsAsComplex(boolean b) { bindsAsComplex_ = b; notifyChanged(); }
 
 	public int getNumInputs() { return numActivators_ + numDeactivators_; }
 
 	public int getNumActivators() {return numActivators_; }
-	public void setNumActivators(int n) { numActivators_ = n; }
+	public void setNumActivators(int n) { numActivators_ = n; notifyChanged(); }
 
 	public int getNumDeactivators() { return numDeactivators_;	}
-	public void setNumDeactivators(int n) {	numDeactivators_ = n; }
+	public void setNumDeactivators(int n) {	numDeactivators_ = n; notifyChanged(); }
 	
 	public double[] getK() { return k_; }
-	public void setK(double[] k) { k_ = k; }
+	/** Set the k's, changing the values of the array returned by getK() must be followed by setK() */
+	public void setK(double[] k) { k_ = k; notifyChanged(); }
 	
 	public double[] getN() { return n_; }
-	public void setN(double[] n) { n_ = n; }
+	/** Set the n's, changing the values of the array returned by getN() must be followed by setN() */
+	public void setN(double[] n) { n_ = n; notifyChanged(); }
+	
+	/** Set the gene of this module, which is notified when the module changes (called by HillGene) */
+	void setGene(HillGene gene) { gene_ = gene; }
 	
 }
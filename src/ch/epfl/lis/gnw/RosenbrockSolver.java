@@ -0,0 +1,330 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw;
+
+
+/** Linearly implicit (Rosenbrock-type) integrator for stiff gene networks.
+ * 
+ * Networks with fast-degrading genes are stiff: the step size of an explicit method
+ * such as DormandPrinceSolver is limited by stability, not by accuracy, long after the
+ * fast variables have relaxed. This solver implements the ROS2 scheme of Verwer et al.
+ * (SIAM J. Sci. Comput. 20, 1999), an L-stable method of order 2. Each step solves two
+ * linear systems with the matrix I - gamma*h*J, where J is the sparse analytic Jacobian
+ * of the network (GeneNetworkJacobian) and the factorization is done by SparseLU.
+ * 
+ * ROS2 is a W-method, it keeps its order if J is not the exact Jacobian at the current
+ * state. The factorization is therefore reused across steps as long as the step size
+ * does not change much, and the Jacobian is only recomputed when the step size changes,
+ * after a rejected step, or every MAX_REUSE steps. The state at intermediate times is
+ * given by cubic Hermite interpolation. Negative concentrations are set to zero. An
+ * instance must not be shared between threads.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class RosenbrockSolver extends OdeIntegrator {
+	
+	/** Coefficient of the ROS2 scheme */
+	private static final double GAMMA = 1 + 1/Math.sqrt(2);
+	
+	/** Safety factor of the step size control */
+	private static final double SAFETY = 0.9;
+	/** Bounds for the ratio between two consecutive step sizes */
+	private static final double MIN_FACTOR = 0.2;
+	private static final double MAX_FACTOR = 5;
+	/** The factorization is kept if the new step size would be between 1 and REUSE_FACTOR times the current one */
+	private static final double REUSE_FACTOR = 1.5;
+	/** Maximum number of steps before the Jacobian is recomputed */
+	private static final int MAX_REUSE = 10;
+	
+	/** The analytic Jacobian of the network */
+	private GeneNetworkJacobian jacobian_;
+	/** Factorization of I - GAMMA*h*J */
+	private SparseLU lu_;
+	/** Step size of the current factorization (0 if there is none) */
+	private double hFactorized_;
+	/** Number of steps done with the current factorization */
+	private int numReused_;
+	/** Number of factorizations */
+	private int numFactorizations_;
+	
+	/** Time of the last accepted step */
+	private double t_;
+	/** State at time t_ and its rate of change */
+	private double[] y_, f_;
+	/** Time at the beginning of the last accepted step (the interpolation is valid in [tPrevious_, t_]) */
+	private double tPrevious_;
+	/** State at time tPrevious_ and its rate of change */
+	private double[] yPrevious_, fPrevious_;
+	/** Step size for the next step */
+	private double h_;
+	
+	/** The stages */
+	private double[] k1_, k2_;
+	/** Buffer for the intermediate state and for the new state */
+	private double[] tmp_;
+	/** Rate of change at the new state */
+	private double[] fNew_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, the initial state is ode.getState() at time 0. The network must be
+	 * compiled (see GeneNetwork.getKernel()).
+	 * @param ode The system to integrate
+	 * @param absoluteTolerance Absolute tolerance of the local error
+	 * @param relativeTolerance Relative tolerance of the local error
+	 */
+	public RosenbrockSolver(GeneNetworkODE ode, double absoluteTolerance, double relativeTolerance) {
+		
+		super(ode, absoluteTolerance, relativeTolerance);
+		
+		if (ode.getGrn().getKernel() == null)
+			throw new IllegalArgumentException("RosenbrockSolver: the network " + ode.getGrn().getId() + " cannot be compiled");
+		
+		int n = dimension_;
+		y_ = new double[n];
+		f_ = new double[n];
+		yPrevious_ = new double[n];
+		fPrevious_ = new double[n];
+		k1_ = new double[n];
+		k2_ = new double[n];
+		tmp_ = new double[n];
+		fNew_ = new double[n];
+		numFactorizations_ = 0;
+		
+		restart(0);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Restart the integration from the current state of the system (ode.getState()) at
+	 * time t. Must be called after the parameters of the network have been changed (e.g.
+	 * a perturbation has been removed), the steps computed beyond t are discarded.
+	 */
+	public void restart(double t) {
+		
+		System.arraycopy(ode_.getState(), 0, y_, 0, dimension_);
+		t_ = t;
+		tPrevious_ = t;
+		hFactorized_ = 0;
+		
+		evaluate(y_, f_);
+		System.arraycopy(y_, 0, yPrevious_, 0, dimension_);
+		System.arraycopy(f_, 0, fPrevious_, 0, dimension_);
+		h_ = initialStepSize(y_, f_, 2, tmp_, k1_);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Integrate until time t and save the state at time t in ode.getState(). The solver steps
+	 * beyond t if the tolerance allows, the state at t is then interpolated.
+	 * The time must not be smaller than the time of the previous call.
+	 */
+	public void integrateTo(double t) {
+		
+		if (t < tPrevious_)
+			throw new IllegalArgumentException("RosenbrockSolver: cannot integrate backwards to t = " + t);
+		
+		while (t_ < t)
+			step();
+		
+		double[] state = ode_.getState();
+		if (t == t_) {
+			System.arraycopy(y_, 0, state, 0, dimension_);
+		
+		} else {
+			// cubic Hermite interpolation between the states at the beginning and the end of the last step
+			double h = t_ - tPrevious_;
+			double theta = (t - tPrevious_) / h;
+			double h00 = (1 + 2*theta) * (1 - theta) * (1 - theta);
+			double h10 = theta * (1 - theta) * (1 - theta) * h;
+			double h01 = theta * theta * (3 - 2*theta);
+			double h11 = theta * theta * (theta - 1) * h;
+			
+			for (int i=0; i<dimension_; i++) {
+				double y = h00*yPrevious_[i] + h10*fPrevious_[i] + h01*y_[i] + h11*f_[i];
+				state[i] = (y < 0) ? 0 : y;
+			}
+		}
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Perform one accepted step (the step size is reduced until the error is small enough) */
+	private void step() {
+		
+		while (true) {
+			double h = h_;
+			
+			if (h != hFactorized_ || numReused_ >= MAX_REUSE) {
+				if (!factorize(h)) {
+					reduceStepSize(h / 2);
+					continue;
+				}
+			}
+			
+			double error = attemptStep(h);
+			numReused_++;
+			
+			if (error <= 1) {
+				double factor = SAFETY * Math.pow(Math.max(error, 1e-10), -0.5);
+				factor = Math.max(MIN_FACTOR, Math.min(MAX_FACTOR, factor));
+				
+				acceptStep(h);
+				// keep the step size, and thus the factorization, if the increase would be small
+				if (factor < 1 || factor > REUSE_FACTOR)
+					h_ = h * factor;
+				return;
+			
+			} else {
+				// the comparison is false for NaN, the step is then reduced as much as possible
+				double factor = (error < Double.POSITIVE_INFINITY) ? Math.max(MIN_FACTOR, SAFETY * Math.pow(error, -0.5)) : MIN_FACTOR;
+				// the rejection may be due to an outdated Jacobian
+				hFactorized_ = 0;
+				reduceStepSize(h * factor);
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Set the step size for the next attempt, throw an exception if it is too small */
+	private void reduceStepSize(double h) {
+		
+		h_ = h;
+		if (h_ < 1e-12*Math.max(1, Math.abs(t_)))
+			throw new RuntimeException("RosenbrockSolver: step size underflow at t = " + t_);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Compute the Jacobian at the current state and factorize I - GAMMA*h*J, return false if it is singular */
+	private boolean factorize(double h) {
+		
+		// the kernel is rebuilt if the wiring of the network has changed
+		GeneNetworkKernel kernel = ode_.getGrn().getKernel();
+		if (jacobian_ == null || jacobian_.getKernel() != kernel) {
+			jacobian_ = new GeneNetworkJacobian(kernel, dimension_ != kernel.getSize());
+			lu_ = new SparseLU(jacobian_.getRowStart(), jacobian_.getColumns(), jacobian_.getDiagonal());
+		}
+		
+		jacobian_.compute(y_);
+		numFactorizations_++;
+		numReused_ = 0;
+		
+		if (lu_.factorize(jacobian_.getValues(), GAMMA*h)) {
+			hFactorized_ = h;
+			return true;
+		} else {
+			hFactorized_ = 0;
+			return false;
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute a step of size h from y_, the new state is saved in tmp_ and its rate of change
+	 * in fNew_. Return the scaled norm of the error estimate (the step can be accepted if it is <= 1).
+	 * The error estimate is the difference to the embedded first order solution y_ + h*k1.
+	 */
+	private double attemptStep(double h) {
+		
+		int n = dimension_;
+		
+		// (I - gamma h J) k1 = f(y)
+		System.arraycopy(f_, 0, k1_, 0, n);
+		lu_.solve(k1_);
+		
+		// (I - gamma h J) k2 = f(y + h k1) - 2 k1
+		for (int i=0; i<n; i++)
+			tmp_[i] = Math.max(0, y_[i] + h*k1_[i]);
+		evaluate(tmp_, k2_);
+		for (int i=0; i<n; i++)
+			k2_[i] -= 2*k1_[i];
+		lu_.solve(k2_);
+		
+		double sum = 0;
+		for (int i=0; i<n; i++) {
+			tmp_[i] = Math.max(0, y_[i] + h*(1.5*k1_[i] + 0.5*k2_[i]));
+			double e = 0.5*h*(k1_[i] + k2_[i]);
+			double scale = absoluteTolerance_ + relativeTolerance_*Math.max(Math.abs(y_[i]), Math.abs(tmp_[i]));
+			sum += (e/scale)*(e/scale);
+		}
+		double error = Math.sqrt(sum/n);
+		
+		if (Double.isNaN(error))
+			return Double.POSITIVE_INFINITY;
+		if (error <= 1)
+			evaluate(tmp_, fNew_);
+		return error;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Accept the step of size h computed by attemptStep() */
+	private void acceptStep(double h) {
+		
+		double[] swap = yPrevious_;
+		yPrevious_ = y_;
+		y_ = tmp_;
+		tmp_ = swap;
+		
+		swap = fPrevious_;
+		fPrevious_ = f_;
+		f_ = fNew_;
+		fNew_ = swap;
+		
+		tPrevious_ = t_;
+		t_ += h;
+		numSteps_++;
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	/** Return the time reached by the solver (can be beyond the time of the last call to integrateTo()) */
+	public double getTime() { return t_; }
+	public double getStepSize() { return h_; }
+	public int getNumFactorizations() { return numFactorizations_; }
+
+}
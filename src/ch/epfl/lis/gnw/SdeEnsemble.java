@@ -0,0 +1,301 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+
+/** An ensemble of stochastic simulations of the same gene network, integrated in lockstep.
+ * 
+ * The members are e.g. the repeats of an SDE experiment. They share the wiring of a compiled
+ * network (see GeneNetworkKernel), their kinetic parameters may differ (e.g. perturbations).
+ * The drift and the diffusion of all members are computed together with GeneNetworkBatch,
+ * gene by gene in tight loops over the members. The states are stored as a structure of arrays:
+ * state variable v of member b is at index v*numMembers + b.
+ * 
+ * The members are integrated with the same scheme and step size as SdeIntegrator. Every member
+ * draws its Wiener increments from its own random stream, in the same order as SdeIntegrator:
+ * a member gives exactly the same trajectory as if it was simulated alone with SdeIntegrator
+ * from the same random stream.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class SdeEnsemble {
+	
+	/** The members (only the rates are used, not its ODE integrator) */
+	private GeneNetworkBatch batch_;
+	/** The scheme */
+	private SdeIntegrator.Scheme scheme_;
+	/** Number of genes */
+	private int size_;
+	/** Number of state variables of one member */
+	private int dimension_;
+	/** Number of members */
+	private int numMembers_;
+	/** Set true if the protein concentrations are part of the state */
+	private boolean modelTranslation_;
+	/** Noise coefficient m (see GeneNetworkSDE) */
+	private double noiseCoefficient_;
+	/** Internal integration step size (and step size of the Wiener process) */
+	private double h_;
+	/** Time interval of step() */
+	private double H_;
+	/** Current time */
+	private double currentTime_;
+	/** The Gaussian random numbers of every member */
+	private BulkNormal[] normals_;
+	
+	/** The states */
+	private double[] X_;
+	/** mRNA production rates */
+	private double[] V_;
+	/** Drift at X */
+	private double[] F_;
+	/** Diffusion at X */
+	private double[] G_;
+	/** Wiener increments of the current step, those of member b are at b*dimension_ (one call per member) */
+	private double[] dW_;
+	/** Support point of the Milstein scheme */
+	private double[] supportX_;
+	/** Drift at the support point */
+	private double[] supportF_;
+	/** Diffusion at the support point */
+	private double[] supportG_;
+	
+	/** Number of steps after which at least one concentration was negative and set to zero */
+	private int XNegativeCounter_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, the members must then be added with addMember()
+	 * @param kernel The compiled network that defines the wiring shared by all members
+	 * @param numMembers The number of members
+	 * @param modelTranslation Set true if the protein concentrations are part of the state
+	 * @param scheme The numerical scheme
+	 * @param h The internal step size
+	 * @param H The time interval of step()
+	 */
+	public SdeEnsemble(GeneNetworkKernel kernel, int numMembers, boolean modelTranslation, SdeIntegrator.Scheme scheme, double h, double H) {
+		
+		if (h <= 0)
+			throw new IllegalArgumentException("The time step of the SDE solver must be positive");
+		
+		batch_ = new GeneNetworkBatch(kernel, numMembers, modelTranslation);
+		scheme_ = scheme;
+		size_ = kernel.getSize();
+		modelTranslation_ = modelTranslation;
+		dimension_ = modelTranslation ? 2*size_ : size_;
+		numMembers_ = numMembers;
+		noiseCoefficient_ = GnwSettings.getInstance().getNoiseCoefficientSDE();
+		h_ = h;
+		H_ = H;
+		currentTime_ = 0;
+		normals_ = new BulkNormal[numMembers];
+		
+		int length = dimension_*numMembers;
+		X_ = new double[length];
+		V_ = new double[length];
+		F_ = new double[length];
+		G_ = new double[length];
+		dW_ = new double[length];
+		
+		if (scheme_ == SdeIntegrator.Scheme.MILSTEIN) {
+			supportX_ = new double[length];
+			supportF_ = new double[length];
+			supportG_ = new double[length];
+		}
+		XNegativeCounter_ = 0;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Add a member, return its number. The kinetic parameters are copied from the given kernel.
+	 * @param kernel The compiled network with the parameters of the member
+	 * @param xy0 The initial state of the member
+	 * @param normal The generator for the Wiener increments of the member
+	 */
+	public int addMember(GeneNetworkKernel kernel, double[] xy0, BulkNormal normal) {
+		
+		int b = batch_.addMember(kernel, xy0);
+		for (int v=0; v<dimension_; v++)
+			X_[v*numMembers_ + b] = xy0[v];
+		normals_[b] = normal;
+		
+		return b;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Set the kinetic parameters of the given member, e.g. after a perturbation has been removed */
+	public void setParameters(int member, GeneNetworkKernel kernel) {
+		
+		batch_.setParameters(member, kernel);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Step the time of all members by H with internal steps of size h, return the time
+	 * step that was made (H), see SdeIntegrator.step().
+	 * @throws Exception If the diffusion is not a number
+	 */
+	public double step() throws Exception {
+		
+		if (batch_.getNumMembers() != numMembers_)
+			throw new IllegalStateException("SdeEnsemble: only " + batch_.getNumMembers() + " of " + numMembers_ + " members have been added");
+		
+		double start = currentTime_;
+		double t = currentTime_;
+		double end = currentTime_ + H_;
+		
+		while (t < end) {
+			advance();
+			t += h_;
+		}
+		currentTime_ = end;
+		
+		return currentTime_ - start;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Copy the state of the given member into xy (mRNA followed by the proteins if translation is modelled) */
+	public void getState(int member, double[] xy) {
+		
+		for (int v=0; v<dimension_; v++)
+			xy[v] = X_[v*numMembers_ + member];
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Make one internal step of size h for all members, same as SdeIntegrator.advance() */
+	private void advance() throws Exception {
+		
+		int n = numMembers_;
+		int dim = dimension_;
+		double h = h_;
+		double sqrtH = Math.sqrt(h);
+		
+		for (int b=0; b<n; b++)
+			normals_[b].nextDoubles(dW_, b*dim, dim, sqrtH);
+		computeDriftAndDiffusion(X_, F_, G_);
+		
+		boolean negative = false;
+		
+		if (scheme_ == SdeIntegrator.Scheme.EULER_MARUYAMA) {
+			for (int v=0; v<dim; v++) {
+				for (int b=0; b<n; b++) {
+					int k = v*n + b;
+					double x = X_[k] + F_[k]*h + G_[k]*dW_[b*dim + v];
+					if (x < 0) {
+						x = 0;
+						negative = true;
+					}
+					X_[k] = x;
+				}
+			}
+			
+		} else {
+			for (int k=0; k<X_.length; k++)
+				supportX_[k] = X_[k] + F_[k]*h + G_[k]*sqrtH;
+			
+			computeDriftAndDiffusion(supportX_, supportF_, supportG_);
+			
+			double c = 1 / (2*sqrtH);
+			for (int v=0; v<dim; v++) {
+				for (int b=0; b<n; b++) {
+					int k = v*n + b;
+					double dW = dW_[b*dim + v];
+					double x = X_[k] + F_[k]*h + G_[k]*dW + c*(supportG_[k] - G_[k])*(dW*dW);
+					if (x < 0) {
+						x = 0;
+						negative = true;
+					}
+					X_[k] = x;
+				}
+			}
+		}
+		
+		if (negative)
+			XNegativeCounter_++;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Compute the drift F and the diffusion G of all members at the states xy, see GeneNetworkSDE */
+	private void computeDriftAndDiffusion(double[] xy, double[] F, double[] G) throws Exception {
+		
+		int n = numMembers_;
+		double m = noiseCoefficient_;
+		
+		batch_.computeMRnaProductionRates(xy, V_);
+		
+		double[] delta = batch_.getDelta();
+		for (int k=0; k<size_*n; k++) {
+			double D = delta[k]*xy[k];
+			F[k] = V_[k] - D;
+			G[k] = m*Math.sqrt(V_[k] + D);
+		}
+		
+		if (modelTranslation_) {
+			double[] maxTranslation = batch_.getMaxTranslation();
+			double[] deltaProtein = batch_.getDeltaProtein();
+			
+			for (int k=0; k<size_*n; k++) {
+				int index = size_*n + k;
+				double V = maxTranslation[k]*xy[k];
+				double D = deltaProtein[k]*xy[index];
+				F[index] = V - D;
+				G[index] = m*Math.sqrt(V + D);
+			}
+		}
+		
+		for (int k=0; k<dimension_*n; k++)
+			if (Double.isNaN(G[k]))
+				throw new Exception(k < size_*n ? "NaN mRNA" : "NaN protein");
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public int getNumMembers() { return numMembers_; }
+	public double getCurrentTime() { return currentTime_; }
+	public int getXNegativeCounter() { return XNegativeCounter_; }
+}
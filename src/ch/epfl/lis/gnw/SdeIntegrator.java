@@ -0,0 +1,242 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+
+/** Integrator for the SDEs of a gene network (GeneNetworkSDE).
+ * 
+ * Implements the Euler-Maruyama scheme and the explicit Milstein scheme for
+ * Stratonovich SDEs with diagonal noise (Kloeden et al., 1994), which avoids the
+ * derivatives of the diffusion by evaluating it at a support point (Runge-Kutta
+ * approach). The Milstein scheme gives the same results as the MilsteinStratonovich
+ * solver of libsde that was used in earlier versions; it has strong order 1, the
+ * Euler-Maruyama scheme only 0.5 but needs one evaluation of the drift and diffusion
+ * per step instead of two.
+ * 
+ * The state and all the buffers are arrays allocated by the constructor. The Wiener
+ * increments of a step are drawn in one call (BulkNormal.nextDoubles()) and the update
+ * of the state, the correction term of the Milstein scheme and the truncation of
+ * negative concentrations are done in the same pass.
+ * 
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * 
+ */
+public class SdeIntegrator {
+	
+	/** The numerical schemes */
+	public enum Scheme {EULER_MARUYAMA, MILSTEIN};
+	
+	/** The system that is integrated */
+	private GeneNetworkSDE sde_;
+	/** The scheme */
+	private Scheme scheme_;
+	/** Number of state variables */
+	private int dimension_;
+	/** Internal integration step size (and step size of the Wiener process) */
+	private double h_;
+	/** Time interval of step() */
+	private double H_;
+	/** Current time */
+	private double currentTime_;
+	/** The Gaussian random numbers for the Wiener increments */
+	private BulkNormal normal_;
+	
+	/** The state X */
+	private double[] X_;
+	/** Drift at X */
+	private double[] F_;
+	/** Diffusion at X */
+	private double[] G_;
+	/** Wiener increments of the current step */
+	private double[] dW_;
+	/** Support point of the Milstein scheme */
+	private double[] supportX_;
+	/** Drift at the support point */
+	private double[] supportF_;
+	/** Diffusion at the support point */
+	private double[] supportG_;
+	
+	/** Set true to set negative concentrations to zero after each step */
+	private boolean XPositiveOnly_;
+	/** Number of steps after which at least one concentration was negative and set to zero */
+	private int XNegativeCounter_;
+	/** Number of evaluations of the drift and diffusion */
+	private int numEvaluations_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor
+	 * @param sde The system to integrate
+	 * @param scheme The numerical scheme
+	 * @param X0 The initial state (copied)
+	 * @param h The internal step size
+	 * @param H The time interval of step()
+	 * @param normal The generator for the Wiener increments
+	 */
+	public SdeIntegrator(GeneNetworkSDE sde, Scheme scheme, double[] X0, double h, double H, BulkNormal normal) {
+		
+		if (h <= 0)
+			throw new IllegalArgumentException("The time step of the SDE solver must be positive");
+		
+		sde_ = sde;
+		scheme_ = scheme;
+		dimension_ = sde.getDimension();
+		h_ = h;
+		H_ = H;
+		currentTime_ = 0;
+		normal_ = normal;
+		
+		X_ = X0.clone();
+		F_ = new double[dimension_];
+		G_ = new double[dimension_];
+		dW_ = new double[dimension_];
+		
+		if (scheme_ == Scheme.MILSTEIN) {
+			supportX_ = new double[dimension_];
+			supportF_ = new double[dimension_];
+			supportG_ = new double[dimension_];
+		}
+		
+		XPositiveOnly_ = true;
+		XNegativeCounter_ = 0;
+		numEvaluations_ = 0;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the scheme selected in GnwSettings (Milstein unless Euler-Maruyama is set) */
+	public static Scheme getSchemeFromSettings() {
+		
+		return GnwSettings.getInstance().getEulerMaruyamaSDE() ? Scheme.EULER_MARUYAMA : Scheme.MILSTEIN;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Step the time by H with internal steps of size h, return the time step that was
+	 * made (H).
+	 * @throws Exception If the diffusion is not a number
+	 */
+	public double step() throws Exception {
+		
+		double start = currentTime_;
+		double t = currentTime_;
+		double end = currentTime_ + H_;
+		
+		// as in libsde, the time is accumulated and the last step is not truncated
+		while (t < end) {
+			advance();
+			t += h_;
+		}
+		currentTime_ = end;
+		
+		return currentTime_ - start;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * The SDEs have no steady state, the solution is never considered as converged.
+	 * The number of steps is thus defined by the duration of the experiments.
+	 */
+	public boolean converged() {
+		
+		return false;
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Make one internal step of size h */
+	private void advance() throws Exception {
+		
+		int n = dimension_;
+		double h = h_;
+		double sqrtH = Math.sqrt(h);
+		
+		normal_.nextDoubles(dW_, n, sqrtH);
+		sde_.computeDriftAndDiffusion(X_, F_, G_);
+		numEvaluations_++;
+		
+		boolean negative = false;
+		
+		if (scheme_ == Scheme.EULER_MARUYAMA) {
+			for (int i=0; i<n; i++) {
+				double x = X_[i] + F_[i]*h + G_[i]*dW_[i];
+				if (x < 0 && XPositiveOnly_) {
+					x = 0;
+					negative = true;
+				}
+				X_[i] = x;
+			}
+			
+		} else {
+			for (int i=0; i<n; i++)
+				supportX_[i] = X_[i] + F_[i]*h + G_[i]*sqrtH;
+			
+			sde_.computeDriftAndDiffusion(supportX_, supportF_, supportG_);
+			numEvaluations_++;
+			
+			double c = 1 / (2*sqrtH);
+			for (int i=0; i<n; i++) {
+				double dW = dW_[i];
+				double x = X_[i] + F_[i]*h + G_[i]*dW + c*(supportG_[i] - G_[i])*(dW*dW);
+				if (x < 0 && XPositiveOnly_) {
+					x = 0;
+					negative = true;
+				}
+				X_[i] = x;
+			}
+		}
+		
+		if (negative)
+			XNegativeCounter_++;
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public Scheme getScheme() { return scheme_; }
+	public double[] getX() { return X_; }
+	public double getCurrentTime() { return currentTime_; }
+	
+	public void setXPositiveOnly(boolean b) { XPositiveOnly_ = b; }
+	public boolean getXPositiveOnly() { return XPositiveOnly_; }
+	
+	public int getXNegativeCounter() { return XNegativeCounter_; }
+	public int getNumEvaluations() { return numEvaluations_; }
+}
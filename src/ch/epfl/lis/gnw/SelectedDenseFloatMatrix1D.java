@@ -0,0 +1,150 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+
+
+/** 
+ * Selection view of a DenseFloatMatrix1D (see DoubleMatrix1D.viewSelection()), or a row or column
+ * of a SelectedDenseFloatMatrix2D, the equivalent of Colt's SelectedDenseDoubleMatrix1D. The view
+ * shares the float values, the element i is at offset_ + offsets_[zero + i*stride].
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ */
+class SelectedDenseFloatMatrix1D extends DoubleMatrix1D {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/** The values of the vector or matrix from which the view was selected */
+	protected float[] elements_;
+	/** The offsets of the selected elements */
+	protected int[] offsets_;
+	/** The offset added to all indexes */
+	protected int offset_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor for a view of the given elements of the values */
+	protected SelectedDenseFloatMatrix1D(float[] elements, int[] offsets) {
+		
+		this(offsets.length, elements, 0, 1, offsets, 0);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Constructor for a view with the given zero and stride in the offsets */
+	protected SelectedDenseFloatMatrix1D(int size, float[] elements, int zero, int stride, int[] offsets, int offset) {
+		
+		setUp(size, zero, stride);
+		elements_ = elements;
+		offsets_ = offsets;
+		offset_ = offset;
+		isNoView = false;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	public double getQuick(int index) {
+		
+		return elements_[offset_ + offsets_[zero + index*stride]];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	public void setQuick(int index, double value) {
+		
+		elements_[offset_ + offsets_[zero + index*stride]] = (float) value;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return a new single-precision vector of the given size */
+	public DoubleMatrix1D like(int size) {
+		
+		return new DenseFloatMatrix1D(size);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return a new single-precision matrix of the given size */
+	public DoubleMatrix2D like2D(int rows, int columns) {
+		
+		return new DenseFloatMatrix2D(rows, columns);
+	}
+	
+	
+	// ============================================================================
+	// PROTECTED METHODS
+	
+	/** Return the offset of the element with the given absolute rank */
+	protected int _offset(int absRank) {
+		
+		return offsets_[absRank];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the position of the given element in elements_ */
+	protected int index(int rank) {
+		
+		return offset_ + offsets_[zero + rank*stride];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return a selection view of the values of this view (the offsets are given by index(), thus include offset_) */
+	protected DoubleMatrix1D viewSelectionLike(int[] offsets) {
+		
+		return new SelectedDenseFloatMatrix1D(elements_, offsets);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return true if the other vector shares the storage of this view */
+	protected boolean haveSharedCellsRaw(DoubleMatrix1D other) {
+		
+		if (other instanceof SelectedDenseFloatMatrix1D)
+			return elements_ == ((SelectedDenseFloatMatrix1D) other).elements_;
+		if (other instanceof DenseFloatMatrix1D)
+			return elements_ == ((DenseFloatMatrix1D) other).elements_;
+		return false;
+	}
+	
+}
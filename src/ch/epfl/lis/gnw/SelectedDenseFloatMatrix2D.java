@@ -0,0 +1,197 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.AbstractMatrix2D;
+
+
+/** 
+ * Selection view of a DenseFloatMatrix2D (see DoubleMatrix2D.viewSelection()), the equivalent of
+ * Colt's SelectedDenseDoubleMatrix2D. The view shares the float values of the matrix, the element
+ * (row, column) is at offset_ + rowOffsets_[rowZero + row*rowStride] + columnOffsets_[columnZero + column*columnStride].
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ */
+class SelectedDenseFloatMatrix2D extends DoubleMatrix2D {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/** The values of the matrix from which the view was selected */
+	protected float[] elements_;
+	/** The offsets of the selected rows */
+	protected int[] rowOffsets_;
+	/** The offsets of the selected columns */
+	protected int[] columnOffsets_;
+	/** The offset added to all indexes */
+	protected int offset_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor for a view of the given rows and columns of the values */
+	protected SelectedDenseFloatMatrix2D(float[] elements, int[] rowOffsets, int[] columnOffsets, int offset) {
+		
+		setUp(rowOffsets.length, columnOffsets.length, 0, 0, 1, 1);
+		elements_ = elements;
+		rowOffsets_ = rowOffsets;
+		columnOffsets_ = columnOffsets;
+		offset_ = offset;
+		isNoView = false;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	public double getQuick(int row, int column) {
+		
+		return elements_[offset_ + rowOffsets_[rowZero + row*rowStride] + columnOffsets_[columnZero + column*columnStride]];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	public void setQuick(int row, int column, double value) {
+		
+		elements_[offset_ + rowOffsets_[rowZero + row*rowStride] + columnOffsets_[columnZero + column*columnStride]] = (float) value;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return a new single-precision matrix of the given size */
+	public DoubleMatrix2D like(int rows, int columns) {
+		
+		return new DenseFloatMatrix2D(rows, columns);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return a new single-precision vector of the given size */
+	public DoubleMatrix1D like1D(int size) {
+		
+		return new DenseFloatMatrix1D(size);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return a view of the given row (selection view of the selected columns) */
+	public DoubleMatrix1D viewRow(int row) {
+		
+		checkRow(row);
+		return new SelectedDenseFloatMatrix1D(columns, elements_, columnZero, columnStride, columnOffsets_, offset_ + _rowOffset(_rowRank(row)));
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return a view of the given column (selection view of the selected rows) */
+	public DoubleMatrix1D viewColumn(int column) {
+		
+		checkColumn(column);
+		return new SelectedDenseFloatMatrix1D(rows, elements_, rowZero, rowStride, rowOffsets_, offset_ + _columnOffset(_columnRank(column)));
+	}
+	
+	
+	// ============================================================================
+	// PROTECTED METHODS
+	
+	/** Return the offset of the row with the given absolute rank */
+	protected int _rowOffset(int absRank) {
+		
+		return rowOffsets_[absRank];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the offset of the column with the given absolute rank */
+	protected int _columnOffset(int absRank) {
+		
+		return columnOffsets_[absRank];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the position of the given element in elements_ */
+	protected int index(int row, int column) {
+		
+		return offset_ + rowOffsets_[rowZero + row*rowStride] + columnOffsets_[columnZero + column*columnStride];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Not used, viewRow() and viewColumn() are overridden */
+	protected DoubleMatrix1D like1D(int size, int zero, int stride) {
+		
+		throw new InternalError("SelectedDenseFloatMatrix2D: like1D() is not supposed to be called");
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return a selection view of the values of this view */
+	protected DoubleMatrix2D viewSelectionLike(int[] rowOffsets, int[] columnOffsets) {
+		
+		return new SelectedDenseFloatMatrix2D(elements_, rowOffsets, columnOffsets, offset_);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Transpose the view, the row and column offsets are swapped */
+	protected AbstractMatrix2D vDice() {
+		
+		super.vDice();
+		int[] tmp = rowOffsets_;
+		rowOffsets_ = columnOffsets_;
+		columnOffsets_ = tmp;
+		isNoView = false;
+		return this;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return true if the other matrix shares the storage of this view */
+	protected boolean haveSharedCellsRaw(DoubleMatrix2D other) {
+		
+		if (other instanceof SelectedDenseFloatMatrix2D)
+			return elements_ == ((SelectedDenseFloatMatrix2D) other).elements_;
+		if (other instanceof DenseFloatMatrix2D)
+			return elements_ == ((DenseFloatMatrix2D) other).elements_;
+		return false;
+	}
+	
+}
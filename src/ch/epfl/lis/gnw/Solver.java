@@ -1,55 +1,46 @@
 package ch.epfl.lis.gnw;
 
-import org.opensourcephysics.numerics.ODEMultistepSolver;
-
-import cern.colt.matrix.DoubleMatrix1D;
-import cern.colt.matrix.impl.DenseDoubleMatrix1D;
-import ch.epfl.lis.sde.SdeSettings;
-import ch.epfl.lis.sde.solver.MilsteinStratonovich;
-import ch.epfl.lis.sde.solver.SdeSolver;
+import java.util.logging.Logger;
 
 /**
  * This class can be used to integrate either ODEs or SDEs. It provides a
  * common interface for the two two types of solvers.
  * 
- * ODEs are numerically integrated using the ODEMultistepSolver from opensourcephysics. To step the time
- * by dt, it performs multiple smaller internal steps of fixed size to guarantee the
- * specified precision. However, there are problems for very large step sizes dt, I think
- * because the solver first tries to use a large internal step size, which can lead to 
- * negative concentrations. Also, I think there was another problem, either the maximum
- * number of iterations got exceeded or there is a bug in the opensourcephysics library
- * (the solver didn't step the time by the full dt it was asked to). For dt < 10, we never
- * experienced problems. So if the user specifies a dt > 10, we step the ODEMultistepSolver
- * multiple times (see numStepsODE_) (for each of these steps the ODEMultistepSolver will
- * in turn perform multiple steps to guarantee the precision).
+ * ODEs are numerically integrated using our own adaptive Dormand-Prince solver, see the class
+ * DormandPrinceSolver. The solver chooses its internal step size only based on the specified
+ * precision, it can step beyond the time dt that is requested by step(). The state at that time
+ * is then interpolated (dense output). In earlier versions, we used the ODEMultistepSolver from
+ * opensourcephysics, which had to be stepped several times for dt > 10 because it failed to step
+ * the time by large dt.
+ * 
+ * Stiff networks (e.g. with fast-degrading genes) are better integrated with the implicit
+ * RosenbrockSolver, which uses the sparse analytic Jacobian of the network. It is selected
+ * with the type ODE_STIFF, or for the type ODE if GnwSettings.getStiffODESolver() is set.
  * 
- * SDEs are numerically integrated using our own solver, see the class SdeSolver.
+ * SDEs are numerically integrated using our own solver, see the class SdeIntegrator. It uses
+ * the Milstein scheme of the MilsteinStratonovich solver of libsde, which was used in earlier
+ * versions, or the Euler-Maruyama scheme if GnwSettings.getEulerMaruyamaSDE() is set.
  */
 public class Solver {
 
-	/** The type of solver (ordinary or stochastic differential equation) */
-	public enum type {ODE, SDE, NONE};
+	/** The type of solver (ordinary, stiff ordinary or stochastic differential equation) */
+	public enum type {ODE, ODE_STIFF, SDE, NONE};
 	
-	/**
-	 * ODEMultistepSolver performs multiple ODE steps so that a uniform step size is maintained.
-	 * Default engine is RK45.
-	 * Note, since here we don't need a specific step size, I also tried the adaptive step size
-	 * solver, but got problems with negative concentrations.
-	 */
-	private ODEMultistepSolver ODESolver_;
+	/** Logger for this class */
+	private static Logger log_ = Logger.getLogger(Solver.class.getName());
+	
+	/** Solver for ODEs */
+	private OdeIntegrator ODESolver_;
 	/** Used by the ODESolver_ */
 	private GeneNetworkODE ODE_;
 	/** Solver for SDEs */
-	private SdeSolver SDESolver_;
+	private SdeIntegrator SDESolver_;
 	/** Used by the SDESolver_ */
 	private GeneNetworkSDE SDE_;
-	/** For ODEs, we have to make sure that the time steps are not too big (see introductory comment for the class above) */
-	private double numStepsODE_;
-	
-	/** Set to true if only X >= 0 is wished */
-	protected boolean XPositiveOnly_;
-	/** if Xpositive is true, count the number of time that a X has at least one element < 0 */
-	protected int XNegativeCounter_;
+	/** Interval between two states returned by step() */
+	private double dt_;
+	/** Number of calls to step() */
+	private int numSteps_;
 	
 	
 	// ============================================================================
@@ -60,14 +51,13 @@ public class Solver {
 	 */
 	public Solver(type solverType, GeneNetwork grn, double[] xy0) {
 		
-		double dt = GnwSettings.getInstance().getDt();
-		if (dt < 10)
-			numStepsODE_ = 1;
-		else
-			numStepsODE_ = 10*Math.floor(Math.log10(dt));
+		dt_ = GnwSettings.getInstance().getDt();
+		numSteps_ = 0;
 		
 		if (solverType == type.ODE)
-			initializeODE(grn, xy0);
+			initializeODE(grn, xy0, GnwSettings.getInstance().getStiffODESolver());
+		else if (solverType == type.ODE_STIFF)
+			initializeODE(grn, xy0, true);
 		else if (solverType == type.SDE)
 			initializeSDE(grn, xy0);
 		else
@@ -75,6 +65,15 @@ public class Solver {
 	}
 	
 	
+	// ----------------------------------------------------------------------------
+
+	/** Return true if the given type of solver is deterministic (ODE or ODE_STIFF) */
+	public static boolean isDeterministic(type solverType) {
+		
+		return solverType == type.ODE || solverType == type.ODE_STIFF;
+	}
+	
+	
 	// ----------------------------------------------------------------------------
 
 	/**
@@ -84,18 +83,38 @@ public class Solver {
 	public double step() throws Exception {
 		
 		if (ODESolver_ != null) {
-			double t = 0;
-			for (int i=0; i<numStepsODE_; i++)
-				t += ODESolver_.step();
-			return t;
+			// the time is computed from the number of steps to avoid accumulating rounding errors
+			numSteps_++;
+			ODESolver_.integrateTo(numSteps_*dt_);
+			// the network is set to the state at time t (the last evaluation of the rates may be at a later time)
+			ODE_.getGrn().setState(ODE_.getState());
+			return dt_;
 			
-		} else if (SDESolver_ != null)
-			return SDESolver_.step();
-		else
+		} else if (SDESolver_ != null) {
+			double dt = SDESolver_.step();
+			// the integrator works on its own arrays, the network is set to the state at time t
+			SDE_.getGeneNetwork().setState(SDESolver_.getX());
+			return dt;
+			
+		} else
 			throw new RuntimeException("Solver not correctly initialized");
 	}
 	
 	
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * Must be called when the parameters of the network have been changed during the simulation
+	 * (e.g. a perturbation has been removed). The ODE solver then continues from the current state,
+	 * the SDE solver is not affected.
+	 */
+	public void parametersChanged() {
+		
+		if (ODESolver_ != null)
+			ODESolver_.restart(numSteps_*dt_);
+	}
+	
+	
 	// ----------------------------------------------------------------------------
 
 	/**
@@ -106,7 +125,7 @@ public class Solver {
 		if (ODE_ != null)
 			return ODE_.getState();
 		else if (SDE_ != null)
-			return SDESolver_.getX().toArray();
+			return SDESolver_.getX();
 		else
 			throw new RuntimeException("Solver not correctly initialized");
 	}
@@ -133,19 +152,30 @@ public class Solver {
 	// PRIVATE METHODS
 
 	/** 
-	 * Initialize the solver for deterministic simulation using ODEs
+	 * Initialize the solver for deterministic simulation using ODEs. If stiff is true, the
+	 * implicit RosenbrockSolver is used, it requires a network that can be compiled.
 	 */
-	private void initializeODE(GeneNetwork grn, double[] xy0) {
+	private void initializeODE(GeneNetwork grn, double[] xy0, boolean stiff) {
 		
 		GnwSettings set = GnwSettings.getInstance();
 		
 		ODE_ = new GeneNetworkODE(grn, xy0);
-		ODESolver_ = new ODEMultistepSolver(ODE_);
+		// the local error must be well below the changes tested by GeneNetworkODE.converged(),
+		// otherwise the errors of the large steps delay the convergence of steady-state experiments
+		double absoluteTolerance = set.getAbsolutePrecision();
+		double relativeTolerance = set.getRelativePrecision();
 		
-		ODESolver_.setTolerance(set.getRelativePrecision());
-		// See introductory comment for class above
-		ODESolver_.initialize(set.getDt()/numStepsODE_);		
-		ODESolver_.setMaxIterations(1000);
+		if (stiff && grn.getKernel() == null) {
+			log_.warning("Solver: the stiff ODE solver requires a compiled network (only HillGenes), using the Dormand-Prince solver");
+			stiff = false;
+		}
+		// the second order Rosenbrock solver pays more steps for a tight tolerance, with a factor 10 the
+		// convergence times are the same as with the Dormand-Prince solver and the states differ by less
+		// than the relative precision
+		if (stiff)
+			ODESolver_ = new RosenbrockSolver(ODE_, absoluteTolerance/10, relativeTolerance/10);
+		else
+			ODESolver_ = new DormandPrinceSolver(ODE_, absoluteTolerance/DormandPrinceScheme.TOLERANCE_DIVISOR, relativeTolerance/DormandPrinceScheme.TOLERANCE_DIVISOR);
 
 		// Set SDE stuff to null
 		SDE_ = null;
@@ -160,52 +190,14 @@ public class Solver {
 	 */
 	private void initializeSDE(GeneNetwork grn, double[] xy0) {
 		
-		SDE_ = new GeneNetworkSDE(grn);
-		SDESolver_ = new MilsteinStratonovich() {
-			
-			/**
-			 * This function performs a check on the current solution X. For instance we want
-			 * that the mRNA and protein concentrations are never lower that 0. In this case,
-			 * each time a element of X is lower than 0, this element is set to zero.
-			 */
-			@Override public void checkX(DoubleMatrix1D X) {
-				
-				if (XPositiveOnly_) {
-					
-					int n = system_.getDimension();
-					int count = 0;
-					
-					for(int i=0; i<n; i++) {
-						if (X.get(i) < 0) {
-							X.set(i, 0);
-							count++;
-						}
-					}
-					
-					if (count > 0)
-						XNegativeCounter_++;
-				}
-			}
-		};
-		SDESolver_.setSystem(SDE_);
-		XPositiveOnly_ = true; // take care to not have negative concentration
-		XNegativeCounter_ = 0;
-		
-		GnwSettings set = GnwSettings.getInstance(); 
-		SdeSettings sdeSettings = SdeSettings.getInstance();
-		// Set Wiener path step size
-		sdeSettings.setDt(set.getTimeStepSDE());
-		// Set relation between Wiener path step size and integration step size
-		sdeSettings.setMultiplier(1);
-		// Set the seed used to generate Wiener path
-		sdeSettings.setSeed(set.getRandomSeed());
-		// Set maxt
-		//sdeSettings.setMaxt(maxt_);
+		GnwSettings set = GnwSettings.getInstance();
 		
-		// Initialize only after having set all the necessary parameters in SDESettings
-		SDESolver_.setX(new DenseDoubleMatrix1D(xy0));
-		SDESolver_.init();
-		SDESolver_.setH(set.getDt());
+		SDE_ = new GeneNetworkSDE(grn);
+		// the Wiener increments are drawn from the random stream bound to the current thread (see
+		// RandomStream), so that several SDEs can be simulated concurrently
+		SDESolver_ = new SdeIntegrator(SDE_, SdeIntegrator.getSchemeFromSettings(), xy0, set.getTimeStepSDE(), set.getDt(), set.getNormalDistribution());
+		// take care to not have negative concentration
+		SDESolver_.setXPositiveOnly(true);
 		
 		// Set ODE stuff to null
 		ODE_ = null;
@@ -216,10 +208,13 @@ public class Solver {
 	// ============================================================================
 	// SETTERS AND GETTERS
 	
-	public SdeSolver getSDESolver() { return SDESolver_; }
+	public OdeIntegrator getODESolver() { return ODESolver_; }
+	public SdeIntegrator getSDESolver() { return SDESolver_; }
 	
-	public void setXPositiveOnly(boolean b) { XPositiveOnly_ = b; }
-	public boolean getXPositiveOnly() { return XPositiveOnly_; }
+	/** Set to true if only X >= 0 is wished (SDEs only, the noise can make concentrations negative) */
+	public void setXPositiveOnly(boolean b) { if (SDESolver_ != null) SDESolver_.setXPositiveOnly(b); }
+	public boolean getXPositiveOnly() { return SDESolver_ != null && SDESolver_.getXPositiveOnly(); }
 	
-	public int getXNegativeCounter() { return XNegativeCounter_; }
+	/** Number of steps after which at least one concentration was negative and set to zero (SDEs only) */
+	public int getXNegativeCounter() { return (SDESolver_ == null) ? 0 : SDESolver_.getXNegativeCounter(); }
 }
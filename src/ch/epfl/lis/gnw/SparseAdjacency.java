@@ -0,0 +1,287 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import ch.epfl.lis.networks.Edge;
+import ch.epfl.lis.networks.Node;
+import ch.epfl.lis.networks.Structure;
+
+
+/** Adjacency structure of a network in compressed sparse row and column format.
+ * 
+ * The targets (outputs) and the regulators (inputs) of every node are stored as sorted
+ * lists of node indexes, which are concatenated in two arrays. Memory scales with the
+ * number of edges instead of the square of the number of nodes as for the adjacency
+ * matrix (GraphUtilities.getAdjacencyMatrix()), and the neighbors of a node are obtained
+ * without scanning a row or column of the matrix. Multiple edges between the same two
+ * nodes are counted once. The structure is a snapshot, it must be created again if
+ * nodes or edges are added to or removed from the network.
+ * 
+ * Optionally, the neighbors of every node can be kept in the order of the edges of the
+ * network instead of being sorted, e.g. for graph searches whose results (the order in
+ * which nodes are visited) must not depend on the data structure.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class SparseAdjacency {
+	
+	/** Number of nodes */
+	private int numNodes_;
+	/** Number of edges (multiple edges counted once) */
+	private int numEdges_;
+	/** The index of every node of the network */
+	private HashMap<Node, Integer> indexes_;
+	/** True if the neighbors of every node are in the order of the edges (otherwise they are sorted) */
+	private boolean edgeOrder_;
+	
+	/** The targets of node j are targets_[targetStart_[j]], ..., targets_[targetStart_[j+1]-1] */
+	private int[] targetStart_;
+	/** Indexes of the targets (sorted for every node) */
+	private int[] targets_;
+	/** The regulators of node i are regulators_[regulatorStart_[i]], ..., regulators_[regulatorStart_[i+1]-1] */
+	private int[] regulatorStart_;
+	/** Indexes of the regulators (sorted for every node) */
+	private int[] regulators_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor, build the adjacency structure of the given network (the neighbors of every node are sorted) */
+	public SparseAdjacency(Structure network) {
+		
+		this(network, false);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Constructor, if edgeOrder is set the targets and regulators of every node are in the
+	 * order of the edges of the network (first occurrence) instead of being sorted
+	 */
+	public SparseAdjacency(Structure network, boolean edgeOrder) {
+		
+		numNodes_ = network.getSize();
+		edgeOrder_ = edgeOrder;
+		int numEdges = network.getNumEdges();
+		
+		indexes_ = new HashMap<Node, Integer>(2*numNodes_);
+		for (int i=0; i<numNodes_; i++)
+			indexes_.put(network.getNode(i), i);
+		
+		// the source and target of every edge
+		int[] sources = new int[numEdges];
+		int[] targets = new int[numEdges];
+		for (int e=0; e<numEdges; e++) {
+			Edge edge = network.getEdge(e);
+			sources[e] = getIndexOfNode(edge.getSource());
+			targets[e] = getIndexOfNode(edge.getTarget());
+			if (sources[e] == -1 || targets[e] == -1)
+				throw new IllegalArgumentException("SparseAdjacency: the nodes of edge " + e + " are not part of the network");
+		}
+		
+		targetStart_ = new int[numNodes_ + 1];
+		targets_ = group(sources, targets, targetStart_);
+		regulatorStart_ = new int[numNodes_ + 1];
+		regulators_ = group(targets, sources, regulatorStart_);
+		numEdges_ = targets_.length;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return true if there is a link from node *j* to node i (same convention as A[i][j] of the adjacency matrix) */
+	public boolean get(int i, int j) {
+		
+		if (!edgeOrder_)
+			return Arrays.binarySearch(targets_, targetStart_[j], targetStart_[j+1], i) >= 0;
+		
+		for (int k=targetStart_[j]; k<targetStart_[j+1]; k++)
+			if (targets_[k] == i)
+				return true;
+		return false;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the index of the given node, -1 if it is not part of the network */
+	public int getIndexOfNode(Node node) {
+		
+		Integer index = indexes_.get(node);
+		return (index == null) ? -1 : index;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the indegrees (number of regulators) of the nodes */
+	public int[] getIndegrees() {
+		
+		int[] indegrees = new int[numNodes_];
+		for (int i=0; i<numNodes_; i++)
+			indegrees[i] = regulatorStart_[i+1] - regulatorStart_[i];
+		return indegrees;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the outdegrees (number of targets) of the nodes */
+	public int[] getOutdegrees() {
+		
+		int[] outdegrees = new int[numNodes_];
+		for (int j=0; j<numNodes_; j++)
+			outdegrees[j] = targetStart_[j+1] - targetStart_[j];
+		return outdegrees;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return the sorted indexes of the nodes that are connected to node i by a link in
+	 * either direction (regulators and targets), node i itself is not included
+	 */
+	public int[] getNeighbors(int i) {
+		
+		int[] regulators = regulators_;
+		int[] targets = targets_;
+		int r = regulatorStart_[i];
+		int rEnd = regulatorStart_[i+1];
+		int t = targetStart_[i];
+		int tEnd = targetStart_[i+1];
+		
+		if (edgeOrder_) {
+			// sort copies of the two lists
+			regulators = Arrays.copyOfRange(regulators_, r, rEnd);
+			targets = Arrays.copyOfRange(targets_, t, tEnd);
+			Arrays.sort(regulators);
+			Arrays.sort(targets);
+			rEnd -= r;
+			tEnd -= t;
+			r = t = 0;
+		}
+		
+		int[] neighbors = new int[rEnd - r + tEnd - t];
+		int n = 0;
+		
+		// merge the two sorted lists
+		while (r < rEnd || t < tEnd) {
+			int next;
+			if (t == tEnd || (r < rEnd && regulators[r] < targets[t]))
+				next = regulators[r++];
+			else if (r == rEnd || targets[t] < regulators[r])
+				next = targets[t++];
+			else {
+				next = targets[t++];
+				r++;
+			}
+			if (next != i)
+				neighbors[n++] = next;
+		}
+		return (n == neighbors.length) ? neighbors : Arrays.copyOf(neighbors, n);
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * Group the values by key (counting sort), sort the values of every key (unless edgeOrder_
+	 * is set) and remove duplicates. The values of key k are then result[start[k]], ...,
+	 * result[start[k+1]-1].
+	 */
+	private int[] group(int[] keys, int[] values, int[] start) {
+		
+		int n = keys.length;
+		
+		int[] count = new int[numNodes_ + 1];
+		for (int e=0; e<n; e++)
+			count[keys[e] + 1]++;
+		for (int k=0; k<numNodes_; k++)
+			count[k+1] += count[k];
+		
+		int[] grouped = new int[n];
+		int[] next = Arrays.copyOf(count, numNodes_);
+		for (int e=0; e<n; e++)
+			grouped[next[keys[e]]++] = values[e];
+		
+		// sort every group and compact it (remove multiple edges)
+		int size = 0;
+		// with edge order, the last key for which a value has been kept
+		int[] kept = null;
+		if (edgeOrder_) {
+			kept = new int[numNodes_];
+			Arrays.fill(kept, -1);
+		}
+		for (int k=0; k<numNodes_; k++) {
+			int first = count[k];
+			int last = count[k+1];
+			start[k] = size;
+			
+			if (edgeOrder_) {
+				for (int l=first; l<last; l++) {
+					if (kept[grouped[l]] != k) {
+						kept[grouped[l]] = k;
+						grouped[size++] = grouped[l];
+					}
+				}
+			} else {
+				Arrays.sort(grouped, first, last);
+				for (int l=first; l<last; l++)
+					if (size == start[k] || grouped[l] != grouped[size-1])
+						grouped[size++] = grouped[l];
+			}
+		}
+		start[numNodes_] = size;
+		
+		return (size == n) ? grouped : Arrays.copyOf(grouped, size);
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public int getNumNodes() { return numNodes_; }
+	public int getNumEdges() { return numEdges_; }
+	public boolean getEdgeOrder() { return edgeOrder_; }
+	
+	public int getIndegree(int i) { return regulatorStart_[i+1] - regulatorStart_[i]; }
+	public int getOutdegree(int j) { return targetStart_[j+1] - targetStart_[j]; }
+	
+	public int[] getTargetStart() { return targetStart_; }
+	public int[] getTargets() { return targets_; }
+	public int[] getRegulatorStart() { return regulatorStart_; }
+	public int[] getRegulators() { return regulators_; }
+}
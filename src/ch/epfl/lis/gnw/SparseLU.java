@@ -0,0 +1,276 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TreeSet;
+
+
+/** Sparse LU factorization of the iteration matrix I - scale*J of the implicit solvers.
+ * 
+ * J is a Jacobian in compressed sparse row format (see GeneNetworkJacobian). The rows
+ * and columns are reordered by increasing number of nonzeros, so that the hubs of the
+ * network are eliminated last, which keeps the fill-in small. The pattern of the factors
+ * is computed once (symbolic factorization), factorize() then only updates the values,
+ * without allocating memory. There is no pivoting: the diagonal of I - scale*J is
+ * dominant for small steps, if a pivot is too small factorize() returns false and the
+ * caller must reduce the step size.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class SparseLU {
+	
+	/** Pivots smaller than this (relative to the largest element of the row) are rejected */
+	private static final double MIN_PIVOT = 1e-10;
+	
+	/** Dimension of the matrix */
+	private int n_;
+	/** The permutation, row/column i of the factors is row/column order_[i] of the matrix */
+	private int[] order_;
+	/** Inverse of the permutation */
+	private int[] position_;
+	
+	/** Row i of the factors is rowStart_[i], ..., rowStart_[i+1]-1 (L without its unit diagonal, then U) */
+	private int[] rowStart_;
+	/** Index of the diagonal element of each row of the factors */
+	private int[] diagonal_;
+	/** Column of each element of the factors */
+	private int[] columns_;
+	/** Values of the factors */
+	private double[] lu_;
+	/** Index in lu_ of each element of the Jacobian */
+	private int[] elementIndex_;
+	/** Index in the Jacobian of the diagonal element of each row */
+	private int[] jacobianDiagonal_;
+	
+	/** Dense work vector */
+	private double[] work_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, compute the ordering and the symbolic factorization for the given pattern
+	 * @param rowStart Start of each row in columns (CSR format), with rowStart[n] the number of elements
+	 * @param columns Column of each element, sorted within each row
+	 * @param diagonal Index of the diagonal element of each row (every row must have one)
+	 */
+	public SparseLU(int[] rowStart, int[] columns, int[] diagonal) {
+		
+		n_ = rowStart.length - 1;
+		jacobianDiagonal_ = diagonal;
+		
+		computeOrdering(rowStart, columns);
+		symbolicFactorization(rowStart, columns);
+		
+		// where the elements of the Jacobian go in the factors
+		elementIndex_ = new int[columns.length];
+		for (int r=0; r<n_; r++) {
+			int i = position_[r];
+			for (int e=rowStart[r]; e<rowStart[r+1]; e++)
+				elementIndex_[e] = Arrays.binarySearch(columns_, rowStart_[i], rowStart_[i+1], position_[columns[e]]);
+		}
+		
+		lu_ = new double[columns_.length];
+		work_ = new double[n_];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Factorize the matrix I - scale*J, where J has the pattern given to the constructor.
+	 * Return false if a pivot is too small, the factors can then not be used.
+	 */
+	public boolean factorize(double[] jacobian, double scale) {
+		
+		Arrays.fill(lu_, 0);
+		for (int e=0; e<jacobian.length; e++)
+			lu_[elementIndex_[e]] = -scale * jacobian[e];
+		for (int r=0; r<n_; r++)
+			lu_[elementIndex_[jacobianDiagonal_[r]]] += 1;
+		
+		// row-wise Gaussian elimination (IKJ variant)
+		for (int i=0; i<n_; i++) {
+			double rowMax = 0;
+			for (int e=rowStart_[i]; e<rowStart_[i+1]; e++) {
+				work_[columns_[e]] = lu_[e];
+				rowMax = Math.max(rowMax, Math.abs(lu_[e]));
+			}
+			
+			for (int e=rowStart_[i]; e<diagonal_[i]; e++) {
+				int k = columns_[e];
+				double l = work_[k] / lu_[diagonal_[k]];
+				work_[k] = l;
+				for (int u=diagonal_[k]+1; u<rowStart_[k+1]; u++)
+					work_[columns_[u]] -= l * lu_[u];
+			}
+			
+			for (int e=rowStart_[i]; e<rowStart_[i+1]; e++)
+				lu_[e] = work_[columns_[e]];
+			
+			double pivot = lu_[diagonal_[i]];
+			if (!(Math.abs(pivot) > MIN_PIVOT*rowMax))
+				return false;
+		}
+		return true;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Solve (I - scale*J) x = b using the last factorization, b is overwritten with the solution */
+	public void solve(double[] b) {
+		
+		// permute and forward substitution with the unit lower triangle
+		for (int i=0; i<n_; i++) {
+			double x = b[order_[i]];
+			for (int e=rowStart_[i]; e<diagonal_[i]; e++)
+				x -= lu_[e] * work_[columns_[e]];
+			work_[i] = x;
+		}
+		
+		// backward substitution with the upper triangle
+		for (int i=n_-1; i>=0; i--) {
+			double x = work_[i];
+			for (int e=diagonal_[i]+1; e<rowStart_[i+1]; e++)
+				x -= lu_[e] * work_[columns_[e]];
+			work_[i] = x / lu_[diagonal_[i]];
+		}
+		
+		for (int i=0; i<n_; i++)
+			b[order_[i]] = work_[i];
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Order the rows/columns by increasing number of nonzeros (row plus column) */
+	private void computeOrdering(int[] rowStart, int[] columns) {
+		
+		final int[] degree = new int[n_];
+		for (int r=0; r<n_; r++) {
+			degree[r] += rowStart[r+1] - rowStart[r];
+			for (int e=rowStart[r]; e<rowStart[r+1]; e++)
+				degree[columns[e]]++;
+		}
+		
+		Integer[] order = new Integer[n_];
+		for (int i=0; i<n_; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return (degree[a] != degree[b]) ? degree[a] - degree[b] : a - b;
+			}
+		});
+		
+		order_ = new int[n_];
+		position_ = new int[n_];
+		for (int i=0; i<n_; i++) {
+			order_[i] = order[i];
+			position_[order[i]] = i;
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Compute the pattern of the factors of the permuted matrix, including the fill-in */
+	private void symbolicFactorization(int[] rowStart, int[] columns) {
+		
+		ArrayList<int[]> rows = new ArrayList<int[]>(n_);
+		diagonal_ = new int[n_];
+		rowStart_ = new int[n_ + 1];
+		int numElements = 0;
+		
+		TreeSet<Integer> lower = new TreeSet<Integer>();
+		TreeSet<Integer> upper = new TreeSet<Integer>();
+		int[] row = new int[n_];
+		
+		for (int i=0; i<n_; i++) {
+			lower.clear();
+			upper.clear();
+			
+			int r = order_[i];
+			for (int e=rowStart[r]; e<rowStart[r+1]; e++) {
+				int c = position_[columns[e]];
+				if (c < i)
+					lower.add(c);
+				else if (c > i)
+					upper.add(c);
+			}
+			
+			// eliminating the lower elements in increasing order fills in the upper pattern of their rows
+			int numLower = 0;
+			Integer k = lower.isEmpty() ? null : lower.first();
+			while (k != null) {
+				row[numLower++] = k;
+				int[] rowK = rows.get(k);
+				for (int u=diagonal_[k]-rowStart_[k]+1; u<rowK.length; u++) {
+					int c = rowK[u];
+					if (c < i)
+						lower.add(c);
+					else if (c > i)
+						upper.add(c);
+				}
+				k = lower.higher(k);
+			}
+			
+			int[] pattern = new int[numLower + 1 + upper.size()];
+			System.arraycopy(row, 0, pattern, 0, numLower);
+			pattern[numLower] = i;
+			int u = numLower + 1;
+			for (Integer c : upper)
+				pattern[u++] = c;
+			
+			rows.add(pattern);
+			rowStart_[i] = numElements;
+			diagonal_[i] = numElements + numLower;
+			numElements += pattern.length;
+		}
+		rowStart_[n_] = numElements;
+		
+		columns_ = new int[numElements];
+		for (int i=0; i<n_; i++)
+			System.arraycopy(rows.get(i), 0, columns_, rowStart_[i], rows.get(i).length);
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public int getDimension() { return n_; }
+	/** Return the number of nonzeros of the factors (including the fill-in) */
+	public int getNumNonzeros() { return columns_.length; }
+	
+}
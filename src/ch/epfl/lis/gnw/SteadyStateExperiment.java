@@ -28,10 +28,15 @@ package ch.epfl.lis.gnw;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 
 import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix1D;
 import cern.colt.matrix.impl.DenseDoubleMatrix2D;
 
 
@@ -48,8 +53,6 @@ public class SteadyStateExperiment extends Experiment {
 	/** Perturbed steady-states for the proteins */
 	private DoubleMatrix2D ssPerturbationProteins_ = null;
 	
-	/** Time of the current steady-state computation */
-	private int t_ = 0;
 	/**
 	 * For SteadyStateExperimentODE: return the steady-states as soon as convergence is reached.
 	 * If there is no convergence until time maxt_, the values at this point are returned and a
@@ -67,6 +70,16 @@ public class SteadyStateExperiment extends Experiment {
 	 * For SDEs: return the state at these times.
 	 */
 	private ArrayList<Integer> timeToConvergenceODE_ = new ArrayList<Integer>();
+	/**
+	 * If the initial condition xy0_ is a steady state (warm start, e.g. the wild type or the steady
+	 * state of the previous dose of a drug), the time that was needed to reach it from the cold start
+	 * (0 otherwise). The integration of this transient is saved for every perturbation.
+	 */
+	private int warmStartTime_ = 0;
+	/** Estimated integration time saved by the warm start in the last run (see run()) */
+	private int timeSaved_ = 0;
+	/** The solvers for Newton's method, one per network (grn_ or replica), only during computeSteadyStates() */
+	private Map<GeneNetwork, NewtonSteadyStateSolver> newtonSolvers_ = Collections.synchronizedMap(new IdentityHashMap<GeneNetwork, NewtonSteadyStateSolver>());
 		
 	
 	// ============================================================================
@@ -89,6 +102,7 @@ public class SteadyStateExperiment extends Experiment {
 		
 		super(exp);
 		timeToConvergenceODE_ = exp.getTimeToConvergenceODE();
+		warmStartTime_ = exp.getWarmStartTime();
 	}
 
 	
@@ -109,7 +123,7 @@ public class SteadyStateExperiment extends Experiment {
 		SteadyStateExperiment expAvg = (SteadyStateExperiment) clone();
 		expAvg.setNumExperiments(1);
 		
-		DoubleMatrix2D avg = new DenseDoubleMatrix2D(1, numGenes_);
+		DoubleMatrix2D avg = newDataMatrix(1, numGenes_);
 		expAvg.setSsPerturbation(avg);
 		
 		for (int g=0; g<numGenes_; g++) {
@@ -127,7 +141,9 @@ public class SteadyStateExperiment extends Experiment {
 	// ----------------------------------------------------------------------------
 
 	/**
-	 * Run all steady-state experiments
+	 * Run all steady-state experiments. If xy0 is null and warm starts are enabled in GnwSettings,
+	 * the perturbations are simulated starting from the wild-type steady state instead of the
+	 * concentrations without regulation (see computeWildTypeInitialCondition()).
 	 */
 	public void run(DoubleMatrix1D xy0) {
 		
@@ -142,22 +158,34 @@ public class SteadyStateExperiment extends Experiment {
 			if (solverType_ == Solver.type.SDE && timeToConvergenceODE_.size() == 0 && maxtSDE_ < 0)
 				throw new RuntimeException("For SDE steady-state simulation, either specify timeToConvergenceODE_ or maxtSDE_");
 				
-			ssPerturbation_ = new DenseDoubleMatrix2D(numExperiments_, numGenes_);
+			ssPerturbation_ = newDataMatrix(numExperiments_, numGenes_);
 			if (modelTranslation_)
-				ssPerturbationProteins_ = new DenseDoubleMatrix2D(numExperiments_, numGenes_);
+				ssPerturbationProteins_ = newDataMatrix(numExperiments_, numGenes_);
 				
-			if (solverType_ == Solver.type.ODE)
+			if (Solver.isDeterministic(solverType_))
 				timeToConvergenceODE_.clear(); // = new ArrayList<Double>();
 			
-			computeSteadyStates();
+			if (xy0_ == null && perturbation_ != null && GnwSettings.getInstance().getSteadyStateWarmStart())
+				computeWildTypeInitialCondition();
+			
+			try {
+				computeSteadyStates();
+			} finally {
+				newtonSolvers_.clear();
+			}
 			
 			// display the longest time to convergence
-			if (solverType_ == Solver.type.ODE) {
+			if (Solver.isDeterministic(solverType_)) {
 				double max = -1;
 				for (int i=0; i<timeToConvergenceODE_.size(); i++)
 					if (timeToConvergenceODE_.get(i) > max)
 						max = timeToConvergenceODE_.get(i);
 				log_.log(Level.INFO, "Duration of the longest steady state experiment = " + max);
+				
+				// every perturbation would have had to integrate the transient to the initial condition
+				timeSaved_ = warmStartTime_ * numExperiments_;
+				if (timeSaved_ > 0)
+					log_.log(Level.INFO, "Warm start from a steady state saved an estimated " + timeSaved_ + " time units of integration");
 			}
 			log_.log(Level.INFO, ""); // empty line
 
@@ -175,6 +203,16 @@ public class SteadyStateExperiment extends Experiment {
 	}
 	
 	
+	// ----------------------------------------------------------------------------
+	
+	/** Write the expression data row by row (same rows as expressionMatrixToString()) */
+	public void writeExpressionMatrix(ExpressionMatrixWriter writer) throws IOException {
+		
+		for (int e=0; e<numExperiments_; e++)
+			writer.writeRow(ssPerturbation_, e);
+	}
+	
+	
 	// ----------------------------------------------------------------------------
 	
 	/** Return the expression data as an array list of strings */
@@ -204,7 +242,7 @@ public class SteadyStateExperiment extends Experiment {
 				String[] row = new String[numGenes_];
 			
 				for (int g=0; g<numGenes_; g++)
-					row[g] = String.format("%.7f", ssPerturbation_.get(e, g));//Double.toString(ssPerturbation_.get(e, g));
+					row[g] = NumberFormatter.format(ssPerturbation_.get(e, g), 7);
 			
 				expressionMatrix.add(row);
 			}
@@ -218,13 +256,60 @@ public class SteadyStateExperiment extends Experiment {
 
 	/**
 	 * Print the mRNA data, append the given string to the filenames (e.g. "_nonoise_wildtype").
-	 * If translation is modelled, protein data is also printed
+	 * If translation is modelled, protein data is also printed. Depending on the setting
+	 * binaryOutput, the data is saved in TSV files and/or in a binary dataset.
 	 */
 	public void printAll(String directory, String postfix)
 	{
-		printMRNA(directory, postfix);
-		if (GnwSettings.getInstance().getModelTranslation())
-			printProteins(directory, postfix);
+		GnwSettings set = GnwSettings.getInstance();
+		
+		if (set.getOutputTsv()) {
+			printMRNA(directory, postfix);
+			if (set.getModelTranslation())
+				printProteins(directory, postfix);
+		}
+		if (set.getOutputBinary())
+			printBinary(directory + grn_.getId() + postfix + "_" + label_ + BinaryDatasetWriter.EXTENSION, set.getModelTranslation());
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * Save the mRNA data (block "mRNA") and, if proteins is set, the protein data (block "proteins")
+	 * in a binary dataset (see BinaryDatasetWriter). The rows are annotated with the number of the
+	 * perturbation.
+	 */
+	public void printBinary(String filename, boolean proteins)
+	{
+		if (proteins && !modelTranslation_)
+			throw new IllegalArgumentException("SteadyStateExperiment:printBinary(): protein translation was not modeled");
+		
+		BinaryDatasetWriter writer = null;
+		try {
+			log_.log(Level.INFO, "Writing file " + filename);
+			writer = new BinaryDatasetWriter(filename, grn_.getHeaderArray(), new String[] {"Perturbation"}, GnwSettings.getInstance().getSinglePrecisionStorage());
+			
+			if (ssPerturbation_ != null) {
+				String[][] annotations = new String[ssPerturbation_.rows()][1];
+				for (int i=0; i<annotations.length; i++)
+					annotations[i][0] = Integer.toString(i+1);
+				
+				writer.writeBlock("mRNA", noiseHasBeenAdded_, null, annotations, ssPerturbation_);
+				if (proteins)
+					writer.writeBlock("proteins", noiseHasBeenAdded_, null, annotations, ssPerturbationProteins_);
+			}
+			writer.close();
+			writer = null;
+			
+		} catch (IOException fe) {
+			log_.log(Level.WARNING, "SteadyStateExperiment::printBinary(): " + fe.getMessage(), fe);
+			throw new RuntimeException();
+		} finally {
+			// delete the partial file
+			if (writer != null)
+				writer.abort();
+		}
 	}
 	
 	
@@ -257,55 +342,54 @@ public class SteadyStateExperiment extends Experiment {
 	
 	/** 
 	 * Compute the steady-states for all the single-gene perturbations, one after the other.
-	 * The result is stored in ssPerturbation.  
+	 * The result is stored in ssPerturbation. If possible, the perturbations are simulated
+	 * concurrently on replicas of the network (see canRunConcurrently()), the result is the
+	 * same and grn_ is left untouched. If a batch size is set in GnwSettings, ODE steady-states
+	 * are computed in batches instead (see computeSteadyStatesInBatches()), and SDE steady-states
+	 * are computed as an ensemble if enabled (see computeSteadyStatesAsEnsemble()).
 	 * @throws Exception 
 	 */
 	public void computeSteadyStates() throws IllegalArgumentException, Exception {
 		
+		if (canRunAsEnsemble()) {
+			computeSteadyStatesAsEnsemble();
+			return;
+		}
+		
+		if (canRunInBatches()) {
+			computeSteadyStatesInBatches();
+			return;
+		}
+		
+		if (canRunConcurrently()) {
+			computeSteadyStatesConcurrently();
+			return;
+		}
+		
 		// apply each perturbation, one after the other, and compute the steady-states
 		for (int i=0; i<numExperiments_; i++) {
 			
-			// the time limit for the simulation
-			int maxt;
-			if (solverType_ == Solver.type.SDE) {
-				if (maxtSDE_ > 0)
-					maxt = maxtSDE_;
-				else {
-					// In the dream5 compendia there is only one ODE experiment for multiple SDE repeats
-					if (timeToConvergenceODE_.size() == 1)
-						maxt = timeToConvergenceODE_.get(0);
-					// Before, there was an ODE experiment for every SDE experiment
-					// LEGACY
-					else
-						maxt = timeToConvergenceODE_.get(i);
-					
-					if (maxt < GnwSettings.getInstance().getMintSDE())
-						maxt = GnwSettings.getInstance().getMintSDE();
-				}
-			} else
-				maxt = maxtODE_;
-			
 			// apply the perturbation
 			if (perturbation_ != null)
 				perturbation_.applyPerturbation(i);
 			
 			// compute the steady-state
-			computeSteadyState(maxt);
+			int t;
+			RandomStream previous = bindRandomStream(i);
+			try {
+				t = computeSteadyState(grn_, getMaxt(i));
+			} finally {
+				RandomStream.restore(previous);
+			}
+			if (Solver.isDeterministic(solverType_))
+				timeToConvergenceODE_.add(t);
 			
 			// remove the perturbation
 			if (perturbation_ != null)
 				perturbation_.restoreWildType();
 			
 			// put the steady-state into the corresponding line in ssPerturbation_
-			DoubleMatrix1D x = grn_.getX();
-			for (int j=0; j<numGenes_; j++)
-				ssPerturbation_.set(i, j, x.get(j));
-			
-			if (modelTranslation_) {
-				DoubleMatrix1D y = grn_.getY();
-				for (int j=0; j<numGenes_; j++)
-					ssPerturbationProteins_.set(i, j, y.get(j));
-			}
+			saveSteadyState(i, grn_);
 		}
 		// remove the perturbation from the network
 		if (perturbation_ != null)
@@ -317,15 +401,271 @@ public class SteadyStateExperiment extends Experiment {
 	// PRIVATE METHODS
 	
 	/**
-	 * Compute the steady state of the network after integrating from the given
-	 * initial conditions x0 and y0.
-	 * @throws Exception 
+	 * Compute the steady-states of all perturbations concurrently. Every task works on
+	 * a replica of the network (a replica is reused by the following tasks of the same
+	 * thread), grn_ is never perturbed.
 	 */
-	private void computeSteadyState(double maxt) throws IllegalArgumentException, Exception {
-						
-		double[] xy0 = constructInitialCondition(); // initial condition
-		t_ = 0;
-		double dt = GnwSettings.getInstance().getDt();
+	private void computeSteadyStatesConcurrently() throws Exception {
+		
+		final ConcurrentLinkedQueue<GeneNetwork> replicas = new ConcurrentLinkedQueue<GeneNetwork>();
+		final int[] timeToConvergence = new int[numExperiments_];
+		
+		ExperimentExecutor.run(numExperiments_, new ExperimentExecutor.Task() {
+			public void run(int i) throws Exception {
+				
+				GeneNetwork grn = replicas.poll();
+				if (grn == null) {
+					synchronized (grn_) {
+						grn = grn_.createReplica();
+					}
+				}
+				Perturbation perturbation = null;
+				if (perturbation_ != null)
+					perturbation = perturbation_.copy(grn);
+				
+				if (perturbation != null)
+					perturbation.applyPerturbation(i);
+				
+				RandomStream previous = bindRandomStream(i);
+				try {
+					timeToConvergence[i] = computeSteadyState(grn, getMaxt(i));
+				} finally {
+					RandomStream.restore(previous);
+				}
+				
+				if (perturbation != null)
+					perturbation.restoreWildType();
+				
+				saveSteadyState(i, grn);
+				replicas.add(grn);
+			}
+		});
+		
+		if (Solver.isDeterministic(solverType_))
+			for (int i=0; i<numExperiments_; i++)
+				timeToConvergenceODE_.add(timeToConvergence[i]);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return true if the perturbations can be integrated in batches (see GeneNetworkBatch):
+	 * only for ODEs, if a batch size > 1 is set in GnwSettings, if neither the stiff solver
+	 * nor Newton's method is selected, and if the network can be compiled (see GeneNetwork.getKernel()).
+	 */
+	private boolean canRunInBatches() {
+		
+		GnwSettings set = GnwSettings.getInstance();
+		return solverType_ == Solver.type.ODE && perturbation_ != null && numExperiments_ > 1
+			&& set.getSteadyStateBatchSize() > 1 && !set.getStiffODESolver() && !set.getSteadyStateNewton()
+			&& grn_.getKernel() != null;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the steady-states of the perturbations in batches, the perturbations of a batch
+	 * are integrated together as one system (see GeneNetworkBatch). Every batch works on a
+	 * replica of the network and the batches are run concurrently if possible, grn_ is never
+	 * perturbed.
+	 */
+	private void computeSteadyStatesInBatches() throws Exception {
+		
+		final GnwSettings set = GnwSettings.getInstance();
+		final int batchSize = set.getSteadyStateBatchSize();
+		final int numBatches = (numExperiments_ + batchSize - 1) / batchSize;
+		final int[] timeToConvergence = new int[numExperiments_];
+		final double dt = set.getDt();
+		checkTimeStep(dt, maxtODE_);
+		
+		ExperimentExecutor.run(numBatches, new ExperimentExecutor.Task() {
+			public void run(int k) throws Exception {
+				
+				GeneNetwork grn;
+				synchronized (grn_) {
+					grn = grn_.createReplica();
+				}
+				Perturbation perturbation = perturbation_.copy(grn);
+				int first = k*batchSize;
+				int last = Math.min(first + batchSize, numExperiments_);
+				
+				// the parameters of the perturbed network are copied into the batch
+				GeneNetworkBatch batch = new GeneNetworkBatch(grn.getKernel(), last - first, modelTranslation_);
+				for (int i=first; i<last; i++) {
+					perturbation.applyPerturbation(i);
+					batch.addMember(grn.getKernel(), constructInitialCondition(grn));
+					perturbation.restoreWildType();
+				}
+				
+				batch.integrate(dt, maxtODE_, set.getAbsolutePrecision(), set.getRelativePrecision());
+				
+				for (int i=first; i<last; i++) {
+					timeToConvergence[i] = batch.getTime(i - first);
+					saveSteadyState(i, batch.getState(i - first));
+					log_.log(Level.INFO, "Saved state at t = " + timeToConvergence[i] + ", with maximum dx_i/dt = " + batch.getMaxRate(i - first));
+				}
+			}
+		});
+		
+		for (int i=0; i<numExperiments_; i++)
+			timeToConvergenceODE_.add(timeToConvergence[i]);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return true if the SDE steady-states can be computed as an ensemble (see Experiment.canRunAsEnsemble()),
+	 * the simulations must also have the same duration.
+	 */
+	public boolean canRunAsEnsemble() {
+		
+		if (!super.canRunAsEnsemble())
+			return false;
+		
+		for (int i=1; i<numExperiments_; i++)
+			if (getMaxt(i) != getMaxt(0))
+				return false;
+		return true;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the SDE steady-states of all perturbations (or repeats) together as an ensemble
+	 * (see SdeEnsemble). Every simulation draws from its own random stream, the result is the
+	 * same as if they were run one after the other. The perturbations are applied to a replica
+	 * of the network, grn_ is never perturbed.
+	 */
+	private void computeSteadyStatesAsEnsemble() throws Exception {
+		
+		GnwSettings set = GnwSettings.getInstance();
+		double dt = set.getDt();
+		int maxt = getMaxt(0);
+		checkTimeStep(dt, maxt);
+		
+		SdeEnsemble ensemble = new SdeEnsemble(grn_.getKernel(), numExperiments_, modelTranslation_,
+				SdeIntegrator.getSchemeFromSettings(), set.getTimeStepSDE(), dt);
+		
+		// the parameters of the perturbed replica are copied into the ensemble, grn_ is never perturbed
+		GeneNetwork grn;
+		synchronized (grn_) {
+			grn = grn_.createReplica();
+		}
+		Perturbation perturbation = null;
+		if (perturbation_ != null)
+			perturbation = perturbation_.copy(grn);
+		
+		for (int i=0; i<numExperiments_; i++) {
+			if (perturbation != null)
+				perturbation.applyPerturbation(i);
+			ensemble.addMember(grn.getKernel(), constructInitialCondition(grn), getRandomStream(i).getNormalDistribution());
+			if (perturbation != null)
+				perturbation.restoreWildType();
+		}
+		
+		int t = 0;
+		do {
+			double t1 = t;
+			t += ensemble.step();
+			
+			if (t != t1 + dt)
+				throw new RuntimeException("Solver failed to step time by dt, expected t = " + (t1+dt) + ", obtained t = " + t);
+			
+		} while (t < maxt);
+		
+		double[] xy = new double[modelTranslation_ ? 2*numGenes_ : numGenes_];
+		for (int i=0; i<numExperiments_; i++) {
+			ensemble.getState(i, xy);
+			saveSteadyState(i, xy);
+		}
+		log_.log(Level.INFO, "Saved the states of " + numExperiments_ + " simulations at t = " + t);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the wild-type steady state of grn_ using ODEs (also for SDE experiments, so that
+	 * the initial condition is the same as for the corresponding ODE experiment) and use it as
+	 * initial condition xy0_ for the perturbations.
+	 */
+	private void computeWildTypeInitialCondition() {
+		
+		SteadyStateExperiment wildType = new SteadyStateExperiment(Solver.type.ODE, null, label_ + " (wild type)");
+		wildType.setGrn(grn_);
+		wildType.run(null);
+		
+		xy0_ = wildType.getSteadyState(0);
+		warmStartTime_ = wildType.getTimeToConvergenceODE().get(0);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the time limit for the simulation of the i'th perturbation */
+	private int getMaxt(int i) {
+		
+		if (solverType_ != Solver.type.SDE)
+			return maxtODE_;
+		
+		if (maxtSDE_ > 0)
+			return maxtSDE_;
+		
+		int maxt;
+		// In the dream5 compendia there is only one ODE experiment for multiple SDE repeats
+		if (timeToConvergenceODE_.size() == 1)
+			maxt = timeToConvergenceODE_.get(0);
+		// Before, there was an ODE experiment for every SDE experiment
+		// LEGACY
+		else
+			maxt = timeToConvergenceODE_.get(i);
+		
+		if (maxt < GnwSettings.getInstance().getMintSDE())
+			maxt = GnwSettings.getInstance().getMintSDE();
+		
+		return maxt;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Copy the state of the given network (the steady-state) into line i of ssPerturbation_ */
+	private void saveSteadyState(int i, GeneNetwork grn) {
+		
+		DoubleMatrix1D x = grn.getX();
+		for (int j=0; j<numGenes_; j++)
+			ssPerturbation_.set(i, j, x.get(j));
+		
+		if (modelTranslation_) {
+			DoubleMatrix1D y = grn.getY();
+			for (int j=0; j<numGenes_; j++)
+				ssPerturbationProteins_.set(i, j, y.get(j));
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Copy the given state (mRNA followed by the proteins if translation is modelled) into line i of ssPerturbation_ */
+	private void saveSteadyState(int i, double[] xy) {
+		
+		for (int j=0; j<numGenes_; j++)
+			ssPerturbation_.set(i, j, xy[j]);
+		
+		if (modelTranslation_)
+			for (int j=0; j<numGenes_; j++)
+				ssPerturbationProteins_.set(i, j, xy[numGenes_+j]);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Throw an exception if the interval dt between two measured points is not compatible with maxt */
+	private void checkTimeStep(double dt, double maxt) {
 		
 		if (dt <= 0 || dt > maxt)
 			throw new IllegalArgumentException("Interval between two measuread points must be >0 and <maxt.");
@@ -336,28 +676,58 @@ public class SteadyStateExperiment extends Experiment {
 		double frac = maxt/dt;
 		if (frac - (int)frac != 0)
 			throw new IllegalArgumentException("Duration (maxt) must be a multiple of numTimePoints-1.");
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the steady state of the given network (grn_ or a replica) after integrating
+	 * from the initial conditions, return the time of the simulation. If Newton's method is
+	 * enabled in GnwSettings (ODEs only) and the initial condition is given (usually the wild
+	 * type, see run()), the steady state is first searched directly starting from the initial
+	 * condition (see NewtonSteadyStateSolver), the returned time is then an estimate. The ODEs
+	 * are integrated if Newton's method fails or finds an unstable steady state. Without a given
+	 * initial condition, Newton's method could find another steady state than the integration
+	 * (e.g. if the network is bistable), the ODEs are always integrated.
+	 * @throws Exception 
+	 */
+	private int computeSteadyState(GeneNetwork grn, double maxt) throws IllegalArgumentException, Exception {
+						
+		double[] xy0 = constructInitialCondition(grn); // initial condition
+		int t = 0;
+		double dt = GnwSettings.getInstance().getDt();
+		checkTimeStep(dt, maxt);
+		
+		if (Solver.isDeterministic(solverType_) && xy0_ != null && GnwSettings.getInstance().getSteadyStateNewton() && grn.getKernel() != null) {
+			NewtonSteadyStateSolver newton = getNewtonSolver(grn);
+			
+			if (newton.solve(xy0)) {
+				grn.setState(newton.getState());
+				t = newton.estimateTimeToConvergence(xy0, dt, (int)maxt);
+				log_.log(Level.INFO, "Saved state found by Newton's method after " + newton.getNumIterations() + " iterations (estimated t = " + t + ")");
+				return t;
+			}
+			log_.log(Level.INFO, "Newton's method did not find a stable steady state, integrating the ODEs");
+		}
 		
-		Solver solver = new Solver(solverType_, grn_, xy0);
+		Solver solver = new Solver(solverType_, grn, xy0);
 
 		do {
-			double t1 = t_;
+			double t1 = t;
 			// this steps the time by dt_, but using a smaller internal step size of the solver
 			// (getRate() may be called several times for one step)
-			t_ += solver.step();
+			t += solver.step();
 			
-			if (t_ != t1 + dt)
-				throw new RuntimeException("Solver failed to step time by dt, expected t = " + (t1+dt) + ", obtained t = " + t_);
+			if (t != t1 + dt)
+				throw new RuntimeException("Solver failed to step time by dt, expected t = " + (t1+dt) + ", obtained t = " + t);
 			
-		} while (!solver.converged() && t_ < maxt);
+		} while (!solver.converged() && t < maxt);
 		// note, the state at the last step is already saved both in ODE.state and grn.x_, grn.y_
 		
-		// save the time of this experiment
-		if (solverType_ == Solver.type.ODE)
-			timeToConvergenceODE_.add(t_);
-		
 		// Check the max rate of change at the found solution
-		DoubleMatrix1D lastX = grn_.getX();
-		DoubleMatrix1D lastY = grn_.getY();
+		DoubleMatrix1D lastX = grn.getX();
+		DoubleMatrix1D lastY = grn.getY();
 		double[] dxydt;
 		double[] xy;
 		if (modelTranslation_) {
@@ -368,18 +738,38 @@ public class SteadyStateExperiment extends Experiment {
 			xy = lastX.toArray();
 		}
 			
-		grn_.computeDxydt(xy, dxydt);
+		grn.computeDxydt(xy, dxydt);
 		
 		double max = 0;
 		for (int i=0; i<dxydt.length; i++)
 			if (dxydt[i] > max)
 				max = dxydt[i];
 
-		log_.log(Level.INFO, "Saved state at t = " + t_ + ", with maximum dx_i/dt = " + max);
+		log_.log(Level.INFO, "Saved state at t = " + t + ", with maximum dx_i/dt = " + max);
 		
 		//getSDESolver()
 		//if (solverType_ == Solver.type.SDE && solver.getXNegativeCounter() > 0)
 			//log_.log(Level.WARNING, "SDE: " + solver.getXNegativeCounter() + " times a concentration became negative due to noise and was set to 0");
+		
+		return t;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return the solver for Newton's method of the given network (grn_ or a replica), it is
+	 * created at the first call for this network (the symbolic factorization is done once).
+	 */
+	private NewtonSteadyStateSolver getNewtonSolver(GeneNetwork grn) {
+		
+		NewtonSteadyStateSolver newton = newtonSolvers_.get(grn);
+		if (newton == null || newton.getKernel() != grn.getKernel()) {
+			GnwSettings set = GnwSettings.getInstance();
+			newton = new NewtonSteadyStateSolver(grn, modelTranslation_, set.getAbsolutePrecision(), set.getRelativePrecision());
+			newtonSolvers_.put(grn, newton);
+		}
+		return newton;
 	}
 	
 	
@@ -388,9 +778,9 @@ public class SteadyStateExperiment extends Experiment {
 	/**
 	 * Construct xy0, the initial conditions as an array of double. If x0 is null,
 	 * we estimate the initial conditions as the concentration of the genes in the
-	 * absence of regulation.
+	 * absence of regulation (for the given network, which may be perturbed).
 	 */
-	private double[] constructInitialCondition() {
+	private double[] constructInitialCondition(GeneNetwork grn) {
 		
 		double[] xy0 = null;
 		
@@ -409,18 +799,18 @@ public class SteadyStateExperiment extends Experiment {
 
 			// Estimate the initial conditions as the concentration of the genes without regulation.
 			// 0 = m*f(0) -delta*x_i  =>  x_i = m*f(0) / delta
-			grn_.computeDxydt(zeros, xy0); // since x=0, this actually computes m*f(0)
+			grn.computeDxydt(zeros, xy0); // since x=0, this actually computes m*f(0)
 			
 			for (int i=0; i<numGenes_; i++) {
-				xy0[i] /= grn_.getGene(i).getDelta();
+				xy0[i] /= grn.getGene(i).getDelta();
 			}
 
 			// Corresponding initial conditions for the proteins:
 			// 0 = mTranslation*x_i - deltaProt*y_i  =>  y_i = mTranslation*x_i / deltaProt
 			if (modelTranslation_) {
 				for (int i=0; i<numGenes_; i++) {
-					double m = grn_.getGene(i).getMaxTranslation();
-					double d = grn_.getGene(i).getDeltaProtein();
+					double m = grn.getGene(i).getMaxTranslation();
+					double d = grn.getGene(i).getDeltaProtein();
 					xy0[numGenes_+i] = m*xy0[i] / d;
 				}
 			}
@@ -459,23 +849,21 @@ public class SteadyStateExperiment extends Experiment {
 		
 		try {
 			log_.log(Level.INFO, "Writing file " + filename);
-			FileWriter fw = new FileWriter(filename, false);
+			TsvWriter writer = new TsvWriter(filename);
 
-			fw.write(grn_.getHeader(false));
+			writer.writeRow(grn_.getHeaderArray());
 			
 			// Data
 			if (data != null) {
 				for (int i=0; i<data.rows(); i++) {
-					//fw.write("\"" + grn_.getNode(i).getLabel() + type + "\"");
-
-					for (int j=0; j<data.columns()-1; j++)
-						fw.write(String.format("%.7f", data.get(i, j)) + "\t");//Double.toString(value));
-					fw.write(String.format("%.7f", data.get(i, data.columns()-1)) + "\n");
+					for (int j=0; j<data.columns(); j++)
+						writer.writeDouble(data.get(i, j), 7);
+					writer.endRow();
 				}
 			}
 
 			// Close file
-			fw.close();
+			writer.close();
 
 		} catch (IOException fe) {
 			log_.log(Level.WARNING, "SteadyStateExperiment::printData(): " + fe.getMessage(), fe);
@@ -567,7 +955,7 @@ public class SteadyStateExperiment extends Experiment {
 		
 		// Create instance and initialize
 		if (ssPerturbation_ == null) {
-			ssPerturbation_ = new DenseDoubleMatrix2D(numExperiments_, numGenes_);
+			ssPerturbation_ = newDataMatrix(numExperiments_, numGenes_);
 			ssPerturbation_.assign(-1);
 		}
 
@@ -593,6 +981,22 @@ public class SteadyStateExperiment extends Experiment {
 	public DoubleMatrix2D getSsPerturbation() { return ssPerturbation_; }
 	
 	public DoubleMatrix2D getSsPerturbationProteins() { return ssPerturbationProteins_; }
+	
+	/** Return the steady state of the i'th perturbation (mRNA followed by the proteins if translation is modelled) */
+	public DoubleMatrix1D getSteadyState(int i) {
+		
+		DoubleMatrix1D xy = new DenseDoubleMatrix1D(modelTranslation_ ? 2*numGenes_ : numGenes_);
+		for (int j=0; j<numGenes_; j++)
+			xy.set(j, ssPerturbation_.get(i, j));
+		if (modelTranslation_)
+			for (int j=0; j<numGenes_; j++)
+				xy.set(numGenes_+j, ssPerturbationProteins_.get(i, j));
+		return xy;
+	}
+	
+	public void setWarmStartTime(int t) { warmStartTime_ = t; }
+	public int getWarmStartTime() { return warmStartTime_; }
+	public int getTimeSaved() { return timeSaved_; }
 	public ArrayList<Integer> getTimeToConvergenceODE() { return timeToConvergenceODE_; }
 	public void setTimeToConvergenceODE(ArrayList<Integer> t) { timeToConvergenceODE_ = t; }
 	public void setMaxtSDE(int maxt) { maxtSDE_ = maxt; }
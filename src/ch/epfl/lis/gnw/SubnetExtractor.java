@@ -27,19 +27,13 @@ THE SOFTWARE.
 package ch.epfl.lis.gnw;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import cern.colt.matrix.DoubleMatrix1D;
-import cern.colt.matrix.impl.DenseDoubleMatrix1D;
 import cern.jet.random.Uniform;
 
-import ch.epfl.lis.imod.ModularityDetector;
 import ch.epfl.lis.imod.ImodNetwork;
 import ch.epfl.lis.networks.Node;
 import ch.epfl.lis.networks.Structure;
@@ -53,8 +47,6 @@ import ch.epfl.lis.networks.Structure;
  */
 public class SubnetExtractor {
 	
-	/** Modularity detector used to compute modularities Q */
-	private ModularityDetector myModularityDetector_;
 	/** The source network from which subnets are extracted */
 	ImodNetwork sourceNetwork_;
 	/** Vertices are added using truncated selection with the given fraction, see GnwSettings.truncatedSelectionFraction. */
@@ -63,6 +55,16 @@ public class SubnetExtractor {
 	private int numRegulators_;
 	/** The outdegrees of the nodes, used for the neighbor selection to control the number of regulators */
 	private int[] outdegrees_;
+	/** The adjacency structure of the source network, used to find the neighbors of a subnet */
+	private SparseAdjacency adjacency_;
+	/** The degrees k_i of the nodes in the undirected source network (number of neighbors, see SubnetGrowth) */
+	private int[] degrees_;
+	/** The sum of the degrees k_i */
+	private long totalDegree_;
+	/** The number of edges m of the source network that are not autoregulatory, as used by ModularityDetector */
+	private long m_;
+	/** Number of random stream keys given out so far, distinguishes repeated extractions with the same name */
+	private int numRandomStreamKeys_ = 0;
 
     /** Logger for this class */
     private Logger log_ = Logger.getLogger(SubnetExtractor.class.getName());
@@ -73,15 +75,22 @@ public class SubnetExtractor {
 	
 	/** Constructor */
 	public SubnetExtractor(ImodNetwork sourceNetwork) {
-		myModularityDetector_ = null;
 		sourceNetwork_ = sourceNetwork;
 		truncatedSelectionFraction_ = GnwSettings.getInstance().getTruncatedSelectionFraction();
 		numRegulators_ = GnwSettings.getInstance().getNumRegulators();
+		adjacency_ = new SparseAdjacency(sourceNetwork_);
 		
-		if (numRegulators_ > 0) {
-			GraphUtilities util = new GraphUtilities(sourceNetwork_);
-			outdegrees_ = util.getOutdegrees();
-		} else
+		degrees_ = new int[adjacency_.getNumNodes()];
+		totalDegree_ = 0;
+		for (int i=0; i<degrees_.length; i++) {
+			degrees_[i] = adjacency_.getNeighbors(i).length;
+			totalDegree_ += degrees_[i];
+		}
+		m_ = sourceNetwork_.getNumNotautoregulatoryEdges();
+		
+		if (numRegulators_ > 0)
+			outdegrees_ = adjacency_.getOutdegrees();
+		else
 			outdegrees_ = null;
 		
 	}
@@ -102,8 +111,7 @@ public class SubnetExtractor {
 		
 		// List of nodes that are regulators
 		ArrayList<Node> regulators = new ArrayList<Node>();
-		GraphUtilities util = new GraphUtilities(sourceNetwork_);
-		int[] k = util.getOutdegrees();
+		int[] k = adjacency_.getOutdegrees();
 		
 		for (int i=0; i<k.length; i++) {
 			if (k[i] > 0) {
@@ -136,6 +144,103 @@ public class SubnetExtractor {
 	 */
 	public Structure[] runExtraction(String subnetName, int subnetSize, int numSubnets) {
 		
+		GnwSettings set = GnwSettings.getInstance();
+		ArrayList<ArrayList<Node>> seeds = null;
+		
+		// the seeds are drawn from the random stream of this extraction
+		RandomStream previous = set.getRandomStream(nextRandomStreamKey(subnetName) + "/seeds").bind();
+		try {
+			seeds = sampleSeeds(numSubnets);
+		} finally {
+			RandomStream.restore(previous);
+		}
+		if (seeds == null) // extraction process stopped during seed generation
+			return null;
+		
+		return runExtraction(subnetName, subnetSize, seeds);
+    }
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * Extract multiple subnetworks from the given source network. The number of extracted modules
+	 * is given by the number of provided seeds (seeds.size()). The subnets are extracted concurrently
+	 * if several threads are used (see ExperimentExecutor) and every subnet draws from its own random
+	 * stream, the result is the same as if they were extracted one after the other.
+	 * @param subnetName The name for the subnets ('-i' will be appended for the i'th subnet)
+	 * @param seeds Specifies for every desired subnet the list of seed nodes
+	 * @param subnetSize The desired size of the extracted subnetworks
+	 * @return An array of extracted subnetworks
+	 */
+	public Structure[] runExtraction(String subnetName, final int subnetSize, final ArrayList<ArrayList<Node>> seeds) {
+		
+		final GnwSettings set = GnwSettings.getInstance();
+		int numSubnets = seeds.size();
+		final ImodNetwork[] output = new ImodNetwork[numSubnets];
+		final String[] names = new String[numSubnets];
+		final RandomStream[] streams = new RandomStream[numSubnets];
+		
+		//output[0] = extractRegulators();
+		//return output;
+		
+		// every subnetwork draws from its own random stream, the streams are created in the
+		// order of the subnets so that they don't depend on the order of execution
+		String key = nextRandomStreamKey(subnetName);
+		for (int i=0; i < numSubnets; i++) {
+			names[i] = new String(subnetName + "-" + (i+1)); // set the name of the network
+			streams[i] = set.getRandomStream(key + "/" + (i+1));
+		}
+		
+		ExperimentExecutor.Task task = new ExperimentExecutor.Task() {
+			public void run(int i) throws Exception {
+				
+				if (set.stopSubnetExtraction()) // exit extraction process ?
+					return;
+				
+				RandomStream previous = streams[i].bind();
+				try {
+					output[i] = runExtraction(names[i], seeds.get(i), subnetSize);
+				} finally {
+					RandomStream.restore(previous);
+				}
+				
+				GraphUtilities util2 = new GraphUtilities(output[i]);
+				util2.getStronglyConnectedComponents();
+			}
+		};
+		
+		// without independent random streams, the subnets must be extracted one after the other
+		ExperimentExecutor.runUnchecked(numSubnets, task, set.getRandomStreams());
+		
+		if (set.stopSubnetExtraction())
+			return null;
+		
+		return output;
+    }
+	
+		
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * Return a new, unique key for the random streams of an extraction of subnets with the
+	 * given name (see GnwSettings.getRandomStream()). Repeated extractions from the same source
+	 * network thus draw different subnets, but the sequence of extractions is reproducible.
+	 */
+	private String nextRandomStreamKey(String subnetName) {
+		
+		return sourceNetwork_.getId() + "/" + subnetName + "/" + numRandomStreamKeys_++;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Sample the seeds of numSubnets subnetworks, return null if the extraction process has been stopped.
+	 */
+	private ArrayList<ArrayList<Node>> sampleSeeds(int numSubnets) {
+		
 		GnwSettings set = GnwSettings.getInstance();
 		ArrayList<ArrayList<Node>> seeds = new ArrayList<ArrayList<Node>>();
 		
@@ -187,46 +292,11 @@ public class SubnetExtractor {
 			}
 		}
 		
-		return runExtraction(subnetName, subnetSize, seeds);
-    }
+		return seeds;
+	}
 	
 	
 	// ----------------------------------------------------------------------------
-
-	/**
-	 * Extract multiple subnetworks from the given source network. The number of extracted modules
-	 * is given by the number of provided seeds (seeds.size()). 
-	 * @param subnetName The name for the subnets ('-i' will be appended for the i'th subnet)
-	 * @param seeds Specifies for every desired subnet the list of seed nodes
-	 * @param subnetSize The desired size of the extracted subnetworks
-	 * @return An array of extracted subnetworks
-	 */
-	public Structure[] runExtraction(String subnetName, int subnetSize, ArrayList<ArrayList<Node>> seeds) {
-		
-		GnwSettings set = GnwSettings.getInstance();
-		int numSubnets = seeds.size();
-		ImodNetwork[] output = new ImodNetwork[numSubnets];
-		
-		//output[0] = extractRegulators();
-		//return output;
-		
-		for (int i=0; i < numSubnets; i++) {
-			
-			if (set.stopSubnetExtraction()) // exit extraction process ?
-				return null;
-			
-			String subnetName_i = new String(subnetName + "-" + (i+1)); // set the name of the network
-			output[i] = runExtraction(subnetName_i, seeds.get(i), subnetSize);
-			
-			GraphUtilities util2 = new GraphUtilities(output[i]);
-			util2.getStronglyConnectedComponents();
-		}
-		return output;
-    }
-	
-		
-	// ============================================================================
-	// PRIVATE METHODS
 	
 	/**
 	 * Extract a subnetwork from the given source network. 
@@ -235,7 +305,6 @@ public class SubnetExtractor {
 	 * @param subnetSize The desired size of the extracted subnetworks
 	 * @return An array of extracted subnetworks
 	 */
-	@SuppressWarnings("unchecked")
 	private ImodNetwork runExtraction(String subnetName, ArrayList<Node> seeds, int subnetSize) {
 
 		log_.log(Level.INFO, "Extraction of subnet '" + subnetName + "'...");
@@ -248,32 +317,27 @@ public class SubnetExtractor {
 			if (numRegulators_ > subnetSize)
 				throw new IllegalArgumentException("numRegulators must be smaller or equal subnetSize");
 			for (int i=0; i<seeds.size(); i++) {
-				int index = sourceNetwork_.getIndexOfNode(seeds.get(i));
+				int index = adjacency_.getIndexOfNode(seeds.get(i));
 				if (outdegrees_[index] < 1)
 					throw new IllegalArgumentException("if numRegulators is greater than 0, the seeds must be regulators");
 			}
 		}
 		
 		// copy the seeds to the subnet
-		ArrayList<Node> subnet = (ArrayList<Node>) seeds.clone();
-		ArrayList<Integer> subnetIndexes = sourceNetwork_.getIndexesFromNodes(subnet);
-
-		myModularityDetector_ = new ModularityDetector(sourceNetwork_);
-		myModularityDetector_.computeModularityMatrix(); // also sets temp_size and temp_B
-		myModularityDetector_.setCurrentSubcommunityS(computeAppartenanceVector(subnetIndexes));
-		double Q = myModularityDetector_.computeModularity();
-		myModularityDetector_.setModularity(Q);
+		SubnetGrowth growth = new SubnetGrowth();
+		for (int i=0; i<seeds.size(); i++)
+			growth.add(adjacency_.getIndexOfNode(seeds.get(i)));
 
 		// print the seeds
-		for (int i=0; i<subnet.size(); i++)
-			log_.log(Level.INFO, "Added seed '" + subnet.get(i).getLabel() + "'");
-		log_.log(Level.INFO, "Modularity Q:\t" + Q);
+		for (int i=0; i<seeds.size(); i++)
+			log_.log(Level.INFO, "Added seed '" + seeds.get(i).getLabel() + "'");
+		log_.log(Level.INFO, "Modularity Q:\t" + growth.getModularity());
 
 		for (int i=seeds.size(); i<subnetSize; i++)
-			addVertexToSubnet(subnet);
+			addVertexToSubnet(growth);
 	
 		// Create the network structure from the list of node labels
-		ImodNetwork output = sourceNetwork_.getSubnetwork(subnetName, subnet);
+		ImodNetwork output = sourceNetwork_.getSubnetwork(subnetName, growth.getSubnet());
 
 		output.setComment("");
 		output.setDirected(sourceNetwork_.isDirected());
@@ -286,128 +350,53 @@ public class SubnetExtractor {
 	// ----------------------------------------------------------------------------
 	
 	/**
-	 * From a Network instance and a group of vertex represented by they label (id),
-	 * this method selects the best neighbor vertex of the given group of vertex
-	 * (following modularity criterion) and add it to this group (core list).
-	 * @param Network - A Network instance
-	 * @param ArrayList<String> - List of vertices id belonging to the Network
-	 * instance.
+	 * Select a neighbor of the subnet based on the modularity criterion and add it to the subnet.
+	 * The neighbors are sorted by the modularity of the subnet after adding them (neighbors with
+	 * the same modularity in random order), the added vertex is drawn uniformly from the top
+	 * fraction given by truncatedSelectionFraction. If the subnet has no neighbors (it is an
+	 * island), all other nodes are considered.
 	 */
-	private void addVertexToSubnet(ArrayList<Node> subnet) {
+	private void addVertexToSubnet(SubnetGrowth growth) {
 		
-		GnwSettings uni = GnwSettings.getInstance();
-
-		// construct the appartenance vector for the subnet and set the current modularity
-		ArrayList<Integer> subnetIndexes = sourceNetwork_.getIndexesFromNodes(subnet);
-		myModularityDetector_.setCurrentSubcommunityS( computeAppartenanceVector(subnetIndexes) );
-		myModularityDetector_.setCurrentSubcommunityQ( myModularityDetector_.getModularity() );
-			
-		ArrayList<Node> neighbors = getNeighbors(subnet);
-		ArrayList<Integer> neighborIndexes;
+		Uniform uniform = GnwSettings.getInstance().getUniformDistribution();
 		
-		// if the number of neighbors is zero, that means the subnet is an island
-		// in that case, we add all other nodes as neighbors
-		if (neighbors.size() == 0) {
-		
-			neighborIndexes = new ArrayList<Integer>();
-			DoubleMatrix1D s = myModularityDetector_.getCurrentSubcommunityS();
-			
-			for (int i=0; i<s.size(); i++)
-				if (s.get(i) == 1)
-					neighborIndexes.add(i);
+		boolean getOnlyRegulators = (numRegulators_ > 0) && (growth.getSize() < numRegulators_);
+		boolean getOnlyNonRegulators = (numRegulators_ > 0) && (growth.getSize() >= numRegulators_);
 		
-		} else
-			neighborIndexes = sourceNetwork_.getIndexesFromNodes(neighbors);
+		Integer[] candidates = growth.getNeighbors(getOnlyRegulators, getOnlyNonRegulators);
 		
-		int numNeighbors = neighborIndexes.size();
-		
-		ArrayList<Double> neighborModularities = new ArrayList<Double>(numNeighbors);
-		// compute the network modularity when adding the neighbor i to the core
-		for (int i=0; i < numNeighbors; i++) {
-			double Q = myModularityDetector_.computeMovingVertexQ(neighborIndexes.get(i));
-			neighborModularities.add(Q); // Save its fitness (modularity)
+		// if the number of neighbors is zero, that means the subnet is an island
+		// in that case, we add all other nodes as neighbors
+		if (candidates.length == 0)
+			candidates = growth.getNodesOutsideSubnet();
+		
+		// shuffle, so that the (stable) sort below puts neighbors with the same modularity in random order
+		for (int i=candidates.length-1; i>0; i--) {
+			int j = uniform.nextIntFromTo(0, i);
+			Integer tmp = candidates[i];
+			candidates[i] = candidates[j];
+			candidates[j] = tmp;
 		}
 		
-		// sort the neighbors according to their modularity
-		sortNeighbors(neighborIndexes, neighborModularities);
-
-//		neighborIndexes.clear();
-//		neighborModularities.clear();
-//		neighborIndexes.add(0);
-//		neighborIndexes.add(1);
-//		neighborIndexes.add(2);
-//		neighborIndexes.add(3);
-//		neighborIndexes.add(4);
-//		neighborIndexes.add(5);
-//		neighborIndexes.add(6);
-//		neighborIndexes.add(7);
-//		neighborIndexes.add(8);
-//		neighborIndexes.add(9);
-//		
-//		neighborModularities.add(1.1);
-//		neighborModularities.add(1.1);
-//		neighborModularities.add(1.1);
-//		neighborModularities.add(3.3);
-//		neighborModularities.add(4.4);
-//		neighborModularities.add(4.4);
-//		neighborModularities.add(4.4);
-//		neighborModularities.add(4.4);
-//		neighborModularities.add(8.8);
-//		neighborModularities.add(9.9);
-//		
-//		sortNeighbors(neighborIndexes, neighborModularities);
-//		for (int i=0; i<neighborIndexes.size(); i++)
-//			System.out.println(neighborIndexes.get(i) + "\t" + neighborModularities.get(i));
-//		
-//		System.exit(0);
+		// sort the neighbors according to the modularity after adding them (descending)
+		final SubnetGrowth g = growth;
+		Arrays.sort(candidates, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				long ga = g.getLoss(a);
+				long gb = g.getLoss(b);
+				return (ga < gb) ? -1 : ((ga > gb) ? 1 : 0);
+			}
+		});
 		
 		// Select a vertex to add
-		int truncationSize = (int)Math.round(truncatedSelectionFraction_ * neighborIndexes.size());
-		// I tested, this works
-		int selectedVertex = uni.getUniformDistribution().nextIntFromTo(0, truncationSize-1);
-
-		// Set the new modularity
-		myModularityDetector_.setModularity( neighborModularities.get(selectedVertex) );
+		int truncationSize = (int)Math.round(truncatedSelectionFraction_ * candidates.length);
+		int selectedVertex = uniform.nextIntFromTo(0, truncationSize-1);
 		
-		// Add the vertex
-		Node vertexAdded = sourceNetwork_.getNode( neighborIndexes.get(selectedVertex) );
-		subnet.add(vertexAdded);
+		// Add the vertex (this also sets the new modularity)
+		int vertexAdded = candidates[selectedVertex];
+		growth.add(vertexAdded);
 		
-		//log.log(Level.INFO, "Selected vertex index: " + selectedVertex + " / " + numNeighbors);
-		log_.log(Level.INFO, "Added node '" + vertexAdded.getLabel() + "', modularity Q:\t" + neighborModularities.get(selectedVertex));
-	}
-	
-	
-	// ----------------------------------------------------------------------------
-	
-	/**
-	 * Sort the map according to the VALUES as opposing to the casual sort done according
-	 * to the KEYS of a map. A special comparator is implemented to sort according to the
-	 * modularity values in descending order. If several entries have the same modularity
-	 * (values), they are ordered randomly.
-	 */
-	private void sortNeighbors(ArrayList<Integer> neighborIndexes, ArrayList<Double> neighborModularities) {
-		
-		// put the values into a map
-		Map<Integer, Double> neighborsMap = new HashMap<Integer, Double>();
-		for (int i=0; i < neighborIndexes.size(); i++)
-			neighborsMap.put(neighborIndexes.get(i), neighborModularities.get(i));
-		
-		// Sort the map (See function comments)
-		DescendingModularitySorting comparator = new DescendingModularitySorting(neighborsMap);
-		TreeMap<Integer, Double> descMap = new TreeMap<Integer, Double>(comparator);
-		descMap.putAll(neighborsMap);		
-		
-		// Put the values back into the array lists
-		neighborIndexes.clear();
-		neighborModularities.clear();
-		Iterator<?> it = descMap.entrySet().iterator();
-	    while (it.hasNext()) {
-			@SuppressWarnings("rawtypes")
-			Map.Entry pairs = (Map.Entry)it.next();
-	    	neighborIndexes.add( (Integer) pairs.getKey() );
-	    	neighborModularities.add( (Double) pairs.getValue() );
-	    }
+		log_.log(Level.INFO, "Added node '" + sourceNetwork_.getNode(vertexAdded).getLabel() + "', modularity Q:\t" + growth.getModularity());
 	}
 	
 	
@@ -422,63 +411,39 @@ public class SubnetExtractor {
 	public ArrayList<Node> getNeighbors(ArrayList<Node> subnet) {
 		
 		ArrayList<Node> neighbors = new ArrayList<Node>();
-		boolean[][] A = sourceNetwork_.getA();
 		
 		boolean getOnlyRegulators = (numRegulators_ > 0) && (subnet.size() < numRegulators_);
 		boolean getOnlyNonRegulators = (numRegulators_ > 0) && (subnet.size() >= numRegulators_);
 		
+		// the nodes that are part of the subnet or have already been added as neighbors
+		boolean[] done = new boolean[adjacency_.getNumNodes()];
+		for (int i=0; i < subnet.size(); i++)
+			done[adjacency_.getIndexOfNode(subnet.get(i))] = true;
+		
 		for (int i=0; i < subnet.size(); i++) {
-			ArrayList<Node> neighborsOfNode_i = new ArrayList<Node>();
-			int node_i = sourceNetwork_.getIndexOfNode(subnet.get(i));
-
-			for (int j=0; j<A.length; j++) {
-    			if (A[j][node_i] && j != node_i) {
-    				// skip node j as potential neighbor if it's a non-regulator and we are
-    				// looking for regulators or vice-versa
-    				if (!((getOnlyRegulators && outdegrees_[j] < 1) ||
-    						(getOnlyNonRegulators && outdegrees_[j] >= 1) )) {
-    					//if (sourceNetwork_.getNode("flhD") != sourceNetwork_.getNode(j) && 
-    						//	sourceNetwork_.getNode("flhC") != sourceNetwork_.getNode(j))
-    						neighborsOfNode_i.add(sourceNetwork_.getNode(j));
-    				}
-    			}
-			}
-			
-			for (int j=0; j < neighborsOfNode_i.size(); j++) {
-				if (!neighbors.contains(neighborsOfNode_i.get(j)))
-					neighbors.add(neighborsOfNode_i.get(j));
+			int node_i = adjacency_.getIndexOfNode(subnet.get(i));
+			// the nodes connected to node i by a link in either direction (sorted by index)
+			int[] neighborsOfNode_i = adjacency_.getNeighbors(node_i);
+
+			for (int k=0; k<neighborsOfNode_i.length; k++) {
+				int j = neighborsOfNode_i[k];
+				if (done[j])
+					continue;
+				
+				// skip node j as potential neighbor if it's a non-regulator and we are
+				// looking for regulators or vice-versa
+				if (!((getOnlyRegulators && outdegrees_[j] < 1) ||
+						(getOnlyNonRegulators && outdegrees_[j] >= 1) )) {
+					neighbors.add(sourceNetwork_.getNode(j));
+					done[j] = true;
+				}
 			}
 		}
 		
-		// remove all neighbors that belong to pool
-		for (int i=0; i < subnet.size(); i++)
-			if (neighbors.contains(subnet.get(i)))
-				neighbors.remove(subnet.get(i));
-		
 		return neighbors;
 	}
 	
 	
-	// ----------------------------------------------------------------------------
-
-	/**
-	 * Computes the appartenance vector s, where element s_i = -1 if node i is part
-	 * of the subnet of the source network, and s_i = 1 if not.
-	 * @param subnet - ArrayList<Integer> of all vertices of the subnet.
-	 */
-	private DoubleMatrix1D computeAppartenanceVector(ArrayList<Integer> subnet) {
-		
-		// initialize the appartenance vector s
-		DoubleMatrix1D s = new DenseDoubleMatrix1D(sourceNetwork_.getSize());
-		s.assign(1);
-		// change all elements of the subnet
-		for (int i=0; i < subnet.size(); i++)
-			s.set(subnet.get(i), -1);
-		
-		return s;
-	}
-	
-	
 	// ----------------------------------------------------------------------------
 
 	private ArrayList<ArrayList<Node>> sampleSeedsFromStronglyConnectedComponents(int numSubnets) {
@@ -541,42 +506,125 @@ public class SubnetExtractor {
 	// PRIVATE CLASS
 
 	/**
-	 * Maps are usually sorted by keys, first of the two elements that compose
-	 * an entry. This class allow to sort a map according to its values.
-	 * Furthermore, if several entries have the same value, a standard sorting
-	 * on the key would keep only one entry corresponding to this value and remove
-	 * all the others. Here  are kept
-	 * and are sorted in random order.
+	 * State of the greedy growth of one subnet. The modularity Q of the division of the
+	 * (undirected) source network into the subnet and the rest, and the loss of modularity
+	 * when a node is added, are computed from the degrees and the number of links of every
+	 * node to the subnet, which are updated for the neighbors of a node when it is added.
+	 * This gives the same values as ModularityDetector.computeModularity() and
+	 * computeMovingVertexQ(), without the dense modularity matrix.
+	 * 
+	 * With the appartenance vector s (s_i = -1 if node i is part of the subnet, 1 if not),
+	 * Q = 1/(4m) sum_ij B_ij s_i s_j, where B_ij = A_ij - k_i k_j / (2m). Thus Q = (2m (K - 4c) - K_s^2) / (8m^2),
+	 * where K = sum_i k_i, K_s = sum_i k_i s_i and c is the number of links between the subnet and
+	 * the rest. Moving node v into the subnet changes Q by -1/m sum_{i!=v} B_iv s_i =
+	 * -(2m (k_v - 2 e_v) - k_v K_s + k_v^2) / (2m^2), where e_v is the number of neighbors of v in the
+	 * subnet. The numerators are integers, thus neighbors are compared exactly (getLoss()) and
+	 * rounding errors don't accumulate.
 	 */
-	private class DescendingModularitySorting implements Comparator<Integer> {
-
-		private Map<Integer, Double> base_map;
-		private Uniform uniform_;
-
-		public DescendingModularitySorting(Map<Integer, Double> base_map) {
-			this.base_map = base_map;
-			uniform_ = GnwSettings.getInstance().getUniformDistribution();
+	private class SubnetGrowth {
+		
+		/** The nodes of the subnet in the order they were added */
+		private ArrayList<Node> subnet_;
+		/** Set true for the nodes of the subnet */
+		private boolean[] inSubnet_;
+		/** The number of neighbors in the subnet of every node (links in either direction) */
+		private int[] numLinksToSubnet_;
+		/** The neighbors of the subnet, i.e., nodes with a link to the subnet that are not part of it */
+		private ArrayList<Integer> neighbors_;
+		/** Position of every node in neighbors_, -1 if it's not a neighbor */
+		private int[] neighborPosition_;
+		/** K_s = sum_i k_i s_i */
+		private long Ks_;
+		/** The number of links between the subnet and the rest of the network */
+		private long cut_;
+		
+		/** Constructor, the subnet is empty */
+		public SubnetGrowth() {
+			
+			int size = adjacency_.getNumNodes();
+			subnet_ = new ArrayList<Node>();
+			inSubnet_ = new boolean[size];
+			numLinksToSubnet_ = new int[size];
+			neighbors_ = new ArrayList<Integer>();
+			neighborPosition_ = new int[size];
+			Arrays.fill(neighborPosition_, -1);
+			
+			// all nodes have s_i = 1
+			Ks_ = totalDegree_;
+			cut_ = 0;
 		}
-
-		public int compare(Integer arg0, Integer arg1) {
-
-			if(!base_map.containsKey(arg0) || !base_map.containsKey(arg1))
-				return 0;
-
-			Double d0 = (Double) base_map.get(arg0);
-			Double d1 = (Double) base_map.get(arg1);
-
-			if (d0 + 1e-12 > d1 && d0 - 1e-12 < d1) // doesn't violate general contract
-				return uniform_.nextBoolean() ? 1 : -1;
-			else if (d0 < d1)
-				return 1;
-			else if (d0 > d1)
-				return -1;
-			else {
-				assert false;
-				return 0;
+		
+		/** Add the node v to the subnet and update the modularity */
+		public void add(int v) {
+			
+			if (inSubnet_[v])
+				throw new IllegalArgumentException("SubnetExtractor: node " + sourceNetwork_.getNode(v).getLabel() + " is already part of the subnet");
+			
+			Ks_ -= 2*degrees_[v];
+			cut_ += degrees_[v] - 2*numLinksToSubnet_[v];
+			inSubnet_[v] = true;
+			subnet_.add(sourceNetwork_.getNode(v));
+			removeNeighbor(v);
+			
+			int[] neighbors = adjacency_.getNeighbors(v);
+			for (int k=0; k<neighbors.length; k++) {
+				int i = neighbors[k];
+				numLinksToSubnet_[i]++;
+				if (!inSubnet_[i] && neighborPosition_[i] == -1) {
+					neighborPosition_[i] = neighbors_.size();
+					neighbors_.add(i);
+				}
+			}
+		}
+		
+		/** Return the loss of modularity when node v is added to the subnet, times 2m^2 */
+		public long getLoss(int v) {
+			
+			long k = degrees_[v];
+			return 2*m_*(k - 2*numLinksToSubnet_[v]) - k*Ks_ + k*k;
+		}
+		
+		/** Return the neighbors of the subnet, only regulators or non-regulators if specified */
+		public Integer[] getNeighbors(boolean onlyRegulators, boolean onlyNonRegulators) {
+			
+			ArrayList<Integer> neighbors = new ArrayList<Integer>(neighbors_.size());
+			for (int k=0; k<neighbors_.size(); k++) {
+				int j = neighbors_.get(k);
+				if (!((onlyRegulators && outdegrees_[j] < 1) || (onlyNonRegulators && outdegrees_[j] >= 1)))
+					neighbors.add(j);
 			}
+			return neighbors.toArray(new Integer[neighbors.size()]);
 		}
+		
+		/** Return all nodes that are not part of the subnet */
+		public Integer[] getNodesOutsideSubnet() {
+			
+			Integer[] nodes = new Integer[inSubnet_.length - subnet_.size()];
+			int n = 0;
+			for (int i=0; i<inSubnet_.length; i++)
+				if (!inSubnet_[i])
+					nodes[n++] = i;
+			return nodes;
+		}
+		
+		/** Remove node v from the neighbors (the last neighbor takes its place) */
+		private void removeNeighbor(int v) {
+			
+			int position = neighborPosition_[v];
+			if (position == -1)
+				return;
+			
+			int last = neighbors_.remove(neighbors_.size()-1);
+			if (last != v) {
+				neighbors_.set(position, last);
+				neighborPosition_[last] = position;
+			}
+			neighborPosition_[v] = -1;
+		}
+		
+		public ArrayList<Node> getSubnet() { return subnet_; }
+		public int getSize() { return subnet_.size(); }
+		public double getModularity() { return (2*m_*(totalDegree_ - 4*cut_) - Ks_*(double)Ks_) / (8.0*m_*m_); }
 	}
 	
 }
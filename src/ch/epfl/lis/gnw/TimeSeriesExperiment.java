@@ -26,7 +26,6 @@ THE SOFTWARE.
 
 package ch.epfl.lis.gnw;
 
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -36,7 +35,6 @@ import java.util.logging.Level;
 import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.DoubleMatrix2D;
 import cern.colt.matrix.impl.DenseDoubleMatrix1D;
-import cern.colt.matrix.impl.DenseDoubleMatrix2D;
 
 
 /** Time course experiments, see documentation for details.
@@ -105,7 +103,7 @@ public class TimeSeriesExperiment extends Experiment {
 		expAvg.setNumExperiments(1);
 		
 		ArrayList<DoubleMatrix2D> ts = new ArrayList<DoubleMatrix2D>();
-		DoubleMatrix2D avg = new DenseDoubleMatrix2D(timePoints_.size(), numGenes_);
+		DoubleMatrix2D avg = newDataMatrix(timePoints_.size(), numGenes_);
 		ts.add(avg);
 		expAvg.setTimeSeries(ts);
 		
@@ -150,15 +148,42 @@ public class TimeSeriesExperiment extends Experiment {
 		}
 		
 		// create and run the time series experiments
-		for (int i=0; i<numExperiments_; i++) {
-			log_.log(Level.INFO, "Simulating time-series number " + (i+1) + " ...");
-			integrate(i);
+		if (canRunAsEnsemble()) {
+			integrateAsEnsemble();
+		} else if (canRunConcurrently()) {
+			integrateConcurrently();
+		} else {
+			for (int i=0; i<numExperiments_; i++) {
+				log_.log(Level.INFO, "Simulating time-series number " + (i+1) + " ...");
+				RandomStream previous = bindRandomStream(i);
+				try {
+					addTimeSeries(integrate(i, grn_, perturbation_));
+				} finally {
+					RandomStream.restore(previous);
+				}
+			}
 		}
 		log_.log(Level.INFO, "");
 		
 	}
 	
 	
+	// ----------------------------------------------------------------------------
+	
+	/** 
+	 * Write the expression data row by row (same rows as expressionMatrixToString()).
+	 * Must be same order as experiment definitions in Condition.experimentDefsToString()
+	 */
+	public void writeExpressionMatrix(ExpressionMatrixWriter writer) throws IOException {
+		
+		// For every time point
+		for (int t=0; t<timePoints_.size(); t++)
+			// For every repeat
+			for (int r=0; r<repeatsPerTimePoint_.get(t); r++)
+				writer.writeRow(timeSeries_.get(r), t);
+	}
+	
+	
 	// ----------------------------------------------------------------------------
 	
 	/** 
@@ -193,7 +218,7 @@ public class TimeSeriesExperiment extends Experiment {
 					String[] row = new String[numGenes_];
 				
 					for (int g=0; g<numGenes_; g++)
-						row[g] = String.format("%.7f", timeSeries_.get(r).get(t, g)); //Double.toString(timeSeries_.get(r).get(t, g));
+						row[g] = NumberFormatter.format(timeSeries_.get(r).get(t, g), 7);
 				
 					expressionMatrix.add(row);
 				}
@@ -281,16 +306,63 @@ public class TimeSeriesExperiment extends Experiment {
 	/** 
 	 * Print all the trajectories to a single file, the initial conditions are printed
 	 * to a separate file. Protein trajectories are only printed if translation is
-	 * modelled. Append the given string to the filenames (e.g. "-nonoise"). 
+	 * modelled. Append the given string to the filenames (e.g. "-nonoise"). Depending on
+	 * the setting binaryOutput, the data is saved in TSV files and/or in a binary dataset.
 	 */
 	public void printAll(String directory, String postfix) {
 		
 		if (timeSeries_.size() < 1)
 			return;
 		
-		printTrajectories(directory, postfix + "_" + label_, timeSeries_);    // print mRNA time courses
-		if (modelTranslation_)
-			printTrajectories(directory, postfix + "_proteins_" + label_, timeSeriesProteins_); // print protein time courses
+		GnwSettings set = GnwSettings.getInstance();
+		
+		if (set.getOutputTsv()) {
+			printTrajectories(directory, postfix + "_" + label_, timeSeries_);    // print mRNA time courses
+			if (modelTranslation_)
+				printTrajectories(directory, postfix + "_proteins_" + label_, timeSeriesProteins_); // print protein time courses
+		}
+		if (set.getOutputBinary())
+			printBinary(directory + grn_.getId() + postfix + "_" + label_ + BinaryDatasetWriter.EXTENSION);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * Save the trajectories in a binary dataset (see BinaryDatasetWriter), one block per
+	 * time series ("mRNA_1", "mRNA_2", etc.). If translation is modelled, the protein
+	 * trajectories follow ("proteins_1", etc.).
+	 */
+	public void printBinary(String filename) {
+		
+		BinaryDatasetWriter writer = null;
+		try {
+			log_.log(Level.INFO, "Writing file " + filename);
+			writer = new BinaryDatasetWriter(filename, grn_.getHeaderArray(), new String[0], GnwSettings.getInstance().getSinglePrecisionStorage());
+			
+			double[] times = new double[timePoints_.size()];
+			Iterator<Integer> iter = timePoints_.iterator();
+			for (int tp=0; tp<times.length; tp++)
+				times[tp] = iter.next();
+			
+			for (int i=0; i<timeSeries_.size(); i++)
+				writer.writeBlock("mRNA_" + (i+1), noiseHasBeenAdded_, times, null, timeSeries_.get(i));
+			
+			if (modelTranslation_)
+				for (int i=0; i<timeSeriesProteins_.size(); i++)
+					writer.writeBlock("proteins_" + (i+1), noiseHasBeenAdded_, times, null, timeSeriesProteins_.get(i));
+			
+			writer.close();
+			writer = null;
+			
+		} catch (IOException fe) {
+			log_.log(Level.WARNING, "TimeSeriesExperiment:printBinary(): " + fe.getMessage(), fe);
+			throw new RuntimeException();
+		} finally {
+			// delete the partial file
+			if (writer != null)
+				writer.abort();
+		}
 	}
 
 	
@@ -318,10 +390,198 @@ public class TimeSeriesExperiment extends Experiment {
 	// PRIVATE FUNCTIONS
 		
 	/**
-	 * Run the numerical integration of the k'th time-series and add the results to timeSeries_ and timeSeriesProteins_.
-	 * The wild-type is restored after the experiments.
+	 * Run the time-series concurrently (see canRunConcurrently()), every task works on a replica
+	 * of the network. The results are added in the same order as if they were run one after the other.
+	 */
+	private void integrateConcurrently() {
+		
+		final DoubleMatrix2D[][] results = new DoubleMatrix2D[numExperiments_][];
+		
+		try {
+			ExperimentExecutor.run(numExperiments_, new ExperimentExecutor.Task() {
+				public void run(int i) throws Exception {
+					log_.log(Level.INFO, "Simulating time-series number " + (i+1) + " ...");
+					GeneNetwork grn;
+					synchronized (grn_) {
+						grn = grn_.createReplica();
+					}
+					RandomStream previous = bindRandomStream(i);
+					try {
+						results[i] = integrate(i, grn, perturbation_.copy(grn));
+					} finally {
+						RandomStream.restore(previous);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		
+		for (int i=0; i<numExperiments_; i++)
+			addTimeSeries(results[i]);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Run all time-series together as an ensemble (SDEs only, see SdeEnsemble). As in integrate(),
+	 * every time-series first simulates the wild type for mintSDE to get an independent sample,
+	 * then the perturbation is applied. Every time-series draws from its own random stream during
+	 * both phases, the results are thus the same as with integrate(). The perturbations are applied
+	 * to a replica of the network, grn_ is never perturbed.
+	 */
+	private void integrateAsEnsemble() {
+		
+		if (xy0_ == null)
+			throw new RuntimeException("No initial condition set");
+		if (timePoints_ == null || timePoints_.size() == 0)
+			throw new RuntimeException("No time points set");
+		
+		log_.log(Level.INFO, "Simulating " + numExperiments_ + " time-series as an ensemble ...");
+		
+		GnwSettings set = GnwSettings.getInstance();
+		SdeIntegrator.Scheme scheme = SdeIntegrator.getSchemeFromSettings();
+		int dt = set.getDt(); // step size of the solvers (not integration step size)
+		double t = 0;
+		
+		// the parameters of the perturbed replica are copied into the ensemble, grn_ is never perturbed
+		GeneNetwork grn;
+		synchronized (grn_) {
+			grn = grn_.createReplica();
+		}
+		Perturbation perturbation = perturbation_.copy(grn);
+		SdeEnsemble ensemble = new SdeEnsemble(grn.getKernel(), numExperiments_, modelTranslation_, scheme, set.getTimeStepSDE(), dt);
+		
+		// simulate the wild-type for a short time to get a new independent sample for every time-series
+		for (int k=0; k<numExperiments_; k++)
+			ensemble.addMember(grn.getKernel(), xy0_.toArray(), getRandomStream(k).getNormalDistribution());
+		
+		try {
+			double tlim = set.getMintSDE();
+			do {
+				t += ensemble.step();
+			} while (t < tlim);
+			
+			for (int k=0; k<numExperiments_; k++) {
+				perturbation.applyPerturbation(k);
+				ensemble.setParameters(k, grn.getKernel());
+				perturbation.restoreWildType();
+			}
+		} catch (Exception e) {
+			log_.log(Level.WARNING, "TimeSeriesExperiment.integrateAsEnsemble(): Exception in phase 0, t = " + t + ":" + e.getMessage(), e);
+			throw new RuntimeException();
+		}
+		
+		// allocate space, the first line is the initial condition (at t=0)
+		DoubleMatrix2D[] ts = new DoubleMatrix2D[numExperiments_];
+		DoubleMatrix2D[] tsProteins = new DoubleMatrix2D[numExperiments_];
+		double[] xy = new double[modelTranslation_ ? 2*numGenes_ : numGenes_];
+		int pt = 0;
+		
+		for (int k=0; k<numExperiments_; k++) {
+			ts[k] = newDataMatrix(timePoints_.size(), numGenes_);
+			if (modelTranslation_)
+				tsProteins[k] = newDataMatrix(timePoints_.size(), numGenes_);
+		}
+		if (timePoints_.first() == 0) {
+			saveTimePoint(ts, tsProteins, pt, xy0_.toArray(), -1);
+			pt++;
+		}
+		
+		t = 0; // reset time, the time-series only really starts here
+		double tlimWildType = timePoints_.last()/2.0 - 1e-12;
+		boolean wildTypeRestored = false;
+		
+		Iterator<Integer> iter = timePoints_.iterator();
+		// If the first point is 0, we have taken care of that above and skip it
+		if (pt == 1)
+			iter.next();
+		
+		while (iter.hasNext()) {
+			
+			double t1 = t;
+			double t2 = iter.next();
+			
+			do {
+				try {
+					t += ensemble.step();
+					
+					if (t == t1 + dt)
+						t1 = t;
+					else
+						throw new RuntimeException("Solver failed to step time by dt, expected t = " + (t1+dt) + ", obtained t = " + t);
+					
+				} catch (Exception e) {
+					log_.log(Level.WARNING, "TimeSeriesExperiment.integrateAsEnsemble(): Exception at t = " + t + ":" + e.getMessage(), e);
+					throw new RuntimeException();
+				}
+			} while (t < t2 - 1e-12);
+			
+			if (t > t2 + 1e-12)
+				throw new RuntimeException("Time points must be a multiple of the step size. Attempting to step to time point " + t2 + " failed: t = " + t);
+			
+			// the perturbations are not applied to grn_, its kernel has the wild-type parameters
+			if (restoreWildTypeAtHalftime_ && t >= tlimWildType && !wildTypeRestored) {
+				for (int k=0; k<numExperiments_; k++)
+					ensemble.setParameters(k, grn_.getKernel());
+				wildTypeRestored = true;
+			}
+			
+			for (int k=0; k<numExperiments_; k++) {
+				ensemble.getState(k, xy);
+				saveTimePoint(ts, tsProteins, pt, xy, k);
+			}
+			pt++;
+		}
+		
+		assert pt == timePoints_.size();
+		
+		for (int k=0; k<numExperiments_; k++)
+			addTimeSeries(new DoubleMatrix2D[] {ts[k], tsProteins[k]});
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Save the state xy at line pt of the k'th time-series (of all time-series if k is -1) */
+	private void saveTimePoint(DoubleMatrix2D[] ts, DoubleMatrix2D[] tsProteins, int pt, double[] xy, int k) {
+		
+		int first = (k == -1) ? 0 : k;
+		int last = (k == -1) ? ts.length-1 : k;
+		
+		for (int l=first; l<=last; l++) {
+			for (int g=0; g<numGenes_; g++)
+				ts[l].set(pt, g, xy[g]);
+			
+			if (modelTranslation_)
+				for (int g=0; g<numGenes_; g++)
+					tsProteins[l].set(pt, g, xy[numGenes_+g]);
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Add the result of integrate() to timeSeries_ and timeSeriesProteins_ */
+	private void addTimeSeries(DoubleMatrix2D[] result) {
+		
+		timeSeries_.add(result[0]);
+		if (modelTranslation_)
+			timeSeriesProteins_.add(result[1]);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Run the numerical integration of the k'th time-series on the given network (grn_ or a replica),
+	 * return the mRNA and protein (null if translation is not modelled) time-series. The wild-type is
+	 * restored after the experiments.
 	 */
-	private void integrate(int k) {
+	private DoubleMatrix2D[] integrate(int k, GeneNetwork grn, Perturbation perturbation) {
 
 		//if (GnwSettings.getInstance().getDt()*(numTimePoints_-1) != maxt_)
 			//throw new RuntimeException("dt * (numTimePoints-1) != maxt");
@@ -334,12 +594,12 @@ public class TimeSeriesExperiment extends Experiment {
 			//throw new IllegalArgumentException("Duration (maxt) must be greater than 0!");
 		
 		// allocate space
-		DoubleMatrix2D ts = new DenseDoubleMatrix2D(timePoints_.size(), numGenes_);
+		DoubleMatrix2D ts = newDataMatrix(timePoints_.size(), numGenes_);
 		DoubleMatrix2D tsProteins = null;
 		if (modelTranslation_)
-			tsProteins = new DenseDoubleMatrix2D(timePoints_.size(), numGenes_);
+			tsProteins = newDataMatrix(timePoints_.size(), numGenes_);
 
-		Solver solver = new Solver(solverType_, grn_, xy0_.toArray());
+		Solver solver = new Solver(solverType_, grn, xy0_.toArray());
 		double t = 0;
 		
 		// for SDEs, simulate the wild-type for a short time to get a new independent sample
@@ -372,7 +632,7 @@ public class TimeSeriesExperiment extends Experiment {
 		}
 		
 		// apply perturbation
-		perturbation_.applyPerturbation(k);
+		perturbation.applyPerturbation(k);
 		t = 0; // reset time, the time-series only really starts here
 		int dt = GnwSettings.getInstance().getDt(); // step size of the solvers (not integration step size)
 		
@@ -402,7 +662,7 @@ public class TimeSeriesExperiment extends Experiment {
 			do {
 				try {
 					// For ODEs: this steps the time by dt_, but using an adaptive internal step size
-					// to guarantee the specified tolerance (getRate() may be called several times for one step)
+					// to guarantee the specified tolerance (the state at t is interpolated, see Solver)
 					// For SDEs: this steps the time by dt_, the solver integrates with a smaller, fixed step size
 					// defined in SDESettings by dt_*multiplier_ (SDESettings.dt_ != TimeSeriesExperiment.dt_)
 					t += solver.step();
@@ -423,7 +683,9 @@ public class TimeSeriesExperiment extends Experiment {
 				throw new RuntimeException("Time points must be a multiple of the step size. Attempting to step to time point " + t2 + " failed: t = " + t);
 			
 			if (restoreWildTypeAtHalftime_ && t >= tlim && !wildTypeRestored) {
-				perturbation_.restoreWildType();
+				perturbation.restoreWildType();
+				// the ODE solver may have stepped beyond t with the perturbed parameters
+				solver.parametersChanged();
 				wildTypeRestored = true;
 			}
 			
@@ -444,17 +706,13 @@ public class TimeSeriesExperiment extends Experiment {
 		
 		// make sure the wild-type is restored
 		if (!wildTypeRestored)
-			perturbation_.restoreWildType();
-		
-		// add the new time-series data to the array lists
-		timeSeries_.add(ts);
-		if (modelTranslation_)
-			timeSeriesProteins_.add(tsProteins);
+			perturbation.restoreWildType();
 		
 		//getSDESolver()
 		//if (solverType_ == Solver.type.SDE && solver.getXNegativeCounter() > 0)
 			//log_.log(Level.INFO, "SDE: " + solver.getXNegativeCounter() + " times a concentration became negative due to noise and was set to 0");
 
+		return new DoubleMatrix2D[] {ts, tsProteins};
 	}
 
 	
@@ -470,37 +728,37 @@ public class TimeSeriesExperiment extends Experiment {
 		try { 
 			// Filename
 			String filename = directory + grn_.getId() + postfix + ".tsv";
-			FileWriter fw = new FileWriter(filename, false);
+			TsvWriter writer = new TsvWriter(filename);
 			
 			// Header
-			fw.write("\"Time\"\t");
-			fw.write(grn_.getHeader(false));
+			writer.write("\"Time\"");
+			String[] header = grn_.getHeaderArray();
+			for (int g=0; g<header.length; g++)
+				writer.write(header[g]);
+			writer.endRow();
 
 			// For every time series...
 			for (int i=0; i<timeSeries.size(); i++) {
 
 				// The data
 				DoubleMatrix2D data = timeSeries.get(i);
-				//double dt = GnwSettings.getInstance().getDt();
 
-				fw.write("\n");
+				writer.endRow();
 				
 				Iterator<Integer> iter = timePoints_.iterator();
 				int tp = 0;
 				
-				//for (int tp=0; tp<timePoints_.size(); tp++) {
 				while (iter.hasNext()) {
-					//fw.write(Double.toString(tp*dt));
-					fw.write(iter.next().toString());
+					writer.write(iter.next().toString());
 
 					for (int g=0; g<numGenes_; g++)
-						fw.write("\t" + String.format("%.7f", data.get(tp, g))); //Double.toString(data.get(tp, g)));
-					fw.write("\n");
+						writer.writeDouble(data.get(tp, g), 7);
+					writer.endRow();
 					tp++;
 				}
 			}
 
-			fw.close();
+			writer.close();
 			log_.log(Level.INFO, "Writing file " + filename);
 
 		} catch (IOException fe) {
@@ -575,7 +833,7 @@ public class TimeSeriesExperiment extends Experiment {
 		if (timeSeries_ == null) {
 			timeSeries_ = new ArrayList<DoubleMatrix2D>();
 			for (int i=0; i<numExperiments_; i++) {
-				DoubleMatrix2D tsi = new DenseDoubleMatrix2D(timePoints_.size(), numGenes_);
+				DoubleMatrix2D tsi = newDataMatrix(timePoints_.size(), numGenes_);
 				tsi.assign(-1);
 				timeSeries_.add(tsi);
 			}
@@ -0,0 +1,188 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/** 
+ * Writes a TSV file row by row, in the same format as Parser.writeTSV(). The fields are written
+ * into a reusable byte buffer, which is written to the file when it is full or when flush() is
+ * called. Doubles are formatted directly into the buffer (see NumberFormatter). Use this
+ * instead of Parser.writeTSV() when the data is too large to be converted to strings at once.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ */
+public class TsvWriter {
+	
+	/** The output stream of the file */
+	private OutputStream out_ = null;
+	/** The buffer */
+	private byte[] buffer_ = null;
+	/** The number of bytes in the buffer */
+	private int length_ = 0;
+	/** True if the next field is the first of its row (no tab before it) */
+	private boolean firstField_ = true;
+	
+	/** The size of the buffer */
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor, create (or overwrite) the given file */
+	public TsvWriter(String filename) throws IOException {
+		
+		out_ = new FileOutputStream(filename, false);
+		buffer_ = new byte[BUFFER_SIZE];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Write the given string as the next field of the current row */
+	public void write(String field) throws IOException {
+		
+		startField();
+		
+		int n = field.length();
+		boolean ascii = true;
+		for (int i=0; i<n && ascii; i++)
+			ascii = field.charAt(i) < 128;
+		
+		if (!ascii) {
+			writeBytes(field.getBytes());
+			return;
+		}
+		
+		for (int i=0; i<n; i++) {
+			if (length_ == buffer_.length)
+				flush();
+			buffer_[length_++] = (byte) field.charAt(i);
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Write the given double as the next field of the current row, with the given number of
+	 * decimals (at most NumberFormatter.MAX_DECIMALS), see NumberFormatter
+	 */
+	public void writeDouble(double x, int decimals) throws IOException {
+		
+		startField();
+		
+		if (buffer_.length - length_ < NumberFormatter.MAX_LENGTH)
+			flush();
+		length_ = NumberFormatter.format(x, decimals, buffer_, length_);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Write all given fields as one row */
+	public void writeRow(String[] fields) throws IOException {
+		
+		for (int i=0; i<fields.length; i++)
+			write(fields[i]);
+		endRow();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Terminate the current row */
+	public void endRow() throws IOException {
+		
+		if (length_ == buffer_.length)
+			flush();
+		buffer_[length_++] = '\n';
+		firstField_ = true;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Write the content of the buffer to the file */
+	public void flush() throws IOException {
+		
+		out_.write(buffer_, 0, length_);
+		length_ = 0;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Flush the buffer and close the file */
+	public void close() throws IOException {
+		
+		try {
+			flush();
+		} finally {
+			out_.close();
+		}
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Write a tab unless this is the first field of the row */
+	private void startField() throws IOException {
+		
+		if (firstField_) {
+			firstField_ = false;
+			return;
+		}
+		if (length_ == buffer_.length)
+			flush();
+		buffer_[length_++] = '\t';
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Write the given bytes */
+	private void writeBytes(byte[] bytes) throws IOException {
+		
+		if (buffer_.length - length_ < bytes.length)
+			flush();
+		
+		if (bytes.length > buffer_.length) {
+			out_.write(bytes);
+		} else {
+			System.arraycopy(bytes, 0, buffer_, length_, bytes.length);
+			length_ += bytes.length;
+		}
+	}
+	
+}
@@ -75,11 +75,11 @@ public class BackgroundPrediction extends NetworkPrediction {
 				if (i == j && !predictAutoregulatoryInteractions)
 					continue;
 				
-				if (A_[i][j])
+				if (A_.get(i, j))
 					trueEdges_.add(R_[i][j]);
-				else if (!A_[i][j] && A_[j][i])
+				else if (!A_.get(i, j) && A_.get(j, i))
 					backEdges_.add(R_[i][j]);
-				else if (!A_[i][j] && !A_[j][i])
+				else if (!A_.get(i, j) && !A_.get(j, i))
 					absentEdges_.add(R_[i][j]);
 				else
 					assert false;
@@ -31,6 +31,7 @@ import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import ch.epfl.lis.gnw.ExperimentExecutor;
 import ch.epfl.lis.gnwgui.NetworkDesktop;
 import ch.epfl.lis.imod.ImodNetwork;
 
@@ -121,9 +122,16 @@ public class BatchPerformanceEvaluator {
     	if (predictionFiles.size() != 0 && predictionFiles.size() != evaluators_.size())
     		log_.log(Level.WARNING, "The number of predictions doesn't match the number of gold standards");
     	    	
-    	for (int i=0; i<predictionFiles.size(); i++)
-    		evaluators_.get(i).loadPrediction( predictionFiles.get(i), predictAutoregulatoryInteractions );
-    		
+    	// the prediction files are loaded concurrently if several threads are used
+    	final ArrayList<URL> files = predictionFiles;
+    	final boolean autoregulatory = predictAutoregulatoryInteractions;
+    	ExperimentExecutor.Task task = new ExperimentExecutor.Task() {
+    		public void run(int i) {
+    			evaluators_.get(i).loadPrediction( files.get(i), autoregulatory );
+    		}
+    	};
+    	
+    	ExperimentExecutor.runUnchecked(predictionFiles.size(), task);
     }
 
     
@@ -134,8 +142,15 @@ public class BatchPerformanceEvaluator {
      */
     public void run() {
     	
-    	for (int i=0; i<evaluators_.size(); i++)
-    		evaluators_.get(i).run();
+    	// The evaluators are run concurrently if several threads are used, the results
+    	// are then collected in the order of the gold standards by the analyzers below
+    	ExperimentExecutor.Task task = new ExperimentExecutor.Task() {
+    		public void run(int i) {
+    			evaluators_.get(i).run();
+    		}
+    	};
+    	
+    	ExperimentExecutor.runUnchecked(evaluators_.size(), task);
     	
     	if (networkMotifAnalysis_ || edgeTypeAnalysis_)
     		backgroundAnalyzer_ = new BackgroundAnalysis(evaluators_);
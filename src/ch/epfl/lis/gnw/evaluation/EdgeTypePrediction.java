@@ -27,15 +27,9 @@ THE SOFTWARE.
 package ch.epfl.lis.gnw.evaluation;
 
 import java.io.FileWriter;
-import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import ch.epfl.lis.gnw.HillGene;
-import ch.epfl.lis.gnw.RegulatoryModule;
-import ch.epfl.lis.networks.Edge;
-import ch.epfl.lis.networks.Structure;
-
 
 /** Analyzes the prediction performance per network motif
  * 
@@ -77,7 +71,7 @@ public class EdgeTypePrediction extends NetworkPrediction {
     /** Copy constructor */
     public EdgeTypePrediction(NetworkPrediction c) {
     	super(c);	
-    	init(goldStandard_);
+    	init();
     }
 
     
@@ -91,12 +85,11 @@ public class EdgeTypePrediction extends NetworkPrediction {
     	
     	int numEdges = goldStandard_.getNumEdges();
     	
+    	int[] sources = index_.getEdgeSources();
+    	int[] targets = index_.getEdgeTargets();
+    	
     	for (int i=0; i<numEdges; i++) {
-    		Edge edge = goldStandard_.getEdge(i);
-			int source = goldStandard_.getIndexOfNode(edge.getSource());
-			int target = goldStandard_.getIndexOfNode(edge.getTarget());
-			
-			double rank = R_[target][source];
+			double rank = R_[targets[i]][sources[i]];
 			int truePositive = 0;
 			if (rank <= numEdges)
 				truePositive = 1;
@@ -116,12 +109,11 @@ public class EdgeTypePrediction extends NetworkPrediction {
     	
     	int numEdges = goldStandard_.getNumEdges();
     	
+    	int[] sources = index_.getEdgeSources();
+    	int[] targets = index_.getEdgeTargets();
+    	
     	for (int i=0; i<numEdges; i++) {
-    		Edge edge = goldStandard_.getEdge(i);
-			int source = goldStandard_.getIndexOfNode(edge.getSource());
-			int target = goldStandard_.getIndexOfNode(edge.getTarget());
-			
-			double rank = R_[target][source];
+			double rank = R_[targets[i]][sources[i]];
 			int truePositive = 0;
 			if (rank <= numEdges)
 				truePositive = 1;
@@ -176,65 +168,24 @@ public class EdgeTypePrediction extends NetworkPrediction {
 	// PRIVATE METHODS
 
     /**
-     * Initialize rankVsDegree_, rankVsRegulatoryEffects_
+     * Initialize rankVsDegree_, rankVsRegulatoryEffects_ (the degrees of the edges are taken from
+     * the index of the gold standard, the regulatory effects are computed from its genes)
      */
-    private void init(Structure goldStandard) {
+    private void init() {
     	    	
-    	int numEdges = goldStandard.getNumEdges();
+    	int numEdges = index_.getEdgeSources().length;
     	rankVsDegree_ = new double[numEdges][4];
     	rankVsRegulatoryEffects_ = new double[numEdges][9];
     	
+    	double[][] effects = GoldStandardIndex.computeRegulatoryEffects(goldStandard_);
+    	int[] sources = index_.getEdgeSources();
+    	int[] targets = index_.getEdgeTargets();
+    	
 		for (int i=0; i<numEdges; i++) {
-			Edge edge = goldStandard.getEdge(i);
-			HillGene source = (HillGene) edge.getSource();
-			HillGene target = (HillGene) edge.getTarget();
-
-			int numInputs = target.getInputGenes().size();
-			int inputIndexOfThisEdge = target.getInputGenes().indexOf(source);
-			int moduleOfThisEdge = -1;
-			ArrayList<RegulatoryModule> modules = target.getRegulatoryModules();
-			int lastGeneOfThisModule = -1;
-			
-			for (int m=0; m<modules.size(); m++) {
-				lastGeneOfThisModule += modules.get(m).getNumInputs();
-				if (inputIndexOfThisEdge <= lastGeneOfThisModule) {
-					moduleOfThisEdge = m;
-					break;
-				}
-			}
-			assert moduleOfThisEdge != -1;
-			
-			RegulatoryModule module = modules.get(moduleOfThisEdge);
-			int moduleInputIndex = module.getNumInputs() - (lastGeneOfThisModule - inputIndexOfThisEdge) - 1;
-			
-			int sign = 1;
-			if (!module.getEdgeSigns().get(moduleInputIndex))
-				sign = -1;
-			rankVsRegulatoryEffects_[i][1] = sign;
-			
-			int deactivator = 0;
-			if (moduleInputIndex >= module.getNumActivators())
-				deactivator = 1;
-			rankVsRegulatoryEffects_[i][2] = deactivator;
-			
-			int bindsAsComplex = 0;
-			if (module.bindsAsComplex())
-				bindsAsComplex = 1;
-			rankVsRegulatoryEffects_[i][3] = bindsAsComplex;
-			
-			rankVsRegulatoryEffects_[i][4] = module.getN()[moduleInputIndex];
-			rankVsRegulatoryEffects_[i][5] = modules.size();
-			rankVsRegulatoryEffects_[i][6] = numInputs - module.getNumInputs();
-			rankVsRegulatoryEffects_[i][7] = module.getNumInputs() - 1;
-		}
-				
-		for (int i=0; i<numEdges; i++) {
-    		Edge edge = goldStandard_.getEdge(i);
-			int source = goldStandard_.getIndexOfNode(edge.getSource());
-			int target = goldStandard_.getIndexOfNode(edge.getTarget());
+			System.arraycopy(effects[i], 0, rankVsRegulatoryEffects_[i], 1, effects[i].length);
 			
-			rankVsDegree_[i][1] = indegree_[target];
-			rankVsDegree_[i][2] = outdegree_[source];
+			rankVsDegree_[i][1] = indegree_[targets[i]];
+			rankVsDegree_[i][2] = outdegree_[sources[i]];
     	}
     }
 
@@ -0,0 +1,537 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.gnw.evaluation;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.WeakHashMap;
+
+import cern.colt.list.IntArrayList;
+import ch.epfl.lis.gnw.ExperimentExecutor;
+import ch.epfl.lis.gnw.GraphUtilities;
+import ch.epfl.lis.gnw.HillGene;
+import ch.epfl.lis.gnw.RegulatoryModule;
+import ch.epfl.lis.gnw.SparseAdjacency;
+import ch.epfl.lis.imod.ImodNetwork;
+import ch.epfl.lis.networks.Edge;
+
+
+/**
+ * Read-only index of a gold standard network: the adjacency structure, the degrees, the source
+ * and target of every edge, and (computed the first time they are requested) the strongly
+ * connected components and the motif instances. The index only depends on the nodes and edges
+ * of the gold standard, the regulatory effects of the edges, which depend on the parameters of
+ * the genes, are not cached (see computeRegulatoryEffects()).
+ * 
+ * The index of a gold standard is built only once by getInstance() and shared by all the
+ * predictions evaluated against it, also by concurrent threads. The arrays returned by the
+ * getters are thus shared as well and must not be modified. The index refers to the gold
+ * standard only by a weak reference, so that it does not keep its entry in instances_ alive.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ */
+public class GoldStandardIndex {
+	
+	/** The indexes of the gold standards (held by soft references, they are released when memory runs low) */
+	private static WeakHashMap<ImodNetwork, SoftReference<GoldStandardIndex>> instances_ = new WeakHashMap<ImodNetwork, SoftReference<GoldStandardIndex>>();
+	
+	/** The gold standard network (weak reference, the index is the value of its entry in instances_) */
+	private final WeakReference<ImodNetwork> goldStandard_;
+	/** Fingerprint of the nodes and edges of the gold standard when the index was built (see fingerprint()) */
+	private final long fingerprint_;
+	/** The number of genes of the gold standard */
+	private final int numGenes_;
+	
+	/** 
+	 * The adjacency structure of the gold standard.
+	 * Watch out: A_.get(i, j) = true if there is a link from gene *j* to gene i.
+	 */
+	private final SparseAdjacency A_;
+	/** The indegree of the nodes of the gold standard*/
+	private final int[] indegree_;
+	/** The outdegree of the nodes of the gold standard */
+	private final int[] outdegree_;
+	/** The index of the source of every edge of the gold standard */
+	private final int[] edgeSources_;
+	/** The index of the target of every edge of the gold standard */
+	private final int[] edgeTargets_;
+	
+	/** Index of the strongly connected component of every node (null until requested) */
+	private int[] componentOf_ = null;
+	/** Number of nodes of every strongly connected component (null until requested) */
+	private int[] componentSize_ = null;
+	/** The motif instances as quadruplets (a, b, c, motif id), see getMotifInstances() (null until requested) */
+	private volatile int[] motifInstances_ = null;
+	
+	/** Number of anchor nodes whose triads are identified in one pass (bounds the memory of the buffered triads) */
+	private static final int ANCHOR_BLOCK_SIZE = 1024;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Get the index of the given gold standard. It is built the first time and then reused as
+	 * long as the nodes and edges of the gold standard do not change.
+	 */
+	public static synchronized GoldStandardIndex getInstance(ImodNetwork goldStandard) {
+		
+		SoftReference<GoldStandardIndex> ref = instances_.get(goldStandard);
+		GoldStandardIndex index = (ref == null) ? null : ref.get();
+		
+		if (index == null || index.fingerprint_ != fingerprint(goldStandard)) {
+			index = new GoldStandardIndex(goldStandard);
+			instances_.put(goldStandard, new SoftReference<GoldStandardIndex>(index));
+		}
+		return index;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return true if the source and target of edge e are in the same strongly connected component (self-loops are ignored) */
+	public boolean isInsideLoop(int e) {
+		
+		int[] componentOf = getComponentIndexes();
+		int[] componentSize = getComponentSizes();
+		int source = edgeSources_[e];
+		int target = edgeTargets_[e];
+		
+		// components that consist of a single node are not loops
+		return componentOf[source] == componentOf[target] && componentSize[componentOf[source]] > 1;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * For every edge i of the gold standard, regulatoryEffects[i] gives the sign, isDeactivator,
+	 * bindsAsComplex, the Hill coefficient, the number of regulatory modules of the target gene,
+	 * the number of target gene inputs that are independent of it and the number that act
+	 * synergistically with it (see EdgeTypePrediction). The gold standard must be a dynamical
+	 * model (the genes must be HillGenes). The effects are computed from the current parameters
+	 * of the genes at every call.
+	 */
+	public static double[][] computeRegulatoryEffects(ImodNetwork goldStandard) {
+		
+		int numEdges = goldStandard.getNumEdges();
+		double[][] effects = new double[numEdges][7];
+		
+		for (int i=0; i<numEdges; i++) {
+			Edge edge = goldStandard.getEdge(i);
+			HillGene source = (HillGene) edge.getSource();
+			HillGene target = (HillGene) edge.getTarget();
+
+			int numInputs = target.getInputGenes().size();
+			int inputIndexOfThisEdge = target.getInputGenes().indexOf(source);
+			int moduleOfThisEdge = -1;
+			ArrayList<RegulatoryModule> modules = target.getRegulatoryModules();
+			int lastGeneOfThisModule = -1;
+			
+			for (int m=0; m<modules.size(); m++) {
+				lastGeneOfThisModule += modules.get(m).getNumInputs();
+				if (inputIndexOfThisEdge <= lastGeneOfThisModule) {
+					moduleOfThisEdge = m;
+					break;
+				}
+			}
+			assert moduleOfThisEdge != -1;
+			
+			RegulatoryModule module = modules.get(moduleOfThisEdge);
+			int moduleInputIndex = module.getNumInputs() - (lastGeneOfThisModule - inputIndexOfThisEdge) - 1;
+			
+			int sign = 1;
+			if (!module.getEdgeSigns().get(moduleInputIndex))
+				sign = -1;
+			effects[i][0] = sign;
+			
+			int deactivator = 0;
+			if (moduleInputIndex >= module.getNumActivators())
+				deactivator = 1;
+			effects[i][1] = deactivator;
+			
+			int bindsAsComplex = 0;
+			if (module.bindsAsComplex())
+				bindsAsComplex = 1;
+			effects[i][2] = bindsAsComplex;
+			
+			effects[i][3] = module.getN()[moduleInputIndex];
+			effects[i][4] = modules.size();
+			effects[i][5] = numInputs - module.getNumInputs();
+			effects[i][6] = module.getNumInputs() - 1;
+		}
+		return effects;
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Constructor, use getInstance() */
+	private GoldStandardIndex(ImodNetwork goldStandard) {
+		
+		goldStandard_ = new WeakReference<ImodNetwork>(goldStandard);
+		fingerprint_ = fingerprint(goldStandard);
+		numGenes_ = goldStandard.getSize();
+		
+		GraphUtilities util = new GraphUtilities(goldStandard);
+		A_ = util.getSparseAdjacency();
+		indegree_ = A_.getIndegrees();
+		outdegree_ = A_.getOutdegrees();
+		
+		int numEdges = goldStandard.getNumEdges();
+		edgeSources_ = new int[numEdges];
+		edgeTargets_ = new int[numEdges];
+		for (int e=0; e<numEdges; e++) {
+			Edge edge = goldStandard.getEdge(e);
+			edgeSources_[e] = A_.getIndexOfNode(edge.getSource());
+			edgeTargets_[e] = A_.getIndexOfNode(edge.getTarget());
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Combine the identities of the nodes and of the sources and targets of the edges of the
+	 * network (in order) into a single number, which changes if the network is edited
+	 */
+	private static long fingerprint(ImodNetwork network) {
+		
+		long h = network.getSize();
+		for (int i=0; i<network.getSize(); i++)
+			h = 31*h + System.identityHashCode(network.getNode(i));
+		
+		h = 31*h + network.getNumEdges();
+		for (int e=0; e<network.getNumEdges(); e++) {
+			Edge edge = network.getEdge(e);
+			h = 31*h + System.identityHashCode(edge.getSource());
+			h = 31*h + System.identityHashCode(edge.getTarget());
+		}
+		return h;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the gold standard, which must still be referenced by the caller of getInstance() */
+	private ImodNetwork getGoldStandard() {
+		
+		ImodNetwork goldStandard = goldStandard_.get();
+		if (goldStandard == null)
+			throw new IllegalStateException("GoldStandardIndex: the gold standard has been garbage collected");
+		return goldStandard;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Compute componentOf_ and componentSize_ */
+	private void computeComponents() {
+		
+		int[] componentOf = new GraphUtilities(getGoldStandard()).getComponentIndexes();
+		int[] componentSize = new int[componentOf.length];
+		for (int i=0; i<componentOf.length; i++)
+			componentSize[componentOf[i]]++;
+		
+		componentOf_ = componentOf;
+		componentSize_ = componentSize;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Identify all triads (three-node motifs, no autoregulatory loops) of the gold standard.
+	 * In order not to count the same motif several times, we associate each motif with a
+	 * single node. This is the node that has the smallest index of the three nodes. The triads
+	 * of the anchor nodes are identified concurrently (every task has its own TriadFinder and
+	 * does every numTasks-th anchor of the block), the instances are listed in the order of
+	 * the anchors, thus they do not depend on the number of threads.
+	 */
+	private int[] findMotifInstances() {
+		
+		final int[][] neighbors = new int[numGenes_][];
+		for (int g=0; g<numGenes_; g++)
+			neighbors[g] = A_.getNeighbors(g); // sorted by index, doesn't include g
+		
+		final int numTasks = ExperimentExecutor.isConcurrent() ? 4*ExperimentExecutor.getNumThreads() : 1;
+		final TriadFinder[] finders = new TriadFinder[numTasks];
+		for (int t=0; t<numTasks; t++)
+			finders[t] = new TriadFinder(neighbors);
+		
+		final int[][] triads = new int[ANCHOR_BLOCK_SIZE][];
+		MotifDefinitions def = MotifDefinitions.getInstance();
+		IntArrayList instances = new IntArrayList();
+		
+		for (int start=0; start<numGenes_; start+=ANCHOR_BLOCK_SIZE) {
+			final int first = start;
+			final int last = Math.min(start+ANCHOR_BLOCK_SIZE, numGenes_);
+			
+			ExperimentExecutor.Task task = new ExperimentExecutor.Task() {
+				public void run(int index) {
+					for (int g=first+index; g<last; g+=numTasks)
+						triads[g-first] = finders[index].findTriads(g);
+				}
+			};
+			
+			ExperimentExecutor.runUnchecked(numTasks, task);
+			
+			// triads[g-first] lists the triads {g,n,m} as triplets (n, m, motif number)
+			for (int g=first; g<last; g++) {
+				int[] t = triads[g-first];
+				for (int k=0; k<t.length; k+=3) {
+					int n = t[k];
+					int m = t[k+1];
+					int[] map = def.getMotifNodeAssociation(t[k+2]);
+					
+					// reorder the nodes according to the map (node k of {g,n,m} is at position map[k])
+					instances.add((map[0] == 0) ? g : ((map[1] == 0) ? n : m));
+					instances.add((map[0] == 1) ? g : ((map[1] == 1) ? n : m));
+					instances.add((map[0] == 2) ? g : ((map[1] == 2) ? n : m));
+					instances.add(def.getMotifId(t[k+2]));
+				}
+				triads[g-first] = null;
+			}
+		}
+		instances.trimToSize();
+		return instances.elements();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Get the motif number, which is the number corresponding to the binary string:
+	 * ab ac ba bc ca cb, where ij=1 if the there is a link from i to j.
+	 */
+	private int getMotifNumber(int a, int b, int c) {
+		
+		// check that {a,b,c} is actually a connected triad
+		assert A_.get(a, b) || A_.get(b, a) || A_.get(a, c) || A_.get(c, a); // a is connected with b or c
+		assert A_.get(b, a) || A_.get(a, b) || A_.get(b, c) || A_.get(c, b); // b is connected with a or c
+		assert A_.get(c, a) || A_.get(a, c) || A_.get(c, b) || A_.get(b, c); // c is connected with a or b
+		
+		int number = 0;
+		if (A_.get(b, c))
+			number += 1;
+		if (A_.get(a, c))
+			number += 2;
+		if (A_.get(c, b))
+			number += 4;
+		if (A_.get(a, b))
+			number += 8;
+		if (A_.get(c, a))
+			number += 16;
+		if (A_.get(b, a))
+			number += 32;
+		return number;
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE CLASSES
+	
+	/**
+	 * Identifies the triads of an anchor node g (the node with the smallest index of the triad), see
+	 * findMotifInstances(). The links between g and its neighbors, and between the second node n and
+	 * its neighbors, are marked in arrays indexed by node, which avoids any search in the adjacency
+	 * lists. Every concurrent task must use its own TriadFinder.
+	 */
+	private class TriadFinder {
+		
+		/** The neighbors of every node, sorted by index */
+		private int[][] neighbors_ = null;
+		/** gMark_[i] == g+1 if i is a neighbor of the anchor g with a larger index than g */
+		private int[] gMark_ = null;
+		/** For the marked neighbors of g, bit 1 is set if g->i and bit 2 if i->g */
+		private byte[] gLinks_ = null;
+		/** nMark_[i] == nPass_ if i is a neighbor of the current second node n */
+		private int[] nMark_ = null;
+		/** For the marked neighbors of n, bit 1 is set if n->i and bit 2 if i->n */
+		private byte[] nLinks_ = null;
+		/** Incremented for every second node n */
+		private int nPass_ = 0;
+		/** The triads of the current anchor, triplets (n, m, motif number) */
+		private IntArrayList triads_ = null;
+		
+		/** Constructor */
+		public TriadFinder(int[][] neighbors) {
+			
+			neighbors_ = neighbors;
+			gMark_ = new int[numGenes_];
+			gLinks_ = new byte[numGenes_];
+			nMark_ = new int[numGenes_];
+			nLinks_ = new byte[numGenes_];
+			triads_ = new IntArrayList();
+		}
+		
+		/** Return the triads of the anchor g as triplets (n, m, motif number) */
+		public int[] findTriads(int g) {
+			
+			triads_.clear();
+			
+			// The set of neighbors N of g with index larger than g is N[first], N[first+1], ...
+			int[] N = neighbors_[g];
+			int first = 0;
+			while (first < N.length && N[first] < g)
+				first++;
+			
+			markLinks(g, N, first, gMark_, g+1, gLinks_);
+			
+			// Count the motifs with the two nodes {g,n} (only those that do not include a neighbor of
+			// g with a smaller index than n)
+			for (int nIndex=first; nIndex<N.length; nIndex++) {
+				int n = N[nIndex]; // the node n
+				int[] neighborsOfN = neighbors_[n];
+				markLinks(n, neighborsOfN, 0, nMark_, ++nPass_, nLinks_);
+				
+				// The set of all neighbors M of {g,n}. However, don't include neighbors of g with
+				// a smaller index than n (they have already been done in a previous iteration of this loop)
+				
+				// neighbors of g with index larger than n
+				for (int i=nIndex+1; i<N.length; i++)
+					addTriad(g, n, N[i]);
+				
+				// neighbors of n with index larger than g
+				// the neighbors of g have already been added, thus, don't add if it is in N
+				for (int k=0; k<neighborsOfN.length; k++) {
+					int i = neighborsOfN[k];
+					if (i > g && gMark_[i] != g+1)
+						addTriad(g, n, i);
+				}
+			}
+			
+			return Arrays.copyOf(triads_.elements(), triads_.size());
+		}
+		
+		/**
+		 * Mark the neighbors of node x starting at neighbors[first] with the given stamp and
+		 * set the bits for the links from and to x
+		 */
+		private void markLinks(int x, int[] neighbors, int first, int[] mark, int stamp, byte[] links) {
+			
+			for (int k=first; k<neighbors.length; k++) {
+				mark[neighbors[k]] = stamp;
+				links[neighbors[k]] = 0;
+			}
+			
+			int[] targetStart = A_.getTargetStart();
+			int[] targets = A_.getTargets();
+			for (int k=targetStart[x]; k<targetStart[x+1]; k++)
+				if (mark[targets[k]] == stamp)
+					links[targets[k]] |= 1;
+			
+			int[] regulatorStart = A_.getRegulatorStart();
+			int[] regulators = A_.getRegulators();
+			for (int k=regulatorStart[x]; k<regulatorStart[x+1]; k++)
+				if (mark[regulators[k]] == stamp)
+					links[regulators[k]] |= 2;
+		}
+		
+		/** Add the triad {g,n,m} with its motif number (see getMotifNumber()) */
+		private void addTriad(int g, int n, int m) {
+			
+			// check our assumptions: g should be smaller than n and m
+			assert g<n && g<m;
+			// if m is a neighbor of g, its index must be larger than n 
+			assert (!A_.get(g, m) && !A_.get(m, g)) || n<m;
+			
+			int gm = (gMark_[m] == g+1) ? gLinks_[m] : 0;
+			int gn = gLinks_[n];
+			int nm = (nMark_[m] == nPass_) ? nLinks_[m] : 0;
+			
+			int number = 0;
+			if ((nm & 2) != 0) // m->n
+				number += 1;
+			if ((gm & 2) != 0) // m->g
+				number += 2;
+			if ((nm & 1) != 0) // n->m
+				number += 4;
+			if ((gn & 2) != 0) // n->g
+				number += 8;
+			if ((gm & 1) != 0) // g->m
+				number += 16;
+			if ((gn & 1) != 0) // g->n
+				number += 32;
+			
+			assert number == getMotifNumber(g, n, m);
+			
+			triads_.add(n);
+			triads_.add(m);
+			triads_.add(number);
+		}
+	}
+	
+	
+	// ============================================================================
+	// GETTERS AND SETTERS
+	
+	public int getNumGenes() { return numGenes_; }
+	public SparseAdjacency getAdjacency() { return A_; }
+	public int[] getIndegrees() { return indegree_; }
+	public int[] getOutdegrees() { return outdegree_; }
+	public int[] getEdgeSources() { return edgeSources_; }
+	public int[] getEdgeTargets() { return edgeTargets_; }
+	
+	/** Index of the strongly connected component of every node (see GraphUtilities.getComponentIndexes()) */
+	public synchronized int[] getComponentIndexes() {
+		if (componentOf_ == null)
+			computeComponents();
+		return componentOf_;
+	}
+	
+	/** Number of nodes of every strongly connected component */
+	public synchronized int[] getComponentSizes() {
+		if (componentSize_ == null)
+			computeComponents();
+		return componentSize_;
+	}
+	
+	/**
+	 * The motif instances of the gold standard as quadruplets (a, b, c, motif id), listed in the
+	 * order of their anchor nodes. The nodes a, b, c are ordered as defined in MotifDefinitions.
+	 */
+	public int[] getMotifInstances() {
+		// the instances are found concurrently (see findMotifInstances()), this must not be done
+		// holding the lock of the index, if two threads find them at the same time the first is kept
+		int[] instances = motifInstances_;
+		if (instances == null) {
+			instances = findMotifInstances();
+			synchronized (this) {
+				if (motifInstances_ == null)
+					motifInstances_ = instances;
+				instances = motifInstances_;
+			}
+		}
+		return instances;
+	}
+	
+}
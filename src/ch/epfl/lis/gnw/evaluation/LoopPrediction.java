@@ -27,9 +27,6 @@ THE SOFTWARE.
 package ch.epfl.lis.gnw.evaluation;
 
 import java.util.ArrayList;
-import ch.epfl.lis.gnw.GraphUtilities;
-import ch.epfl.lis.networks.Edge;
-import ch.epfl.lis.networks.Node;
 
 
 /** 
@@ -45,9 +42,6 @@ public class LoopPrediction extends NetworkPrediction {
 	private ArrayList<Double> outsideLoops_ = null;
 	/** Ranks assigned to edges in two-node feedback loops */
 	private ArrayList<Double> twoNodeLoops_ = null;
-    
-	/** The strongly connected components of the gold standard */
-	ArrayList<ArrayList<Node>> components_ = null;
 	
 	// ============================================================================
 	// PUBLIC METHODS
@@ -70,19 +64,13 @@ public class LoopPrediction extends NetworkPrediction {
     	insideLoops_ = new ArrayList<Double>();
     	outsideLoops_ = new ArrayList<Double>();
     	
-    	GraphUtilities util = new GraphUtilities(goldStandard_);
-    	components_ = util.getStronglyConnectedComponents();
-    	
-    	ArrayList<Edge> edges = goldStandard_.getEdges(); 
-    	for (int i=0; i<edges.size(); i++) {
-    		Edge e = edges.get(i);
-    		int source = goldStandard_.getIndexOfNode(e.getSource());
-    		int target = goldStandard_.getIndexOfNode(e.getTarget());
-    		
-    		if (isInsideLoop(e))
-    			insideLoops_.add(R_[target][source]);
+    	int[] sources = index_.getEdgeSources();
+    	int[] targets = index_.getEdgeTargets();
+    	for (int i=0; i<sources.length; i++) {
+    		if (index_.isInsideLoop(i))
+    			insideLoops_.add(R_[targets[i]][sources[i]]);
     		else
-    			outsideLoops_.add(R_[target][source]);
+    			outsideLoops_.add(R_[targets[i]][sources[i]]);
     	}
 		
 		assert insideLoops_.size() + outsideLoops_.size() == goldStandard_.getNumEdges();
@@ -90,38 +78,6 @@ public class LoopPrediction extends NetworkPrediction {
     }
 
     
-	// ----------------------------------------------------------------------------
-
-    /** Returns true if both the source and the target of this edge are in the same strongly connected component */
-    private boolean isInsideLoop(Edge e) {
-    	
-    	String source = e.getSource().getLabel();
-    	String target = e.getTarget().getLabel();
-    	
-    	for (int i=0; i<components_.size(); i++) {
-    		ArrayList<Node> comp = components_.get(i);
-    		
-    		boolean sourceFound = false;
-    		boolean targetFound = false;
-    		
-    		for (int n=0; n<comp.size(); n++) {
-    			if (comp.get(n).getLabel().equals(source))
-    				sourceFound = true;
-    			if (comp.get(n).getLabel().equals(target))
-    				targetFound = true;
-    		}
-    		
-    		if (sourceFound && targetFound)
-    			return true;
-    		
-    		// Somehow that didn't work
-    		//if (comp.contains(source) && comp.contains(target))
-    			//return true;
-    	}
-    	return false;
-    }
-    
-    
     // ----------------------------------------------------------------------------
     
     /** Initialize twoNodeLoops_ */
@@ -129,12 +85,14 @@ public class LoopPrediction extends NetworkPrediction {
     	
     	twoNodeLoops_ = new ArrayList<Double>();
 
-    	GraphUtilities util = new GraphUtilities(goldStandard_);
-		boolean[][] A = util.getAdjacencyMatrix();
+		int[] regulatorStart = A_.getRegulatorStart();
+		int[] regulators = A_.getRegulators();
 
-		for (int i=0; i<A.length; i++) {
-			for (int j=0; j<i; j++) {
-				if (A[i][j] && A[j][i]) {
+		for (int i=0; i<numGenes_; i++) {
+			// the regulators j of gene i, sorted by index
+			for (int k=regulatorStart[i]; k<regulatorStart[i+1] && regulators[k]<i; k++) {
+				int j = regulators[k];
+				if (A_.get(j, i)) {
 					twoNodeLoops_.add(R_[i][j]);
 					twoNodeLoops_.add(R_[j][i]);
 				}
@@ -116,7 +116,7 @@ public class MotifDefinitions {
 	/**
 	 * Get the unique instance of MotifDefinitions (Singleton design pattern)
 	 */
-	static public MotifDefinitions getInstance() {
+	static synchronized public MotifDefinitions getInstance() {
 		
 		if (instance_ == null)
 			instance_ = new MotifDefinitions();
@@ -28,7 +28,6 @@ package ch.epfl.lis.gnw.evaluation;
 
 import java.io.FileWriter;
 import java.util.ArrayList;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -63,18 +62,18 @@ public class MotifPrediction extends NetworkPrediction {
 	//private int[][][][] edgeTypes_ = null;
 	
 	/** For every motif, the number of non-overlapping instances */
-	private ArrayList<Integer> numNonOverlappingInstances_ = null;
+	private int[] numNonOverlappingInstances_ = null;
 	/** For every motif, the number of instances (including overlapping instances) */
-	private ArrayList<Integer> numInstances_ = null;
-	/** For every motif, the nodes that are part of at least one instance (used to count the non-overlapping instances) */
-	private ArrayList<TreeSet<Integer>> motifNodes_ = null;
+	private int[] numInstances_ = null;
+	/** motifNodes_[id][i] is true if node i is part of at least one instance of motif id (used to count the non-overlapping instances) */
+	private boolean[][] motifNodes_ = null;
 	
 	/** 
 	 * For every motif, the number of occurrences and the indegree and outdegree of its nodes (total count, 
 	 * to be divided by the first column to get the average degrees).
 	 */
-	private ArrayList<ArrayList<Double>> motifDegrees_ = null;
-
+	private double[][] motifDegrees_ = null;
+	
     /** Logger for this class */
     private static Logger log_ = Logger.getLogger(MotifPrediction.class.getName());
 
@@ -103,53 +102,11 @@ public class MotifPrediction extends NetworkPrediction {
     	// Initialize
     	init();
     	
-    	// In order not to count the same motif several times, we associate each motif
-    	// with a single node. This is the node that has the smallest index of the three nodes.
-    	
-    	// Count the motifs of node g (only those in which i has the smallest index of the three nodes)
-    	for (int g=0; g<numGenes_; g++) {
-    		
-    		// Construct the set of neighbors N of g with index larger than g
-    		ArrayList<Integer> N = new ArrayList<Integer>();
-    		
-    		for (int i=g+1; i<numGenes_; i++)
-    			if (A_[g][i] || A_[i][g])
-    				N.add(i);
-    		
-    		// Count the motifs with the two nodes {g,n} (only those that do not include a neighbor of
-    		// g with a smaller index than n)
-    		for (int nIndex=0; nIndex<N.size(); nIndex++) {
-    			int n = N.get(nIndex); // the node n
-    			
-    			// Construct the set of all neighbors M of {g,n}. However, don't include neighbors of g
-    			// with a smaller index than n (they have already been done in a previous iteration of this loop)
-        		ArrayList<Integer> M = new ArrayList<Integer>();
-        		
-        		// neighbors of g with index larger than n
-        		for (int i=nIndex+1; i<N.size(); i++)
-        			M.add( N.get(i) );
-        		
-        		// neighbors of n with index larger than g
-        		// the neighbors of g have already been added, thus, don't add if it is in N
-    			for (int i=g+1; i<numGenes_; i++) {
-    				if ((A_[n][i] || A_[i][n]) && i!=n && !N.contains(i))
-        				M.add(i);
-    			}
-     			
-    			// now we can count all motifs {g,n,m} with m in M.
-    			for (int mIndex=0; mIndex<M.size(); mIndex++) {
-    				int m = M.get(mIndex); // the node m
-    				
-    				// check our assumptions: g should be smaller than n and m
-    				assert g<n && g<m;
-    				// if m is a neighbor of g, its index must be larger than n 
-    				assert (!A_[g][m] && !A_[m][g]) || n<m;
-    				
-    				int[] nodes = new int[] {g,n,m};
-    				countMotif(nodes);
-    			}
-    		}
-    	}
+    	// The instances are identified only once per gold standard (see GoldStandardIndex),
+    	// listed as quadruplets (a, b, c, motif id) in the order of their anchor nodes
+    	int[] instances = index_.getMotifInstances();
+    	for (int k=0; k<instances.length; k+=4)
+    		countMotif(instances[k], instances[k+1], instances[k+2], instances[k+3]);
     }
 	    
     
@@ -178,9 +135,9 @@ public class MotifPrediction extends NetworkPrediction {
 			log_.log(Level.INFO, "Writing file " + filename);
     		fw = new FileWriter(filename, false);
 
-    		for (int i=0; i<motifDegrees_.size(); i++) {
-    			ArrayList<Double> d = motifDegrees_.get(i);
-    			String line =  d.get(0) + "\t" + d.get(1) + "\t" + d.get(2) + "\t" + d.get(3) + "\t" + d.get(4) + "\t" + d.get(5) + "\t" + d.get(6) + "\n";
+    		for (int i=0; i<motifDegrees_.length; i++) {
+    			double[] d = motifDegrees_[i];
+    			String line =  d[0] + "\t" + d[1] + "\t" + d[2] + "\t" + d[3] + "\t" + d[4] + "\t" + d[5] + "\t" + d[6] + "\n";
     			fw.write(line);
     		}
     		fw.close();
@@ -235,74 +192,60 @@ public class MotifPrediction extends NetworkPrediction {
 	// ============================================================================
 	// PRIVATE METHODS
     
-    /** Count the occurrence of the given triad and update the prediction statistics accordingly */
-    private void countMotif(int[] nodes) {
-    	
-    	int m = getMotifNumber(nodes);
-    	int id = MotifDefinitions.getInstance().getMotifId(m);
-    	int[] map = MotifDefinitions.getInstance().getMotifNodeAssociation(m);
-    	
-    	// reorder the nodes according to the map
-    	int[] reorderedNodes = new int[3];
-    	reorderedNodes[ map[0] ] = nodes[0];
-    	reorderedNodes[ map[1] ] = nodes[1];
-    	reorderedNodes[ map[2] ] = nodes[2];
-    	int a = reorderedNodes[0];
-    	int b = reorderedNodes[1];
-    	int c = reorderedNodes[2];
+    /**
+     * Count the occurrence of the given motif instance and update the prediction statistics accordingly
+     * @param a, b, c The three nodes of the motif instance, ordered as defined in MotifDefinitions
+     * @param id The motif id
+     */
+    private void countMotif(int a, int b, int c, int id) {
     	
     	// assert that the given nodes actually correspond to the specified motif
     	assert assertMotif(a, b, c, id);
     	
     	// Count the non-overlapping motif instances
-    	countNonOverlappingInstance(nodes, id);
+    	countNonOverlappingInstance(a, b, c, id);
     	// Count all motif instances (even overlapping instances)
-    	// TODO: update this counter at the same time than non-overlapping instances
-    	countInstance(nodes, id);
+    	numInstances_[id]++;
     	
-    	try
-    	{
-	    	// Add a new row to motifRanks for this motif instance. The first
-	    	// column is the motif id, followed by the ranks of the six edge types.
-	    	ArrayList<Double> edgeRanks = new ArrayList<Double>();
-	    	edgeRanks.add((double)id);
-	    	edgeRanks.add(R_[b][a]);
-	    	edgeRanks.add(R_[c][a]);
-	    	edgeRanks.add(R_[a][b]);
-	    	edgeRanks.add(R_[c][b]);
-	    	edgeRanks.add(R_[a][c]);
-	    	edgeRanks.add(R_[b][c]);
-	    	
-	    	motifRanks_.add(edgeRanks);
-	    	
-	    	// for every possible edge of this motif, increase the corresponding counter in edgeTypes_
-	    	/*
-	    	edgeTypes_[a][b][id][0]++;
-	    	edgeTypes_[a][c][id][1]++;
-	    	edgeTypes_[b][a][id][2]++;
-	    	edgeTypes_[b][c][id][3]++;
-	    	edgeTypes_[c][a][id][4]++;
-	    	edgeTypes_[c][b][id][5]++;
-	    	*/
-	    	
-	    	// update the degree statistics. this is a hack and should not be done here
-	    	// (should be done only once when loading the goldstandard and not every time
-	    	// a prediction is analyzed)
-	    	ArrayList<Double> avgDegree = motifDegrees_.get(id);
-	    	avgDegree.set(0, avgDegree.get(0) + 1); // count the motif
-	    	avgDegree.set(1, avgDegree.get(1) + indegree_[a]);
-	    	avgDegree.set(2, avgDegree.get(2) + indegree_[b]);
-	    	avgDegree.set(3, avgDegree.get(3) + indegree_[c]);
-	    	avgDegree.set(4, avgDegree.get(4) + outdegree_[a]);
-	    	avgDegree.set(5, avgDegree.get(5) + outdegree_[b]);
-	    	avgDegree.set(6, avgDegree.get(6) + outdegree_[c]);
-    	}
-    	catch (NullPointerException e)
-    	{
-    		// do nothing
-    		// We are here most likely because the motif prediction is run without having any prediction loaded.
-    		// This is the case when one wants only to count the number of motifs in a gold standard.
-    	}
+    	// We don't have ranks if the motif prediction is run without having any prediction loaded.
+    	// This is the case when one wants only to count the number of motifs in a gold standard.
+    	if (R_ == null)
+    		return;
+    	
+    	// Add a new row to motifRanks for this motif instance. The first
+    	// column is the motif id, followed by the ranks of the six edge types.
+    	ArrayList<Double> edgeRanks = new ArrayList<Double>(7);
+    	edgeRanks.add((double)id);
+    	edgeRanks.add(R_[b][a]);
+    	edgeRanks.add(R_[c][a]);
+    	edgeRanks.add(R_[a][b]);
+    	edgeRanks.add(R_[c][b]);
+    	edgeRanks.add(R_[a][c]);
+    	edgeRanks.add(R_[b][c]);
+    	
+    	motifRanks_.add(edgeRanks);
+    	
+    	// for every possible edge of this motif, increase the corresponding counter in edgeTypes_
+    	/*
+    	edgeTypes_[a][b][id][0]++;
+    	edgeTypes_[a][c][id][1]++;
+    	edgeTypes_[b][a][id][2]++;
+    	edgeTypes_[b][c][id][3]++;
+    	edgeTypes_[c][a][id][4]++;
+    	edgeTypes_[c][b][id][5]++;
+    	*/
+    	
+    	// update the degree statistics. this is a hack and should not be done here
+    	// (should be done only once when loading the goldstandard and not every time
+    	// a prediction is analyzed)
+    	double[] avgDegree = motifDegrees_[id];
+    	avgDegree[0]++; // count the motif
+    	avgDegree[1] += indegree_[a];
+    	avgDegree[2] += indegree_[b];
+    	avgDegree[3] += indegree_[c];
+    	avgDegree[4] += outdegree_[a];
+    	avgDegree[5] += outdegree_[b];
+    	avgDegree[6] += outdegree_[c];
     }
     
     
@@ -313,65 +256,20 @@ public class MotifPrediction extends NetworkPrediction {
      * (It's an approximate implementation, because we just use it as a quick and dirty 
      * way of getting a sense how many "independent" samples of a motif there are.
      */
-    private void countNonOverlappingInstance(int[] nodes, int id) {
-    	
-    	// If one of these nodes is already part of such a motif, return
-    	for (int i=0; i<nodes.length; i++)
-    		if (motifNodes_.get(id).contains(nodes[i]))
-    			return;
+    private void countNonOverlappingInstance(int g, int n, int m, int id) {
     	
-    	// Otherwise, count this nonoverlapping instance
-    	numNonOverlappingInstances_.set(id, numNonOverlappingInstances_.get(id)+1);
+    	boolean[] isMotifNode = motifNodes_[id];
     	
-    	for (int i=0; i<nodes.length; i++)
-    		motifNodes_.get(id).add(nodes[i]);
-    }
+    	// If one of these nodes is already part of such a motif, return
+    	if (isMotifNode[g] || isMotifNode[n] || isMotifNode[m])
+    		return;
     	
-    // ----------------------------------------------------------------------------
-    
-    /**
-     * Count the given motif instance EVEN IF at least one of its nodes is already part of such a motif.
-     * (It's an approximate implementation, because we just use it as a quick and dirty 
-     * way of getting a sense how many "independent" samples of a motif there are.
-     */
-    private void countInstance(int[] nodes, int id)
-    {	
     	// Otherwise, count this nonoverlapping instance
-    	numInstances_.set(id, numInstances_.get(id)+1);
-    }
-    	
-	// ----------------------------------------------------------------------------
-
-    /**
-     * Get the id, which is the number corresponding to the binary string:
-     * ab ac ba bc ca cb, where ij=1 if the there is a link from i to j.
-     */
-    private int getMotifNumber(int[] nodes) {
+    	numNonOverlappingInstances_[id]++;
     	
-    	int a = nodes[0];
-    	int b = nodes[1];
-    	int c = nodes[2];
-    	
-    	// check that {a,b,c} is actually a connected triad
-    	assert A_[a][b] || A_[b][a] || A_[a][c] || A_[c][a]; // a is connected with b or c
-    	assert A_[b][a] || A_[a][b] || A_[b][c] || A_[c][b]; // b is connected with a or c
-    	assert A_[c][a] || A_[a][c] || A_[c][b] || A_[b][c]; // c is connected with a or b
-    	
-    	int id = 0;
-    	if (A_[b][c])
-    		id += 1;
-    	if (A_[a][c])
-    		id += 2;
-    	if (A_[c][b])
-    		id += 4;
-    	if (A_[a][b])
-    		id += 8;
-    	if (A_[c][a])
-    		id += 16;
-    	if (A_[b][a])
-    		id += 32;
-    	
-    	return id;
+    	isMotifNode[g] = true;
+    	isMotifNode[n] = true;
+    	isMotifNode[m] = true;
     }
     
 
@@ -381,19 +279,19 @@ public class MotifPrediction extends NetworkPrediction {
     private boolean assertMotif(int a, int b, int c, int id) {
         	
     	switch (id) {
-    	case 0:  assert  A_[b][a] &&  A_[c][a] && !A_[a][b] && !A_[c][b] && !A_[a][c] && !A_[b][c]; break;
-    	case 1:  assert !A_[b][a] && !A_[c][a] &&  A_[a][b] && !A_[c][b] &&  A_[a][c] && !A_[b][c]; break;
-    	case 2:  assert  A_[b][a] && !A_[c][a] && !A_[a][b] &&  A_[c][b] && !A_[a][c] && !A_[b][c]; break;
-    	case 3:  assert !A_[b][a] &&  A_[c][a] && !A_[a][b] &&  A_[c][b] &&  A_[a][c] && !A_[b][c]; break;
-    	case 4:  assert !A_[b][a] &&  A_[c][a] && !A_[a][b] && !A_[c][b] &&  A_[a][c] &&  A_[b][c]; break;
-    	case 5:  assert  A_[b][a] &&  A_[c][a] &&  A_[a][b] && !A_[c][b] &&  A_[a][c] && !A_[b][c]; break;
-    	case 6:  assert  A_[b][a] &&  A_[c][a] && !A_[a][b] &&  A_[c][b] && !A_[a][c] && !A_[b][c]; break;
-    	case 7:  assert  A_[b][a] && !A_[c][a] && !A_[a][b] &&  A_[c][b] &&  A_[a][c] && !A_[b][c]; break;
-    	case 8:  assert  A_[b][a] &&  A_[c][a] && !A_[a][b] &&  A_[c][b] && !A_[a][c] &&  A_[b][c]; break;
-    	case 9:  assert !A_[b][a] && !A_[c][a] &&  A_[a][b] &&  A_[c][b] &&  A_[a][c] &&  A_[b][c]; break;
-    	case 10: assert  A_[b][a] &&  A_[c][a] && !A_[a][b] &&  A_[c][b] &&  A_[a][c] && !A_[b][c]; break;
-    	case 11: assert  A_[b][a] &&  A_[c][a] &&  A_[a][b] && !A_[c][b] &&  A_[a][c] &&  A_[b][c]; break;
-    	case 12: assert  A_[b][a] &&  A_[c][a] &&  A_[a][b] &&  A_[c][b] &&  A_[a][c] &&  A_[b][c]; break;
+    	case 0:  assert  A_.get(b, a) &&  A_.get(c, a) && !A_.get(a, b) && !A_.get(c, b) && !A_.get(a, c) && !A_.get(b, c); break;
+    	case 1:  assert !A_.get(b, a) && !A_.get(c, a) &&  A_.get(a, b) && !A_.get(c, b) &&  A_.get(a, c) && !A_.get(b, c); break;
+    	case 2:  assert  A_.get(b, a) && !A_.get(c, a) && !A_.get(a, b) &&  A_.get(c, b) && !A_.get(a, c) && !A_.get(b, c); break;
+    	case 3:  assert !A_.get(b, a) &&  A_.get(c, a) && !A_.get(a, b) &&  A_.get(c, b) &&  A_.get(a, c) && !A_.get(b, c); break;
+    	case 4:  assert !A_.get(b, a) &&  A_.get(c, a) && !A_.get(a, b) && !A_.get(c, b) &&  A_.get(a, c) &&  A_.get(b, c); break;
+    	case 5:  assert  A_.get(b, a) &&  A_.get(c, a) &&  A_.get(a, b) && !A_.get(c, b) &&  A_.get(a, c) && !A_.get(b, c); break;
+    	case 6:  assert  A_.get(b, a) &&  A_.get(c, a) && !A_.get(a, b) &&  A_.get(c, b) && !A_.get(a, c) && !A_.get(b, c); break;
+    	case 7:  assert  A_.get(b, a) && !A_.get(c, a) && !A_.get(a, b) &&  A_.get(c, b) &&  A_.get(a, c) && !A_.get(b, c); break;
+    	case 8:  assert  A_.get(b, a) &&  A_.get(c, a) && !A_.get(a, b) &&  A_.get(c, b) && !A_.get(a, c) &&  A_.get(b, c); break;
+    	case 9:  assert !A_.get(b, a) && !A_.get(c, a) &&  A_.get(a, b) &&  A_.get(c, b) &&  A_.get(a, c) &&  A_.get(b, c); break;
+    	case 10: assert  A_.get(b, a) &&  A_.get(c, a) && !A_.get(a, b) &&  A_.get(c, b) &&  A_.get(a, c) && !A_.get(b, c); break;
+    	case 11: assert  A_.get(b, a) &&  A_.get(c, a) &&  A_.get(a, b) && !A_.get(c, b) &&  A_.get(a, c) &&  A_.get(b, c); break;
+    	case 12: assert  A_.get(b, a) &&  A_.get(c, a) &&  A_.get(a, b) &&  A_.get(c, b) &&  A_.get(a, c) &&  A_.get(b, c); break;
     	default: assert false;
     	}
     	return true;
@@ -423,23 +321,12 @@ public class MotifPrediction extends NetworkPrediction {
     	*/
     	
     	// initialize motifAvgDegree_
-    	motifDegrees_ = new ArrayList< ArrayList<Double> >();
-    	for (int i=0; i<numMotifTypes; i++) {
-    		ArrayList<Double> d = new ArrayList<Double>();
-    		for (int j=0; j<numEdgeTypes+1; j++)
-    			d.add(0.0);
-    		motifDegrees_.add(d);
-    	}
+    	motifDegrees_ = new double[numMotifTypes][numEdgeTypes+1];
     	
     	// initialize numNonOveralppingInstances_ and motifNodes_
-    	numNonOverlappingInstances_ = new ArrayList<Integer>();
-    	numInstances_ = new ArrayList<Integer>();
-    	motifNodes_ = new ArrayList<TreeSet<Integer>>();
-    	for (int i=0; i<numMotifTypes; i++) {
-    		numNonOverlappingInstances_.add(0);
-    		numInstances_.add(0);
-    		motifNodes_.add(new TreeSet<Integer>());
-    	}
+    	numNonOverlappingInstances_ = new int[numMotifTypes];
+    	numInstances_ = new int[numMotifTypes];
+    	motifNodes_ = new boolean[numMotifTypes][numGenes_];
      }
     
     // ----------------------------------------------------------------------------
@@ -455,8 +342,8 @@ public class MotifPrediction extends NetworkPrediction {
     		log_.log(Level.INFO, "Writing file " + filename);
     		FileWriter fw = new FileWriter(filename, false);
     		
-    		for (int m = 0; m < numNonOverlappingInstances_.size(); m++)
-    			fw.write(numNonOverlappingInstances_.get(m) + "\n");
+    		for (int m = 0; m < numNonOverlappingInstances_.length; m++)
+    			fw.write(numNonOverlappingInstances_[m] + "\n");
 
     		fw.close();
 
@@ -478,8 +365,8 @@ public class MotifPrediction extends NetworkPrediction {
     		log_.log(Level.INFO, "Writing file " + filename);
     		FileWriter fw = new FileWriter(filename, false);
     		
-    		for (int m = 0; m < numInstances_.size(); m++)
-    			fw.write(numInstances_.get(m) + "\n");
+    		for (int m = 0; m < numInstances_.length; m++)
+    			fw.write(numInstances_[m] + "\n");
 
     		fw.close();
 
@@ -492,8 +379,30 @@ public class MotifPrediction extends NetworkPrediction {
 	// GETTERS AND SETTERS
 
     public ArrayList<ArrayList<Double>> getMotifRanks() { return motifRanks_; }
-    public ArrayList<Integer> getNumNonOverlappingInstances() { return numNonOverlappingInstances_; }
-    public ArrayList<Integer> getNumInstances() { return numInstances_; }
-    public ArrayList<ArrayList<Double>> getMotifDegrees() { return motifDegrees_; }
+    
+    public ArrayList<Integer> getNumNonOverlappingInstances() {
+    	ArrayList<Integer> list = new ArrayList<Integer>(numNonOverlappingInstances_.length);
+    	for (int m=0; m<numNonOverlappingInstances_.length; m++)
+    		list.add(numNonOverlappingInstances_[m]);
+    	return list;
+    }
+    
+    public ArrayList<Integer> getNumInstances() {
+    	ArrayList<Integer> list = new ArrayList<Integer>(numInstances_.length);
+    	for (int m=0; m<numInstances_.length; m++)
+    		list.add(numInstances_[m]);
+    	return list;
+    }
+    
+    public ArrayList<ArrayList<Double>> getMotifDegrees() {
+    	ArrayList<ArrayList<Double>> list = new ArrayList<ArrayList<Double>>(motifDegrees_.length);
+    	for (int m=0; m<motifDegrees_.length; m++) {
+    		ArrayList<Double> d = new ArrayList<Double>(motifDegrees_[m].length);
+    		for (int k=0; k<motifDegrees_[m].length; k++)
+    			d.add(motifDegrees_[m][k]);
+    		list.add(d);
+    	}
+    	return list;
+    }
 
 }
@@ -26,15 +26,19 @@ THE SOFTWARE.
 
 package ch.epfl.lis.gnw.evaluation;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import ch.epfl.lis.gnw.GraphUtilities;
+import ch.epfl.lis.gnw.GnwSettings;
+import ch.epfl.lis.gnw.SparseAdjacency;
 import ch.epfl.lis.utilities.filefilters.FilenameUtilities;
 import ch.epfl.lis.imod.ImodNetwork;
-import ch.epfl.lis.networks.ios.TSVParser;
 
 
 /**
@@ -51,11 +55,13 @@ public abstract class NetworkPrediction {
 	/** Number of link to predict */
 	protected int maxNumPredictions_ = 0;
 
+	/** The index of the gold standard, shared by all predictions evaluated against it */
+	protected GoldStandardIndex index_ = null;
 	/** 
-	 * The adjacency matrix of the gold standard.
-	 * Watch out: A[i][j] = true if there is a link from gene *j* to gene i.
+	 * The adjacency structure of the gold standard (memory scales with the number of edges).
+	 * Watch out: A_.get(i, j) = true if there is a link from gene *j* to gene i.
 	 */
-	protected boolean[][] A_ = null;
+	protected SparseAdjacency A_ = null;
 	/** The indegree of the nodes of the gold standard*/
 	protected int[] indegree_ = null;
 	/** The outdegree of the nodes of the gold standard */
@@ -97,6 +103,9 @@ public abstract class NetworkPrediction {
 
     /**
      * Load the network prediction, this must be done after the gold standard has been loaded.
+     * The file is read line by line and the rank of every link is directly set in R_. At most
+     * GnwSettings.maxNumPredictionsRead_ predictions are read (all if it is 0), the remaining
+     * links are treated as not predicted.
      */
     public void loadPrediction(URL predictionFile, boolean predictAutoregulatoryInteractions) {
 
@@ -110,50 +119,65 @@ public abstract class NetworkPrediction {
        	maxNumPredictions_ = numGenes_ * numGenes_;
        	if (!predictAutoregulatoryInteractions)
        		maxNumPredictions_ -= numGenes_;
+       	
+       	int maxNumPredictionsRead = GnwSettings.getInstance().getMaxNumPredictionsRead();
 
-       	// the vector of gene labels, trust me, we need it later
+       	// the index of every gene label, trust me, we need it later
        	ArrayList<String> geneLabels = goldStandard_.getAllNodesLabels();
+       	HashMap<String, Integer> geneIndexes = new HashMap<String, Integer>(2*geneLabels.size());
+       	for (int i=geneLabels.size()-1; i>=0; i--)
+       		geneIndexes.put(geneLabels.get(i), i); // if a label is duplicated, the first index is kept
        	
-       	// parse the .tsv file
-    	ArrayList<String[]> data = null;
-		try {
-			data = TSVParser.readTSV(predictionFile);
-		} catch (Exception e) {
-			log_.log(Level.WARNING, "Could not read prediction file: " + predictionFile.getPath(), e);
-		}
-
 		// Counts the predictions (non-empty lines, for some reason in DREAM4 link predictions are
 		// separated by empty lines for several teams)
 		int numPredictions = 0;
 		
-    	for (int i=0; i<data.size(); i++) {
-    		// the next line
-    		String[] line = data.get(i);
-    		
-    		// skip empty lines
-    		if (line.length == 1 && line[0].equals(""))
-    			continue;
-    		else if (line.length != 3) { // each line must have 3 elments: geneA geneB confidenceLevel
-    			log_.log(Level.WARNING, "Line " + (i+1) + " doesn't have three elements");
-    			throw new RuntimeException(predictionFile + "\nLine " + (i+1) + " doesn't have three elements.");
-    		}
-
-    		// get the index of the regulator (source) and the target
-    		int source = geneLabels.indexOf(line[0]);
-    		int target = geneLabels.indexOf(line[1]);
-    		
-    		if (source == -1)
-    			throw new RuntimeException("The following label was not found in the gold standard: " + line[0] + "\nFile: " + predictionName_);
-    		else if (target == -1)
-    			throw new RuntimeException("The following label was not found in the gold standard: " + line[1] + "\nFile: " + predictionName_);
-    		else if (!predictAutoregulatoryInteractions && source == target)
-    			throw new IllegalArgumentException("The list contains autoregulatory interactions but predictAutoregulatoryInteractions was set false");
-    		else if (R_[target][source] != -1)
-    			throw new IllegalArgumentException("The link '" + source + " -> " + target + " has been included twice");
-    		
-    		// set the rank of this link (ranks go from 1 ... 0)
-    		//C_[target][source] = (maxNumPredictions_ - i - 1) / (double)(maxNumPredictions_ - 1.0);
-    		R_[target][source] = position2rank(numPredictions++);
+		// parse the .tsv file
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(predictionFile.openStream()), 1 << 16);
+			String[] line = new String[3];
+			String text = null;
+			int i = 0;
+			
+			while ((maxNumPredictionsRead <= 0 || numPredictions < maxNumPredictionsRead) && (text = reader.readLine()) != null) {
+				i++;
+				
+				// skip empty lines
+				if (text.length() == 0)
+					continue;
+				else if (splitLine(text, line) != 3) { // each line must have 3 elments: geneA geneB confidenceLevel
+					log_.log(Level.WARNING, "Line " + i + " doesn't have three elements");
+					throw new RuntimeException(predictionFile + "\nLine " + i + " doesn't have three elements.");
+				}
+				
+				// get the index of the regulator (source) and the target
+				Integer source = geneIndexes.get(line[0]);
+				Integer target = geneIndexes.get(line[1]);
+				
+				if (source == null)
+					throw new RuntimeException("The following label was not found in the gold standard: " + line[0] + "\nFile: " + predictionName_);
+				else if (target == null)
+					throw new RuntimeException("The following label was not found in the gold standard: " + line[1] + "\nFile: " + predictionName_);
+				else if (!predictAutoregulatoryInteractions && source.intValue() == target.intValue())
+					throw new IllegalArgumentException("The list contains autoregulatory interactions but predictAutoregulatoryInteractions was set false");
+				else if (R_[target][source] != -1)
+					throw new IllegalArgumentException("The link '" + source + " -> " + target + " has been included twice");
+				
+				// set the rank of this link (ranks go from 1 ... 0)
+				//C_[target][source] = (maxNumPredictions_ - i - 1) / (double)(maxNumPredictions_ - 1.0);
+				R_[target][source] = position2rank(numPredictions++);
+			}
+		} catch (IOException e) {
+			log_.log(Level.WARNING, "Could not read prediction file: " + predictionFile.getPath(), e);
+			throw new RuntimeException("Could not read prediction file: " + predictionFile.getPath(), e);
+		} finally {
+			try {
+				if (reader != null)
+					reader.close();
+			} catch (IOException e) {
+				log_.log(Level.WARNING, "Could not close prediction file: " + predictionFile.getPath(), e);
+			}
 		}
     	
     	// if not all links are included, we set those that were omitted in the list of predictions
@@ -206,6 +230,7 @@ public abstract class NetworkPrediction {
         this.numGenes_ = c.numGenes_;
     	this.maxNumPredictions_ = c.maxNumPredictions_;
     	
+    	this.index_ = c.index_;
     	this.A_ = c.A_;
     	this.indegree_ = c.indegree_;
     	this.outdegree_ = c.outdegree_;
@@ -217,22 +242,52 @@ public abstract class NetworkPrediction {
 
     // ----------------------------------------------------------------------------
 
-    /** Set gold standard and related fields (numGenes_, A_, indegree_, outdegree_) */
+    /**
+     * Set gold standard and related fields (index_, numGenes_, A_, indegree_, outdegree_). The index
+     * of the gold standard is built only the first time, see GoldStandardIndex.getInstance().
+     */
     public void initialize(ImodNetwork goldStandard) {
     	
     	goldStandard_ = goldStandard;
-    	numGenes_ = goldStandard.getSize();
+    	index_ = GoldStandardIndex.getInstance(goldStandard);
+    	numGenes_ = index_.getNumGenes();
     	
-    	GraphUtilities util = new GraphUtilities(goldStandard);
-    	A_ = util.getAdjacencyMatrix();
-    	indegree_ = util.getIndegrees();
-    	outdegree_ = util.getOutdegrees();
+    	A_ = index_.getAdjacency();
+    	indegree_ = index_.getIndegrees();
+    	outdegree_ = index_.getOutdegrees();
     }
     
     
 	// ============================================================================
 	// PRIVATE METHODS    
 
+    /**
+     * Split a line of a TSV file at the tabs and save the first (up to) three fields in the given
+     * array, surrounding double quotes are removed. Return the number of fields of the line.
+     */
+    private static int splitLine(String text, String[] fields) {
+    	
+    	int numFields = 0;
+    	int start = 0;
+    	while (true) {
+    		int end = text.indexOf('\t', start);
+    		if (end < 0)
+    			end = text.length();
+    		
+    		if (numFields < fields.length) {
+    			if (end - start >= 2 && text.charAt(start) == '"' && text.charAt(end-1) == '"')
+    				fields[numFields] = text.substring(start+1, end-1);
+    			else
+    				fields[numFields] = text.substring(start, end);
+    		}
+    		numFields++;
+    		
+    		if (end == text.length())
+    			return numFields;
+    		start = end + 1;
+    	}
+    }
+    
     
 	// ============================================================================
 	// SETTERS AND GETTERS
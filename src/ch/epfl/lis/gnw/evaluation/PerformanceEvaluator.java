@@ -26,6 +26,9 @@ THE SOFTWARE.
 
 package ch.epfl.lis.gnw.evaluation;
 
+import java.util.ArrayList;
+
+import ch.epfl.lis.gnw.ExperimentExecutor;
 import ch.epfl.lis.imod.ImodNetwork;
 
 
@@ -61,6 +64,12 @@ public class PerformanceEvaluator extends NetworkPrediction {
 	LoopPrediction loopPrediction_ = null;
 	
 	
+	/** Identifiers of the analyses done by run() */
+	private static final int BACKGROUND_ANALYSIS = 0;
+	private static final int MOTIF_ANALYSIS = 1;
+	private static final int EDGE_TYPE_ANALYSIS = 2;
+	private static final int LOOP_ANALYSIS = 3;
+	
 	/** GNW3: ADD CLASSES FOR ROC AND PR METRICS */
 	Score score_ = null;
 	// ...
@@ -95,36 +104,67 @@ public class PerformanceEvaluator extends NetworkPrediction {
      */
     public void run() {
     	
+    	// The analyses are independent of each other, they are run concurrently
+    	// if several threads are used (see ExperimentExecutor)
+    	final ArrayList<Integer> analyses = new ArrayList<Integer>();
+    	
     	// The background prediction confidence
     	if (networkMotifAnalysis_ || edgeTypeAnalysis_)
-        	backgroundPrediction_ = new BackgroundPrediction(this);
+    		analyses.add(BACKGROUND_ANALYSIS);
+    	if (networkMotifAnalysis_)
+    		analyses.add(MOTIF_ANALYSIS);
+    	if (edgeTypeAnalysis_)
+    		analyses.add(EDGE_TYPE_ANALYSIS);
+    	if (loopAnalysis_)
+    		analyses.add(LOOP_ANALYSIS);
+    	
+    	ExperimentExecutor.Task task = new ExperimentExecutor.Task() {
+    		public void run(int index) {
+    			runAnalysis(analyses.get(index));
+    		}
+    	};
+    	
+    	ExperimentExecutor.runUnchecked(analyses.size(), task);
+    	
+     	// GNW3: complete for ROC and PR
+     	// ...
+    	if( plotROC_ || plotPR_ || AUPR_ || AUROC_) {
+    		score_ = new Score(this);
+    	}
+    }
 
-    	if (networkMotifAnalysis_) {
+    
+	// ============================================================================
+	// PRIVATE METHODS
+    
+    /** Run the given analysis (BACKGROUND_ANALYSIS, MOTIF_ANALYSIS, etc.) */
+    private void runAnalysis(int analysis) {
+    	
+    	switch (analysis) {
+    	case BACKGROUND_ANALYSIS:
+    		backgroundPrediction_ = new BackgroundPrediction(this);
+    		break;
+    		
+    	case MOTIF_ANALYSIS:
         	motifPrediction_ = new MotifPrediction(this);
         	motifPrediction_.motifProfile();
     		//motifPrediction_.save();
-    	}
-    	
-    	if (edgeTypeAnalysis_) {
+        	break;
+        	
+    	case EDGE_TYPE_ANALYSIS:
         	edgeTypePrediction_ = new EdgeTypePrediction(this);
         	//edgeTypeEvaluator_.rankVsDegree();
     		//edgeTypeEvaluator_.rankVsRegulatoryEffects();
     		//edgeTypeEvaluator_.falsePositives();
     		//edgeTypeEvaluator_.save();
-    	}
-    	
-    	if (loopAnalysis_) {
+        	break;
+        	
+    	case LOOP_ANALYSIS:
     		loopPrediction_ = new LoopPrediction(this);
-    	}
-    	
-    	
-     	// GNW3: complete for ROC and PR
-     	// ...
-    	if( plotROC_ || plotPR_ || AUPR_ || AUROC_) {
-    		score_ = new Score(this);
+    		break;
     	}
     }
-
+    
     	
 	// ============================================================================
 	// SETTERS AND GETTERS
@@ -1,13 +1,7 @@
 package ch.epfl.lis.gnw.evaluation;
 
-import java.awt.Point;
 import java.text.DecimalFormat;
-import java.util.Iterator;
-import java.util.Locale;
-import java.util.Set;
-import java.util.TreeMap;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,6 +9,8 @@ import java.util.logging.Logger;
 
 
 
+import cern.colt.list.DoubleArrayList;
+import ch.epfl.lis.gnw.NumberFormatter;
 import ch.epfl.lis.gnwgui.NetworkDesktop;
 
 public class Score extends NetworkPrediction {
@@ -26,13 +22,13 @@ public class Score extends NetworkPrediction {
 	private double AUPR_ = -1.0;
 	/** AUROC score */
 	private double AUROC_ = -1.0;
-	/** recall array */
+	/** recall array (downsampled, see run()) */
 	private double[] recall_ = null;
-	/** precision array */
+	/** precision array (downsampled) */
 	private double[] precision_ = null;
-	/** True Positive Rate array */
+	/** True Positive Rate array (downsampled) */
 	private double[] tpr_ = null;
-	/** False Positive Rate array */
+	/** False Positive Rate array (downsampled) */
 	private double[] fpr_ = null;
 	/** P-R Points string */
 	private String prString_;
@@ -49,34 +45,20 @@ public class Score extends NetworkPrediction {
 
 		copy(c);	
 		
-		for (int i=0;i<A_.length;i++) {
-			for(int j=0;j<A_[i].length;j++) {
-				if (A_[i][j])
-					P++;
-			}
-		}
+		P = A_.getNumEdges();
 	}
 
 	public void run() {
 		
 		//log_.log(Level.INFO,this.goldStandard_.getId());
 		
-		/** Get the prediction sorted by rank */
-		TreeMap<Double, Point> mp = new TreeMap<Double, Point>();
-		for ( int i=0;i<R_.length;i++) {
-			for( int j=0;j<R_[i].length;j++) {
-				mp.put(R_[i][j], new Point(i, j));
-			}
-		}
-		
-		Set<Map.Entry<Double,Point>> s = mp.descendingMap().entrySet();	
-		Iterator<Entry<Double, Point>> it = s.iterator();
+		/** Get the prediction sorted by rank (true if the k-th link of the list is in the gold standard) */
+		boolean[] isTrueEdge = getSortedPrediction();
 		
 		// TODO Error if the gold standard includes auto-regulation
 		// but here we should be able to cope with that without assumming that
 		// there are N*(N-1) genes
 		
-		Point p = null;
 		int TPk = 0,TPL = 0;
 		double FPk = 0;
 		int k = 0;
@@ -85,49 +67,65 @@ public class Score extends NetworkPrediction {
 		int L;
 
 		double delta,Ak=0,AL,rh,recL,AUC,AUROC,lc;
-		double[] recall = new double[T];
-		double[] precision = new double[T];
-		double[] tpr = new double[T];
-		double[] fpr = new double[T];
+		double recall = 0, precision = 0, tpr = 0, fpr = 0;
+		double firstPrecision = 0, previousTpr = 0, previousFpr = 0;
 		double x1=-1.,y1=-1,x2=-1.,y2=-1.;
-		prString_  = "";
-		rocString_ = "0,0 ";
-		
-		while(it.hasNext()) {
-			Map.Entry<Double, Point> m = (Map.Entry<Double, Point>)it.next();
-			if ( m.getKey() >= 0.) {
-				k++;
-				p = m.getValue();
-				if (A_[p.x][p.y]) {
-					TPk++;
-					if ( k == 1 )
-						delta = 1./((double)P);
-					else
-						delta = (1.-(double)FPk*Math.log((double)k/(k-1.)))/(double)P;
-					
-					Ak = Ak + delta;
-				}
-				else 
-					FPk++;
-	
-				recall[k-1] = TPk/((double)P);
-				precision[k-1] = TPk/((double)k);
-				tpr[k-1] = recall[k-1];
-				fpr[k-1] = ((double)FPk)/((double)N);
-				
-				if (roundTwoDecimals(recall[k-1]) != x1 || roundTwoDecimals(precision[k-1]) != y1  ) {
-					x1 = roundTwoDecimals(recall[k-1]);
-					y1 = roundTwoDecimals(precision[k-1]);
-					prString_ += x1 + "," + y1 + " ";
-				}
+		StringBuilder prString  = new StringBuilder();
+		StringBuilder rocString = new StringBuilder("0,0 ");
+		// downsampled curves (only the points where the rounded PR or ROC point changes)
+		DoubleArrayList recallPoints = new DoubleArrayList();
+		DoubleArrayList precisionPoints = new DoubleArrayList();
+		DoubleArrayList fprPoints = new DoubleArrayList();
+		
+		// the area under the ROC curve is computed with the trapezoidal rule while going through the list
+		lc = 0;
+		
+		for (k=1; k<=isTrueEdge.length; k++) {
+			if (isTrueEdge[k-1]) {
+				TPk++;
+				if ( k == 1 )
+					delta = 1./((double)P);
+				else
+					delta = (1.-(double)FPk*Math.log((double)k/(k-1.)))/(double)P;
 				
-				if (roundTwoDecimals(fpr[k-1]) != x2 || roundTwoDecimals(tpr[k-1]) != y2 ) {
-					x2 = roundTwoDecimals(fpr[k-1]);
-					y2 = roundTwoDecimals(tpr[k-1]);
-					rocString_ += x2 + "," + y2 + " ";
-				}
+				Ak = Ak + delta;
+			}
+			else 
+				FPk++;
+
+			recall = TPk/((double)P);
+			precision = TPk/((double)k);
+			tpr = recall;
+			fpr = ((double)FPk)/((double)N);
+			
+			if (k == 1)
+				firstPrecision = precision;
+			lc = lc + (fpr+previousFpr) * (tpr - previousTpr) / 2.;
+			previousFpr = fpr;
+			previousTpr = tpr;
+			
+			boolean newPoint = false;
+			if (roundTwoDecimals(recall) != x1 || roundTwoDecimals(precision) != y1  ) {
+				x1 = roundTwoDecimals(recall);
+				y1 = roundTwoDecimals(precision);
+				prString.append(x1).append(',').append(y1).append(' ');
+				newPoint = true;
+			}
+			
+			if (roundTwoDecimals(fpr) != x2 || roundTwoDecimals(tpr) != y2 ) {
+				x2 = roundTwoDecimals(fpr);
+				y2 = roundTwoDecimals(tpr);
+				rocString.append(x2).append(',').append(y2).append(' ');
+				newPoint = true;
+			}
+			
+			if (newPoint) {
+				recallPoints.add(recall);
+				precisionPoints.add(precision);
+				fprPoints.add(fpr);
 			}
 		}
+		k--;
 		
 		TPL = TPk;
 		L = k;
@@ -137,26 +135,34 @@ public class Score extends NetworkPrediction {
 			rh = 0;
 		
 		if ( L > 0 )
-			recL = recall[L-1];
+			recL = recall;
 		else
 			recL = 0;
 		
 		while( TPk < P ) {
 			k++;
 			TPk++;
-			recall[k-1] = (double)TPk/(double)P;
-			if ( ((recall[k-1]-recL)*(double)P + L * rh) != 0. )
-				precision[k-1] = rh * (double)P * recall[k-1]/(double)((recall[k-1]-recL)*(double)P + (double)L * rh);
+			recall = (double)TPk/(double)P;
+			if ( ((recall-recL)*(double)P + L * rh) != 0. )
+				precision = rh * (double)P * recall/(double)((recall-recL)*(double)P + (double)L * rh);
 			else
-				precision[k-1] = 0;
+				precision = 0;
 			
-			tpr[k-1] = recall[k-1];
-			FPk = ((double)TPk * (1.-precision[k-1])/precision[k-1]);
-			fpr[k-1] = FPk/(double)N;
+			tpr = recall;
+			FPk = ((double)TPk * (1.-precision)/precision);
+			fpr = FPk/(double)N;
 			
+			if (k == 1)
+				firstPrecision = precision;
+			lc = lc + (fpr+previousFpr) * (tpr - previousTpr) / 2.;
+			previousFpr = fpr;
+			previousTpr = tpr;
 			
-			prString_ += roundTwoDecimals(recall[k-1]) + "," + roundTwoDecimals(precision[k-1]) + " ";
-			rocString_ += roundTwoDecimals(fpr[k-1]) + "," + roundTwoDecimals(tpr[k-1]) + " ";
+			prString.append(roundTwoDecimals(recall)).append(',').append(roundTwoDecimals(precision)).append(' ');
+			rocString.append(roundTwoDecimals(fpr)).append(',').append(roundTwoDecimals(tpr)).append(' ');
+			recallPoints.add(recall);
+			precisionPoints.add(precision);
+			fprPoints.add(fpr);
 		}
 		
 		
@@ -168,30 +174,120 @@ public class Score extends NetworkPrediction {
 		else
 			AUC = Ak;
 		
-		lc = fpr[0] * tpr[0] / 2.;	
-		for ( int n=1;n<L+P-TPL;n++)
-			lc = lc + (fpr[n]+fpr[n-1]) * (tpr[n] - tpr[n-1]) / 2.;
-				
 		AUROC = 1. - lc;
 		
 		log_.log(Level.INFO, String.format("%-35s AUPR = %1.4f AUROC = %1.4f", this.goldStandard_.getId(),  AUC, AUROC) );
 		
 		AUPR_ = AUC;
 		AUROC_ = AUROC;
-		recall_ = recall;
-		precision_ = precision;
-		tpr_ = tpr;
-		fpr_ = fpr;
-		
-		prString_ += " 1,0";
-		prString_ = "0,0 0," + precision[0] + " " + prString_;
-		rocString_ += "1," + tpr[k-1] +" 1,0";
+		
+		recallPoints.trimToSize();
+		precisionPoints.trimToSize();
+		fprPoints.trimToSize();
+		recall_ = recallPoints.elements();
+		precision_ = precisionPoints.elements();
+		tpr_ = recall_.clone();
+		fpr_ = fprPoints.elements();
+		
+		prString.append(" 1,0");
+		prString_ = "0,0 0," + firstPrecision + " " + prString;
+		rocString.append("1,").append(tpr).append(" 1,0");
+		rocString_ = rocString.toString();
 	}
 	
+	
+	/**
+	 * Return the links of the prediction sorted by decreasing rank, element k is true if the k-th
+	 * link is in the gold standard. Links with negative ranks (not in the list of predictions) are
+	 * not included. When the ranks have been set by loadPrediction(), the position of every link
+	 * in the list is given by its rank and no sorting is needed. Otherwise, links with the same rank
+	 * are ordered pessimistically (false links before true links).
+	 */
+	private boolean[] getSortedPrediction() {
+		
+		int[] regulatorStart = A_.getRegulatorStart();
+		int[] regulators = A_.getRegulators();
+		
+		int L = 0;
+		for (int i=0; i<R_.length; i++)
+			for (int j=0; j<R_[i].length; j++)
+				if (R_[i][j] >= 0.)
+					L++;
+		
+		// try to place every link at the position that corresponds to its rank (see position2rank())
+		boolean[] isTrueEdge = new boolean[L];
+		boolean[] placed = new boolean[L];
+		boolean inListOrder = maxNumPredictions_ > 1 && L <= maxNumPredictions_;
+		
+		for (int i=0; i<R_.length && inListOrder; i++) {
+			// the regulators of i are sorted, A_.get(i, j) is true if j is the next one
+			int next = regulatorStart[i];
+			for (int j=0; j<R_[i].length; j++) {
+				boolean isTrue = next < regulatorStart[i+1] && regulators[next] == j;
+				if (isTrue)
+					next++;
+				
+				double r = R_[i][j];
+				if (r < 0.)
+					continue;
+				
+				long position = Math.round((maxNumPredictions_ - 1) * (1. - r));
+				if (position < 0 || position >= L || placed[(int)position] || position2rank((int)position) != r) {
+					inListOrder = false;
+					break;
+				}
+				placed[(int)position] = true;
+				isTrueEdge[(int)position] = isTrue;
+			}
+		}
+		if (inListOrder)
+			return isTrueEdge;
+		
+		// otherwise sort the ranks, links with the same rank are ordered pessimistically (false links first)
+		double[] ranks = new double[L];
+		double[] trueRanks = new double[A_.getNumEdges()];
+		int l = 0, t = 0;
+		for (int i=0; i<R_.length; i++) {
+			for (int j=0; j<R_[i].length; j++) {
+				if (R_[i][j] >= 0.) {
+					ranks[l++] = R_[i][j];
+					if (A_.get(i, j))
+						trueRanks[t++] = R_[i][j];
+				}
+			}
+		}
+		Arrays.sort(ranks);
+		Arrays.sort(trueRanks, 0, t);
+		
+		t--;
+		int k = 0;
+		while (k < L) {
+			// go through the groups of equal ranks from the largest to the smallest
+			double r = ranks[L-1-k];
+			int groupSize = 0;
+			while (k + groupSize < L && ranks[L-1-k-groupSize] == r)
+				groupSize++;
+			
+			int numTrue = 0;
+			while (t >= 0 && trueRanks[t] == r) {
+				numTrue++;
+				t--;
+			}
+			
+			// the true links are placed at the end of the group
+			for (int i=0; i<groupSize; i++)
+				isTrueEdge[k+i] = (i >= groupSize - numTrue);
+			k += groupSize;
+		}
+		return isTrueEdge;
+	}
+	
+	
+	/** Round to two decimals, same result as formatting the number with "%.2f" */
 	double roundTwoDecimals(double d) {
 //		DecimalFormat twoDForm = new DecimalFormat("#.##");
 //		return Double.valueOf(twoDForm.format(d));
-		return Double.valueOf(String.format(Locale.ENGLISH, "%.2f", d));
+		return NumberFormatter.round(d, 2);
 	}
 	
 	public double getAUPR() { return AUPR_; }
@@ -2,6 +2,8 @@ package ch.epfl.lis.gnw.evaluation;
 
 import java.util.ArrayList;
 
+import ch.epfl.lis.gnw.ExperimentExecutor;
+
 
 public class ScoreAnalysis {
 	/** The motif predictions for each network of the batch */
@@ -14,11 +16,15 @@ public class ScoreAnalysis {
 		}
 	}
 	
+	/** Compute the scores of all networks (concurrently if several threads are used) */
 	public void run() {
-		for(int i=0;i<scores_.size();i++) {
-			
-			scores_.get(i).run();
-		}
+		ExperimentExecutor.Task task = new ExperimentExecutor.Task() {
+			public void run(int i) {
+				scores_.get(i).run();
+			}
+		};
+		
+		ExperimentExecutor.runUnchecked(scores_.size(), task);
 	}
 	
 	public ArrayList<Score> getAllScores() { return scores_; }